@@ -20,9 +20,14 @@
 
 package us.k5n.ical;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -47,11 +52,21 @@ import org.apache.commons.codec.binary.Base64;
  * "VJOURNAL", or "VALARM" calendar components. This property can be
  * specified multiple times within an iCalendar object.
  * </quote>
+ * <br/>
+ * Attachments created from a file are not read into memory. The file is read
+ * and base64 encoded as the attachment is written. Inline attachments that are
+ * parsed keep only the base64 text, and are decoded when the data is asked
+ * for. Use writeTo to get the data of a large attachment without holding all
+ * of it in memory, and moveDataToFile to keep the data in a file rather than in
+ * memory.
  * 
  * @author Craig Knudsen, craig@k5n.us
  */
 public class Attachment extends Property {
-	protected byte[] bytes = null;
+	/** Number of bytes encoded or decoded at a time (a multiple of 3) */
+	static final int CHUNK_SIZE = 3 * 1024;
+	/** File with the (unencoded) data of an inline attachment */
+	private File file = null;
 
 	/**
 	 * Constructor
@@ -68,16 +83,6 @@ public class Attachment extends Property {
 	 */
 	public Attachment(String icalStr) throws ParseException {
 		this ( icalStr, PARSE_LOOSE );
-		// Decode the inline binary attachment if there is one.
-		Attribute valueAttr = this.getNamedAttribute ( "VALUE" );
-		Attribute encAttr = this.getNamedAttribute ( "ENCODING" );
-		if ( valueAttr != null && valueAttr.value.equalsIgnoreCase ( "BINARY" ) ) {
-			if ( "BASE64".equalsIgnoreCase ( encAttr.value ) ) {
-				this.bytes = Base64.decodeBase64 ( this.getValue ().getBytes () );
-			} else {
-				// TODO: handle other types of encoding
-			}
-		}
 	}
 
 	/**
@@ -90,13 +95,14 @@ public class Attachment extends Property {
 	 */
 	public Attachment(String icalStr, int parseMode) throws ParseException {
 		super ( icalStr, parseMode );
-		// convert the encoded data into bytes.
+		// The encoded data is not decoded until it is needed.
 	}
 
 	/**
 	 * Create an inline embedded attachment from the specified file. The contents
 	 * of the attachment will be stored in the iCalendar data file using base64
-	 * encoding.
+	 * encoding. The file is not read until the attachment is written, so it
+	 * should not be changed or removed before then.
 	 * 
 	 * @param filename
 	 *          The file to attach
@@ -107,7 +113,7 @@ public class Attachment extends Property {
 	 */
 	public Attachment(File filename, String formatType) throws ParseException,
 	    IOException {
-		super ( "ATTACH", "" );
+		super ( "ATTACH", null );
 		this.addAttribute ( "ENCODING", "BASE64" );
 		this.addAttribute ( "VALUE", "BINARY" );
 		this.setFormatType ( formatType );
@@ -115,12 +121,9 @@ public class Attachment extends Property {
 		// (which seems like a large oversight), but most good parsers should just
 		// ignore the extra attribute.
 		this.addAttribute ( "FILENAME", filename.getName () );
-		long size = filename.length ();
-		this.bytes = new byte[(int) size];
-		FileInputStream is = new FileInputStream ( filename );
-		is.read ( this.bytes );
-		byte[] encoded = Base64.encodeBase64 ( this.bytes );
-		this.value = new String ( encoded );
+		if ( !filename.canRead () )
+			throw new IOException ( "Cannot read file: " + filename );
+		this.file = filename;
 	}
 
 	/**
@@ -186,16 +189,154 @@ public class Attachment extends Property {
 		}
 	}
 
+	/**
+	 * Is this an inline attachment (VALUE=BINARY with base64 encoding)?
+	 */
+	private boolean isInline () {
+		if ( this.file != null )
+			return true;
+		Attribute valueAttr = this.getNamedAttribute ( "VALUE" );
+		Attribute encAttr = this.getNamedAttribute ( "ENCODING" );
+		// TODO: handle other types of encoding
+		return valueAttr != null && valueAttr.value.equalsIgnoreCase ( "BINARY" )
+		    && encAttr != null && "BASE64".equalsIgnoreCase ( encAttr.value );
+	}
+
+	/**
+	 * Get the value. For an attachment created from a file, this is the base64
+	 * encoded contents of the file, which is created each time this is called.
+	 * Use writeTo to get the data of a large attachment.
+	 */
+	public String getValue () {
+		if ( this.file == null )
+			return this.value;
+		StringWriter sw = new StringWriter ( (int) ( file.length () * 4 / 3 ) + 4 );
+		InputStream is = null;
+		try {
+			is = new FileInputStream ( file );
+			byte[] chunk = new byte[CHUNK_SIZE];
+			int n;
+			while ( ( n = readChunk ( is, chunk ) ) > 0 ) {
+				byte[] encoded = Base64.encodeBase64 ( n == chunk.length ? chunk
+				    : copyOf ( chunk, n ) );
+				for ( int i = 0; i < encoded.length; i++ )
+					sw.write ( encoded[i] );
+			}
+		} catch ( IOException e ) {
+			throw new IllegalStateException ( "Error reading " + file + ": " + e );
+		} finally {
+			close ( is );
+		}
+		return sw.toString ();
+	}
+
+	/**
+	 * Set the value. An attachment created from a file will no longer use the
+	 * file.
+	 */
+	public void setValue ( String value ) {
+		this.file = null;
+		super.setValue ( value );
+	}
+
+	/**
+	 * Get the file that holds the data of this inline attachment.
+	 * 
+	 * @return The file, or null if the data is held in memory or the attachment
+	 *         is external.
+	 */
+	public File getFile () {
+		return this.file;
+	}
+
 	/**
 	 * Get the binary data for the attachment. This is only valid for inline
 	 * attachments encoded with base64 encoding. Attachments with URLs or CIDs
-	 * will need to load the file contents externally.
+	 * will need to load the file contents externally. The data is decoded (or
+	 * read from the file) each time this is called.
 	 * 
 	 * @return The binary data of the inline attachment as an array of byte, or
 	 *         null if not an inline attachment.
 	 */
 	public byte[] getBytes () {
-		return this.bytes;
+		if ( !isInline () )
+			return null;
+		int size = getSize ();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ( size > 0 ? size
+		    : 32 );
+		try {
+			writeTo ( bytes );
+		} catch ( IOException e ) {
+			throw new IllegalStateException ( "Error reading " + file + ": " + e );
+		}
+		return bytes.toByteArray ();
+	}
+
+	/**
+	 * Write the binary data of an inline attachment. Only a small part of the
+	 * data is held in memory at a time.
+	 * 
+	 * @param os
+	 *          Where to write the data
+	 * @return false if this is not an inline attachment
+	 */
+	public boolean writeTo ( OutputStream os ) throws IOException {
+		if ( !isInline () )
+			return false;
+		if ( this.file != null ) {
+			InputStream is = new FileInputStream ( this.file );
+			try {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				int n;
+				while ( ( n = is.read ( chunk ) ) > 0 )
+					os.write ( chunk, 0, n );
+			} finally {
+				is.close ();
+			}
+			return true;
+		}
+		// Decode 4 characters at a time into 3 bytes, skipping whitespace
+		byte[] chunk = new byte[CHUNK_SIZE / 3 * 4];
+		int n = 0, len = value.length ();
+		for ( int i = 0; i < len; i++ ) {
+			char c = value.charAt ( i );
+			if ( Character.isWhitespace ( c ) )
+				continue;
+			chunk[n++] = (byte) c;
+			if ( n == chunk.length ) {
+				os.write ( Base64.decodeBase64 ( chunk ) );
+				n = 0;
+			}
+		}
+		if ( n > 0 )
+			os.write ( Base64.decodeBase64 ( copyOf ( chunk, n ) ) );
+		return true;
+	}
+
+	/**
+	 * Move the data of an inline attachment into a file, so that it is no longer
+	 * held in memory. The attachment is still written inline, and the file will
+	 * be used for the data from now on.
+	 * 
+	 * @param file
+	 *          The file to write the (unencoded) data to (such as one created
+	 *          with File.createTempFile)
+	 * @return false if this is not an inline attachment
+	 */
+	public boolean moveDataToFile ( File file ) throws IOException {
+		if ( !isInline () )
+			return false;
+		if ( file.equals ( this.file ) )
+			return true;
+		OutputStream os = new FileOutputStream ( file );
+		try {
+			writeTo ( os );
+		} finally {
+			os.close ();
+		}
+		this.file = file;
+		this.value = null;
+		return true;
 	}
 
 	/**
@@ -205,10 +346,18 @@ public class Attachment extends Property {
 	 * @return the size in bytes
 	 */
 	public int getSize () {
-		if ( this.bytes != null )
-			return this.bytes.length;
-		else
+		if ( !isInline () )
 			return -1;
+		if ( this.file != null )
+			return (int) this.file.length ();
+		// Every 4 characters of base64 (not counting padding) is 3 bytes
+		int chars = 0, len = value.length ();
+		for ( int i = 0; i < len; i++ ) {
+			char c = value.charAt ( i );
+			if ( c != '=' && !Character.isWhitespace ( c ) )
+				chars++;
+		}
+		return (int) ( chars * 3L / 4 );
 	}
 
 	/**
@@ -227,23 +376,63 @@ public class Attachment extends Property {
 	 * Export to a properly folded iCalendar line.
 	 */
 	public String toICalendar () {
-		StringBuffer ret = new StringBuffer ( 40 );
-		ret.append ( name );
-		if ( attributeList.size () > 0 ) {
-			for ( int i = 0; i < attributeList.size (); i++ ) {
-				ret.append ( ';' );
-				Attribute a = (Attribute) attributeList.elementAt ( i );
-				ret.append ( a.name );
-				// Always quote the value just to be safe
-				ret.append ( "=\"" );
-				ret.append ( a.value );
-				ret.append ( '"' );
-			}
+		long size = file != null ? file.length () * 4 / 3 : value == null ? 0
+		    : value.length ();
+		StringWriter sw = new StringWriter ( (int) Math.min ( size * 77 / 74 + 128,
+		    Integer.MAX_VALUE ) );
+		try {
+			write ( new ICalendarWriter ( sw ) );
+		} catch ( IOException e ) {
+			throw new IllegalStateException ( "Error reading " + file + ": " + e );
 		}
-		ret.append ( ':' );
-		ret.append ( value );
+		return sw.toString ();
+	}
 
-		return ( StringUtils.foldLine ( ret.toString () ) );
+	/**
+	 * Write this Attachment as a folded iCalendar line. The contents of a file
+	 * are encoded as they are written.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		if ( this.file == null ) {
+			super.write ( out );
+			return;
+		}
+		InputStream is = new FileInputStream ( this.file );
+		try {
+			out.writeBase64 ( name, attributeList, is );
+		} finally {
+			is.close ();
+		}
+	}
+
+	/**
+	 * Read until a chunk is full or there is no more data. (A single read can
+	 * return less than was asked for, and only full chunks can be encoded
+	 * separately.)
+	 * 
+	 * @return The number of bytes read
+	 */
+	static int readChunk ( InputStream is, byte[] chunk ) throws IOException {
+		int n = 0, ret;
+		while ( n < chunk.length
+		    && ( ret = is.read ( chunk, n, chunk.length - n ) ) > 0 )
+			n += ret;
+		return n;
+	}
+
+	private static byte[] copyOf ( byte[] bytes, int len ) {
+		byte[] ret = new byte[len];
+		System.arraycopy ( bytes, 0, ret, 0, len );
+		return ret;
+	}
+
+	private static void close ( InputStream is ) {
+		if ( is != null ) {
+			try {
+				is.close ();
+			} catch ( IOException e ) {
+			}
+		}
 	}
 
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.List;
+
+/**
+ * A DataStore that receives events and journal entries in batches rather than
+ * one at a time. This allows a DataStore that writes to a database (or other
+ * persistent storage) to write many objects at once. The parser collects
+ * objects until getBatchSize objects have been found and then calls storeEvents
+ * or storeJournals. At the end of the input, any remaining objects are
+ * delivered and then flush is called. <br/>
+ * Timezones are not batched since events may depend on them; storeTimezone is
+ * called as soon as each VTIMEZONE is parsed. The storeEvent and storeJournal
+ * methods will not be called by the parsers in this package.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see CalendarParser
+ */
+public interface BatchingDataStore extends DataStore {
+
+	/**
+	 * Get the number of objects that should be collected before storeEvents or
+	 * storeJournals is called.
+	 *
+	 * @return The batch size (values less than 1 are treated as 1)
+	 */
+	public int getBatchSize ();
+
+	/**
+	 * This method will be called with a batch of VEVENT objects (in the order
+	 * they were found). The List belongs to the DataStore once it has been
+	 * passed.
+	 */
+	public void storeEvents ( List<Event> events );
+
+	/**
+	 * This method will be called with a batch of VJOURNAL objects (in the order
+	 * they were found). The List belongs to the DataStore once it has been
+	 * passed.
+	 */
+	public void storeJournals ( List<Journal> journals );
+
+	/**
+	 * This method will be called at the end of the input after any remaining
+	 * events and journal entries have been stored.
+	 */
+	public void flush ();
+
+}
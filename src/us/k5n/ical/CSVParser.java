@@ -171,12 +171,10 @@ public class CSVParser extends CalendarParser {
 				event.setStartDate ( startDate );
 			}
 			// Add event to all DataStore objects
-			for ( int i = 0; i < super.numDataStores (); i++ ) {
-				DataStore ds = super.getDataStoreAt ( i );
-				ds.storeEvent ( event );
-			}
+			storeEvent ( event );
 			recNum++;
 		}
+		flushDataStores ();
 		return false;
 	}
 
@@ -2,6 +2,10 @@ package us.k5n.ical;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 
 /**
@@ -15,6 +19,13 @@ public abstract class CalendarParser implements Constants {
 	protected Vector<ParseError> errors;
 	protected Vector<DataStore> dataStores;
 	protected int parseMethod = PARSE_LOOSE;
+	protected boolean lazyParsing = false;
+	/** Property names to keep (or null to keep all properties) */
+	protected Set<String> propertyFilter = null;
+	/** Property filter indexed by PropertyNames id */
+	private boolean[] wantedProperties = null;
+	/** Events and journals waiting to be sent to each BatchingDataStore */
+	private Vector<PendingBatch> pendingBatches = new Vector<PendingBatch> ();
 
 	/**
 	 * Create an ICalendarParser object. By default, this will also setup the
@@ -118,6 +129,103 @@ public abstract class CalendarParser implements Constants {
 		this.parseMethod = parseMethod;
 	}
 
+	/**
+	 * Is lazy parsing enabled?
+	 * 
+	 * @return true if lazy parsing is enabled
+	 */
+	public boolean isLazyParsing () {
+		return lazyParsing;
+	}
+
+	/**
+	 * Enable or disable lazy parsing. When enabled, each Event keeps the text of
+	 * the properties that are expensive to parse (DESCRIPTION, ATTENDEE, ATTACH,
+	 * dates other than DTSTART, etc.) and only parses them the first time they
+	 * are requested. UID, SUMMARY, DTSTART, RRULE, SEQUENCE and STATUS are always
+	 * parsed right away. Any parse errors in the lazily parsed properties are
+	 * reported to this parser when the property is parsed rather than during the
+	 * call to parse.
+	 * 
+	 * @param lazyParsing
+	 *          true to enable lazy parsing
+	 */
+	public void setLazyParsing ( boolean lazyParsing ) {
+		this.lazyParsing = lazyParsing;
+	}
+
+	/**
+	 * Get the names of the properties that will be parsed in events and journal
+	 * entries.
+	 * 
+	 * @return The Set of property names or null if all properties are parsed
+	 */
+	public Set<String> getPropertyFilter () {
+		return propertyFilter;
+	}
+
+	/**
+	 * Set the names of the properties that will be parsed in events and journal
+	 * entries ("DTSTART", "RRULE", etc.) All other properties will be skipped as
+	 * soon as their name has been read. UID, DTSTART and SUMMARY are always
+	 * parsed since they are required for a valid Event. Property names that are
+	 * not supported by Event or Journal are ignored. VTIMEZONE components are not
+	 * filtered.
+	 * 
+	 * @param propertyNames
+	 *          The names of the properties to parse or null to parse all
+	 *          properties
+	 */
+	public void setPropertyFilter ( Set<String> propertyNames ) {
+		if ( propertyNames == null ) {
+			this.propertyFilter = null;
+			this.wantedProperties = null;
+			return;
+		}
+		this.propertyFilter = new HashSet<String> ();
+		boolean[] wanted = new boolean[PropertyNames.NAMES.length];
+		for ( String name : propertyNames ) {
+			int id = PropertyNames.lookup ( name );
+			if ( id > PropertyNames.BLANK ) {
+				wanted[id] = true;
+				this.propertyFilter.add ( PropertyNames.NAMES[id] );
+			}
+		}
+		// These are always needed
+		wanted[PropertyNames.BLANK] = true;
+		wanted[PropertyNames.BEGIN] = true;
+		wanted[PropertyNames.END] = true;
+		wanted[PropertyNames.UID] = true;
+		wanted[PropertyNames.DTSTART] = true;
+		wanted[PropertyNames.SUMMARY] = true;
+		this.wantedProperties = wanted;
+	}
+
+	/**
+	 * Should the property with the specified id (from PropertyNames) be parsed?
+	 */
+	boolean isPropertyWanted ( int id ) {
+		return wantedProperties == null || wantedProperties[id];
+	}
+
+	/**
+	 * Is a property filter set?
+	 */
+	boolean hasPropertyFilter () {
+		return wantedProperties != null;
+	}
+
+	/**
+	 * Copy the parse settings (parse method, lazy parsing, property filter) from
+	 * another parser.
+	 */
+	void copyParseSettings ( CalendarParser parser ) {
+		this.parseMethod = parser.parseMethod;
+		this.lazyParsing = parser.lazyParsing;
+		this.propertyFilter = parser.propertyFilter;
+		this.wantedProperties = parser.wantedProperties;
+	}
+
 	/**
 	 * Add a listener for parse error messages.
 	 * 
@@ -151,40 +259,140 @@ public abstract class CalendarParser implements Constants {
 		return errors;
 	}
 
+	/**
+	 * Send an Event to all DataStore objects. BatchingDataStore objects will
+	 * receive it once their batch is full (or flushDataStores is called).
+	 */
+	protected void storeEvent ( Event event ) {
+		for ( int i = 0; i < dataStores.size (); i++ ) {
+			DataStore ds = dataStores.elementAt ( i );
+			if ( ds instanceof BatchingDataStore ) {
+				PendingBatch batch = getPendingBatch ( (BatchingDataStore) ds );
+				batch.events.add ( event );
+				if ( batch.events.size () >= batch.batchSize )
+					batch.storeEvents ();
+			} else {
+				ds.storeEvent ( event );
+			}
+		}
+	}
+
+	/**
+	 * Send a Journal to all DataStore objects. BatchingDataStore objects will
+	 * receive it once their batch is full (or flushDataStores is called).
+	 */
+	protected void storeJournal ( Journal journal ) {
+		for ( int i = 0; i < dataStores.size (); i++ ) {
+			DataStore ds = dataStores.elementAt ( i );
+			if ( ds instanceof BatchingDataStore ) {
+				PendingBatch batch = getPendingBatch ( (BatchingDataStore) ds );
+				batch.journals.add ( journal );
+				if ( batch.journals.size () >= batch.batchSize )
+					batch.storeJournals ();
+			} else {
+				ds.storeJournal ( journal );
+			}
+		}
+	}
+
+	/**
+	 * Send a Timezone to all DataStore objects. Timezones are never batched.
+	 */
+	protected void storeTimezone ( Timezone timezone ) {
+		for ( int i = 0; i < dataStores.size (); i++ ) {
+			dataStores.elementAt ( i ).storeTimezone ( timezone );
+		}
+	}
+
+	/**
+	 * Send a Freebusy to all DataStore objects. Freebusy objects are never
+	 * batched.
+	 */
+	protected void storeFreebusy ( Freebusy freebusy ) {
+		for ( int i = 0; i < dataStores.size (); i++ ) {
+			dataStores.elementAt ( i ).storeFreebusy ( freebusy );
+		}
+	}
+
+	/**
+	 * Send any remaining events and journals to each BatchingDataStore and then
+	 * call its flush method. This should be called by the parse method at the
+	 * end of the input.
+	 */
+	protected void flushDataStores () {
+		for ( int i = 0; i < pendingBatches.size (); i++ ) {
+			PendingBatch batch = pendingBatches.elementAt ( i );
+			batch.storeEvents ();
+			batch.storeJournals ();
+		}
+		pendingBatches.removeAllElements ();
+		for ( int i = 0; i < dataStores.size (); i++ ) {
+			DataStore ds = dataStores.elementAt ( i );
+			if ( ds instanceof BatchingDataStore )
+				( (BatchingDataStore) ds ).flush ();
+		}
+	}
+
+	private PendingBatch getPendingBatch ( BatchingDataStore ds ) {
+		for ( int i = 0; i < pendingBatches.size (); i++ ) {
+			PendingBatch batch = pendingBatches.elementAt ( i );
+			if ( batch.dataStore == ds )
+				return batch;
+		}
+		PendingBatch batch = new PendingBatch ( ds );
+		pendingBatches.addElement ( batch );
+		return batch;
+	}
+
+	/**
+	 * The events and journals that have not yet been sent to a
+	 * BatchingDataStore.
+	 */
+	private static class PendingBatch {
+		BatchingDataStore dataStore;
+		int batchSize;
+		ArrayList<Event> events;
+		ArrayList<Journal> journals;
+
+		PendingBatch(BatchingDataStore dataStore) {
+			this.dataStore = dataStore;
+			this.batchSize = Math.max ( 1, dataStore.getBatchSize () );
+			this.events = new ArrayList<Event> ( Math.min ( batchSize, 1024 ) );
+			this.journals = new ArrayList<Journal> ();
+		}
+
+		void storeEvents () {
+			if ( events.size () > 0 ) {
+				// The List now belongs to the DataStore
+				ArrayList<Event> batch = events;
+				events = new ArrayList<Event> ( Math.min ( batchSize, 1024 ) );
+				dataStore.storeEvents ( batch );
+			}
+		}
+
+		void storeJournals () {
+			if ( journals.size () > 0 ) {
+				ArrayList<Journal> batch = journals;
+				journals = new ArrayList<Journal> ();
+				dataStore.storeJournals ( batch );
+			}
+		}
+	}
+
 	/**
 	 * Convert all data into an iCalendar String.
 	 * 
 	 * @return iCalendar String of all data
 	 */
 	public String toICalendar () {
-		StringBuffer ret = new StringBuffer ( 1024 );
-		ret.append ( "BEGIN:VCALENDAR" );
-		ret.append ( CRLF );
-		ret.append ( "VERSION:2.0" );
-		ret.append ( CRLF );
-		// Should we use the PRODID we parsed on input? Since we are generating
-		// output, I think we will use ours.
-		// TODO: add version number in the following
-		ret.append ( "PRODID:-//k5n.us//Java Calendar Tools//EN" );
-		ret.append ( CRLF );
-
-		// Include events
-		Vector<Event> events = ( (DataStore) getDataStoreAt ( 0 ) ).getAllEvents ();
-		for ( int i = 0; i < events.size (); i++ ) {
-			Event ev = (Event) events.elementAt ( i );
-			ret.append ( ev.toICalendar () );
+		StringWriter sw = new StringWriter ( 1024 );
+		try {
+			new ICalendarWriter ( sw ).writeCalendar ( getDataStoreAt ( 0 ) );
+		} catch ( IOException e ) {
+			// StringWriter does not throw IOException
+			throw new IllegalStateException ( e.toString () );
 		}
-		// Include journal entries
-		Vector<Journal> journals = ( (DataStore) getDataStoreAt ( 0 ) )
-		    .getAllJournals ();
-		for ( int i = 0; i < journals.size (); i++ ) {
-			Journal j = (Journal) journals.elementAt ( i );
-			ret.append ( j.toICalendar () );
-		}
-
-		ret.append ( "END:VCALENDAR" );
-		ret.append ( CRLF );
-		return ret.toString ();
+		return sw.toString ();
 	}
 
 	/**
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+/**
+ * Answers questions about the dates of a simple RRULE with arithmetic instead
+ * of generating every date. A simple RRULE has a FREQ of DAILY, WEEKLY,
+ * MONTHLY or YEARLY, an optional INTERVAL, COUNT and UNTIL, and only these BY
+ * parts:
+ * <ul>
+ * <li>WEEKLY: BYDAY (weekdays)</li>
+ * <li>MONTHLY: BYMONTHDAY (days 1-28)</li>
+ * <li>YEARLY: BYMONTH and BYMONTHDAY (days 1-28)</li>
+ * </ul>
+ * Every period (day, week, month or year) of such a rule has the same number
+ * of dates, so the nth date and the number of dates before a time can be
+ * calculated directly. The results are the same as RruleIterator: the start
+ * date is only included if it matches the RRULE and all times are local times
+ * in the timezone of the start date.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Rrule#occurrenceAt(Date, int)
+ */
+final class ClosedFormRrule {
+	private static final long SECONDS_PER_DAY = RruleIterator.SECONDS_PER_DAY;
+	private int freq;
+	private int interval;
+	private int count;
+	/** First period: day (DAILY, WEEKLY), year*12+month-1 or year */
+	private long origin;
+	/** Day of each date within a period, sorted */
+	private int[] days;
+	/** Time of day of every date (in seconds) */
+	private int time;
+	/** Number of dates in the first period that are before the start date */
+	private int skip;
+	/** The last period that RruleIterator will look at */
+	private long lastPeriod;
+	/** Local times of the first and last possible dates */
+	private long firstLocal, lastLocal;
+	private long untilLocal = Long.MAX_VALUE;
+	private TimezoneCache.Zone zone;
+
+	/**
+	 * Create a ClosedFormRrule.
+	 *
+	 * @return The ClosedFormRrule or null if the RRULE is not simple enough
+	 */
+	static ClosedFormRrule create ( Rrule rrule, Date startDate ) {
+		if ( rrule.bysecond != null || rrule.byminute != null
+		    || rrule.byhour != null || rrule.byyearday != null
+		    || rrule.bysetpos != null )
+			return null;
+		int[] days;
+		switch ( rrule.freq ) {
+			case Rrule.FREQ_DAILY:
+				if ( rrule.byday != null || rrule.bymonthday != null
+				    || rrule.bymonth != null )
+					return null;
+				days = new int[] { 0 };
+				break;
+			case Rrule.FREQ_WEEKLY:
+				if ( rrule.bymonthday != null || rrule.bymonth != null )
+					return null;
+				days = weekdays ( rrule, startDate );
+				break;
+			case Rrule.FREQ_MONTHLY:
+				if ( rrule.byday != null || rrule.bymonth != null )
+					return null;
+				days = monthdays ( rrule, startDate );
+				break;
+			case Rrule.FREQ_YEARLY:
+				if ( rrule.byday != null )
+					return null;
+				days = yeardays ( rrule, startDate );
+				break;
+			default:
+				return null;
+		}
+		if ( days == null || days.length == 0 )
+			return null;
+		return new ClosedFormRrule ( rrule, startDate, days );
+	}
+
+	/**
+	 * Get the days of the week (0=Monday) of a WEEKLY RRULE.
+	 */
+	private static int[] weekdays ( Rrule rrule, Date startDate ) {
+		boolean[] mask = new boolean[7];
+		if ( rrule.byday == null ) {
+			mask[dayOfWeek ( TimezoneCache.daysFromCivil ( startDate.year,
+			    startDate.month, startDate.day ) )] = true;
+		} else {
+			for ( int i = 0; i < rrule.byday.length; i++ ) {
+				int weekday = rrule.byday[i].weekday;
+				if ( weekday < 0 || weekday > 6 )
+					return null;
+				// Weeks start on Monday
+				mask[( weekday + 6 ) % 7] = true;
+			}
+		}
+		return toArray ( mask );
+	}
+
+	/**
+	 * Get the days of the month (0-27) of a MONTHLY RRULE.
+	 */
+	private static int[] monthdays ( Rrule rrule, Date startDate ) {
+		boolean[] mask = new boolean[28];
+		if ( !addMonthdays ( rrule, startDate, mask ) )
+			return null;
+		return toArray ( mask );
+	}
+
+	/**
+	 * Get the days of the year of a YEARLY RRULE, each as (month-1)*32 + day-1.
+	 */
+	private static int[] yeardays ( Rrule rrule, Date startDate ) {
+		boolean[] monthdays = new boolean[28];
+		if ( !addMonthdays ( rrule, startDate, monthdays ) )
+			return null;
+		boolean[] mask = new boolean[12 * 32];
+		for ( int m = 0; m < 12; m++ ) {
+			boolean include;
+			if ( rrule.bymonth != null ) {
+				include = false;
+				for ( int i = 0; i < rrule.bymonth.length; i++ ) {
+					if ( rrule.bymonth[i] < 1 || rrule.bymonth[i] > 12 )
+						return null;
+					if ( rrule.bymonth[i] == m + 1 )
+						include = true;
+				}
+			} else {
+				// All months with a BYMONTHDAY, otherwise the month of DTSTART
+				include = rrule.bymonthday != null || startDate.month == m + 1;
+			}
+			for ( int d = 0; include && d < 28; d++ )
+				mask[m * 32 + d] = monthdays[d];
+		}
+		return toArray ( mask );
+	}
+
+	/**
+	 * Add the BYMONTHDAY values (or the day of DTSTART) to a mask.
+	 *
+	 * @return false if there is a day that is not in every month
+	 */
+	private static boolean addMonthdays ( Rrule rrule, Date startDate,
+	    boolean[] mask ) {
+		int[] monthdays = rrule.bymonthday != null ? rrule.bymonthday
+		    : new int[] { startDate.day };
+		for ( int i = 0; i < monthdays.length; i++ ) {
+			if ( monthdays[i] < 1 || monthdays[i] > 28 )
+				return false;
+			mask[monthdays[i] - 1] = true;
+		}
+		return true;
+	}
+
+	private static int[] toArray ( boolean[] mask ) {
+		int n = 0;
+		for ( int i = 0; i < mask.length; i++ )
+			if ( mask[i] )
+				n++;
+		int[] ret = new int[n];
+		n = 0;
+		for ( int i = 0; i < mask.length; i++ )
+			if ( mask[i] )
+				ret[n++] = i;
+		return ret;
+	}
+
+	/**
+	 * Get the day of the week (0=Monday) for a number of days since 1970.
+	 */
+	private static int dayOfWeek ( long day ) {
+		return ( RruleIterator.weekday ( day ) + 6 ) % 7;
+	}
+
+	private ClosedFormRrule(Rrule rrule, Date startDate, int[] days) {
+		this.freq = rrule.freq;
+		this.interval = rrule.interval < 1 ? 1 : rrule.interval;
+		this.count = rrule.count;
+		this.days = days;
+		boolean dateOnly = startDate.dateOnly;
+		if ( !dateOnly )
+			time = startDate.hour * 3600 + startDate.minute * 60 + startDate.second;
+		if ( startDate.tzid != null && !dateOnly && !startDate.isFloating () )
+			zone = TimezoneCache.forID ( startDate.tzid );
+		if ( rrule.untilDate != null )
+			untilLocal = RruleIterator.toLocal ( rrule.untilDate, zone );
+		long startDay = TimezoneCache.daysFromCivil ( startDate.year,
+		    startDate.month, startDate.day );
+		long lastDay = TimezoneCache.daysFromCivil ( RruleIterator.MAX_YEAR, 12,
+		    31 );
+		switch ( freq ) {
+			case Rrule.FREQ_DAILY:
+				origin = startDay;
+				lastPeriod = TimezoneCache.floorDiv ( lastDay - origin, interval );
+				break;
+			case Rrule.FREQ_WEEKLY:
+				origin = startDay - dayOfWeek ( startDay );
+				lastPeriod = TimezoneCache.floorDiv ( lastDay - origin,
+				    7L * interval );
+				break;
+			case Rrule.FREQ_MONTHLY:
+				origin = startDate.year * 12L + startDate.month - 1;
+				lastPeriod = TimezoneCache.floorDiv ( RruleIterator.MAX_YEAR * 12L
+				    + 11 - origin, interval );
+				break;
+			default:
+				origin = startDate.year;
+				lastPeriod = TimezoneCache.floorDiv ( RruleIterator.MAX_YEAR
+				    - origin, interval );
+				break;
+		}
+		firstLocal = getLocal ( 0, 0 );
+		lastLocal = getLocal ( lastPeriod, days.length - 1 );
+		long startLocal = startDay * SECONDS_PER_DAY + time;
+		while ( skip < days.length && getLocal ( 0, skip ) < startLocal )
+			skip++;
+	}
+
+	/**
+	 * Convert a Date to local time in the timezone of the start date.
+	 */
+	long toLocal ( Date date ) {
+		return RruleIterator.toLocal ( date, zone );
+	}
+
+	/**
+	 * Get the local time of a date within a period.
+	 *
+	 * @param period
+	 *          The period (0 for the period of the start date)
+	 * @param i
+	 *          The index of the date within the period
+	 */
+	private long getLocal ( long period, int i ) {
+		long day;
+		switch ( freq ) {
+			case Rrule.FREQ_DAILY:
+				day = origin + period * interval;
+				break;
+			case Rrule.FREQ_WEEKLY:
+				day = origin + period * 7L * interval + days[i];
+				break;
+			case Rrule.FREQ_MONTHLY:
+				long month = origin + period * interval;
+				day = TimezoneCache.daysFromCivil ( (int) TimezoneCache.floorDiv (
+				    month, 12 ), (int) ( month - TimezoneCache.floorDiv ( month, 12 )
+				    * 12 ) + 1, days[i] + 1 );
+				break;
+			default:
+				day = TimezoneCache.daysFromCivil (
+				    (int) ( origin + period * interval ), days[i] / 32 + 1,
+				    days[i] % 32 + 1 );
+				break;
+		}
+		return day * SECONDS_PER_DAY + time;
+	}
+
+	/**
+	 * Get the period that contains (or is the last one before) a local time.
+	 */
+	private long getPeriod ( long local ) {
+		long day = TimezoneCache.floorDiv ( local, SECONDS_PER_DAY );
+		switch ( freq ) {
+			case Rrule.FREQ_DAILY:
+				return TimezoneCache.floorDiv ( day - origin, interval );
+			case Rrule.FREQ_WEEKLY:
+				return TimezoneCache.floorDiv ( day - origin, 7L * interval );
+			case Rrule.FREQ_MONTHLY:
+				int ymd = TimezoneCache.civilFromDays ( day );
+				return TimezoneCache.floorDiv ( ( ymd >> 9 ) * 12L
+				    + ( ( ymd >> 5 ) & 0xf ) - 1 - origin, interval );
+			default:
+				return TimezoneCache.floorDiv ( ( TimezoneCache.civilFromDays ( day ) >> 9 )
+				    - origin, interval );
+		}
+	}
+
+	/**
+	 * Get the number of dates (ignoring COUNT and UNTIL) before a local time.
+	 */
+	private long countBefore ( long local ) {
+		if ( local <= firstLocal )
+			return 0;
+		if ( local > lastLocal )
+			return ( lastPeriod + 1 ) * days.length - skip;
+		long period = getPeriod ( local );
+		long n = period * days.length;
+		for ( int i = 0; i < days.length && getLocal ( period, i ) < local; i++ )
+			n++;
+		return Math.max ( n - skip, 0 );
+	}
+
+	/**
+	 * Get the number of dates (ignoring COUNT and UNTIL) on or before a local
+	 * time.
+	 */
+	private long countThrough ( long local ) {
+		return local == Long.MAX_VALUE ? countBefore ( local )
+		    : countBefore ( local + 1 );
+	}
+
+	/**
+	 * Get the total number of dates.
+	 */
+	private long size () {
+		long n = countThrough ( untilLocal );
+		return count > 0 ? Math.min ( n, count ) : n;
+	}
+
+	/**
+	 * Get the local time of a date.
+	 *
+	 * @param n
+	 *          The index of the date (0 for the first date)
+	 * @return The local time or Long.MIN_VALUE if there are not that many dates
+	 */
+	long getLocal ( long n ) {
+		if ( n < 0 || n >= size () )
+			return Long.MIN_VALUE;
+		long i = n + skip;
+		return getLocal ( i / days.length, (int) ( i % days.length ) );
+	}
+
+	/**
+	 * Get the number of dates from one local time up to (but not including)
+	 * another.
+	 */
+	long countBetween ( long from, long to ) {
+		if ( to <= from )
+			return 0;
+		long size = size ();
+		return Math.min ( countBefore ( to ), size )
+		    - Math.min ( countBefore ( from ), size );
+	}
+
+	/**
+	 * Is a local time one of the dates?
+	 */
+	boolean isOccurrence ( long local ) {
+		return countBetween ( local, local + 1 ) > 0;
+	}
+
+}
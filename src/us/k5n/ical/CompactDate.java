@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable date or date-time stored in a single <code>long</code>. This
+ * uses much less memory than a Date object (which is a full Property with
+ * name, value and attributes) and can be compared with a single
+ * <code>long</code> comparison, which makes it a better choice for sorting
+ * and searching large numbers of dates (such as the occurrences of repeating
+ * events).<br/>
+ * The <code>long</code> value holds:
+ * <ul>
+ * <li>bits 16-63: seconds since 1970-01-01T00:00:00Z</li>
+ * <li>bits 2-15: timezone id (0 if there is none)</li>
+ * <li>bit 1: floating</li>
+ * <li>bit 0: date only</li>
+ * </ul>
+ * For date-only values, floating values and values in a timezone that is not
+ * recognized, the seconds are counted from the date and time as if it were
+ * UTC. Timezone ids are shared by all CompactDate objects. If there are too
+ * many different timezone ids, dates in timezones seen after that are kept as
+ * UTC (the same moment, with a TZID of "UTC"). <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * long[] dates = new long[events.size ()];
+ * for ( int i = 0; i &lt; dates.length; i++ )
+ * 	dates[i] = CompactDate.valueOf ( events.elementAt ( i ).getStartDate () )
+ * 	    .longValue ();
+ * Arrays.sort ( dates );
+ * Date first = CompactDate.fromLong ( dates[0] ).toDate ( &quot;DTSTART&quot; );
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Date
+ */
+public final class CompactDate implements Comparable<CompactDate> {
+	static final int DATE_ONLY = 1;
+	static final int FLOATING = 2;
+	private static final int ZONE_SHIFT = 2;
+	private static final int MAX_ZONES = 1 << 14;
+	private static final int SECONDS_SHIFT = 16;
+	private static final long SECONDS_PER_DAY = 24L * 3600L;
+	/** Timezone ids (index 0 is no timezone) */
+	private static final Vector<String> zoneIds = new Vector<String> ();
+	private static final ConcurrentHashMap<String, Integer> zoneIndexes = new ConcurrentHashMap<String, Integer> ();
+	private final long value;
+
+	/** Zone id used when there are too many timezones */
+	private static final int UTC_ZONE;
+
+	static {
+		zoneIds.addElement ( null );
+		UTC_ZONE = internZone ( "UTC" );
+	}
+
+	private CompactDate(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * Create a CompactDate from a value returned by longValue.
+	 *
+	 * @param value
+	 *          The value returned by longValue
+	 */
+	public static CompactDate fromLong ( long value ) {
+		if ( zoneIndex ( value ) >= zoneIds.size () )
+			throw new IllegalArgumentException ( "Unknown timezone in CompactDate "
+			    + value );
+		return new CompactDate ( value );
+	}
+
+	/**
+	 * Create a CompactDate from a Date.
+	 *
+	 * @param date
+	 *          The Date
+	 */
+	public static CompactDate valueOf ( Date date ) {
+		long seconds = TimezoneCache.daysFromCivil ( date.year, date.month,
+		    date.day )
+		    * SECONDS_PER_DAY
+		    + date.hour * 3600L
+		    + date.minute * 60L
+		    + date.second;
+		int flags = 0;
+		if ( date.dateOnly )
+			flags |= DATE_ONLY;
+		if ( date.isFloating () )
+			flags |= FLOATING;
+		int zone = 0;
+		if ( date.tzid != null ) {
+			zone = internZone ( date.tzid );
+			TimezoneCache.Zone tz = instantZone ( flags, date.tzid );
+			if ( tz != null )
+				seconds = TimezoneCache.floorDiv ( tz.toUTC ( seconds * 1000L ),
+				    1000L );
+		}
+		return new CompactDate ( pack ( seconds, zone, flags ) );
+	}
+
+	/**
+	 * Build a value for fromLong.
+	 *
+	 * @param seconds
+	 *          Seconds since 1970
+	 * @param zone
+	 *          Zone index returned by internZone (or 0)
+	 * @param flags
+	 *          DATE_ONLY and/or FLOATING
+	 */
+	static long pack ( long seconds, int zone, int flags ) {
+		return ( seconds << SECONDS_SHIFT ) | ( zone << ZONE_SHIFT ) | flags;
+	}
+
+	private static int zoneIndex ( long value ) {
+		return (int) ( value >>> ZONE_SHIFT ) & ( MAX_ZONES - 1 );
+	}
+
+	/**
+	 * Get the zone id for a timezone, adding it if needed.
+	 */
+	static int internZone ( String tzid ) {
+		return internZone ( tzid, MAX_ZONES );
+	}
+
+	/**
+	 * Get the zone id for a timezone, adding it if there are fewer than
+	 * maxZones. Since the timezone ids come from the data being parsed, running
+	 * out is not an error: the UTC zone id is returned instead.
+	 */
+	static int internZone ( String tzid, int maxZones ) {
+		Integer index = zoneIndexes.get ( tzid );
+		if ( index == null ) {
+			synchronized ( zoneIds ) {
+				index = zoneIndexes.get ( tzid );
+				if ( index == null ) {
+					if ( zoneIds.size () >= maxZones )
+						return UTC_ZONE;
+					index = Integer.valueOf ( zoneIds.size () );
+					zoneIds.addElement ( tzid );
+					zoneIndexes.put ( tzid, index );
+				}
+			}
+		}
+		return index.intValue ();
+	}
+
+	/**
+	 * Get the timezone used to convert the seconds to local time, or null if
+	 * the seconds are not a UTC time.
+	 */
+	private static TimezoneCache.Zone instantZone ( int flags, String tzid ) {
+		if ( ( flags & ( DATE_ONLY | FLOATING ) ) != 0 || tzid == null )
+			return null;
+		return TimezoneCache.forID ( tzid );
+	}
+
+	/**
+	 * Get the value that can be stored and later passed to fromLong. Comparing
+	 * these values gives the same result as compareTo.
+	 */
+	public long longValue () {
+		return value;
+	}
+
+	/**
+	 * Get the number of seconds since 1970-01-01T00:00:00Z. For date-only and
+	 * floating values, this is calculated as if the date were in UTC.
+	 */
+	public long getSeconds () {
+		return value >> SECONDS_SHIFT;
+	}
+
+	public boolean isDateOnly () {
+		return ( value & DATE_ONLY ) != 0;
+	}
+
+	public boolean isFloating () {
+		return ( value & FLOATING ) != 0;
+	}
+
+	/**
+	 * Get the timezone id ("America/New_York", etc.)
+	 *
+	 * @return The timezone id or null if there is none
+	 */
+	public String getTzid () {
+		return zoneIds.elementAt ( zoneIndex ( value ) );
+	}
+
+	/**
+	 * Create a Date object from this CompactDate.
+	 *
+	 * @param dateType
+	 *          Type of date; this should be an ical property name like DTSTART,
+	 *          DTEND or DTSTAMP.
+	 */
+	public Date toDate ( String dateType ) {
+		String tzid = getTzid ();
+		int flags = (int) value & ( DATE_ONLY | FLOATING );
+		long seconds = getSeconds ();
+		TimezoneCache.Zone tz = instantZone ( flags, tzid );
+		if ( tz != null )
+			seconds = TimezoneCache.floorDiv ( tz.toLocal ( seconds * 1000L ),
+			    1000L );
+		long days = TimezoneCache.floorDiv ( seconds, SECONDS_PER_DAY );
+		int ymd = TimezoneCache.civilFromDays ( days );
+		int secs = (int) ( seconds - days * SECONDS_PER_DAY );
+		Date ret;
+		try {
+			if ( isDateOnly () ) {
+				ret = new Date ( dateType, ymd >> 9, ( ymd >> 5 ) & 0xf, ymd & 0x1f );
+			} else {
+				ret = new Date ( dateType, ymd >> 9, ( ymd >> 5 ) & 0xf, ymd & 0x1f,
+				    secs / 3600, ( secs / 60 ) % 60, secs % 60 );
+				ret.removeNamedAttribute ( "TZID" );
+				ret.tzid = null;
+			}
+		} catch ( BogusDataException e ) {
+			// Should not happen since the values came from a valid date
+			throw new IllegalStateException ( e.toString () );
+		}
+		if ( tzid != null ) {
+			ret.tzid = tzid;
+			ret.addAttribute ( "TZID", tzid );
+		}
+		ret.setFloating ( isFloating () );
+		return ret;
+	}
+
+	public int compareTo ( CompactDate d2 ) {
+		return value < d2.value ? -1 : ( value == d2.value ? 0 : 1 );
+	}
+
+	/**
+	 * Is this date before the specified date?
+	 */
+	public boolean isBefore ( CompactDate d2 ) {
+		return value < d2.value;
+	}
+
+	/**
+	 * Is this date after the specified date?
+	 */
+	public boolean isAfter ( CompactDate d2 ) {
+		return value > d2.value;
+	}
+
+	public boolean equals ( Object o ) {
+		return o instanceof CompactDate && ( (CompactDate) o ).value == value;
+	}
+
+	public int hashCode () {
+		return (int) ( value ^ ( value >>> 32 ) );
+	}
+
+	public String toString () {
+		return toDate ( "DATE" ).getValue () + ( getTzid () == null ? "" : " "
+		    + getTzid () );
+	}
+
+}
@@ -87,9 +87,18 @@ public interface Constants {
 	/** iCalendar transparent (event does not show up in freebusy searches) */
 	static public final int TRANSP_TRANSPARENT = 1;
 	/** iCalendar opaque (event does show up in freebusy searches) */
-	static public final int TRANSP_OPAQUE = 1; // default value in RFC2445 is
+	static public final int TRANSP_OPAQUE = 2; // default value in RFC2445 is
 																							// OPAQUE
 
+	/** iCalendar free/busy type: free */
+	static public final int FBTYPE_FREE = 0;
+	/** iCalendar free/busy type: busy (the default) */
+	static public final int FBTYPE_BUSY = 1;
+	/** iCalendar free/busy type: busy and unavailable for scheduling */
+	static public final int FBTYPE_BUSY_UNAVAILABLE = 2;
+	/** iCalendar free/busy type: tentatively busy */
+	static public final int FBTYPE_BUSY_TENTATIVE = 3;
+
 	/* iCalendar version (in N.N String format) */
 	static public final String ICAL_VERSION = ICAL_VERSION_MAJOR + "."
 	    + ICAL_VERSION_MINOR;
@@ -20,9 +20,9 @@
 
 package us.k5n.ical;
 
+import java.io.IOException;
 import java.util.Calendar;
 
-import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
 /**
@@ -221,13 +221,7 @@ public class Date extends Property implements Constants, Comparable {
 			} else if ( aname.equals ( "TZID" ) ) {
 				this.tzid = a.value;
 				// Validate timezone
-				try {
-					DateTimeZone timezone = DateTimeZone.forID ( tzid );
-					if ( timezone == null ) {
-						System.err.println ( "Ignoring unrecognized timezone '" + tzid
-						    + "' in Date " + this.getName () );
-					}
-				} catch ( IllegalArgumentException e1 ) {
+				if ( TimezoneCache.forID ( tzid ) == null ) {
 					System.err.println ( "Ignoring unrecognized timezone '" + tzid
 					    + "' in Date " + this.getName () );
 				}
@@ -302,51 +296,26 @@ public class Date extends Property implements Constants, Comparable {
 		}
 
 		if ( isUTC && !dateOnly ) {
-			// Use Joda Time to convert UTC to localtime
-			DateTime utcDateTime = new DateTime ( DateTimeZone.UTC );
-			utcDateTime = utcDateTime.withDate ( year, month, day ).withTime ( hour,
-			    minute, second, 0 );
-			DateTime localDateTime = utcDateTime.withZone ( DateTimeZone
-			    .getDefault () );
-			year = localDateTime.getYear ();
-			month = localDateTime.getMonthOfYear ();
-			day = localDateTime.getDayOfMonth ();
-			hour = localDateTime.getHourOfDay ();
-			minute = localDateTime.getMinuteOfHour ();
-			second = localDateTime.getSecondOfMinute ();
+			// Convert UTC to localtime
+			TimezoneCache.Zone local = TimezoneCache.getDefault ();
+			convert ( TimezoneCache.UTC, local );
 			// Now set timezone to local since we converted.
-			this.tzid = DateTimeZone.getDefault ().getID ();
+			this.tzid = local.id;
 			this.addAttribute ( "TZID", this.tzid );
 		} else if ( this.tzid != null ) {
-			DateTimeZone tz = null;
-			try {
-				tz = DateTimeZone.forID ( this.tzid );
-			} catch ( IllegalArgumentException e1 ) {
-				if ( parseMode == PARSE_STRICT )
-					throw new BogusDataException (
-					    "Invalid timezone '" + this.tzid + "'", icalStr );
-			}
+			TimezoneCache.Zone tz = TimezoneCache.forID ( this.tzid );
 			if ( tz == null && parseMode == PARSE_STRICT ) {
 				throw new BogusDataException ( "Invalid timezone '" + this.tzid + "'",
 				    icalStr );
 			}
 			if ( tz != null ) {
 				// Convert to localtime
-				DateTime utcDateTime = new DateTime ( tz );
-				utcDateTime = utcDateTime.withDate ( year, month, day ).withTime (
-				    hour, minute, second, 0 );
-				DateTime localDateTime = utcDateTime.withZone ( DateTimeZone
-				    .getDefault () );
-				year = localDateTime.getYear ();
-				month = localDateTime.getMonthOfYear ();
-				day = localDateTime.getDayOfMonth ();
-				hour = localDateTime.getHourOfDay ();
-				minute = localDateTime.getMinuteOfHour ();
-				second = localDateTime.getSecondOfMinute ();
+				TimezoneCache.Zone local = TimezoneCache.getDefault ();
+				convert ( tz, local );
 				// Since we have converted to localtime, remove the TZID attribute
 				// and replace with our own timezone
 				this.removeNamedAttribute ( "TZID" );
-				this.tzid = DateTimeZone.getDefault ().getID ();
+				this.tzid = local.id;
 				this.addAttribute ( "TZID", this.tzid );
 			}
 		} else if ( !isUTC && this.tzid == null ) {
@@ -445,10 +414,43 @@ public class Date extends Property implements Constants, Comparable {
 		return c;
 	}
 
+	/**
+	 * Convert the date and time fields from one timezone to another.
+	 */
+	private void convert ( TimezoneCache.Zone from, TimezoneCache.Zone to ) {
+		long millis = to.toLocal ( from.toUTC ( TimezoneCache.toMillis ( year,
+		    month, day, hour, minute, second ) ) );
+		long days = TimezoneCache.floorDiv ( millis, TimezoneCache.MILLIS_PER_DAY );
+		int ymd = TimezoneCache.civilFromDays ( days );
+		int secs = (int) ( ( millis - days * TimezoneCache.MILLIS_PER_DAY ) / 1000 );
+		year = ymd >> 9;
+		month = ( ymd >> 5 ) & 0xf;
+		day = ymd & 0x1f;
+		hour = secs / 3600;
+		minute = ( secs / 60 ) % 60;
+		second = secs % 60;
+	}
+
 	/**
 	 * Generate the iCalendar string for this Date.
 	 */
 	public String toICalendar () {
+		updateValue ();
+		return super.toICalendar ();
+	}
+
+	/**
+	 * Write this Date as a folded iCalendar line.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		updateValue ();
+		super.write ( out );
+	}
+
+	/**
+	 * Set the iCalendar value from the date and time.
+	 */
+	void updateValue () {
 		// We don't need to worry about timezone if it is date-only.
 		// If there is a time, convert to GMT.
 		StringBuffer sb = new StringBuffer ( dateOnly ? 8 : 15 );
@@ -461,44 +463,44 @@ public class Date extends Property implements Constants, Comparable {
 				sb.append ( '0' );
 			sb.append ( day );
 			value = sb.toString ();
-			return super.toICalendar ();
+			return;
 		}
 
 		// Convert from timezone specified to GMT
-		String timezoneId = this.tzid;
-		if ( timezoneId == null )
-			timezoneId = DateTimeZone.getDefault ().getID ();
-		DateTimeZone tz = null;
-		try {
-			tz = DateTimeZone.forID ( this.tzid );
-		} catch ( IllegalArgumentException e1 ) {
-			// Invalid timezone
-		}
+		TimezoneCache.Zone tz = this.tzid == null ? TimezoneCache.getDefault ()
+		    : TimezoneCache.forID ( this.tzid );
 		if ( tz != null ) {
-			DateTime dt = new DateTime ( year, month, day, hour, minute, second, 0,
-			    tz );
-			DateTime utc = dt.withZone ( DateTimeZone.forID ( "GMT" ) );
-			sb.append ( utc.getYear () );
-			if ( utc.getMonthOfYear () < 10 )
+			long utc = tz.toUTC ( TimezoneCache.toMillis ( year, month, day, hour,
+			    minute, second ) );
+			long days = TimezoneCache.floorDiv ( utc, TimezoneCache.MILLIS_PER_DAY );
+			int ymd = TimezoneCache.civilFromDays ( days );
+			int secs = (int) ( ( utc - days * TimezoneCache.MILLIS_PER_DAY ) / 1000 );
+			int utcMonth = ( ymd >> 5 ) & 0xf;
+			int utcDay = ymd & 0x1f;
+			int utcHour = secs / 3600;
+			int utcMinute = ( secs / 60 ) % 60;
+			int utcSecond = secs % 60;
+			sb.append ( ymd >> 9 );
+			if ( utcMonth < 10 )
 				sb.append ( '0' );
-			sb.append ( utc.getMonthOfYear () );
-			if ( utc.getDayOfMonth () < 10 )
+			sb.append ( utcMonth );
+			if ( utcDay < 10 )
 				sb.append ( '0' );
-			sb.append ( utc.getDayOfMonth () );
+			sb.append ( utcDay );
 
 			sb.append ( 'T' );
-			if ( utc.getHourOfDay () < 10 )
+			if ( utcHour < 10 )
 				sb.append ( '0' );
-			sb.append ( utc.getHourOfDay () );
-			if ( utc.getMinuteOfHour () < 10 )
+			sb.append ( utcHour );
+			if ( utcMinute < 10 )
 				sb.append ( '0' );
-			sb.append ( utc.getMinuteOfHour () );
-			if ( utc.getSecondOfMinute () < 10 )
+			sb.append ( utcMinute );
+			if ( utcSecond < 10 )
 				sb.append ( '0' );
-			sb.append ( utc.getSecondOfMinute () );
+			sb.append ( utcSecond );
 			sb.append ( 'Z' );
 			value = sb.toString ();
-			return super.toICalendar ();
+			return;
 		}
 
 		sb.append ( year );
@@ -520,7 +522,6 @@ public class Date extends Property implements Constants, Comparable {
 			sb.append ( '0' );
 		sb.append ( second );
 		value = sb.toString ();
-		return super.toICalendar ();
 	}
 
 	public boolean isDateOnly () {
@@ -662,6 +663,14 @@ public class Date extends Property implements Constants, Comparable {
 		return ret;
 	}
 
+	/**
+	 * Get a CompactDate with the same date, time and timezone. CompactDate
+	 * objects use less memory and are faster to compare.
+	 */
+	public CompactDate toCompactDate () {
+		return CompactDate.valueOf ( this );
+	}
+
 	/**
 	 * Is the date/time before the specified date?
 	 * 
@@ -35,6 +35,9 @@ public class DefaultDataStore implements DataStore {
 	Vector<Todo> todos;
 	Vector<Journal> journals;
 	Vector<Freebusy> freebusys;
+	EventIndex eventIndex;
+	/** Number of events that have been added to eventIndex */
+	int numIndexed = 0;
 
 	/**
 	 * Constructor
@@ -45,6 +48,7 @@ public class DefaultDataStore implements DataStore {
 		todos = new Vector<Todo> ();
 		journals = new Vector<Journal> ();
 		freebusys = new Vector<Freebusy> ();
+		eventIndex = new EventIndex ();
 	}
 
 	/**
@@ -89,6 +93,47 @@ public class DefaultDataStore implements DataStore {
 		return events;
 	}
 
+	/**
+	 * Get all Freebusy objects.
+	 * 
+	 * @return A Vector of Freebusy objects
+	 */
+	public Vector<Freebusy> getAllFreebusys () {
+		return freebusys;
+	}
+
+	/**
+	 * Get the events that occur within a range of dates. This uses an index of
+	 * the events, so it does not need to look at each event. Events are added to
+	 * the index the first time this is called after they are stored (so that
+	 * lazy parsing is not undone by storeEvent). If you change the dates of an
+	 * event after it is stored, use getEventIndex to remove and add it again.
+	 * This is synchronized, since it can update the index, so it is safe to call
+	 * from more than one thread at once.
+	 * 
+	 * @param windowStart
+	 *          The start of the range
+	 * @param windowEnd
+	 *          The end of the range (events that start on or after this are not
+	 *          included)
+	 * @return A Vector of Event objects
+	 */
+	public synchronized Vector<Event> getEvents ( Date windowStart,
+	    Date windowEnd ) {
+		return getEventIndex ().getEvents ( windowStart, windowEnd );
+	}
+
+	/**
+	 * Get the index used by getEvents, with all stored events added to it. If
+	 * other threads may call getEvents, synchronize on this DefaultDataStore
+	 * while using or changing the index.
+	 */
+	public synchronized EventIndex getEventIndex () {
+		while ( numIndexed < events.size () )
+			eventIndex.addEvent ( events.elementAt ( numIndexed++ ) );
+		return eventIndex;
+	}
+
 	/**
 	 * Get all Journal objects.
 	 * 
@@ -20,16 +20,24 @@
 
 package us.k5n.ical;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
 import java.util.Vector;
 
 /**
  * iCalendar Event class that corresponds to the VEVENT iCalendarendar object.
+ * An Event can be read by more than one thread at once, including one that
+ * was lazily parsed (properties are parsed under a lock when first asked
+ * for). An Event must not be changed while other threads are using it.
  * 
  * @author Craig Knudsen, craig@k5n.us
  */
 public class Event implements Constants {
 	// TODO: handle multiple instances of summary/description since
 	// there can be more than one if LANGUAGE attribute is specified
+	/** Most dates returned by getOccurrences */
+	public static final int MAX_OCCURRENCES = 10000;
 	/** Unique Id */
 	protected Uid uid = null;
 	/** Sequence number (0 is first version) */
@@ -79,6 +87,25 @@ public class Event implements Constants {
 	protected Vector<Attachment> attachments = null;
 	/** Private user object for caller to set/get */
 	private Object userData = null;
+	/** iCalendar text from the last write (null if changed since) */
+	private SerializedForm serialized = null;
+	/** The EXDATE and RDATE Vectors used for serialized */
+	private DateLists serializedDates = null;
+	/**
+	 * Properties that have not been parsed yet (when lazy parsing is enabled).
+	 * Note: the protected fields above for these properties will be null until
+	 * the property is parsed by its get method.
+	 */
+	private volatile LazyProperty lazyProperties = null;
+	/** Parser to report errors from lazy parsing to */
+	private CalendarParser parser = null;
+	/**
+	 * RRULE, DTSTART, EXDATE and RDATE values for OccurrenceCache (null if they
+	 * have changed)
+	 */
+	private String fingerprint = null;
+	/** The EXDATE and RDATE Vectors used for fingerprint */
+	private DateLists fingerprintDates = null;
 
 	// TODO: multiple summaries, descriptions with different LANGUAGE values
 	// TODO: auto-change transp if either all-day or no duration
@@ -98,10 +125,23 @@ public class Event implements Constants {
 	 *          Vector of iCalendar text lines
 	 */
 	public Event(CalendarParser parser, int initialLine, Vector<String> textLines) {
+		boolean lazy = parser.isLazyParsing ();
+		LazyProperty last = null;
 		for ( int i = 0; i < textLines.size (); i++ ) {
 			String line = textLines.elementAt ( i );
+			int id = PropertyNames.lookup ( line );
+			if ( lazy && isLazyProperty ( id ) ) {
+				// Save it to parse later
+				LazyProperty lp = new LazyProperty ( id, initialLine + i, line );
+				if ( last == null )
+					lazyProperties = lp;
+				else
+					last.next = lp;
+				last = lp;
+				continue;
+			}
 			try {
-				parseLine ( line, parser.getParseMethod () );
+				parseLine ( line, id, parser.getParseMethod () );
 			} catch ( BogusDataException bde ) {
 				parser.reportParseError ( new ParseError ( initialLine + i, bde.error,
 				    line ) );
@@ -118,6 +158,8 @@ public class Event implements Constants {
 		// create a sequence if not specified
 		if ( sequence == null )
 			sequence = new Sequence ( 0 );
+		if ( lazyProperties != null )
+			this.parser = parser;
 	}
 
 	/**
@@ -180,108 +222,237 @@ public class Event implements Constants {
 	 */
 	public void parseLine ( String icalStr, int parseMethod )
 	    throws ParseException, BogusDataException {
-		String up = icalStr.toUpperCase ();
-		if ( up.equals ( "BEGIN:VEVENT" ) || up.equals ( "END:VEVENT" ) ) {
-			// ignore
-		} else if ( up.trim ().length () == 0 ) {
-			// ignore empty lines
-		} else if ( up.startsWith ( "DESCRIPTION" ) ) {
-			description = new Description ( icalStr );
-		} else if ( up.startsWith ( "SUMMARY" ) ) {
-			summary = new Summary ( icalStr );
-		} else if ( up.startsWith ( "COMMENT" ) ) {
-			comment = new Comment ( icalStr );
-		} else if ( up.startsWith ( "CREATED" ) ) {
-			createdDate = new Date ( icalStr );
-		} else if ( up.startsWith ( "DTSTART" ) ) {
-			startDate = new Date ( icalStr );
-		} else if ( up.startsWith ( "DTEND" ) ) {
-			endDate = new Date ( icalStr );
-		} else if ( up.startsWith ( "DTSTAMP" ) ) {
-			dtstamp = new Date ( icalStr );
-		} else if ( up.startsWith ( "DURATION" ) ) {
-			duration = new Duration ( icalStr );
-		} else if ( up.startsWith ( "LAST-MODIFIED" ) ) {
-			lastModified = new Date ( icalStr );
-		} else if ( up.startsWith ( "CLASS" ) ) {
-			classification = new Classification ( icalStr );
-		} else if ( up.startsWith ( "CATEGORIES" ) ) {
-			categories = new Categories ( icalStr );
-		} else if ( up.startsWith ( "UID" ) ) {
-			uid = new Uid ( icalStr );
-		} else if ( up.startsWith ( "SEQUENCE" ) ) {
-			sequence = new Sequence ( icalStr );
-		} else if ( up.startsWith ( "RRULE" ) ) {
-			rrule = new Rrule ( icalStr, parseMethod );
-		} else if ( up.startsWith ( "EXDATE" ) ) {
-			// We could implement a class for EXDATE, but it's really just a Date
-			// modified to have mulitple date values.
-			// Since EXDATE supports multiple date values, we will create temporary
-			// iCalendar string values for each date.
-			// Note: this could will allow for multiple EXDATE lines.
-			String[] args = icalStr.split ( ":" );
-			if ( args.length != 2 ) {
-				if ( parseMethod == PARSE_STRICT ) {
-					throw new BogusDataException ( "Invalid EXDATE", icalStr );
+		this.serialized = null;
+		parseLine ( icalStr, PropertyNames.lookup ( icalStr ), parseMethod );
+	}
+
+	private void parseLine ( String icalStr, int id, int parseMethod )
+	    throws ParseException, BogusDataException {
+		switch ( id ) {
+			case PropertyNames.BLANK:
+				// ignore empty lines
+				break;
+			case PropertyNames.BEGIN:
+			case PropertyNames.END:
+				if ( icalStr.equalsIgnoreCase ( "BEGIN:VEVENT" )
+				    || icalStr.equalsIgnoreCase ( "END:VEVENT" ) ) {
+					// ignore
+				} else {
+					System.out.println ( "Ignoring VEVENT line: " + icalStr );
 				}
-			} else {
-				if ( this.exdates == null )
-					this.exdates = new Vector<Date> ();
-				String[] dateVals = args[1].split ( "," );
-				for ( int i = 0; i < dateVals.length; i++ ) {
-					String newIcalStr = args[0] + ':' + dateVals[i];
-					System.out.println ( "Temp EXDATE str=" + newIcalStr );
-					Date exdate = new Date ( newIcalStr );
-					this.exdates.addElement ( exdate );
+				break;
+			case PropertyNames.DESCRIPTION:
+				description = new Description ( icalStr );
+				break;
+			case PropertyNames.SUMMARY:
+				summary = new Summary ( icalStr );
+				break;
+			case PropertyNames.COMMENT:
+				comment = new Comment ( icalStr );
+				break;
+			case PropertyNames.CREATED:
+				createdDate = new Date ( icalStr );
+				break;
+			case PropertyNames.DTSTART:
+				startDate = new Date ( icalStr );
+				break;
+			case PropertyNames.DTEND:
+				endDate = new Date ( icalStr );
+				break;
+			case PropertyNames.DTSTAMP:
+				dtstamp = new Date ( icalStr );
+				break;
+			case PropertyNames.DURATION:
+				duration = new Duration ( icalStr );
+				break;
+			case PropertyNames.LAST_MODIFIED:
+				lastModified = new Date ( icalStr );
+				break;
+			case PropertyNames.CLASS:
+				classification = new Classification ( icalStr );
+				break;
+			case PropertyNames.CATEGORIES:
+				categories = new Categories ( icalStr );
+				break;
+			case PropertyNames.UID:
+				uid = new Uid ( icalStr );
+				break;
+			case PropertyNames.SEQUENCE:
+				sequence = new Sequence ( icalStr );
+				break;
+			case PropertyNames.RRULE:
+				rrule = new Rrule ( icalStr, parseMethod );
+				break;
+			case PropertyNames.EXDATE: {
+				// We could implement a class for EXDATE, but it's really just a Date
+				// modified to have mulitple date values.
+				// Since EXDATE supports multiple date values, we will create temporary
+				// iCalendar string values for each date.
+				// Note: this could will allow for multiple EXDATE lines.
+				String[] args = icalStr.split ( ":" );
+				if ( args.length != 2 ) {
+					if ( parseMethod == PARSE_STRICT ) {
+						throw new BogusDataException ( "Invalid EXDATE", icalStr );
+					}
+				} else {
+					if ( this.exdates == null )
+						this.exdates = new Vector<Date> ();
+					String[] dateVals = args[1].split ( "," );
+					for ( int i = 0; i < dateVals.length; i++ ) {
+						String newIcalStr = args[0] + ':' + dateVals[i];
+						System.out.println ( "Temp EXDATE str=" + newIcalStr );
+						Date exdate = new Date ( newIcalStr );
+						this.exdates.addElement ( exdate );
+					}
 				}
+				break;
 			}
-		} else if ( up.startsWith ( "RDATE" ) ) {
-			// Handle this the same way we handled EXDATE
-			String[] args = icalStr.split ( ":" );
-			if ( args.length != 2 ) {
-				if ( parseMethod == PARSE_STRICT ) {
-					throw new BogusDataException ( "Invalid RDATE", icalStr );
-				}
-			} else {
-				String[] dateVals = args[1].split ( "," );
-				if ( this.rdates == null )
-					this.rdates = new Vector<Date> ();
-				for ( int i = 0; i < dateVals.length; i++ ) {
-					String newIcalStr = args[0] + ':' + dateVals[i];
-					System.out.println ( "Temp RDATE str=" + newIcalStr );
-					Date rdate = new Date ( newIcalStr );
-					this.rdates.addElement ( rdate );
+			case PropertyNames.RDATE: {
+				// Handle this the same way we handled EXDATE
+				String[] args = icalStr.split ( ":" );
+				if ( args.length != 2 ) {
+					if ( parseMethod == PARSE_STRICT ) {
+						throw new BogusDataException ( "Invalid RDATE", icalStr );
+					}
+				} else {
+					String[] dateVals = args[1].split ( "," );
+					if ( this.rdates == null )
+						this.rdates = new Vector<Date> ();
+					for ( int i = 0; i < dateVals.length; i++ ) {
+						String newIcalStr = args[0] + ':' + dateVals[i];
+						System.out.println ( "Temp RDATE str=" + newIcalStr );
+						Date rdate = new Date ( newIcalStr );
+						this.rdates.addElement ( rdate );
+					}
 				}
+				break;
 			}
-		} else if ( up.startsWith ( "TRANSP" ) ) {
-			transp = StringUtils.parseStatus ( icalStr, parseMethod );
-		} else if ( up.startsWith ( "STATUS" ) ) {
-			status = StringUtils.parseStatus ( icalStr, parseMethod );
-			// Only allow VEVENT status types
-			if ( status != STATUS_TENTATIVE && status != STATUS_CONFIRMED
-			    && status != STATUS_CANCELLED ) {
-				if ( parseMethod == PARSE_STRICT ) {
-					throw new BogusDataException ( "Status type not allowed in VEVENT",
-					    icalStr );
+			case PropertyNames.TRANSP:
+				transp = StringUtils.parseTransp ( icalStr, parseMethod );
+				break;
+			case PropertyNames.STATUS:
+				status = StringUtils.parseStatus ( icalStr, parseMethod );
+				// Only allow VEVENT status types
+				if ( status != STATUS_TENTATIVE && status != STATUS_CONFIRMED
+				    && status != STATUS_CANCELLED ) {
+					if ( parseMethod == PARSE_STRICT ) {
+						throw new BogusDataException ( "Status type not allowed in VEVENT",
+						    icalStr );
+					}
 				}
+				break;
+			case PropertyNames.URL:
+				url = new URL ( icalStr );
+				break;
+			case PropertyNames.LOCATION:
+				location = new Location ( icalStr );
+				break;
+			case PropertyNames.ATTACH:
+				Attachment attach = new Attachment ( icalStr );
+				if ( this.attachments == null )
+					this.attachments = new Vector<Attachment> ();
+				this.attachments.addElement ( attach );
+				break;
+			case PropertyNames.ATTENDEE:
+				Attendee attendee = new Attendee ( icalStr );
+				if ( this.attendees == null )
+					this.attendees = new Vector<Attendee> ();
+				this.attendees.addElement ( attendee );
+				break;
+			default:
+				System.out.println ( "Ignoring VEVENT line: " + icalStr );
+		}
+	}
+
+	/**
+	 * Can this property be left unparsed until it is requested?
+	 */
+	private static boolean isLazyProperty ( int id ) {
+		switch ( id ) {
+			case PropertyNames.DESCRIPTION:
+			case PropertyNames.COMMENT:
+			case PropertyNames.CREATED:
+			case PropertyNames.DTEND:
+			case PropertyNames.DTSTAMP:
+			case PropertyNames.DURATION:
+			case PropertyNames.LAST_MODIFIED:
+			case PropertyNames.CLASS:
+			case PropertyNames.CATEGORIES:
+			case PropertyNames.EXDATE:
+			case PropertyNames.RDATE:
+			case PropertyNames.URL:
+			case PropertyNames.LOCATION:
+			case PropertyNames.ATTACH:
+			case PropertyNames.ATTENDEE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Parse any saved lines for the specified property. Lines are parsed in the
+	 * order they were found, so the result is the same as if they had been
+	 * parsed with the rest of the event. This is synchronized so that an Event
+	 * that is only being read can be used by more than one thread.
+	 * 
+	 * @param id
+	 *          The property id (PropertyNames.DESCRIPTION, etc.) or
+	 *          PropertyNames.UNKNOWN for all properties
+	 */
+	private synchronized void parseLazy ( int id ) {
+		LazyProperty prev = null;
+		for ( LazyProperty lp = lazyProperties; lp != null; lp = lp.next ) {
+			if ( id != PropertyNames.UNKNOWN && lp.id != id ) {
+				prev = lp;
+				continue;
 			}
-		} else if ( up.startsWith ( "URL" ) ) {
-			url = new URL ( icalStr );
-		} else if ( up.startsWith ( "LOCATION" ) ) {
-			location = new Location ( icalStr );
-		} else if ( up.startsWith ( "ATTACH" ) ) {
-			Attachment attach = new Attachment ( icalStr );
-			if ( this.attachments == null )
-				this.attachments = new Vector<Attachment> ();
-			this.attachments.addElement ( attach );
-		} else if ( up.startsWith ( "ATTENDEE" ) ) {
-			Attendee attendee = new Attendee ( icalStr );
-			if ( this.attendees == null )
-				this.attendees = new Vector<Attendee> ();
-			this.attendees.addElement ( attendee );
-		} else {
-			System.out.println ( "Ignoring VEVENT line: " + icalStr );
+			try {
+				parseLine ( lp.line, lp.id, parser.getParseMethod () );
+			} catch ( BogusDataException bde ) {
+				parser.reportParseError ( new ParseError ( lp.lineNo, bde.error,
+				    lp.line ) );
+			} catch ( ParseException pe ) {
+				parser.reportParseError ( new ParseError ( lp.lineNo, pe.error,
+				    lp.line ) );
+			}
+			// Only remove the line once it is parsed, so another thread that finds
+			// lazyProperties empty also sees the parsed value.
+			if ( prev == null )
+				lazyProperties = lp.next;
+			else
+				prev.next = lp.next;
 		}
+		if ( lazyProperties == null )
+			parser = null;
+	}
+
+	/**
+	 * Throw away any saved lines for the specified property since a new value has
+	 * been set.
+	 */
+	private synchronized void discardLazy ( int id ) {
+		LazyProperty prev = null;
+		for ( LazyProperty lp = lazyProperties; lp != null; lp = lp.next ) {
+			if ( lp.id == id ) {
+				if ( prev == null )
+					lazyProperties = lp.next;
+				else
+					prev.next = lp.next;
+			} else {
+				prev = lp;
+			}
+		}
+		if ( lazyProperties == null )
+			parser = null;
+	}
+
+	/**
+	 * Set the parser that errors found by lazy parsing will be reported to.
+	 */
+	synchronized void setParser ( CalendarParser parser ) {
+		if ( lazyProperties != null )
+			this.parser = parser;
 	}
 
 	/**
@@ -304,82 +475,132 @@ public class Event implements Constants {
 	}
 
 	public Vector<Attendee> getAttendees () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.ATTENDEE );
 		return attendees;
 	}
 
 	public void setAttendees ( Vector<Attendee> attendees ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.ATTENDEE );
 		this.attendees = attendees;
 	}
 
 	public Categories getCategories () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.CATEGORIES );
 		return categories;
 	}
 
 	public void setCategories ( Categories categories ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.CATEGORIES );
 		this.categories = categories;
 	}
 
 	public Classification getClassification () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.CLASS );
 		return classification;
 	}
 
 	public void setClassification ( Classification classification ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.CLASS );
 		this.classification = classification;
 	}
 
 	public Description getDescription () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.DESCRIPTION );
 		return description;
 	}
 
 	public void setDescription ( Description description ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.DESCRIPTION );
 		this.description = description;
 	}
 
 	public Comment getComment () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.COMMENT );
 		return comment;
 	}
 
 	public void setComment ( Comment comment ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.COMMENT );
 		this.comment = comment;
 	}
 
 	public Date getCreatedDate () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.CREATED );
 		return createdDate;
 	}
 
 	public void setCreatedDate ( Date createdDate ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.CREATED );
 		this.createdDate = createdDate;
 	}
 
 	public Date getDtstamp () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.DTSTAMP );
 		return dtstamp;
 	}
 
 	public void setDtstamp ( Date dtstamp ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.DTSTAMP );
 		this.dtstamp = dtstamp;
 	}
 
 	public Duration getDuration () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.DURATION );
 		return duration;
 	}
 
 	public void setDuration ( Duration duration ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.DURATION );
 		this.duration = duration;
 	}
 
 	public Date getEndDate () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.DTEND );
 		return endDate;
 	}
 
 	public void setEndDate ( Date endDate ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.DTEND );
 		this.endDate = endDate;
 	}
 
 	public Date getLastModified () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.LAST_MODIFIED );
 		return lastModified;
 	}
 
 	public void setLastModified ( Date lastModified ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.LAST_MODIFIED );
 		this.lastModified = lastModified;
 	}
 
@@ -388,7 +609,9 @@ public class Event implements Constants {
 	}
 
 	public void setRrule ( Rrule rrule ) {
+		this.serialized = null;
 		this.rrule = rrule;
+		this.fingerprint = null;
 	}
 
 	public Sequence getSequence () {
@@ -396,6 +619,7 @@ public class Event implements Constants {
 	}
 
 	public void setSequence ( Sequence sequence ) {
+		this.serialized = null;
 		this.sequence = sequence;
 	}
 
@@ -404,7 +628,9 @@ public class Event implements Constants {
 	}
 
 	public void setStartDate ( Date startDate ) {
+		this.serialized = null;
 		this.startDate = startDate;
+		this.fingerprint = null;
 	}
 
 	public Uid getUid () {
@@ -412,22 +638,33 @@ public class Event implements Constants {
 	}
 
 	public void setUid ( Uid uid ) {
+		this.serialized = null;
 		this.uid = uid;
 	}
 
 	public URL getUrl () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.URL );
 		return url;
 	}
 
 	public void setUrl ( URL url ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.URL );
 		this.url = url;
 	}
 
 	public Location getLocation () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.LOCATION );
 		return location;
 	}
 
 	public void setLocation ( Location location ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.LOCATION );
 		this.location = location;
 	}
 
@@ -449,6 +686,7 @@ public class Event implements Constants {
 	 *          The new TRANSP setting (TRANSP_OPAQUE, TRANSP_TRANSPARENT)
 	 */
 	public void setTransp ( int transp ) {
+		this.serialized = null;
 		this.transp = transp;
 	}
 
@@ -470,29 +708,44 @@ public class Event implements Constants {
 	 *          STATUS_CANCELLED)
 	 */
 	public void setStatus ( int status ) {
+		this.serialized = null;
 		this.status = status;
 	}
 
 	public void setSummary ( Summary summary ) {
+		this.serialized = null;
 		this.summary = summary;
 	}
 
 	public Vector<Attachment> getAttachments () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.ATTACH );
 		return attachments;
 	}
 
 	public void setAttachments ( Vector<Attachment> attachments ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			discardLazy ( PropertyNames.ATTACH );
 		this.attachments = attachments;
 	}
 
 	public void addException ( Date date ) {
-		if ( this.exdates != null )
+		this.serialized = null;
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.EXDATE );
+		if ( this.exdates == null )
 			this.exdates = new Vector<Date> ();
+		this.fingerprint = null;
 		date.setName ( "EXDATE" ); // make sure the user had it correct
 		this.exdates.addElement ( date );
 	}
 
 	public void removeException ( Date date ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.EXDATE );
+		this.fingerprint = null;
 		for ( int i = 0; this.exdates != null && i < this.exdates.size (); i++ ) {
 			Date d = this.exdates.elementAt ( i );
 			if ( d.compareTo ( date ) == 0 ) {
@@ -503,18 +756,35 @@ public class Event implements Constants {
 		// not found
 	}
 
-	public Vector<Date> getExceptions () {
+	/**
+	 * Get the exception dates (EXDATE). Changes made to the Vector returned are
+	 * used by getOccurrences and write.
+	 */
+	public synchronized Vector<Date> getExceptions () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.EXDATE );
+		// The caller may change the Vector
+		this.fingerprint = null;
+		this.serialized = null;
 		return this.exdates;
 	}
 	
 	public void addRdate ( Date date ) {
-		if ( this.rdates != null )
+		this.serialized = null;
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.RDATE );
+		if ( this.rdates == null )
 			this.rdates = new Vector<Date> ();
+		this.fingerprint = null;
 		date.setName ( "RDATE" ); // make sure the user had it correct
 		this.rdates.addElement ( date );
 	}
 
 	public void removeRdate ( Date date ) {
+		this.serialized = null;
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.RDATE );
+		this.fingerprint = null;
 		for ( int i = 0; this.rdates != null && i < this.rdates.size (); i++ ) {
 			Date d = this.rdates.elementAt ( i );
 			if ( d.compareTo ( date ) == 0 ) {
@@ -525,7 +795,16 @@ public class Event implements Constants {
 		// not found
 	}
 
-	public Vector<Date> getRdates () {
+	/**
+	 * Get the inclusion dates (RDATE). Changes made to the Vector returned are
+	 * used by getOccurrences and write.
+	 */
+	public synchronized Vector<Date> getRdates () {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.RDATE );
+		// The caller may change the Vector
+		this.fingerprint = null;
+		this.serialized = null;
 		return this.rdates;
 	}
 
@@ -544,6 +823,10 @@ public class Event implements Constants {
 	 * @return
 	 */
 	public Vector<Date> getRecurranceDates () {
+		if ( lazyProperties != null ) {
+			parseLazy ( PropertyNames.EXDATE );
+			parseLazy ( PropertyNames.RDATE );
+		}
 		String tzid = null;
 		// TODO: add support for exceptions
 		if ( this.rrule == null )
@@ -555,108 +838,286 @@ public class Event implements Constants {
 		    this.rdates );
 	}
 
+	/**
+	 * Get the dates this event occurs on within a range of dates. This includes
+	 * the start date (DTSTART), dates from the RRULE and RDATE, and excludes the
+	 * EXDATE dates. Only the dates in the window are generated, so this is much
+	 * faster than getRecurranceDates for a recurrence that started long ago.
+	 * The dates are kept in the OccurrenceCache, so asking for the same range
+	 * again does not generate them again. The Date objects returned are copies
+	 * and may be changed. At most MAX_OCCURRENCES dates are returned; use
+	 * occurrenceIterator for a range with more dates than that.
+	 * 
+	 * @param windowStart
+	 *          the first date to include
+	 * @param windowEnd
+	 *          the end of the window (dates on or after this are not included)
+	 * @return a sorted Vector of Date objects (empty if there are none)
+	 */
+	public Vector<Date> getOccurrences ( Date windowStart, Date windowEnd ) {
+		if ( lazyProperties != null ) {
+			parseLazy ( PropertyNames.EXDATE );
+			parseLazy ( PropertyNames.RDATE );
+		}
+		if ( this.startDate == null )
+			return new Vector<Date> ();
+		String key = OccurrenceCache.getKey ( getFingerprint (), windowStart,
+		    windowEnd );
+		Vector<Date> ret = OccurrenceCache.get ( key );
+		if ( ret != null )
+			return ret;
+		ret = new Vector<Date> ();
+		Iterator<Date> iter = occurrenceIterator ( windowStart, windowEnd );
+		while ( iter.hasNext () && ret.size () < MAX_OCCURRENCES )
+			ret.addElement ( iter.next ().clone () );
+		OccurrenceCache.put ( key, ret );
+		return ret;
+	}
+
+	/**
+	 * Get a String that will be the same for any two events that have the same
+	 * RRULE, DTSTART, EXDATE and RDATE values.
+	 */
+	synchronized String getFingerprint () {
+		if ( this.fingerprint == null
+		    || !this.fingerprintDates.isSame ( this.exdates, this.rdates ) ) {
+			StringBuffer sb = new StringBuffer ( 128 );
+			if ( this.rrule != null )
+				sb.append ( this.rrule.toICalendar () );
+			OccurrenceCache.appendDate ( sb, this.startDate );
+			sb.append ( "|EXDATE" );
+			for ( int i = 0; this.exdates != null && i < this.exdates.size (); i++ )
+				OccurrenceCache.appendDate ( sb, this.exdates.elementAt ( i ) );
+			sb.append ( "|RDATE" );
+			for ( int i = 0; this.rdates != null && i < this.rdates.size (); i++ )
+				OccurrenceCache.appendDate ( sb, this.rdates.elementAt ( i ) );
+			this.fingerprint = sb.toString ();
+			this.fingerprintDates = new DateLists ( this.exdates, this.rdates );
+		}
+		return this.fingerprint;
+	}
+
+	/**
+	 * Get an Iterator for all of the dates this event occurs on, starting with
+	 * the start date (DTSTART). Dates are generated as they are requested, so
+	 * getting the next few occurrences of an event that repeats forever is
+	 * fast. The dates are in the same order as getOccurrences.
+	 * 
+	 * @return an Iterator of Date objects (with no dates if there is no start
+	 *         date)
+	 */
+	public Iterator<Date> occurrenceIterator () {
+		return occurrenceIterator ( null, null );
+	}
+
+	/**
+	 * Get an Iterator for the dates this event occurs on within a range of
+	 * dates. Dates before the window are skipped without being generated. Each
+	 * Iterator is independent, so a large range can be split up (by year, for
+	 * example) and each part handled by a different thread.
+	 * 
+	 * @param windowStart
+	 *          the first date to include (or null to start with DTSTART)
+	 * @param windowEnd
+	 *          the end of the window; dates on or after this are not included
+	 *          (or null for no end)
+	 * @return an Iterator of Date objects
+	 */
+	public Iterator<Date> occurrenceIterator ( Date windowStart, Date windowEnd ) {
+		if ( lazyProperties != null ) {
+			parseLazy ( PropertyNames.EXDATE );
+			parseLazy ( PropertyNames.RDATE );
+		}
+		if ( this.startDate == null )
+			return new Vector<Date> ().iterator ();
+		return new OccurrenceIterator ( this.startDate, this.rrule, this.exdates,
+		    this.rdates, windowStart, windowEnd );
+	}
+
+	/**
+	 * Get the next dates this event occurs on.
+	 * 
+	 * @param from
+	 *          the first date to include (or null to start with DTSTART)
+	 * @param count
+	 *          the maximum number of dates to return
+	 * @return a sorted Vector of Date objects
+	 */
+	public Vector<Date> getNextOccurrences ( Date from, int count ) {
+		Vector<Date> ret = new Vector<Date> ( count );
+		Iterator<Date> iter = occurrenceIterator ( from, null );
+		while ( ret.size () < count && iter.hasNext () )
+			ret.addElement ( iter.next () );
+		return ret;
+	}
+
 	/**
 	 * Convert this Event into iCalendar text
 	 */
 	public String toICalendar () {
-		StringBuffer ret = new StringBuffer ( 128 );
-		ret.append ( "BEGIN:VEVENT" );
-		ret.append ( CRLF );
+		StringWriter sw = new StringWriter ( 256 );
+		try {
+			writeComponent ( new ICalendarWriter ( sw ) );
+		} catch ( IOException e ) {
+			// StringWriter does not throw IOException
+			throw new IllegalStateException ( e.toString () );
+		}
+		return sw.toString ();
+	}
+
+	/**
+	 * Write this Event as iCalendar text. If nothing has changed since the last
+	 * time it was written, the same text is written again without serializing
+	 * each property again. A Event with an attachment held in a file or a large
+	 * inline attachment is always written directly and never cached.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		if ( isDirty () ) {
+			if ( !SerializedForm.isCacheable ( getAttachments () ) ) {
+				// Stream large attachments rather than keep them in memory
+				writeComponent ( out );
+				return;
+			}
+			StringWriter sw = new StringWriter ( 256 );
+			writeComponent ( new ICalendarWriter ( sw ) );
+			serialized = new SerializedForm ( sw.toString () );
+			serializedDates = new DateLists ( this.exdates, this.rdates );
+		}
+		out.writeSerialized ( serialized );
+	}
+
+	/**
+	 * Was this Event changed since it was last written? Changes made with the
+	 * set methods are tracked, as are dates added to or removed from the
+	 * Vectors returned by getExceptions and getRdates. Changes made to a
+	 * property in place (such as getSummary ().setValue ( ... )) are not; call
+	 * markDirty after those. This is always true for a Event that is not cached
+	 * (see write).
+	 */
+	public boolean isDirty () {
+		return serialized == null
+		    || !serializedDates.isSame ( this.exdates, this.rdates );
+	}
+
+	/**
+	 * Mark this Event as changed, so it is serialized again the next time it is
+	 * written. This is only needed after changing a property in place, or after
+	 * replacing a Date in the Vector returned by getExceptions or getRdates
+	 * (adding or removing one is noticed).
+	 */
+	public void markDirty () {
+		this.serialized = null;
+	}
+
+	private void writeComponent ( ICalendarWriter out ) throws IOException {
+		if ( lazyProperties != null )
+			parseLazy ( PropertyNames.UNKNOWN );
+		out.writeLine ( "BEGIN:VEVENT" );
 
 		if ( uid != null )
-			ret.append ( uid.toICalendar () );
+			out.writeProperty ( uid );
 		if ( sequence != null )
-			ret.append ( sequence.toICalendar () );
+			out.writeProperty ( sequence );
 		if ( summary != null )
-			ret.append ( summary.toICalendar () );
+			out.writeProperty ( summary );
 		if ( description != null )
-			ret.append ( description.toICalendar () );
+			out.writeProperty ( description );
 		if ( createdDate != null )
-			ret.append ( createdDate.toICalendar () );
+			out.writeProperty ( createdDate );
 		if ( startDate != null )
-			ret.append ( startDate.toICalendar () );
+			out.writeProperty ( startDate );
 		if ( endDate != null )
-			ret.append ( endDate.toICalendar () );
+			out.writeProperty ( endDate );
 		if ( dtstamp != null )
-			ret.append ( dtstamp.toICalendar () );
+			out.writeProperty ( dtstamp );
 		if ( lastModified != null )
-			ret.append ( lastModified.toICalendar () );
+			out.writeProperty ( lastModified );
 		if ( rrule != null )
-			ret.append ( rrule.toICalendar () );
+			out.writeProperty ( rrule );
 		if ( classification != null )
-			ret.append ( classification.toICalendar () );
+			out.writeProperty ( classification );
 		if ( this.exdates != null && this.exdates.size () > 0 ) {
-			if ( this.exdates.size () == 1 ) {
-				ret.append ( this.exdates.elementAt ( 0 ).toICalendar () );
-			} else {
-				StringBuffer sb = new StringBuffer ( 25 );
-				sb.append ( this.exdates.elementAt ( 0 ).toICalendar ().trim () );
-				for ( int i = 1; i < this.exdates.size (); i++ ) {
-					sb.append ( ',' );
-					String s = this.exdates.elementAt ( i ).toICalendar ().trim ();
-					String[] args = s.split ( ":" );
-					sb.append ( args[1] );
-				}
-				sb.append ( CRLF );
-			}
+			if ( this.exdates.size () == 1 )
+				out.writeProperty ( this.exdates.elementAt ( 0 ) );
+			else
+				out.writeDates ( this.exdates );
 		}
 		if ( this.rdates != null && this.rdates.size () > 0 ) {
-			if ( this.rdates.size () == 1 ) {
-				ret.append ( this.rdates.elementAt ( 0 ).toICalendar () );
-			} else {
-				StringBuffer sb = new StringBuffer ( 25 );
-				sb.append ( this.rdates.elementAt ( 0 ).toICalendar ().trim () );
-				for ( int i = 1; i < this.rdates.size (); i++ ) {
-					sb.append ( ',' );
-					String s = this.rdates.elementAt ( i ).toICalendar ().trim ();
-					String[] args = s.split ( ":" );
-					sb.append ( args[1] );
-				}
-				sb.append ( CRLF );
-			}
+			if ( this.rdates.size () == 1 )
+				out.writeProperty ( this.rdates.elementAt ( 0 ) );
+			else
+				out.writeDates ( this.rdates );
 		}
 		if ( categories != null )
-			ret.append ( categories.toICalendar () );
+			out.writeProperty ( categories );
 		if ( url != null )
-			ret.append ( url.toICalendar () );
+			out.writeProperty ( url );
 		if ( location != null )
-			ret.append ( location.toICalendar () );
+			out.writeProperty ( location );
 		if ( this.attachments != null ) {
-			for ( int i = 0; i < this.attachments.size (); i++ ) {
-				Attachment attach = (Attachment) this.attachments.elementAt ( i );
-				ret.append ( attach.toICalendar () );
-			}
+			for ( int i = 0; i < this.attachments.size (); i++ )
+				out.writeProperty ( this.attachments.elementAt ( i ) );
 		}
-		ret.append ( transp == TRANSP_OPAQUE ? "TRANSP:OPAQUE"
+		out.writeLine ( transp == TRANSP_OPAQUE ? "TRANSP:OPAQUE"
 		    : "TRANSP:TRANSPARENT" );
-		ret.append ( CRLF );
 		if ( this.attendees != null ) {
-			for ( int i = 0; i < this.attendees.size (); i++ ) {
-				Attendee attendee = (Attendee) this.attendees.elementAt ( i );
-				ret.append ( attendee.toICalendar () );
-			}
+			for ( int i = 0; i < this.attendees.size (); i++ )
+				out.writeProperty ( this.attendees.elementAt ( i ) );
 		}
 		if ( status != STATUS_UNDEFINED ) {
 			switch ( status ) {
 				case STATUS_CONFIRMED:
-					ret.append ( "STATUS:CONFIRMED" );
-					ret.append ( CRLF );
+					out.writeLine ( "STATUS:CONFIRMED" );
 					break;
 				case STATUS_TENTATIVE:
-					ret.append ( "STATUS:TENTATIVE" );
-					ret.append ( CRLF );
+					out.writeLine ( "STATUS:TENTATIVE" );
 					break;
 				case STATUS_CANCELLED:
-					ret.append ( "STATUS:CANCELLED" );
-					ret.append ( CRLF );
+					out.writeLine ( "STATUS:CANCELLED" );
 					break;
 			}
 		}
 
-		ret.append ( "END:VEVENT" );
-		ret.append ( CRLF );
+		out.writeLine ( "END:VEVENT" );
+	}
+
+	/**
+	 * The EXDATE and RDATE Vectors and their sizes at one time, to notice dates
+	 * added to or removed from the Vectors returned by getExceptions and
+	 * getRdates (for getOccurrences and write).
+	 */
+	private static class DateLists {
+		Vector<Date> exdates, rdates;
+		int exdateCount, rdateCount;
 
-		return ret.toString ();
+		DateLists(Vector<Date> exdates, Vector<Date> rdates) {
+			this.exdates = exdates;
+			this.rdates = rdates;
+			this.exdateCount = exdates == null ? 0 : exdates.size ();
+			this.rdateCount = rdates == null ? 0 : rdates.size ();
+		}
+
+		boolean isSame ( Vector<Date> exdates, Vector<Date> rdates ) {
+			return exdates == this.exdates && rdates == this.rdates
+			    && ( exdates == null || exdates.size () == exdateCount )
+			    && ( rdates == null || rdates.size () == rdateCount );
+		}
+	}
+
+	/**
+	 * The text of a property that will be parsed when it is first needed.
+	 */
+	private static class LazyProperty {
+		int id;
+		int lineNo;
+		String line;
+		LazyProperty next = null;
+
+		LazyProperty(int id, int lineNo, String line) {
+			this.id = id;
+			this.lineNo = lineNo;
+			this.line = line;
+		}
 	}
 
 }
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * An index of events by time so that the events within a range of dates can
+ * be found without looking at every event. Each event is stored in an
+ * interval tree (a balanced binary tree sorted by start time where each node
+ * also holds the latest end time below it). Repeating events are stored with
+ * the time from their first start date through their last end date (which
+ * may be forever), and the dates of a repeating event are only generated when
+ * that range overlaps the range being searched.<br/>
+ * Times are compared as UTC for dates with a timezone; floating and date-only
+ * values are compared as if they were UTC.<br/>
+ * Note: If an event's dates are changed after it is added, it must be
+ * removed and added again.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see DefaultDataStore#getEvents(Date, Date)
+ */
+public class EventIndex {
+	/** Repeating events with more than this many dates are indexed forever */
+	private static final int MAX_COUNT = 10000;
+	private static final long SECONDS_PER_DAY = 24L * 3600L;
+	private Node root = null;
+	private int size = 0;
+	private Random random = new Random ( 1 );
+
+	/**
+	 * A node in the tree (a treap: sorted by start, heap-ordered by priority).
+	 */
+	private static class Node {
+		Event event;
+		long start, end, maxEnd;
+		/** Length of each occurrence in seconds (for repeating events) */
+		long duration;
+		boolean repeats;
+		int priority;
+		Node left, right;
+
+		void update () {
+			maxEnd = end;
+			if ( left != null && left.maxEnd > maxEnd )
+				maxEnd = left.maxEnd;
+			if ( right != null && right.maxEnd > maxEnd )
+				maxEnd = right.maxEnd;
+		}
+	}
+
+	/**
+	 * Create an empty index.
+	 */
+	public EventIndex() {
+	}
+
+	/**
+	 * Get the number of events in the index.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Add an event to the index. Events without a start date are ignored.
+	 *
+	 * @param event
+	 *          The event to add
+	 */
+	public void addEvent ( Event event ) {
+		Date startDate = event.getStartDate ();
+		if ( startDate == null )
+			return;
+		Node node = new Node ();
+		node.event = event;
+		node.start = seconds ( startDate );
+		node.duration = getDuration ( event );
+		node.repeats = event.getRrule () != null
+		    || ( event.getRdates () != null && event.getRdates ().size () > 0 );
+		// Zero-length events still occupy the second they start on
+		node.end = node.repeats ? getLastStart ( event, node.start )
+		    : node.start;
+		if ( node.end != Long.MAX_VALUE )
+			node.end += Math.max ( node.duration, 1 );
+		node.priority = random.nextInt ();
+		node.update ();
+		root = insert ( root, node );
+		size++;
+	}
+
+	/**
+	 * Remove an event from the index. This looks at every event, since the
+	 * dates of the event may have changed since it was added.
+	 *
+	 * @param event
+	 *          The event to remove
+	 * @return true if the event was found
+	 */
+	public boolean removeEvent ( Event event ) {
+		int oldSize = size;
+		root = remove ( root, event );
+		return size < oldSize;
+	}
+
+	/**
+	 * Get the events that occur within a range of dates. An event is included
+	 * if any of its dates (start date, RRULE or RDATE, excluding EXDATE)
+	 * overlaps the range.
+	 *
+	 * @param windowStart
+	 *          The start of the range
+	 * @param windowEnd
+	 *          The end of the range; events that start on or after this are not
+	 *          included
+	 * @return The events, sorted by their first start date
+	 */
+	public Vector<Event> getEvents ( Date windowStart, Date windowEnd ) {
+		Vector<Event> ret = new Vector<Event> ();
+		find ( root, seconds ( windowStart ), seconds ( windowEnd ), windowStart,
+		    windowEnd, ret );
+		return ret;
+	}
+
+	private void find ( Node node, long start, long end, Date windowStart,
+	    Date windowEnd, Vector<Event> ret ) {
+		// No event below this node ends after the start of the range
+		if ( node == null || node.maxEnd <= start )
+			return;
+		find ( node.left, start, end, windowStart, windowEnd, ret );
+		if ( node.start >= end )
+			return;
+		if ( node.end > start
+		    && ( !node.repeats || occursIn ( node, windowStart, windowEnd ) ) )
+			ret.addElement ( node.event );
+		find ( node.right, start, end, windowStart, windowEnd, ret );
+	}
+
+	/**
+	 * Does a repeating event have a date that overlaps a range?
+	 */
+	private static boolean occursIn ( Node node, Date windowStart,
+	    Date windowEnd ) {
+		// Look for dates that start before the range but end within it
+		Date from = node.duration > 0 ? shift ( windowStart, node.duration - 1 )
+		    : windowStart;
+		return node.event.occurrenceIterator ( from, windowEnd ).hasNext ();
+	}
+
+	private Node insert ( Node node, Node newNode ) {
+		if ( node == null )
+			return newNode;
+		if ( newNode.start < node.start ) {
+			node.left = insert ( node.left, newNode );
+			if ( node.left.priority > node.priority )
+				node = rotateRight ( node );
+		} else {
+			node.right = insert ( node.right, newNode );
+			if ( node.right.priority > node.priority )
+				node = rotateLeft ( node );
+		}
+		node.update ();
+		return node;
+	}
+
+	private Node remove ( Node node, Event event ) {
+		if ( node == null )
+			return null;
+		if ( node.event == event ) {
+			size--;
+			return merge ( node.left, node.right );
+		}
+		// The start date may have changed, so look on both sides
+		int oldSize = size;
+		node.left = remove ( node.left, event );
+		if ( size == oldSize )
+			node.right = remove ( node.right, event );
+		node.update ();
+		return node;
+	}
+
+	private Node merge ( Node left, Node right ) {
+		if ( left == null )
+			return right;
+		if ( right == null )
+			return left;
+		if ( left.priority > right.priority ) {
+			left.right = merge ( left.right, right );
+			left.update ();
+			return left;
+		}
+		right.left = merge ( left, right.left );
+		right.update ();
+		return right;
+	}
+
+	private static Node rotateRight ( Node node ) {
+		Node left = node.left;
+		node.left = left.right;
+		left.right = node;
+		node.update ();
+		left.update ();
+		return left;
+	}
+
+	private static Node rotateLeft ( Node node ) {
+		Node right = node.right;
+		node.right = right.left;
+		right.left = node;
+		node.update ();
+		right.update ();
+		return right;
+	}
+
+	/**
+	 * Get the time of a date in seconds (see CompactDate.getSeconds).
+	 */
+	static long seconds ( Date date ) {
+		return CompactDate.valueOf ( date ).getSeconds ();
+	}
+
+	/**
+	 * Get the length of an event in seconds.
+	 */
+	static long getDuration ( Event event ) {
+		Date startDate = event.getStartDate ();
+		Date endDate = event.getEndDate ();
+		if ( endDate != null )
+			return Math.max ( seconds ( endDate ) - seconds ( startDate ), 0 );
+		Duration duration = event.getDuration ();
+		if ( duration != null )
+			return duration.duration;
+		return startDate.isDateOnly () ? SECONDS_PER_DAY : 0;
+	}
+
+	/**
+	 * Get the start of the last date of a repeating event.
+	 *
+	 * @return The start time in seconds or Long.MAX_VALUE if the event repeats
+	 *         forever
+	 */
+	private static long getLastStart ( Event event, long start ) {
+		Rrule rrule = event.getRrule ();
+		long last = start;
+		Vector<Date> rdates = event.getRdates ();
+		for ( int i = 0; rdates != null && i < rdates.size (); i++ )
+			last = Math.max ( last, seconds ( rdates.elementAt ( i ) ) );
+		if ( rrule == null )
+			return last;
+		if ( rrule.untilDate != null ) {
+			// UNTIL may be in UTC while the event is not, so allow an extra day
+			return Math.max ( last, seconds ( rrule.untilDate ) + SECONDS_PER_DAY );
+		}
+		if ( rrule.count > 0 && rrule.count <= MAX_COUNT ) {
+			Iterator<Date> iter = event.occurrenceIterator ();
+			while ( iter.hasNext () )
+				last = Math.max ( last, seconds ( iter.next () ) );
+			return last;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Create a new floating Date that is earlier than a Date.
+	 *
+	 * @param seconds
+	 *          The number of seconds to subtract
+	 */
+	static Date shift ( Date date, long seconds ) {
+		long local = RruleIterator.toLocalSeconds ( date ) - seconds;
+		long days = TimezoneCache.floorDiv ( local, SECONDS_PER_DAY );
+		int ymd = TimezoneCache.civilFromDays ( days );
+		int secs = (int) ( local - days * SECONDS_PER_DAY );
+		Date ret;
+		try {
+			ret = new Date ( "DTSTART", ymd >> 9, ( ymd >> 5 ) & 0xf, ymd & 0x1f,
+			    secs / 3600, ( secs / 60 ) % 60, secs % 60 );
+		} catch ( BogusDataException e ) {
+			// Should not happen since the values came from a valid date
+			throw new IllegalStateException ( e.toString () );
+		}
+		ret.removeNamedAttribute ( "TZID" );
+		ret.tzid = null;
+		if ( date.tzid != null && !date.isDateOnly () ) {
+			ret.tzid = date.tzid;
+			ret.addAttribute ( "TZID", date.tzid );
+		}
+		ret.setFloating ( date.isFloating () || date.isDateOnly () );
+		return ret;
+	}
+
+}
@@ -11,7 +11,7 @@
  * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
  * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
  * License for more details.
- * 
+ *
  * A copy of the GNU Lesser General Public License is included in the Wine
  * distribution in the file COPYING.LIB. If you did not receive this copy,
  * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
@@ -20,14 +20,444 @@
 
 package us.k5n.ical;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Vector;
+
 /**
- * iCalendar Freebusy class
- * 
+ * iCalendar Freebusy class: VFREEBUSY components list the periods of time
+ * that a calendar user is busy within a range of dates. Periods are stored as
+ * UTC times, as required by RFC 2445. Use FreebusyCalculator to create a
+ * Freebusy object from events.
+ *
  * @author Craig Knudsen, craig@k5n.us
+ * @see FreebusyCalculator
  */
-public class Freebusy {
+public class Freebusy implements Constants {
+	private static final long SECONDS_PER_DAY = 24L * 3600L;
+	/** Unique Id */
+	protected Uid uid = null;
+	/** Time created */
+	protected Date dtstamp = null;
+	/** Start of the range of dates */
+	protected Date startDate = null;
+	/** End of the range of dates */
+	protected Date endDate = null;
+	/** Calendar user the free/busy time is for */
+	protected Attendee attendee = null;
+	/** Busy periods: start and end times (UTC seconds since 1970) and types */
+	private long[] periodStarts = new long[8];
+	private long[] periodEnds = new long[8];
+	private int[] periodTypes = new int[8];
+	private int numPeriods = 0;
+
+	/**
+	 * Create an empty Freebusy object.
+	 */
 	public Freebusy() {
-		// TODO
+		uid = new Uid ();
+		dtstamp = Date.getCurrentDateTime ( "DTSTAMP" );
+	}
+
+	/**
+	 * Create a Freebusy object for a range of dates.
+	 *
+	 * @param startDate
+	 *          The start of the range
+	 * @param endDate
+	 *          The end of the range
+	 */
+	public Freebusy(Date startDate, Date endDate) {
+		this ();
+		this.startDate = startDate;
+		this.endDate = endDate;
+	}
+
+	/**
+	 * Create a Freebusy object based on the specified iCalendar data
+	 *
+	 * @param parser
+	 *          The IcalParser object
+	 * @param initialLine
+	 *          The starting line number
+	 * @Param textLines Vector of iCalendar text lines
+	 */
+	public Freebusy(CalendarParser parser, int initialLine,
+	    Vector<String> textLines) {
+		for ( int i = 0; i < textLines.size (); i++ ) {
+			String line = textLines.elementAt ( i );
+			try {
+				parseLine ( line, parser.getParseMethod () );
+			} catch ( BogusDataException bde ) {
+				parser.reportParseError ( new ParseError ( initialLine + i, bde.error,
+				    line ) );
+			} catch ( ParseException pe ) {
+				parser.reportParseError ( new ParseError ( initialLine + i, pe.error,
+				    line ) );
+			}
+		}
+		// must have UID
+		if ( uid == null )
+			uid = new Uid ();
+	}
+
+	/**
+	 * Was enough information parsed for this Freebusy to be valid?
+	 */
+	public boolean isValid () {
+		return true;
+	}
+
+	/**
+	 * Parse a line of iCalendar text. The other VFREEBUSY properties of RFC 2445
+	 * (ORGANIZER, URL, COMMENT, CONTACT and REQUEST-STATUS) and X- properties
+	 * are ignored. Any other line is a ParseException with PARSE_STRICT and is
+	 * ignored with PARSE_LOOSE.
+	 *
+	 * @param line
+	 *          The line of text
+	 * @param parseMethod
+	 *          PARSE_STRICT or PARSE_LOOSE
+	 */
+	public void parseLine ( String icalStr, int parseMethod )
+	    throws ParseException, BogusDataException {
+		switch ( PropertyNames.lookup ( icalStr ) ) {
+			case PropertyNames.BLANK:
+				// ignore empty lines
+				break;
+			case PropertyNames.BEGIN:
+			case PropertyNames.END:
+				if ( icalStr.equalsIgnoreCase ( "BEGIN:VFREEBUSY" )
+				    || icalStr.equalsIgnoreCase ( "END:VFREEBUSY" ) ) {
+					// ignore
+				} else if ( parseMethod == PARSE_STRICT ) {
+					throw new ParseException ( "Unexpected line in VFREEBUSY", icalStr );
+				}
+				break;
+			case PropertyNames.UID:
+				uid = new Uid ( icalStr );
+				break;
+			case PropertyNames.DTSTAMP:
+				dtstamp = new Date ( icalStr );
+				break;
+			case PropertyNames.DTSTART:
+				startDate = new Date ( icalStr );
+				break;
+			case PropertyNames.DTEND:
+				endDate = new Date ( icalStr );
+				break;
+			case PropertyNames.ATTENDEE:
+				attendee = new Attendee ( icalStr, parseMethod );
+				break;
+			case PropertyNames.FREEBUSY:
+				parseFreebusy ( icalStr, parseMethod );
+				break;
+			case PropertyNames.COMMENT:
+			case PropertyNames.URL:
+				// not supported
+				break;
+			default:
+				if ( isNamed ( icalStr, "ORGANIZER" ) || isNamed ( icalStr, "CONTACT" )
+				    || isNamed ( icalStr, "REQUEST-STATUS" )
+				    || PropertyNames.startsWith ( icalStr, "X-" ) ) {
+					// not supported
+				} else if ( parseMethod == PARSE_STRICT ) {
+					throw new ParseException ( "Unknown VFREEBUSY property", icalStr );
+				}
+		}
+	}
+
+	/**
+	 * Is a line a property with the specified name (ignoring case)?
+	 */
+	private static boolean isNamed ( String icalStr, String name ) {
+		int len = name.length ();
+		return PropertyNames.startsWith ( icalStr, name )
+		    && icalStr.length () > len
+		    && ( icalStr.charAt ( len ) == ':' || icalStr.charAt ( len ) == ';' );
+	}
+
+	/**
+	 * Parse a FREEBUSY line, which has a list of periods.
+	 */
+	private void parseFreebusy ( String icalStr, int parseMethod )
+	    throws ParseException, BogusDataException {
+		Property p = new Property ( icalStr, parseMethod );
+		int type = FBTYPE_BUSY;
+		Attribute a = p.getNamedAttribute ( "FBTYPE" );
+		if ( a != null ) {
+			String str = a.value.toUpperCase ();
+			if ( str.equals ( "FREE" ) )
+				type = FBTYPE_FREE;
+			else if ( str.equals ( "BUSY-UNAVAILABLE" ) )
+				type = FBTYPE_BUSY_UNAVAILABLE;
+			else if ( str.equals ( "BUSY-TENTATIVE" ) )
+				type = FBTYPE_BUSY_TENTATIVE;
+			else if ( !str.equals ( "BUSY" ) && parseMethod == PARSE_STRICT )
+				throw new BogusDataException ( "Invalid FBTYPE", icalStr );
+		}
+		String[] periods = p.getValue ().split ( "," );
+		for ( int i = 0; i < periods.length; i++ ) {
+			String period = periods[i].trim ();
+			int slash = period.indexOf ( '/' );
+			if ( slash < 0 )
+				throw new BogusDataException ( "Invalid FREEBUSY period", icalStr );
+			long start = parseUTC ( period.substring ( 0, slash ), icalStr );
+			String endStr = period.substring ( slash + 1 );
+			long end;
+			if ( endStr.startsWith ( "P" ) || endStr.startsWith ( "+P" ) )
+				end = start + Duration.parseDuration ( endStr );
+			else
+				end = parseUTC ( endStr, icalStr );
+			addPeriod ( start, end, type );
+		}
+	}
+
+	/**
+	 * Parse a UTC date-time (19970308T160000Z) into seconds since 1970.
+	 */
+	private static long parseUTC ( String str, String icalStr )
+	    throws BogusDataException {
+		if ( str.length () != 16 || str.charAt ( 8 ) != 'T'
+		    || Character.toUpperCase ( str.charAt ( 15 ) ) != 'Z' )
+			throw new BogusDataException ( "Invalid UTC date-time", icalStr );
+		try {
+			return TimezoneCache.daysFromCivil ( Integer.parseInt ( str.substring (
+			    0, 4 ) ), Integer.parseInt ( str.substring ( 4, 6 ) ), Integer
+			    .parseInt ( str.substring ( 6, 8 ) ) )
+			    * SECONDS_PER_DAY
+			    + Integer.parseInt ( str.substring ( 9, 11 ) )
+			    * 3600L
+			    + Integer.parseInt ( str.substring ( 11, 13 ) )
+			    * 60L
+			    + Integer.parseInt ( str.substring ( 13, 15 ) );
+		} catch ( NumberFormatException e ) {
+			throw new BogusDataException ( "Invalid UTC date-time", icalStr );
+		}
+	}
+
+	/**
+	 * Format seconds since 1970 as a UTC date-time (19970308T160000Z).
+	 */
+	static String formatUTC ( long seconds ) {
+		long days = TimezoneCache.floorDiv ( seconds, SECONDS_PER_DAY );
+		int ymd = TimezoneCache.civilFromDays ( days );
+		int secs = (int) ( seconds - days * SECONDS_PER_DAY );
+		StringBuffer sb = new StringBuffer ( 16 );
+		sb.append ( ymd >> 9 );
+		append2 ( sb, ( ymd >> 5 ) & 0xf );
+		append2 ( sb, ymd & 0x1f );
+		sb.append ( 'T' );
+		append2 ( sb, secs / 3600 );
+		append2 ( sb, ( secs / 60 ) % 60 );
+		append2 ( sb, secs % 60 );
+		sb.append ( 'Z' );
+		return sb.toString ();
+	}
+
+	private static void append2 ( StringBuffer sb, int n ) {
+		if ( n < 10 )
+			sb.append ( '0' );
+		sb.append ( n );
+	}
+
+	/**
+	 * Create a Date from UTC seconds since 1970. (The Date will be converted to
+	 * the local timezone.)
+	 */
+	static Date toDate ( String name, long seconds ) {
+		try {
+			return new Date ( name + ":" + formatUTC ( seconds ) );
+		} catch ( Exception e ) {
+			// Should not happen since formatUTC creates a valid date
+			throw new IllegalStateException ( e.toString () );
+		}
+	}
+
+	/**
+	 * Add a busy period.
+	 *
+	 * @param start
+	 *          The start of the period
+	 * @param end
+	 *          The end of the period
+	 * @param fbtype
+	 *          The type of period (FBTYPE_BUSY, FBTYPE_BUSY_TENTATIVE, etc.)
+	 */
+	public void addPeriod ( Date start, Date end, int fbtype ) {
+		addPeriod ( EventIndex.seconds ( start ), EventIndex.seconds ( end ),
+		    fbtype );
+	}
+
+	/**
+	 * Add a busy period.
+	 *
+	 * @param start
+	 *          The start of the period (UTC seconds since 1970)
+	 * @param end
+	 *          The end of the period (UTC seconds since 1970)
+	 */
+	void addPeriod ( long start, long end, int fbtype ) {
+		if ( numPeriods == periodStarts.length ) {
+			int newSize = numPeriods * 2;
+			long[] newStarts = new long[newSize];
+			long[] newEnds = new long[newSize];
+			int[] newTypes = new int[newSize];
+			System.arraycopy ( periodStarts, 0, newStarts, 0, numPeriods );
+			System.arraycopy ( periodEnds, 0, newEnds, 0, numPeriods );
+			System.arraycopy ( periodTypes, 0, newTypes, 0, numPeriods );
+			periodStarts = newStarts;
+			periodEnds = newEnds;
+			periodTypes = newTypes;
+		}
+		periodStarts[numPeriods] = start;
+		periodEnds[numPeriods] = end;
+		periodTypes[numPeriods] = fbtype;
+		numPeriods++;
+	}
+
+	/**
+	 * Get the number of busy periods.
+	 */
+	public int getPeriodCount () {
+		return numPeriods;
+	}
+
+	/**
+	 * Get the start of a busy period.
+	 */
+	public Date getPeriodStart ( int i ) {
+		return toDate ( "DTSTART", getPeriodStartSeconds ( i ) );
+	}
+
+	/**
+	 * Get the end of a busy period.
+	 */
+	public Date getPeriodEnd ( int i ) {
+		return toDate ( "DTEND", getPeriodEndSeconds ( i ) );
+	}
+
+	long getPeriodStartSeconds ( int i ) {
+		if ( i >= numPeriods )
+			throw new ArrayIndexOutOfBoundsException ( i );
+		return periodStarts[i];
+	}
+
+	long getPeriodEndSeconds ( int i ) {
+		if ( i >= numPeriods )
+			throw new ArrayIndexOutOfBoundsException ( i );
+		return periodEnds[i];
+	}
+
+	/**
+	 * Get the type of a busy period.
+	 *
+	 * @return FBTYPE_BUSY, FBTYPE_BUSY_TENTATIVE, FBTYPE_BUSY_UNAVAILABLE or
+	 *         FBTYPE_FREE
+	 */
+	public int getPeriodType ( int i ) {
+		if ( i >= numPeriods )
+			throw new ArrayIndexOutOfBoundsException ( i );
+		return periodTypes[i];
+	}
+
+	public Uid getUid () {
+		return uid;
+	}
+
+	public void setUid ( Uid uid ) {
+		this.uid = uid;
+	}
+
+	public Date getDtstamp () {
+		return dtstamp;
+	}
+
+	public void setDtstamp ( Date dtstamp ) {
+		this.dtstamp = dtstamp;
+	}
+
+	public Date getStartDate () {
+		return startDate;
+	}
+
+	public void setStartDate ( Date startDate ) {
+		this.startDate = startDate;
+	}
+
+	public Date getEndDate () {
+		return endDate;
+	}
+
+	public void setEndDate ( Date endDate ) {
+		this.endDate = endDate;
+	}
+
+	public Attendee getAttendee () {
+		return attendee;
+	}
+
+	public void setAttendee ( Attendee attendee ) {
+		this.attendee = attendee;
+	}
+
+	/**
+	 * Convert this Freebusy into iCalendar text. The periods of each type are
+	 * put on a single (folded) FREEBUSY line.
+	 */
+	public String toICalendar () {
+		StringWriter sw = new StringWriter ( 128 + numPeriods * 34 );
+		try {
+			write ( new ICalendarWriter ( sw ) );
+		} catch ( IOException e ) {
+			// StringWriter does not throw IOException
+			throw new IllegalStateException ( e.toString () );
+		}
+		return sw.toString ();
+	}
+
+	/**
+	 * Write this Freebusy as iCalendar text.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		out.writeLine ( "BEGIN:VFREEBUSY" );
+
+		if ( uid != null )
+			out.writeProperty ( uid );
+		if ( dtstamp != null )
+			out.writeProperty ( dtstamp );
+		if ( startDate != null )
+			out.writeProperty ( startDate );
+		if ( endDate != null )
+			out.writeProperty ( endDate );
+		if ( attendee != null )
+			out.writeProperty ( attendee );
+		for ( int type = FBTYPE_FREE; type <= FBTYPE_BUSY_TENTATIVE; type++ ) {
+			StringBuffer line = null;
+			for ( int i = 0; i < numPeriods; i++ ) {
+				if ( periodTypes[i] != type )
+					continue;
+				if ( line == null ) {
+					line = new StringBuffer ( "FREEBUSY" );
+					if ( type == FBTYPE_FREE )
+						line.append ( ";FBTYPE=FREE" );
+					else if ( type == FBTYPE_BUSY_UNAVAILABLE )
+						line.append ( ";FBTYPE=BUSY-UNAVAILABLE" );
+					else if ( type == FBTYPE_BUSY_TENTATIVE )
+						line.append ( ";FBTYPE=BUSY-TENTATIVE" );
+					line.append ( ':' );
+				} else {
+					line.append ( ',' );
+				}
+				line.append ( formatUTC ( periodStarts[i] ) );
+				line.append ( '/' );
+				line.append ( formatUTC ( periodEnds[i] ) );
+			}
+			if ( line != null )
+				out.writeLine ( line.toString () );
+		}
+
+		out.writeLine ( "END:VFREEBUSY" );
 	}
 
 }
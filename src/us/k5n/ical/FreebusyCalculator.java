@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates free/busy time from the events in one or more calendars. The
+ * dates of each event within the requested range are generated (including
+ * repeating events), transparent (TRANSP:TRANSPARENT) and cancelled events
+ * are skipped, and the busy times are merged into non-overlapping periods
+ * with a single sorted pass. Tentative events are reported as BUSY-TENTATIVE
+ * unless they overlap a confirmed busy time.<br/>
+ * Busy time for many calendar users can be calculated at once using multiple
+ * threads; the events of a calendar shared by several users are only looked
+ * at once. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * Vector&lt;DataStore&gt; calendars = new Vector&lt;DataStore&gt; ();
+ * calendars.addElement ( parser.getDataStoreAt ( 0 ) );
+ * Freebusy fb = new FreebusyCalculator ().getFreebusy ( calendars, start, end );
+ * System.out.println ( fb.toICalendar () );
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * DataStore and Event objects must not be changed while busy time is being
+ * calculated.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Freebusy
+ */
+public class FreebusyCalculator implements Constants {
+	/** Codes stored in the low bits of each busy time key */
+	private static final int START_BUSY = 0;
+	private static final int START_TENTATIVE = 1;
+	private static final int END_BUSY = 2;
+	private static final int END_TENTATIVE = 3;
+	private int parallelism;
+
+	/**
+	 * Create a FreebusyCalculator that will use all available processors.
+	 */
+	public FreebusyCalculator() {
+		this ( Runtime.getRuntime ().availableProcessors () );
+	}
+
+	/**
+	 * Create a FreebusyCalculator.
+	 *
+	 * @param parallelism
+	 *          The number of threads to use when calculating busy time for
+	 *          multiple calendar users
+	 */
+	public FreebusyCalculator(int parallelism) {
+		this.parallelism = parallelism < 1 ? 1 : parallelism;
+	}
+
+	/**
+	 * Get the number of threads used.
+	 */
+	public int getParallelism () {
+		return parallelism;
+	}
+
+	/**
+	 * Calculate the busy time for one calendar user.
+	 *
+	 * @param calendars
+	 *          The user's calendars
+	 * @param windowStart
+	 *          The start of the range of dates
+	 * @param windowEnd
+	 *          The end of the range of dates
+	 * @return The busy time within the range
+	 */
+	public Freebusy getFreebusy ( Vector<DataStore> calendars, Date windowStart,
+	    Date windowEnd ) {
+		BusyTimes busy = new BusyTimes ();
+		for ( int i = 0; i < calendars.size (); i++ )
+			busy.addAll ( getBusyTimes ( calendars.elementAt ( i ), windowStart,
+			    windowEnd ) );
+		return createFreebusy ( busy, windowStart, windowEnd );
+	}
+
+	/**
+	 * Calculate the busy time for many calendar users using multiple threads.
+	 *
+	 * @param calendars
+	 *          The calendars of each user, keyed by the user's calendar address
+	 *          ("MAILTO:joe@k5n.us", etc.) The same DataStore may be listed for
+	 *          more than one user.
+	 * @param windowStart
+	 *          The start of the range of dates
+	 * @param windowEnd
+	 *          The end of the range of dates
+	 * @return The busy time of each user (with the ATTENDEE set to the
+	 *         calendar address), keyed by calendar address
+	 */
+	public Map<String, Freebusy> getFreebusy (
+	    Map<String, Vector<DataStore>> calendars, final Date windowStart,
+	    final Date windowEnd ) {
+		ForkJoinPool pool = new ForkJoinPool ( parallelism );
+		try {
+			// Find the busy times of each calendar once
+			IdentityHashMap<DataStore, Future<BusyTimes>> pending = new IdentityHashMap<DataStore, Future<BusyTimes>> ();
+			for ( Vector<DataStore> list : calendars.values () ) {
+				for ( int i = 0; i < list.size (); i++ ) {
+					final DataStore ds = list.elementAt ( i );
+					if ( !pending.containsKey ( ds ) ) {
+						pending.put ( ds, pool.submit ( new Callable<BusyTimes> () {
+							public BusyTimes call () {
+								return getBusyTimes ( ds, windowStart, windowEnd );
+							}
+						} ) );
+					}
+				}
+			}
+			final IdentityHashMap<DataStore, BusyTimes> busyTimes = new IdentityHashMap<DataStore, BusyTimes> ();
+			for ( Map.Entry<DataStore, Future<BusyTimes>> e : pending.entrySet () )
+				busyTimes.put ( e.getKey (), get ( e.getValue () ) );
+
+			// Then merge the busy times for each user
+			HashMap<String, Future<Freebusy>> results = new HashMap<String, Future<Freebusy>> ();
+			for ( Map.Entry<String, Vector<DataStore>> e : calendars.entrySet () ) {
+				final String address = e.getKey ();
+				final Vector<DataStore> list = e.getValue ();
+				results.put ( address, pool.submit ( new Callable<Freebusy> () {
+					public Freebusy call () {
+						BusyTimes busy = new BusyTimes ();
+						for ( int i = 0; i < list.size (); i++ )
+							busy.addAll ( busyTimes.get ( list.elementAt ( i ) ) );
+						Freebusy fb = createFreebusy ( busy, windowStart, windowEnd );
+						try {
+							fb.setAttendee ( new Attendee ( "ATTENDEE:" + address ) );
+						} catch ( ParseException e1 ) {
+							// Leave the attendee out
+						}
+						return fb;
+					}
+				} ) );
+			}
+			HashMap<String, Freebusy> ret = new HashMap<String, Freebusy> ();
+			for ( Map.Entry<String, Future<Freebusy>> e : results.entrySet () )
+				ret.put ( e.getKey (), get ( e.getValue () ) );
+			return ret;
+		} finally {
+			pool.shutdown ();
+		}
+	}
+
+	/**
+	 * Wait for a task to finish.
+	 */
+	private static <T> T get ( Future<T> future ) {
+		try {
+			return future.get ();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread ().interrupt ();
+			throw new IllegalStateException ( "Interrupted while calculating free/busy" );
+		} catch ( ExecutionException e ) {
+			if ( e.getCause () instanceof RuntimeException )
+				throw (RuntimeException) e.getCause ();
+			throw new IllegalStateException ( "Error calculating free/busy: "
+			    + e.getCause () );
+		}
+	}
+
+	/**
+	 * Get the busy times for the events in a calendar. DefaultDataStore objects
+	 * use their EventIndex to find the events in the range of dates.
+	 */
+	static BusyTimes getBusyTimes ( DataStore ds, Date windowStart,
+	    Date windowEnd ) {
+		Vector<Event> events = ds instanceof DefaultDataStore ? ( (DefaultDataStore) ds )
+		    .getEvents ( windowStart, windowEnd )
+		    : ds.getAllEvents ();
+		long start = EventIndex.seconds ( windowStart );
+		long end = EventIndex.seconds ( windowEnd );
+		BusyTimes busy = new BusyTimes ();
+		for ( int i = 0; i < events.size (); i++ )
+			addBusyTimes ( events.elementAt ( i ), start, end, windowStart,
+			    windowEnd, busy );
+		return busy;
+	}
+
+	/**
+	 * Add the busy times of an event.
+	 */
+	private static void addBusyTimes ( Event event, long start, long end,
+	    Date windowStart, Date windowEnd, BusyTimes busy ) {
+		if ( event.getStartDate () == null
+		    || event.getTransp () == TRANSP_TRANSPARENT
+		    || event.getStatus () == STATUS_CANCELLED )
+			return;
+		long duration = EventIndex.getDuration ( event );
+		// Events with no length do not take up any time
+		if ( duration <= 0 )
+			return;
+		boolean tentative = event.getStatus () == STATUS_TENTATIVE;
+		// Include dates that start before the range but end within it
+		Iterator<Date> iter = event.occurrenceIterator ( EventIndex.shift (
+		    windowStart, duration - 1 ), windowEnd );
+		while ( iter.hasNext () ) {
+			long s = EventIndex.seconds ( iter.next () );
+			long e = Math.min ( s + duration, end );
+			s = Math.max ( s, start );
+			if ( s < e ) {
+				busy.add ( ( s << 2 ) | ( tentative ? START_TENTATIVE : START_BUSY ) );
+				busy.add ( ( e << 2 ) | ( tentative ? END_TENTATIVE : END_BUSY ) );
+			}
+		}
+	}
+
+	/**
+	 * Merge busy times into a Freebusy object.
+	 */
+	static Freebusy createFreebusy ( BusyTimes busy, Date windowStart,
+	    Date windowEnd ) {
+		Freebusy fb = new Freebusy ( Freebusy.toDate ( "DTSTART", EventIndex
+		    .seconds ( windowStart ) ), Freebusy.toDate ( "DTEND", EventIndex
+		    .seconds ( windowEnd ) ) );
+		long[] keys = busy.keys;
+		Arrays.sort ( keys, 0, busy.size );
+		int numBusy = 0, numTentative = 0;
+		int type = FBTYPE_FREE;
+		long periodStart = 0;
+		int i = 0;
+		while ( i < busy.size ) {
+			long time = keys[i] >> 2;
+			// Handle everything that starts or ends at this time together
+			for ( ; i < busy.size && ( keys[i] >> 2 ) == time; i++ ) {
+				switch ( (int) ( keys[i] & 3 ) ) {
+					case START_BUSY:
+						numBusy++;
+						break;
+					case START_TENTATIVE:
+						numTentative++;
+						break;
+					case END_BUSY:
+						numBusy--;
+						break;
+					case END_TENTATIVE:
+						numTentative--;
+						break;
+				}
+			}
+			int newType = numBusy > 0 ? FBTYPE_BUSY
+			    : ( numTentative > 0 ? FBTYPE_BUSY_TENTATIVE : FBTYPE_FREE );
+			if ( newType != type ) {
+				if ( type != FBTYPE_FREE )
+					fb.addPeriod ( periodStart, time, type );
+				periodStart = time;
+				type = newType;
+			}
+		}
+		return fb;
+	}
+
+	/**
+	 * Start and end times of busy periods, each stored as (seconds &lt;&lt; 2 |
+	 * code) so that they can be sorted as longs.
+	 */
+	static class BusyTimes {
+		long[] keys = new long[64];
+		int size = 0;
+
+		void add ( long key ) {
+			if ( size == keys.length ) {
+				long[] newKeys = new long[size * 2];
+				System.arraycopy ( keys, 0, newKeys, 0, size );
+				keys = newKeys;
+			}
+			keys[size++] = key;
+		}
+
+		void addAll ( BusyTimes busy ) {
+			if ( size + busy.size > keys.length ) {
+				long[] newKeys = new long[Math.max ( size * 2, size + busy.size )];
+				System.arraycopy ( keys, 0, newKeys, 0, size );
+				keys = newKeys;
+			}
+			System.arraycopy ( busy.keys, 0, keys, size, busy.size );
+			size += busy.size;
+		}
+	}
+
+}
@@ -20,8 +20,6 @@
 
 package us.k5n.ical;
 
-import java.util.Vector;
-import java.io.BufferedReader;
 import java.io.IOException;
 
 /**
@@ -46,7 +44,11 @@ import java.io.IOException;
  * 
  * </blockquote>
  * 
+ * To process large iCalendar data one component at a time without storing
+ * every component, use ICalendarReader instead.
+ * 
  * @author Craig Knudsen, craig@k5n.us
+ * @see ICalendarReader
  */
 public class ICalendarParser extends CalendarParser implements Constants {
 	Property icalVersion = null;
@@ -112,268 +114,90 @@ public class ICalendarParser extends CalendarParser implements Constants {
 	 */
 	public boolean parse ( java.io.Reader reader ) throws IOException {
 		boolean noErrors = true;
-		String line, nextLine;
-		BufferedReader r = new BufferedReader ( reader );
-		StringBuffer data = new StringBuffer ();
-		StringBuffer notYetParsed;
-		int state = STATE_NONE;
-		int ln = 0; // line number
-		int startLineNo = 0;
-		Vector<String> textLines;
-		boolean done = false;
-
-		// Because iCalendar allows lines to be "folded" (continued) onto
-		// multiple
-		// lines, you need to peek ahead to the next line to know if you have
-		// all the text for what you are trying to parse.
-		// The "line" variable is what is currently being parsed. The "nextLine"
-		// variable contains the next line of text to be processed.
-		// TODO: line numbers in errors may be off for folded lines since the
-		// last line number of the text will be reported.
-		textLines = new Vector<String> ();
-		nextLine = r.readLine ();
-		notYetParsed = new StringBuffer ();
-		if ( nextLine == null ) {
-			// empty file
-		} else {
-			while ( !done ) {
-				line = nextLine;
-				ln++;
-				if ( nextLine != null ) {
-					nextLine = r.readLine ();
-					// if nextLine is null, don't set done to true yet since we
-					// still need another iteration through the while loop for the text
-					// to get processed.
-				}
-				// Check to see if next line is a continuation of the current
-				// line. If it is, then append the contents of the next line
-				// onto the current line.
-				if ( nextLine != null
-				    && nextLine.length () > 0
-				    && ( nextLine.charAt ( 0 ) == SPACE || nextLine.charAt ( 0 ) == TAB ) ) {
-					// Line folding found. Add to previous line and continue.
-					if ( notYetParsed.length () == 0 )
-						notYetParsed.append ( line );
-					notYetParsed.append ( CRLF );
-					notYetParsed.append ( nextLine );
-					// nextLine = line + CRLF + nextLine;
-					continue; // skip back to start of while loop
+		ICalendarReader r = new ICalendarReader ( this, reader );
+		Object component;
+
+		try {
+			while ( ( component = r.readComponent () ) != null ) {
+				if ( component instanceof Event ) {
+					storeEvent ( (Event) component );
+				} else if ( component instanceof Journal ) {
+					// Send the Journal object to all DataStore objects
+					storeJournal ( (Journal) component );
+				} else if ( component instanceof Timezone ) {
+					storeTimezone ( (Timezone) component );
+				} else if ( component instanceof Freebusy ) {
+					storeFreebusy ( (Freebusy) component );
 				}
-				// not a continuation line
-				if ( notYetParsed.length () > 0 )
-					line = notYetParsed.toString ();
-				notYetParsed.setLength ( 0 );
-
-				data.append ( line );
-				String lineUp = line.toUpperCase ();
-
-				// System.out.println ( "[DATA:" + state + "]" + line );
-				switch ( state ) {
-
-					case STATE_NONE:
-						if ( lineUp.startsWith ( "BEGIN:VCALENDAR" ) )
-							state = STATE_VCALENDAR;
-						else if ( lineUp.length () == 0 ) {
-							// ignore leading blank lines
-						} else {
-							// Hmmm... should always start with this.
-							if ( isParseStrict () ) {
-								reportParseError ( new ParseError ( ln,
-								    "Data found outside VCALENDAR block", line ) );
-							}
-						}
-						break;
-
-					case STATE_VCALENDAR:
-						if ( lineUp.startsWith ( "BEGIN:VTIMEZONE" ) ) {
-							state = STATE_VTIMEZONE;
-							startLineNo = ln; // mark starting line number
-							textLines.removeAllElements ();
-							textLines.addElement ( line );
-						} else if ( lineUp.startsWith ( "BEGIN:VEVENT" ) ) {
-							state = STATE_VEVENT;
-							startLineNo = ln; // mark starting line number
-							textLines.removeAllElements ();
-							textLines.addElement ( line );
-						} else if ( lineUp.startsWith ( "BEGIN:VTODO" ) ) {
-							state = STATE_VTODO;
-							startLineNo = ln; // mark starting line number
-							textLines.removeAllElements ();
-							textLines.addElement ( line );
-						} else if ( lineUp.startsWith ( "BEGIN:VJOURNAL" ) ) {
-							state = STATE_VJOURNAL;
-							startLineNo = ln; // mark starting line number
-							textLines.removeAllElements ();
-							textLines.addElement ( line );
-						} else if ( lineUp.startsWith ( "BEGIN:VFREEBUSY" ) ) {
-							state = STATE_VFREEBUSY;
-							startLineNo = ln; // mark starting line number
-							textLines.removeAllElements ();
-							textLines.addElement ( line );
-						} else if ( lineUp.startsWith ( "END:VCALENDAR" ) ) {
-							state = STATE_DONE;
-						} else if ( lineUp.startsWith ( "VERSION" ) ) {
-							if ( icalVersion != null && isParseStrict () ) {
-								// only one of these allowed
-								reportParseError ( new ParseError ( ln,
-								    "Only one VERSION token allowed", line ) );
-							} else {
-								try {
-									icalVersion = new Property ( line, getParseMethod () );
-								} catch ( ParseException e ) {
-									reportParseError ( new ParseError ( ln,
-									    "Parse error in VERSION: " + e.toString (), line ) );
-								}
-							}
-						} else if ( lineUp.startsWith ( "PRODID" ) ) {
-							if ( prodId != null && isParseStrict () ) {
-								// only one of these allowed
-								reportParseError ( new ParseError ( ln,
-								    "Only one PRODID token allowed", line ) );
-							} else {
-								try {
-									prodId = new Property ( line, getParseMethod () );
-								} catch ( ParseException e ) {
-									reportParseError ( new ParseError ( ln,
-									    "Parse error in PRODID: " + e.toString (), line ) );
-								}
-							}
-						} else if ( lineUp.startsWith ( "CALSCALE" ) ) {
-							try {
-								calscale = new Property ( line, getParseMethod () );
-							} catch ( ParseException e ) {
-								reportParseError ( new ParseError ( ln,
-								    "Parse error in CALSCALE: " + e.toString (), line ) );
-							}
-						} else if ( lineUp.startsWith ( "METHOD" ) ) {
-							try {
-								method = new Property ( line, getParseMethod () );
-							} catch ( ParseException e ) {
-								reportParseError ( new ParseError ( ln,
-								    "Parse error in CALSCALE: " + e.toString (), line ) );
-							}
-						} else {
-							// what else could this be???
-							if ( lineUp.trim ().length () == 0 ) {
-								// ignore blank lines
-							} else if ( isParseStrict () ) {
-								reportParseError ( new ParseError ( ln,
-								    "Unrecognized data found in VCALENDAR block", line ) );
-							}
-						}
-						break;
-
-					case STATE_VTIMEZONE:
-						textLines.addElement ( line );
-						if ( lineUp.startsWith ( "END:VTIMEZONE" ) ) {
-							state = STATE_VCALENDAR;
-							Timezone timezone = new Timezone ( this, startLineNo, textLines );
-							if ( timezone.isValid () ) {
-								for ( int i = 0; i < dataStores.size (); i++ ) {
-									DataStore ds = (DataStore) dataStores.elementAt ( i );
-									ds.storeTimezone ( timezone );
-								}
-							}
-							textLines.removeAllElements (); // truncate Vector
-						}
-						break;
-
-					case STATE_VTODO:
-						textLines.addElement ( line );
-						if ( lineUp.startsWith ( "END:VTODO" ) ) {
-							state = STATE_VCALENDAR;
-							// Send the Todo object to all DataStore objects
-							/*****************************************************************
-							 * * TODO - not yet implemented Uncomment this when Todo.java is
-							 * implemented Todo todo = new Todo ( this, startLineNo, textLines
-							 * ); if ( todo.isValid() ) { for ( int i = 0; i <
-							 * dataStores.size(); i++ ) { DataStore ds = (DataStore)
-							 * dataStores.elementAt ( i ); ds.storeTodo ( todo ); } }
-							 ****************************************************************/
-							textLines.removeAllElements (); // truncate Vector
-						}
-						break;
-
-					case STATE_VJOURNAL:
-						textLines.addElement ( line );
-						if ( lineUp.startsWith ( "END:VJOURNAL" ) ) {
-							state = STATE_VCALENDAR;
-							// Send the Journal object to all DataStore objects
-							Journal journal = new Journal ( this, startLineNo, textLines );
-							if ( journal.isValid () ) {
-								for ( int i = 0; i < dataStores.size (); i++ ) {
-									DataStore ds = (DataStore) dataStores.elementAt ( i );
-									ds.storeJournal ( journal );
-								}
-							}
-							textLines.removeAllElements (); // truncate Vector
-						}
-						break;
-
-					case STATE_VEVENT:
-						textLines.addElement ( line );
-						if ( lineUp.startsWith ( "END:VEVENT" ) ) {
-							state = STATE_VCALENDAR;
-							Event event = new Event ( this, startLineNo, textLines );
-							if ( event.isValid () ) {
-								for ( int i = 0; i < dataStores.size (); i++ ) {
-									DataStore ds = (DataStore) dataStores.elementAt ( i );
-									ds.storeEvent ( event );
-								}
-							} else {
-								System.err.println ( "ERROR: Invalid VEVENT found" );
-							}
-							textLines.removeAllElements (); // truncate Vector
-						}
-						break;
+			}
+		} finally {
+			flushDataStores ();
+		}
 
-					case STATE_VFREEBUSY:
-						textLines.addElement ( line );
-						if ( lineUp.startsWith ( "END:VFREEBUSY" ) ) {
-							state = STATE_VCALENDAR;
-							// Send the Freebusy object to all DataStore objects
-							/*****************************************************************
-							 * * TODO - not yet implemented Uncomment this when Freebusy.java
-							 * is implemented Freebusy fb = new Freebusy ( this, startLineNo,
-							 * textLines ); if ( fb.isValid() ) { for ( int i = 0; i <
-							 * dataStores.size(); i++ ) { DataStore ds = (DataStore)
-							 * dataStores.elementAt ( i ); ds.storeFreebusy ( event ); } }
-							 ****************************************************************/
-							textLines.removeAllElements (); // truncate Vector
-						}
-						break;
+		return noErrors;
+	}
 
-					case STATE_DONE:
-						// should be nothing else after "END:VCALENDAR"
-						if ( lineUp.trim ().length () == 0 ) {
-							// ignore blank lines at end of file
-						} else if ( isParseStrict () ) {
-							reportParseError ( new ParseError ( ln,
-							    "Data found after END:VCALENDAR", line ) );
-						}
-						break;
+	/**
+	 * Parse a property found inside the VCALENDAR block but outside of any
+	 * component (VERSION, PRODID, etc.)
+	 * 
+	 * @param line
+	 *          The line of iCalendar text
+	 * @param id
+	 *          The property id of the line (from PropertyNames)
+	 * @param ln
+	 *          The line number
+	 */
+	void parseCalendarProperty ( String line, int id, int ln ) {
+		if ( id == PropertyNames.VERSION ) {
+			if ( icalVersion != null && isParseStrict () ) {
+				// only one of these allowed
+				reportParseError ( new ParseError ( ln,
+				    "Only one VERSION token allowed", line ) );
+			} else {
+				try {
+					icalVersion = new Property ( line, getParseMethod () );
+				} catch ( ParseException e ) {
+					reportParseError ( new ParseError ( ln, "Parse error in VERSION: "
+					    + e.toString (), line ) );
 				}
-				if ( nextLine == null )
-					done = true;
+			}
+		} else if ( id == PropertyNames.PRODID ) {
+			if ( prodId != null && isParseStrict () ) {
+				// only one of these allowed
+				reportParseError ( new ParseError ( ln,
+				    "Only one PRODID token allowed", line ) );
+			} else {
+				try {
+					prodId = new Property ( line, getParseMethod () );
+				} catch ( ParseException e ) {
+					reportParseError ( new ParseError ( ln, "Parse error in PRODID: "
+					    + e.toString (), line ) );
+				}
+			}
+		} else if ( id == PropertyNames.CALSCALE ) {
+			try {
+				calscale = new Property ( line, getParseMethod () );
+			} catch ( ParseException e ) {
+				reportParseError ( new ParseError ( ln, "Parse error in CALSCALE: "
+				    + e.toString (), line ) );
+			}
+		} else if ( id == PropertyNames.METHOD ) {
+			try {
+				method = new Property ( line, getParseMethod () );
+			} catch ( ParseException e ) {
+				reportParseError ( new ParseError ( ln, "Parse error in CALSCALE: "
+				    + e.toString (), line ) );
+			}
+		} else {
+			// what else could this be???
+			if ( id == PropertyNames.BLANK ) {
+				// ignore blank lines
+			} else if ( isParseStrict () ) {
+				reportParseError ( new ParseError ( ln,
+				    "Unrecognized data found in VCALENDAR block", line ) );
 			}
 		}
-		r.close ();
-
-		// Make sure PRODID and VERSION were specified since they are
-		// required
-		if ( icalVersion == null && isParseStrict () ) {
-			reportParseError ( new ParseError ( ln,
-			    "No required VERSION attribute found", "n/a" ) );
-		}
-		if ( prodId == null && isParseStrict () ) {
-			reportParseError ( new ParseError ( ln,
-			    "No required PRODID attribute found", "n/a" ) );
-		}
-
-		// iCalendar data is now in line
-		// TODO: split into event, todo, timezone and journal strings
-
-		return noErrors;
 	}
 
 }
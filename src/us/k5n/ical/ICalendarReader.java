@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * iCalendar pull-style reader. Rather than pushing every parsed object into a
+ * DataStore (like ICalendarParser), this class returns one component at a time
+ * to the caller. Only the text of the component currently being read is held
+ * in memory, so iCalendar data of any size can be processed. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * ICalendarReader r = new ICalendarReader ( new FileReader ( f ), PARSE_LOOSE );
+ * Object component;
+ * while ( ( component = r.readComponent () ) != null ) {
+ * 	if ( component instanceof Event ) {
+ * 		Event event = (Event) component;
+ * 		// ... process event
+ * 	}
+ * }
+ * r.close ();
+ * Vector errors = r.getAllErrors ();
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see ICalendarParser
+ */
+public class ICalendarReader implements Constants {
+	/**
+	 * Placeholder for a line skipped by the property filter. Keeping a (blank)
+	 * line in its place keeps the line numbers in parse errors correct.
+	 */
+	static final String SKIPPED_LINE = "";
+	private ICalendarParser parser;
+	/** Parser with the property filter to apply (may be null) */
+	CalendarParser filter;
+	private BufferedReader r;
+	private String nextLine = null;
+	private boolean started = false;
+	private boolean finished = false;
+	private StringBuffer notYetParsed;
+	private Vector<String> textLines;
+	int state = ICalendarParser.STATE_NONE;
+	/** Current line number */
+	int ln = 0;
+	private int startLineNo = 0;
+
+	/**
+	 * Create an ICalendarReader.
+	 *
+	 * @param reader
+	 *          The java.io.Reader object to read the iCalendar data from. To
+	 *          read from a String object use java.io.StringReader.
+	 * @param parseMethod
+	 *          Specifies the parsing method, which should be either PARSE_STRICT
+	 *          or PARSE_LOOSE.
+	 */
+	public ICalendarReader(Reader reader, int parseMethod) {
+		this ( new ICalendarParser ( parseMethod ), reader );
+		// Objects are returned to the caller, so no DataStore is needed
+		this.parser.removeDataStoreAt ( 0 );
+	}
+
+	/**
+	 * Create an ICalendarReader. The data will be read as UTF-8, which is the
+	 * default charset for iCalendar.
+	 *
+	 * @param is
+	 *          The java.io.InputStream to read the iCalendar data from.
+	 * @param parseMethod
+	 *          Specifies the parsing method, which should be either PARSE_STRICT
+	 *          or PARSE_LOOSE.
+	 */
+	public ICalendarReader(InputStream is, int parseMethod) {
+		this ( new InputStreamReader ( is, Charset.forName ( "UTF-8" ) ),
+		    parseMethod );
+	}
+
+	/**
+	 * Create an ICalendarReader that stores the calendar properties and reports
+	 * parse errors to an existing ICalendarParser. If reader is null, lines must
+	 * be passed to parseLine by the caller.
+	 */
+	ICalendarReader(ICalendarParser parser, Reader reader) {
+		this.parser = parser;
+		this.filter = parser;
+		this.r = reader == null ? null : new BufferedReader ( reader );
+		this.notYetParsed = new StringBuffer ();
+		this.textLines = new Vector<String> ();
+	}
+
+	/**
+	 * Read the next component. Only valid components are returned.
+	 *
+	 * @return The next Event, Journal, Timezone or Freebusy object, or null if
+	 *         the end of the iCalendar data has been reached
+	 */
+	public Object readComponent () throws IOException {
+		RawComponent raw;
+		while ( ( raw = readRawComponent () ) != null ) {
+			Object component = raw.build ( parser );
+			if ( component != null )
+				return component;
+		}
+		return null;
+	}
+
+	/**
+	 * Read the text of the next component without parsing it into an object.
+	 *
+	 * @return The next component or null if the end of the iCalendar data has
+	 *         been reached
+	 */
+	RawComponent readRawComponent () throws IOException {
+		String line;
+		while ( ( line = readLine () ) != null ) {
+			RawComponent raw = parseLine ( line );
+			if ( raw != null )
+				return raw;
+		}
+		finish ();
+		return null;
+	}
+
+	/**
+	 * Get a Vector of all errors encountered so far.
+	 *
+	 * @return A Vector of ParseError objects
+	 */
+	public Vector<ParseError> getAllErrors () {
+		return parser.getAllErrors ();
+	}
+
+	/**
+	 * Add a listener for parse error messages.
+	 *
+	 * @param pel
+	 *          The listener for parse errors
+	 */
+	public void addParseErrorListener ( ParseErrorListener pel ) {
+		parser.addParseErrorListener ( pel );
+	}
+
+	/**
+	 * Set the names of the properties that will be parsed in events and journal
+	 * entries. See CalendarParser.setPropertyFilter for details.
+	 * 
+	 * @param propertyNames
+	 *          The names of the properties to parse or null to parse all
+	 *          properties
+	 */
+	public void setPropertyFilter ( Set<String> propertyNames ) {
+		parser.setPropertyFilter ( propertyNames );
+	}
+
+	/**
+	 * Close the underlying Reader.
+	 */
+	public void close () throws IOException {
+		r.close ();
+	}
+
+	/**
+	 * Read the next logical line. Because iCalendar allows lines to be "folded"
+	 * (continued) onto multiple lines, we need to peek ahead to the next line to
+	 * know if we have all the text for the current line.
+	 *
+	 * @return The next line (with any continuation lines included) or null at
+	 *         the end of the data
+	 */
+	// TODO: line numbers in errors may be off for folded lines since the
+	// last line number of the text will be reported.
+	String readLine () throws IOException {
+		if ( !started ) {
+			nextLine = r.readLine ();
+			started = true;
+		}
+		if ( nextLine == null )
+			return null;
+		String line = nextLine;
+		ln++;
+		nextLine = r.readLine ();
+		if ( filtering () ) {
+			// If we are going to skip this property, don't bother putting the
+			// continuation lines together. (Unknown names might be folded, so
+			// they still need to be joined to be sure.)
+			int id = PropertyNames.lookup ( line );
+			if ( id != PropertyNames.UNKNOWN && !filter.isPropertyWanted ( id ) ) {
+				while ( nextLine != null
+				    && nextLine.length () > 0
+				    && ( nextLine.charAt ( 0 ) == SPACE || nextLine.charAt ( 0 ) == TAB ) ) {
+					ln++;
+					nextLine = r.readLine ();
+				}
+				return line;
+			}
+		}
+		// Check to see if next line is a continuation of the current
+		// line. If it is, then append the contents of the next line
+		// onto the current line.
+		while ( nextLine != null && nextLine.length () > 0
+		    && ( nextLine.charAt ( 0 ) == SPACE || nextLine.charAt ( 0 ) == TAB ) ) {
+			if ( notYetParsed.length () == 0 )
+				notYetParsed.append ( line );
+			notYetParsed.append ( CRLF );
+			notYetParsed.append ( nextLine );
+			ln++;
+			nextLine = r.readLine ();
+		}
+		if ( notYetParsed.length () > 0 ) {
+			line = notYetParsed.toString ();
+			notYetParsed.setLength ( 0 );
+		}
+		return line;
+	}
+
+	/**
+	 * Does the property filter apply to the current line?
+	 */
+	boolean filtering () {
+		return filter != null
+		    && filter.hasPropertyFilter ()
+		    && ( state == ICalendarParser.STATE_VEVENT || state == ICalendarParser.STATE_VJOURNAL );
+	}
+
+	/**
+	 * Process one logical line of iCalendar data.
+	 *
+	 * @return The component completed by this line (if any)
+	 */
+	RawComponent parseLine ( String line ) {
+		RawComponent ret = null;
+		int id = PropertyNames.lookup ( line );
+
+		switch ( state ) {
+
+			case ICalendarParser.STATE_NONE:
+				if ( id == PropertyNames.BEGIN
+				    && PropertyNames.startsWith ( line, "BEGIN:VCALENDAR" ) )
+					state = ICalendarParser.STATE_VCALENDAR;
+				else if ( line.length () == 0 ) {
+					// ignore leading blank lines
+				} else {
+					// Hmmm... should always start with this.
+					if ( parser.isParseStrict () ) {
+						parser.reportParseError ( new ParseError ( ln,
+						    "Data found outside VCALENDAR block", line ) );
+					}
+				}
+				break;
+
+			case ICalendarParser.STATE_VCALENDAR:
+				if ( id == PropertyNames.BEGIN
+				    && PropertyNames.startsWith ( line, "BEGIN:VTIMEZONE" ) ) {
+					startComponent ( ICalendarParser.STATE_VTIMEZONE, line );
+				} else if ( id == PropertyNames.BEGIN
+				    && PropertyNames.startsWith ( line, "BEGIN:VEVENT" ) ) {
+					startComponent ( ICalendarParser.STATE_VEVENT, line );
+				} else if ( id == PropertyNames.BEGIN
+				    && PropertyNames.startsWith ( line, "BEGIN:VTODO" ) ) {
+					startComponent ( ICalendarParser.STATE_VTODO, line );
+				} else if ( id == PropertyNames.BEGIN
+				    && PropertyNames.startsWith ( line, "BEGIN:VJOURNAL" ) ) {
+					startComponent ( ICalendarParser.STATE_VJOURNAL, line );
+				} else if ( id == PropertyNames.BEGIN
+				    && PropertyNames.startsWith ( line, "BEGIN:VFREEBUSY" ) ) {
+					startComponent ( ICalendarParser.STATE_VFREEBUSY, line );
+				} else if ( id == PropertyNames.END
+				    && PropertyNames.startsWith ( line, "END:VCALENDAR" ) ) {
+					state = ICalendarParser.STATE_DONE;
+				} else {
+					parser.parseCalendarProperty ( line, id, ln );
+				}
+				break;
+
+			case ICalendarParser.STATE_VTIMEZONE:
+				textLines.addElement ( line );
+				if ( id == PropertyNames.END
+				    && PropertyNames.startsWith ( line, "END:VTIMEZONE" ) ) {
+					ret = endComponent ();
+				}
+				break;
+
+			case ICalendarParser.STATE_VTODO:
+				textLines.addElement ( line );
+				if ( id == PropertyNames.END
+				    && PropertyNames.startsWith ( line, "END:VTODO" ) ) {
+					ret = endComponent ();
+				}
+				break;
+
+			case ICalendarParser.STATE_VJOURNAL:
+				if ( filtering () && !filter.isPropertyWanted ( id ) )
+					textLines.addElement ( SKIPPED_LINE );
+				else
+					textLines.addElement ( line );
+				if ( id == PropertyNames.END
+				    && PropertyNames.startsWith ( line, "END:VJOURNAL" ) ) {
+					ret = endComponent ();
+				}
+				break;
+
+			case ICalendarParser.STATE_VEVENT:
+				if ( filtering () && !filter.isPropertyWanted ( id ) )
+					textLines.addElement ( SKIPPED_LINE );
+				else
+					textLines.addElement ( line );
+				if ( id == PropertyNames.END
+				    && PropertyNames.startsWith ( line, "END:VEVENT" ) ) {
+					ret = endComponent ();
+				}
+				break;
+
+			case ICalendarParser.STATE_VFREEBUSY:
+				textLines.addElement ( line );
+				if ( id == PropertyNames.END
+				    && PropertyNames.startsWith ( line, "END:VFREEBUSY" ) ) {
+					ret = endComponent ();
+				}
+				break;
+
+			case ICalendarParser.STATE_DONE:
+				// should be nothing else after "END:VCALENDAR"
+				if ( id == PropertyNames.BLANK ) {
+					// ignore blank lines at end of file
+				} else if ( parser.isParseStrict () ) {
+					parser.reportParseError ( new ParseError ( ln,
+					    "Data found after END:VCALENDAR", line ) );
+				}
+				break;
+		}
+		return ret;
+	}
+
+	private void startComponent ( int newState, String line ) {
+		state = newState;
+		startLineNo = ln; // mark starting line number
+		textLines.removeAllElements ();
+		textLines.addElement ( line );
+	}
+
+	private RawComponent endComponent () {
+		RawComponent ret = new RawComponent ( state, startLineNo, textLines );
+		// The text lines now belong to the RawComponent
+		textLines = new Vector<String> ();
+		state = ICalendarParser.STATE_VCALENDAR;
+		return ret;
+	}
+
+	/**
+	 * Called once the end of the data has been reached.
+	 */
+	void finish () throws IOException {
+		if ( finished )
+			return;
+		finished = true;
+		if ( r != null )
+			r.close ();
+
+		// Make sure PRODID and VERSION were specified since they are
+		// required
+		if ( parser.icalVersion == null && parser.isParseStrict () ) {
+			parser.reportParseError ( new ParseError ( ln,
+			    "No required VERSION attribute found", "n/a" ) );
+		}
+		if ( parser.prodId == null && parser.isParseStrict () ) {
+			parser.reportParseError ( new ParseError ( ln,
+			    "No required PRODID attribute found", "n/a" ) );
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Vector;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * iCalendar writer. Components are written one property at a time straight
+ * to a Writer, so iCalendar data of any size can be written without building
+ * it all in memory first. Each line is built and folded in buffers that are
+ * reused for every line. Lines are folded at 75 octets of UTF-8 without
+ * splitting a character. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * ICalendarWriter w = new ICalendarWriter ( new FileWriter ( f ) );
+ * w.writeCalendar ( parser.getDataStoreAt ( 0 ) );
+ * w.close ();
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * Components can also be written one at a time:<blockquote>
+ *
+ * <pre>
+ * w.beginCalendar ();
+ * w.writeEvent ( event );
+ * w.endCalendar ();
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see ICalendarReader
+ */
+public class ICalendarWriter implements Constants {
+	/** The PRODID written by beginCalendar */
+	static final String PRODID = "-//k5n.us//Java Calendar Tools//EN";
+	/** Where to write (only one of these is used) */
+	private Writer out;
+	private OutputStream os;
+	/** The line being built */
+	private char[] line = new char[256];
+	private int lineLen = 0;
+	/** The folded line */
+	private char[] folded = new char[256];
+	/** The folded line as UTF-8 */
+	private byte[] bytes;
+
+	/**
+	 * Create an ICalendarWriter.
+	 *
+	 * @param writer
+	 *          The java.io.Writer to write the iCalendar data to. To create a
+	 *          String use java.io.StringWriter.
+	 */
+	public ICalendarWriter(Writer writer) {
+		this.out = writer;
+	}
+
+	/**
+	 * Create an ICalendarWriter. The data will be written as UTF-8, which is the
+	 * default charset for iCalendar, without going through a Writer.
+	 *
+	 * @param os
+	 *          The java.io.OutputStream to write the iCalendar data to.
+	 */
+	public ICalendarWriter(OutputStream os) {
+		this.os = new BufferedOutputStream ( os );
+		this.bytes = new byte[768];
+	}
+
+	/**
+	 * Write all of the events and journal entries of a DataStore as a
+	 * VCALENDAR.
+	 */
+	public void writeCalendar ( DataStore dataStore ) throws IOException {
+		beginCalendar ();
+		Vector<Event> events = dataStore.getAllEvents ();
+		for ( int i = 0; i < events.size (); i++ )
+			writeEvent ( events.elementAt ( i ) );
+		Vector<Journal> journals = dataStore.getAllJournals ();
+		for ( int i = 0; i < journals.size (); i++ )
+			writeJournal ( journals.elementAt ( i ) );
+		endCalendar ();
+	}
+
+	/**
+	 * Write the start of a VCALENDAR (BEGIN, VERSION and PRODID).
+	 */
+	public void beginCalendar () throws IOException {
+		writeLine ( "BEGIN:VCALENDAR" );
+		writeLine ( "VERSION:2.0" );
+		// Should we use the PRODID we parsed on input? Since we are generating
+		// output, I think we will use ours.
+		// TODO: add version number in the following
+		writeLine ( "PRODID:" + PRODID );
+	}
+
+	/**
+	 * Write the end of a VCALENDAR.
+	 */
+	public void endCalendar () throws IOException {
+		writeLine ( "END:VCALENDAR" );
+	}
+
+	/**
+	 * Write a VEVENT.
+	 */
+	public void writeEvent ( Event event ) throws IOException {
+		event.write ( this );
+	}
+
+	/**
+	 * Write a VJOURNAL.
+	 */
+	public void writeJournal ( Journal journal ) throws IOException {
+		journal.write ( this );
+	}
+
+	/**
+	 * Write a VFREEBUSY.
+	 */
+	public void writeFreebusy ( Freebusy freebusy ) throws IOException {
+		freebusy.write ( this );
+	}
+
+	/**
+	 * Write a property as a folded line.
+	 */
+	public void writeProperty ( Property property ) throws IOException {
+		property.write ( this );
+	}
+
+	/**
+	 * Write a line of text (folded if it is too long).
+	 */
+	public void writeLine ( String text ) throws IOException {
+		lineLen = 0;
+		append ( text );
+		writeFolded ();
+	}
+
+	/**
+	 * Write a property line.
+	 */
+	void writeProperty ( String name, Vector<Attribute> attributes, String value )
+	    throws IOException {
+		lineLen = 0;
+		appendName ( name, attributes );
+		append ( value );
+		writeFolded ();
+	}
+
+	/**
+	 * Write a property with more than one date (EXDATE, RDATE), using the name
+	 * and attributes of the first date.
+	 */
+	void writeDates ( Vector<Date> dates ) throws IOException {
+		Date first = dates.elementAt ( 0 );
+		lineLen = 0;
+		appendName ( first.name, first.attributeList );
+		for ( int i = 0; i < dates.size (); i++ ) {
+			if ( i > 0 )
+				append ( "," );
+			Date d = dates.elementAt ( i );
+			d.updateValue ();
+			append ( d.value );
+		}
+		writeFolded ();
+	}
+
+	/**
+	 * Write a property with binary data, base64 encoding it as it is read. Only
+	 * a small part of the data is held in memory at a time.
+	 */
+	void writeBase64 ( String name, Vector<Attribute> attributes, InputStream in )
+	    throws IOException {
+		lineLen = 0;
+		appendName ( name, attributes );
+		int max = StringUtils.maxFoldedLength ( lineLen );
+		if ( folded.length < max )
+			folded = new char[max];
+		// Write the name without the CRLF, then continue the last line
+		int n = StringUtils.foldLine ( line, lineLen, folded ) - 2;
+		int octets = 0;
+		for ( int i = n - 1; i >= 0 && folded[i] != '\n'; i-- ) {
+			char c = folded[i];
+			octets += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate ( c ) ? 2 : 3;
+		}
+		writeChars ( folded, n );
+		// Base64 is all ASCII, so every character is one octet.
+		byte[] chunk = new byte[Attachment.CHUNK_SIZE];
+		while ( ( n = Attachment.readChunk ( in, chunk ) ) > 0 ) {
+			if ( n < chunk.length ) {
+				byte[] last = new byte[n];
+				System.arraycopy ( chunk, 0, last, 0, n );
+				chunk = last;
+			}
+			byte[] encoded = Base64.encodeBase64 ( chunk );
+			max = encoded.length + ( encoded.length / 74 + 1 ) * 3;
+			if ( folded.length < max )
+				folded = new char[max];
+			n = 0;
+			for ( int i = 0; i < encoded.length; i++ ) {
+				if ( octets == MAX_LINE_LENGTH ) {
+					folded[n++] = '\r';
+					folded[n++] = '\n';
+					folded[n++] = ' ';
+					octets = 1;
+				}
+				folded[n++] = (char) encoded[i];
+				octets++;
+			}
+			writeChars ( folded, n );
+		}
+		folded[0] = '\r';
+		folded[1] = '\n';
+		writeChars ( folded, 2 );
+	}
+
+	/**
+	 * Write text that was serialized earlier.
+	 */
+	void writeSerialized ( SerializedForm form ) throws IOException {
+		if ( os == null ) {
+			char[] chars = form.getChars ();
+			out.write ( chars, 0, chars.length );
+		} else
+			os.write ( form.getUTF8 () );
+	}
+
+	private void appendName ( String name, Vector<Attribute> attributes ) {
+		append ( name );
+		for ( int i = 0; i < attributes.size (); i++ ) {
+			Attribute a = attributes.elementAt ( i );
+			append ( ";" );
+			append ( a.name );
+			// Always quote the value just to be safe
+			append ( "=\"" );
+			append ( a.value );
+			append ( "\"" );
+		}
+		append ( ":" );
+	}
+
+	private void append ( String str ) {
+		if ( str == null )
+			str = "null";
+		int len = str.length ();
+		if ( lineLen + len > line.length ) {
+			char[] newLine = new char[Math.max ( line.length * 2, lineLen + len )];
+			System.arraycopy ( line, 0, newLine, 0, lineLen );
+			line = newLine;
+		}
+		str.getChars ( 0, len, line, lineLen );
+		lineLen += len;
+	}
+
+	/**
+	 * Fold the current line (see StringUtils.foldLine) and write it.
+	 */
+	private void writeFolded () throws IOException {
+		int max = StringUtils.maxFoldedLength ( lineLen );
+		if ( folded.length < max )
+			folded = new char[max];
+		writeChars ( folded, StringUtils.foldLine ( line, lineLen, folded ) );
+	}
+
+	/**
+	 * Write characters to the Writer, or as UTF-8 to the OutputStream.
+	 */
+	private void writeChars ( char[] chars, int n ) throws IOException {
+		if ( os == null ) {
+			out.write ( chars, 0, n );
+			return;
+		}
+		if ( bytes.length < n * 3 )
+			bytes = new byte[n * 3];
+		os.write ( bytes, 0, StringUtils.encodeUTF8 ( chars, n, bytes ) );
+	}
+
+	/**
+	 * Flush the underlying Writer or OutputStream.
+	 */
+	public void flush () throws IOException {
+		if ( os != null )
+			os.flush ();
+		else
+			out.flush ();
+	}
+
+	/**
+	 * Flush and close the underlying Writer or OutputStream.
+	 */
+	public void close () throws IOException {
+		if ( os != null )
+			os.close ();
+		else
+			out.close ();
+	}
+
+}
@@ -20,6 +20,8 @@
 
 package us.k5n.ical;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Vector;
 
 /**
@@ -66,6 +68,8 @@ public class Journal implements Constants {
 	protected int status = STATUS_UNDEFINED;
 	/** Private user object for caller to set/get */
 	private Object userData = null;
+	/** iCalendar text from the last write (null if changed since) */
+	private SerializedForm serialized = null;
 
 	// TODO: multiple summaries, descriptions with different LANGUAGE values
 	// TODO: alarms/triggers
@@ -150,51 +154,74 @@ public class Journal implements Constants {
 	 */
 	public void parseLine ( String icalStr, int parseMethod )
 	    throws ParseException, BogusDataException {
-		String up = icalStr.toUpperCase ();
-		if ( up.equals ( "BEGIN:VJOURNAL" ) || up.equals ( "END:VJOURNAL" ) ) {
-			// ignore
-		} else if ( up.trim ().length () == 0 ) {
-			// ignore empty lines
-		} else if ( up.startsWith ( "DESCRIPTION" ) ) {
-			description = new Description ( icalStr );
-		} else if ( up.startsWith ( "SUMMARY" ) ) {
-			summary = new Summary ( icalStr );
-		} else if ( up.startsWith ( "CREATED" ) ) {
-			createdDate = new Date ( icalStr );
-		} else if ( up.startsWith ( "DTSTART" ) ) {
-			startDate = new Date ( icalStr );
-		} else if ( up.startsWith ( "DTSTAMP" ) ) {
-			dtstamp = new Date ( icalStr );
-		} else if ( up.startsWith ( "LAST-MODIFIED" ) ) {
-			lastModified = new Date ( icalStr );
-		} else if ( up.startsWith ( "CLASS" ) ) {
-			classification = new Classification ( icalStr );
-		} else if ( up.startsWith ( "CATEGORIES" ) ) {
-			categories = new Categories ( icalStr );
-		} else if ( up.startsWith ( "UID" ) ) {
-			uid = new Uid ( icalStr );
-		} else if ( up.startsWith ( "SEQUENCE" ) ) {
-			sequence = new Sequence ( icalStr );
-		} else if ( up.startsWith ( "RRULE" ) ) {
-			rrule = new Rrule ( icalStr, parseMethod );
-		} else if ( up.startsWith ( "ATTACH" ) ) {
-			Attachment attach = new Attachment ( icalStr );
-			if ( this.attachments == null )
-				this.attachments = new Vector<Attachment> ();
-			this.attachments.addElement ( attach );
-		} else if ( up.startsWith ( "STATUS" ) ) {
-			status = StringUtils.parseStatus ( icalStr, parseMethod );
-			// Only allow VJOURNAL status types
-			if ( status != STATUS_DRAFT && status != STATUS_FINAL ) {
-				if ( parseMethod == PARSE_STRICT ) {
-					throw new BogusDataException ( "Status type not allowed in VJOURNAL",
-					    icalStr );
+		this.serialized = null;
+		switch ( PropertyNames.lookup ( icalStr ) ) {
+			case PropertyNames.BLANK:
+				// ignore empty lines
+				break;
+			case PropertyNames.BEGIN:
+			case PropertyNames.END:
+				if ( icalStr.equalsIgnoreCase ( "BEGIN:VJOURNAL" )
+				    || icalStr.equalsIgnoreCase ( "END:VJOURNAL" ) ) {
+					// ignore
+				} else {
+					System.err.println ( "Ignoring VJOURNAL line: " + icalStr );
 				}
-			}
-		} else if ( up.startsWith ( "URL" ) ) {
-			url = new URL ( icalStr, parseMethod );
-		} else {
-			System.err.println ( "Ignoring VJOURNAL line: " + icalStr );
+				break;
+			case PropertyNames.DESCRIPTION:
+				description = new Description ( icalStr );
+				break;
+			case PropertyNames.SUMMARY:
+				summary = new Summary ( icalStr );
+				break;
+			case PropertyNames.CREATED:
+				createdDate = new Date ( icalStr );
+				break;
+			case PropertyNames.DTSTART:
+				startDate = new Date ( icalStr );
+				break;
+			case PropertyNames.DTSTAMP:
+				dtstamp = new Date ( icalStr );
+				break;
+			case PropertyNames.LAST_MODIFIED:
+				lastModified = new Date ( icalStr );
+				break;
+			case PropertyNames.CLASS:
+				classification = new Classification ( icalStr );
+				break;
+			case PropertyNames.CATEGORIES:
+				categories = new Categories ( icalStr );
+				break;
+			case PropertyNames.UID:
+				uid = new Uid ( icalStr );
+				break;
+			case PropertyNames.SEQUENCE:
+				sequence = new Sequence ( icalStr );
+				break;
+			case PropertyNames.RRULE:
+				rrule = new Rrule ( icalStr, parseMethod );
+				break;
+			case PropertyNames.ATTACH:
+				Attachment attach = new Attachment ( icalStr );
+				if ( this.attachments == null )
+					this.attachments = new Vector<Attachment> ();
+				this.attachments.addElement ( attach );
+				break;
+			case PropertyNames.STATUS:
+				status = StringUtils.parseStatus ( icalStr, parseMethod );
+				// Only allow VJOURNAL status types
+				if ( status != STATUS_DRAFT && status != STATUS_FINAL ) {
+					if ( parseMethod == PARSE_STRICT ) {
+						throw new BogusDataException ( "Status type not allowed in VJOURNAL",
+						    icalStr );
+					}
+				}
+				break;
+			case PropertyNames.URL:
+				url = new URL ( icalStr, parseMethod );
+				break;
+			default:
+				System.err.println ( "Ignoring VJOURNAL line: " + icalStr );
 		}
 	}
 
@@ -221,55 +248,95 @@ public class Journal implements Constants {
 	 * Convert this Journal into iCalendar text
 	 */
 	public String toICalendar () {
-		StringBuffer ret = new StringBuffer ( 128 );
-		ret.append ( "BEGIN:VJOURNAL" );
-		ret.append ( CRLF );
+		StringWriter sw = new StringWriter ( 256 );
+		try {
+			writeComponent ( new ICalendarWriter ( sw ) );
+		} catch ( IOException e ) {
+			// StringWriter does not throw IOException
+			throw new IllegalStateException ( e.toString () );
+		}
+		return sw.toString ();
+	}
+
+	/**
+	 * Write this Journal as iCalendar text. If nothing has changed since the last
+	 * time it was written, the same text is written again without serializing
+	 * each property again. A Journal with an attachment held in a file or a large
+	 * inline attachment is always written directly and never cached.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		if ( serialized == null ) {
+			if ( !SerializedForm.isCacheable ( attachments ) ) {
+				// Stream large attachments rather than keep them in memory
+				writeComponent ( out );
+				return;
+			}
+			StringWriter sw = new StringWriter ( 256 );
+			writeComponent ( new ICalendarWriter ( sw ) );
+			serialized = new SerializedForm ( sw.toString () );
+		}
+		out.writeSerialized ( serialized );
+	}
+
+	/**
+	 * Was this Journal changed since it was last written? Changes made with the
+	 * set methods are tracked, but changes made to a property in place (such as
+	 * getSummary ().setValue ( ... )) are not; call markDirty after those. This
+	 * is always true for a Journal that is not cached (see write).
+	 */
+	public boolean isDirty () {
+		return serialized == null;
+	}
+
+	/**
+	 * Mark this Journal as changed, so it is serialized again the next time it is
+	 * written. This is only needed after changing a property in place.
+	 */
+	public void markDirty () {
+		this.serialized = null;
+	}
+
+	private void writeComponent ( ICalendarWriter out ) throws IOException {
+		out.writeLine ( "BEGIN:VJOURNAL" );
 
 		if ( uid != null )
-			ret.append ( uid.toICalendar () );
+			out.writeProperty ( uid );
 		if ( sequence != null )
-			ret.append ( sequence.toICalendar () );
+			out.writeProperty ( sequence );
 		if ( summary != null )
-			ret.append ( summary.toICalendar () );
+			out.writeProperty ( summary );
 		if ( description != null )
-			ret.append ( description.toICalendar () );
+			out.writeProperty ( description );
 		if ( createdDate != null )
-			ret.append ( createdDate.toICalendar () );
+			out.writeProperty ( createdDate );
 		if ( startDate != null )
-			ret.append ( startDate.toICalendar () );
+			out.writeProperty ( startDate );
 		if ( dtstamp != null )
-			ret.append ( dtstamp.toICalendar () );
+			out.writeProperty ( dtstamp );
 		if ( lastModified != null )
-			ret.append ( lastModified.toICalendar () );
+			out.writeProperty ( lastModified );
 		if ( classification != null )
-			ret.append ( classification.toICalendar () );
+			out.writeProperty ( classification );
 		if ( categories != null )
-			ret.append ( categories.toICalendar () );
+			out.writeProperty ( categories );
 		if ( url != null )
-			ret.append ( url.toICalendar () );
+			out.writeProperty ( url );
 		if ( this.attachments != null ) {
-			for ( int i = 0; i < this.attachments.size (); i++ ) {
-				Attachment attach = (Attachment) this.attachments.elementAt ( i );
-				ret.append ( attach.toICalendar () );
-			}
+			for ( int i = 0; i < this.attachments.size (); i++ )
+				out.writeProperty ( this.attachments.elementAt ( i ) );
 		}
 		if ( status != STATUS_UNDEFINED ) {
 			switch ( status ) {
 				case STATUS_DRAFT:
-					ret.append ( "STATUS:DRAFT" );
-					ret.append ( CRLF );
+					out.writeLine ( "STATUS:DRAFT" );
 					break;
 				case STATUS_FINAL:
-					ret.append ( "STATUS:FINAL" );
-					ret.append ( CRLF );
+					out.writeLine ( "STATUS:FINAL" );
 					break;
 			}
 		}
 
-		ret.append ( "END:VJOURNAL" );
-		ret.append ( CRLF );
-
-		return ret.toString ();
+		out.writeLine ( "END:VJOURNAL" );
 	}
 
 	public Vector<Attendee> getAttendees () {
@@ -277,6 +344,7 @@ public class Journal implements Constants {
 	}
 
 	public void setAttendees ( Vector<Attendee> attendees ) {
+		this.serialized = null;
 		this.attendees = attendees;
 	}
 
@@ -285,6 +353,7 @@ public class Journal implements Constants {
 	}
 
 	public void setCategories ( Categories categories ) {
+		this.serialized = null;
 		this.categories = categories;
 	}
 
@@ -293,6 +362,7 @@ public class Journal implements Constants {
 	}
 
 	public void setClassification ( Classification classification ) {
+		this.serialized = null;
 		this.classification = classification;
 	}
 
@@ -301,6 +371,7 @@ public class Journal implements Constants {
 	}
 
 	public void setDescription ( Description description ) {
+		this.serialized = null;
 		this.description = description;
 	}
 
@@ -309,6 +380,7 @@ public class Journal implements Constants {
 	}
 
 	public void setDtstamp ( Date dtstamp ) {
+		this.serialized = null;
 		this.dtstamp = dtstamp;
 	}
 
@@ -317,6 +389,7 @@ public class Journal implements Constants {
 	}
 
 	public void setLastModified ( Date lastModified ) {
+		this.serialized = null;
 		this.lastModified = lastModified;
 	}
 
@@ -325,6 +398,7 @@ public class Journal implements Constants {
 	}
 
 	public void setRrule ( Rrule rrule ) {
+		this.serialized = null;
 		this.rrule = rrule;
 	}
 
@@ -333,6 +407,7 @@ public class Journal implements Constants {
 	}
 
 	public void setSequence ( Sequence sequence ) {
+		this.serialized = null;
 		this.sequence = sequence;
 	}
 
@@ -341,6 +416,7 @@ public class Journal implements Constants {
 	}
 
 	public void setCreatedDate ( Date createdDate ) {
+		this.serialized = null;
 		this.createdDate = createdDate;
 	}
 
@@ -349,10 +425,12 @@ public class Journal implements Constants {
 	}
 
 	public void setStartDate ( Date startDate ) {
+		this.serialized = null;
 		this.startDate = startDate;
 	}
 
 	public void setSummary ( Summary summary ) {
+		this.serialized = null;
 		this.summary = summary;
 	}
 
@@ -361,6 +439,7 @@ public class Journal implements Constants {
 	}
 
 	public void setUid ( Uid uid ) {
+		this.serialized = null;
 		this.uid = uid;
 	}
 
@@ -369,6 +448,7 @@ public class Journal implements Constants {
 	}
 
 	public void setUrl ( URL url ) {
+		this.serialized = null;
 		this.url = url;
 	}
 
@@ -377,6 +457,7 @@ public class Journal implements Constants {
 	}
 
 	public void setAttachments ( Vector<Attachment> attachments ) {
+		this.serialized = null;
 		this.attachments = attachments;
 	}
 
@@ -385,6 +466,7 @@ public class Journal implements Constants {
 	}
 
 	public void setStatus ( int status ) {
+		this.serialized = null;
 		this.status = status;
 	}
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+/**
+ * A single date of an event, along with the calendar the event came from.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see OccurrenceMerger
+ */
+public final class Occurrence {
+	private Event event;
+	private Date date;
+	private DataStore calendar;
+	/** The date in seconds (see EventIndex.seconds) */
+	long seconds;
+
+	Occurrence(Event event, Date date, DataStore calendar) {
+		this.event = event;
+		this.date = date;
+		this.calendar = calendar;
+		this.seconds = EventIndex.seconds ( date );
+	}
+
+	/**
+	 * Get the event.
+	 */
+	public Event getEvent () {
+		return event;
+	}
+
+	/**
+	 * Get the start date of this occurrence of the event.
+	 */
+	public Date getDate () {
+		return date;
+	}
+
+	/**
+	 * Get the calendar that contains the event.
+	 */
+	public DataStore getCalendar () {
+		return calendar;
+	}
+
+}
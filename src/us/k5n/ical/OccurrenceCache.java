@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Cache of the dates returned by Event.getOccurrences. A calendar view will
+ * usually ask for the same range of dates for the same events each time it
+ * is drawn, so the dates are kept in a shared cache with the least recently
+ * used entries removed once the cache is full.<br/>
+ * Entries are keyed by the RRULE, DTSTART, EXDATE and RDATE values of the
+ * event and the range of dates requested. Changing any of these with the
+ * Event set/add/remove methods will cause the dates to be generated again.
+ * (Changes made directly to the Date or Rrule objects of an event are not
+ * noticed; call clear if you do this.)<br/>
+ * The cache keeps its own copies of the dates and returns new copies, since
+ * Date objects can be changed.<br/>
+ * The hit and miss counts can be used to choose a cache size with
+ * setMaxSize. This class is thread-safe.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Event#getOccurrences(Date, Date)
+ */
+public final class OccurrenceCache {
+	/** Default number of entries */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	private static int maxSize = DEFAULT_MAX_SIZE;
+	private static long hits = 0;
+	private static long misses = 0;
+	private static final LinkedHashMap<String, Date[]> cache = new LinkedHashMap<String, Date[]> (
+	    16, 0.75f, true ) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry ( Map.Entry<String, Date[]> eldest ) {
+			return size () > maxSize;
+		}
+	};
+
+	private OccurrenceCache() {
+	}
+
+	/**
+	 * Get the cache key for an event and a range of dates.
+	 *
+	 * @param fingerprint
+	 *          The fingerprint of the event (from Event.getFingerprint)
+	 */
+	static String getKey ( String fingerprint, Date windowStart, Date windowEnd ) {
+		StringBuffer ret = new StringBuffer ( fingerprint.length () + 64 );
+		ret.append ( fingerprint );
+		appendDate ( ret, windowStart );
+		appendDate ( ret, windowEnd );
+		return ret.toString ();
+	}
+
+	/**
+	 * Append a date (with its timezone) to a fingerprint.
+	 */
+	static void appendDate ( StringBuffer sb, Date date ) {
+		sb.append ( '|' );
+		if ( date != null ) {
+			sb.append ( Rrule.sortKey ( date ) );
+			if ( date.tzid != null ) {
+				sb.append ( ';' );
+				sb.append ( date.tzid );
+			}
+		}
+	}
+
+	/**
+	 * Get the cached dates for a key.
+	 *
+	 * @return A new Vector of copies of the dates or null if they are not in the
+	 *         cache
+	 */
+	static synchronized Vector<Date> get ( String key ) {
+		Date[] dates = cache.get ( key );
+		if ( dates == null ) {
+			misses++;
+			return null;
+		}
+		hits++;
+		Vector<Date> ret = new Vector<Date> ( dates.length );
+		for ( int i = 0; i < dates.length; i++ )
+			ret.addElement ( dates[i].clone () );
+		return ret;
+	}
+
+	/**
+	 * Add copies of dates to the cache.
+	 */
+	static void put ( String key, Vector<Date> dates ) {
+		Date[] copies = new Date[dates.size ()];
+		for ( int i = 0; i < copies.length; i++ )
+			copies[i] = dates.elementAt ( i ).clone ();
+		synchronized ( OccurrenceCache.class ) {
+			if ( maxSize > 0 )
+				cache.put ( key, copies );
+		}
+	}
+
+	/**
+	 * Get the number of times dates were found in the cache.
+	 */
+	public static synchronized long getHits () {
+		return hits;
+	}
+
+	/**
+	 * Get the number of times dates were not found in the cache.
+	 */
+	public static synchronized long getMisses () {
+		return misses;
+	}
+
+	/**
+	 * Get the number of entries in the cache.
+	 */
+	public static synchronized int getSize () {
+		return cache.size ();
+	}
+
+	public static synchronized int getMaxSize () {
+		return maxSize;
+	}
+
+	/**
+	 * Set the maximum number of entries in the cache. Use 0 to disable caching.
+	 *
+	 * @param maxSize
+	 *          The new maximum number of entries
+	 */
+	public static synchronized void setMaxSize ( int maxSize ) {
+		if ( maxSize < 0 )
+			throw new IllegalArgumentException ( "Invalid cache size " + maxSize );
+		OccurrenceCache.maxSize = maxSize;
+		if ( cache.size () > maxSize ) {
+			Iterator<String> iter = cache.keySet ().iterator ();
+			while ( cache.size () > maxSize ) {
+				iter.next ();
+				iter.remove ();
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries and reset the hit and miss counts.
+	 */
+	public static synchronized void clear () {
+		cache.clear ();
+		hits = misses = 0;
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+/**
+ * Iterates through the dates an event occurs on: the start date (DTSTART),
+ * the dates from the RRULE and the RDATE dates, leaving out the EXDATE dates.
+ * Dates are generated as they are requested, so the caller can stop after the
+ * first few dates without generating the rest. The iterator can also be
+ * limited to a range of dates (and dates before the range are skipped without
+ * being generated), so a long range can be split into smaller ranges (by
+ * year, for example) with each range handled by a different thread.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Event#occurrenceIterator()
+ * @see Event#occurrenceIterator(Date, Date)
+ */
+public final class OccurrenceIterator implements Iterator<Date> {
+	private RruleIterator iter;
+	private boolean dateOnly;
+	private int flag;
+	/** DTSTART and RDATE dates, sorted */
+	private Date[] extra;
+	private long[] extraKeys;
+	private int extraPos = 0;
+	/** EXDATE dates, sorted */
+	private long[] exKeys;
+	private int exPos = 0;
+	/** Window (local seconds since 1970) */
+	private long windowStart = Long.MIN_VALUE;
+	private long windowEnd = Long.MAX_VALUE;
+	private boolean hasPending = false;
+	private long pendingKey;
+	private Date next = null;
+	private boolean done = false;
+
+	/**
+	 * Create an iterator for the occurrences of an event.
+	 *
+	 * @param startDate
+	 *          The start date of the event (DTSTART)
+	 * @param rrule
+	 *          The RRULE (or null)
+	 * @param exdates
+	 *          The EXDATE dates (or null)
+	 * @param rdates
+	 *          The RDATE dates (or null)
+	 * @param windowStart
+	 *          The first date to include (or null for no limit)
+	 * @param windowEnd
+	 *          The end of the window; dates on or after this are not included
+	 *          (or null for no limit)
+	 */
+	OccurrenceIterator(Date startDate, Rrule rrule, Vector<Date> exdates,
+	    Vector<Date> rdates, Date windowStart, Date windowEnd) {
+		dateOnly = startDate.dateOnly;
+		flag = dateOnly ? 0 : 1;
+		if ( rrule != null )
+			iter = new RruleIterator ( rrule, startDate, startDate.tzid );
+		if ( windowStart != null ) {
+			this.windowStart = iter != null ? iter.toLocal ( windowStart )
+			    : RruleIterator.toLocalSeconds ( windowStart );
+			if ( iter != null )
+				iter.advanceTo ( this.windowStart );
+		}
+		if ( windowEnd != null ) {
+			this.windowEnd = iter != null ? iter.toLocal ( windowEnd )
+			    : RruleIterator.toLocalSeconds ( windowEnd );
+		}
+		Vector<Date> dates = new Vector<Date> ();
+		dates.addElement ( startDate );
+		if ( rdates != null )
+			dates.addAll ( rdates );
+		extra = Rrule.sortDates ( dates );
+		extraKeys = Rrule.sortKeys ( extra );
+		exKeys = Rrule.sortKeys ( Rrule.sortDates ( exdates ) );
+	}
+
+	public boolean hasNext () {
+		if ( next == null && !done )
+			next = advance ();
+		return next != null;
+	}
+
+	public Date next () {
+		if ( !hasNext () )
+			throw new NoSuchElementException ();
+		Date ret = next;
+		next = null;
+		return ret;
+	}
+
+	/**
+	 * Not supported.
+	 */
+	public void remove () {
+		throw new UnsupportedOperationException ();
+	}
+
+	/**
+	 * Find the next occurrence.
+	 *
+	 * @return The next occurrence or null if there are no more
+	 */
+	private Date advance () {
+		for ( ;; ) {
+			if ( !hasPending && iter != null && iter.hasNext () ) {
+				pendingKey = iter.nextLocal () * 2 + flag;
+				hasPending = true;
+			}
+			boolean haveExtra = extraPos < extraKeys.length;
+			if ( !hasPending && !haveExtra ) {
+				done = true;
+				return null;
+			}
+			long key;
+			Date d = null;
+			if ( haveExtra && ( !hasPending || extraKeys[extraPos] <= pendingKey ) ) {
+				key = extraKeys[extraPos];
+				d = extra[extraPos++];
+				// Don't return the RRULE date if it's the same
+				if ( hasPending && pendingKey == key )
+					hasPending = false;
+			} else {
+				key = pendingKey;
+				hasPending = false;
+			}
+			long local = key >> 1;
+			if ( local >= windowEnd ) {
+				done = true;
+				return null;
+			}
+			if ( local < windowStart )
+				continue;
+			while ( exPos < exKeys.length && exKeys[exPos] < key )
+				exPos++;
+			if ( exPos < exKeys.length && exKeys[exPos] == key )
+				continue;
+			if ( d == null )
+				d = Rrule.toDate ( local, dateOnly );
+			if ( d != null )
+				return d;
+		}
+	}
+
+}
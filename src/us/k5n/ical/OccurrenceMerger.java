@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates through the dates of the events in many calendars within a range
+ * of dates, in time order. The dates of each calendar are generated in small
+ * batches by multiple threads, and the calendars are merged as the dates are
+ * requested. Only a couple of batches per calendar are kept in memory at once,
+ * and the dates are never sorted all together. <br/>
+ * Dates are compared as UTC for dates with a timezone; floating and date-only
+ * values are compared as if they were UTC. Dates at the same time are returned
+ * in the order of the calendars. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * OccurrenceMerger iter = new OccurrenceMerger ( calendars, start, end );
+ * while ( iter.hasNext () ) {
+ * 	Occurrence occurrence = iter.next ();
+ * 	// ... process occurrence.getEvent () and occurrence.getDate ()
+ * }
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * The threads are stopped when the last date has been returned. Call close
+ * if you stop before then. Each calendar should only be listed once, and
+ * DataStore and Event objects must not be changed until the merge is done.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Occurrence
+ * @see Event#occurrenceIterator(Date, Date)
+ */
+public final class OccurrenceMerger implements Iterator<Occurrence> {
+	/** Number of dates generated for a calendar at a time */
+	static final int BATCH_SIZE = 256;
+	private ForkJoinPool pool;
+	/** Calendars with dates left, ordered by their next date */
+	private PriorityQueue<Source> heap;
+
+	/**
+	 * Dates of one calendar. Only one thread uses a Source at a time: the
+	 * next batch is not started until the previous one has been taken.
+	 */
+	private static class Source implements Callable<Occurrence[]> {
+		DataStore calendar;
+		int index;
+		Date windowStart, windowEnd;
+		/** Events with dates left, ordered by their next date */
+		PriorityQueue<EventDates> events;
+		Occurrence[] batch;
+		int pos;
+		Future<Occurrence[]> pending;
+
+		Occurrence head () {
+			return batch[pos];
+		}
+
+		public Occurrence[] call () {
+			if ( events == null ) {
+				Vector<Event> list = calendar instanceof DefaultDataStore ? ( (DefaultDataStore) calendar )
+				    .getEvents ( windowStart, windowEnd )
+				    : calendar.getAllEvents ();
+				events = new PriorityQueue<EventDates> ( Math.max ( list.size (), 1 ),
+				    EVENT_ORDER );
+				for ( int i = 0; i < list.size (); i++ ) {
+					EventDates e = new EventDates ( list.elementAt ( i ), i, calendar,
+					    windowStart, windowEnd );
+					if ( e.next () )
+						events.add ( e );
+				}
+			}
+			Occurrence[] ret = new Occurrence[BATCH_SIZE];
+			int n = 0;
+			while ( n < ret.length && !events.isEmpty () ) {
+				EventDates e = events.poll ();
+				ret[n++] = e.occurrence;
+				if ( e.next () )
+					events.add ( e );
+			}
+			if ( n < ret.length ) {
+				Occurrence[] newRet = new Occurrence[n];
+				System.arraycopy ( ret, 0, newRet, 0, n );
+				ret = newRet;
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * The dates of one event.
+	 */
+	private static class EventDates {
+		Event event;
+		int index;
+		DataStore calendar;
+		Iterator<Date> iter;
+		Occurrence occurrence;
+
+		EventDates(Event event, int index, DataStore calendar, Date windowStart,
+		    Date windowEnd) {
+			this.event = event;
+			this.index = index;
+			this.calendar = calendar;
+			this.iter = event.occurrenceIterator ( windowStart, windowEnd );
+		}
+
+		boolean next () {
+			if ( !iter.hasNext () )
+				return false;
+			occurrence = new Occurrence ( event, iter.next (), calendar );
+			return true;
+		}
+	}
+
+	private static final Comparator<EventDates> EVENT_ORDER = new Comparator<EventDates> () {
+		public int compare ( EventDates e1, EventDates e2 ) {
+			long s1 = e1.occurrence.seconds, s2 = e2.occurrence.seconds;
+			if ( s1 != s2 )
+				return s1 < s2 ? -1 : 1;
+			return e1.index - e2.index;
+		}
+	};
+
+	private static final Comparator<Source> SOURCE_ORDER = new Comparator<Source> () {
+		public int compare ( Source c1, Source c2 ) {
+			long s1 = c1.head ().seconds, s2 = c2.head ().seconds;
+			if ( s1 != s2 )
+				return s1 < s2 ? -1 : 1;
+			return c1.index - c2.index;
+		}
+	};
+
+	/**
+	 * Merge the dates of calendars using all available processors.
+	 *
+	 * @param calendars
+	 *          The calendars
+	 * @param windowStart
+	 *          The first date to include
+	 * @param windowEnd
+	 *          The end of the range; dates on or after this are not included
+	 */
+	public OccurrenceMerger(Vector<DataStore> calendars, Date windowStart,
+	    Date windowEnd) {
+		this ( calendars, windowStart, windowEnd, Runtime.getRuntime ()
+		    .availableProcessors () );
+	}
+
+	/**
+	 * Merge the dates of calendars.
+	 *
+	 * @param calendars
+	 *          The calendars
+	 * @param windowStart
+	 *          The first date to include
+	 * @param windowEnd
+	 *          The end of the range; dates on or after this are not included
+	 * @param parallelism
+	 *          The number of threads to use
+	 */
+	public OccurrenceMerger(Vector<DataStore> calendars, Date windowStart,
+	    Date windowEnd, int parallelism) {
+		pool = new ForkJoinPool ( parallelism < 1 ? 1 : parallelism );
+		heap = new PriorityQueue<Source> ( Math.max ( calendars.size (), 1 ),
+		    SOURCE_ORDER );
+		Source[] sources = new Source[calendars.size ()];
+		for ( int i = 0; i < sources.length; i++ ) {
+			Source source = new Source ();
+			source.calendar = calendars.elementAt ( i );
+			source.index = i;
+			source.windowStart = windowStart;
+			source.windowEnd = windowEnd;
+			source.pending = pool.submit ( source );
+			sources[i] = source;
+		}
+		try {
+			for ( int i = 0; i < sources.length; i++ ) {
+				if ( take ( sources[i] ) )
+					heap.add ( sources[i] );
+			}
+		} finally {
+			if ( heap.isEmpty () )
+				close ();
+		}
+	}
+
+	/**
+	 * Wait for the next batch of a calendar and start generating the one after
+	 * it.
+	 *
+	 * @return false if the calendar has no more dates
+	 */
+	private boolean take ( Source source ) {
+		if ( source.pending == null )
+			return false;
+		try {
+			source.batch = source.pending.get ();
+		} catch ( InterruptedException e ) {
+			close ();
+			Thread.currentThread ().interrupt ();
+			throw new IllegalStateException ( "Interrupted while merging dates" );
+		} catch ( ExecutionException e ) {
+			close ();
+			if ( e.getCause () instanceof RuntimeException )
+				throw (RuntimeException) e.getCause ();
+			throw new IllegalStateException ( "Error merging dates: "
+			    + e.getCause () );
+		}
+		source.pos = 0;
+		// A short batch is the last one
+		source.pending = source.batch.length == BATCH_SIZE ? pool.submit ( source )
+		    : null;
+		return source.batch.length > 0;
+	}
+
+	/**
+	 * Are there more dates?
+	 */
+	public boolean hasNext () {
+		return !heap.isEmpty ();
+	}
+
+	/**
+	 * Get the next date.
+	 */
+	public Occurrence next () {
+		Source source = heap.poll ();
+		if ( source == null )
+			throw new NoSuchElementException ();
+		Occurrence ret = source.batch[source.pos++];
+		if ( source.pos < source.batch.length || take ( source ) )
+			heap.add ( source );
+		if ( heap.isEmpty () )
+			close ();
+		return ret;
+	}
+
+	/**
+	 * Not supported.
+	 */
+	public void remove () {
+		throw new UnsupportedOperationException ();
+	}
+
+	/**
+	 * Stop generating dates. This is done automatically after the last date.
+	 */
+	public void close () {
+		heap.clear ();
+		pool.shutdownNow ();
+	}
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * iCalendar parser that uses multiple CPU cores to parse large iCalendar
+ * files. The file is memory-mapped and the component boundaries
+ * (BEGIN:VEVENT/END:VEVENT, etc.) are located by scanning the raw bytes. Each
+ * component is then parsed into an object on a ForkJoinPool. Parsed objects
+ * and parse errors are still delivered to the DataStore objects and
+ * ParseErrorListener objects in the order they appear in the file, from the
+ * thread that called parse. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * ParallelICalendarParser parser = new ParallelICalendarParser ( PARSE_LOOSE );
+ * parser.parse ( new File ( &quot;/tmp/large.ics&quot; ) );
+ * Vector events = parser.getDataStoreAt ( 0 ).getAllEvents ();
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * Since each component is parsed independently, DataStore implementations do
+ * not need to be thread-safe. Parsing from a java.io.Reader uses the normal
+ * single-threaded ICalendarParser implementation.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class ParallelICalendarParser extends ICalendarParser {
+	/** Size of each memory-mapped region of the file */
+	static final int SEGMENT_SHIFT = 30;
+	static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+	/** Max number of parsed components waiting per thread */
+	static final int PENDING_PER_THREAD = 64;
+	private int parallelism;
+
+	/**
+	 * Create a ParallelICalendarParser that will use all available processors.
+	 *
+	 * @param parseMethod
+	 *          Specifies the parsing method, which should be either PARSE_STRICT
+	 *          or PARSE_LOOSE.
+	 */
+	public ParallelICalendarParser(int parseMethod) {
+		this ( parseMethod, Runtime.getRuntime ().availableProcessors () );
+	}
+
+	/**
+	 * Create a ParallelICalendarParser.
+	 *
+	 * @param parseMethod
+	 *          Specifies the parsing method, which should be either PARSE_STRICT
+	 *          or PARSE_LOOSE.
+	 * @param parallelism
+	 *          The number of threads to use for parsing components
+	 */
+	public ParallelICalendarParser(int parseMethod, int parallelism) {
+		super ( parseMethod );
+		this.parallelism = parallelism < 1 ? 1 : parallelism;
+	}
+
+	/**
+	 * Get the number of threads used to parse components.
+	 */
+	public int getParallelism () {
+		return parallelism;
+	}
+
+	/**
+	 * Parse a File using multiple threads.
+	 *
+	 * @param file
+	 *          The iCalendar file (UTF-8)
+	 * @return true if no parse errors encountered
+	 */
+	public boolean parse ( File file ) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile ( file, "r" );
+		ForkJoinPool pool = new ForkJoinPool ( parallelism );
+		try {
+			MappedInput in = new MappedInput ( raf.getChannel () );
+			return parse ( in, pool );
+		} finally {
+			flushDataStores ();
+			pool.shutdown ();
+			raf.close ();
+		}
+	}
+
+	private boolean parse ( MappedInput in, ForkJoinPool pool )
+	    throws IOException {
+		boolean noErrors = true;
+		// Lines that are not part of a component are handled by an
+		// ICalendarReader just as with the single-threaded parser. Its errors are
+		// collected and queued with the components so they are reported in order.
+		ICalendarParser collector = new ICalendarParser ( parseMethod );
+		collector.copyParseSettings ( this );
+		collector.removeDataStoreAt ( 0 );
+		Vector<ParseError> errors = collector.getAllErrors ();
+		int nerrors = 0;
+		ICalendarReader outside = new ICalendarReader ( collector, null );
+		ArrayDeque<Future<ParsedComponent>> pending = new ArrayDeque<Future<ParsedComponent>> ();
+		int maxPending = parallelism * PENDING_PER_THREAD;
+		StringBuffer outsideText = new StringBuffer ();
+		boolean haveOutsideText = false;
+		int outsideLn = 0;
+		byte[] endLine = null; // END line of current component
+		int componentType = STATE_NONE;
+		int componentStartLn = 0;
+		long componentStart = 0;
+		long pos = 0;
+		int ln = 0;
+		long size = in.size;
+
+		while ( pos < size ) {
+			long lineStart = pos;
+			long lineEnd = in.indexOf ( (byte) LF, pos );
+			if ( lineEnd < 0 ) {
+				lineEnd = size;
+				pos = size;
+			} else {
+				pos = lineEnd + 1;
+			}
+			ln++;
+			byte first = lineEnd > lineStart ? in.get ( lineStart ) : 0;
+
+			if ( endLine != null ) {
+				// Inside a component. Look for the END line.
+				if ( in.startsWithIgnoreCase ( lineStart, lineEnd, endLine ) ) {
+					final RawComponent raw = new RawComponent ( componentType,
+					    componentStartLn, in.getBytes ( componentStart, pos ) );
+					pending.addLast ( pool.submit ( new Callable<ParsedComponent> () {
+						public ParsedComponent call () {
+							return new ParsedComponent ( raw, ParallelICalendarParser.this );
+						}
+					} ) );
+					if ( pending.size () >= maxPending )
+						deliver ( pending.removeFirst () );
+					endLine = null;
+				}
+				continue;
+			}
+
+			if ( ( first == SPACE || first == TAB ) && haveOutsideText ) {
+				// Folded line outside of a component
+				outsideText.append ( CRLF );
+				outsideText.append ( in.getLine ( lineStart, lineEnd ) );
+				outsideLn = ln;
+				continue;
+			}
+			if ( haveOutsideText ) {
+				outside.ln = outsideLn;
+				outside.parseLine ( outsideText.toString () );
+				nerrors = queueErrors ( pending, errors, nerrors );
+				outsideText.setLength ( 0 );
+				haveOutsideText = false;
+			}
+
+			if ( outside.state == STATE_VCALENDAR && ( first == 'B' || first == 'b' ) ) {
+				componentType = getComponentType ( in, lineStart, lineEnd );
+				if ( componentType != STATE_NONE ) {
+					endLine = getEndLine ( componentType );
+					componentStart = lineStart;
+					componentStartLn = ln;
+					continue;
+				}
+			}
+			// Hold onto the line until we know it is not folded
+			outsideText.append ( in.getLine ( lineStart, lineEnd ) );
+			haveOutsideText = true;
+			outsideLn = ln;
+		}
+		if ( haveOutsideText ) {
+			outside.ln = outsideLn;
+			outside.parseLine ( outsideText.toString () );
+		}
+		// Note: an unterminated component is ignored, just like ICalendarParser
+		outside.ln = ln;
+		outside.finish ();
+		queueErrors ( pending, errors, nerrors );
+		while ( !pending.isEmpty () )
+			deliver ( pending.removeFirst () );
+		icalVersion = collector.icalVersion;
+		prodId = collector.prodId;
+		method = collector.method;
+		calscale = collector.calscale;
+
+		return noErrors;
+	}
+
+	/**
+	 * Determine if the line is the BEGIN line of a supported component.
+	 *
+	 * @return The component type (STATE_VEVENT, etc.) or STATE_NONE
+	 */
+	private static int getComponentType ( MappedInput in, long start, long end ) {
+		if ( in.startsWithIgnoreCase ( start, end, BEGIN_VTIMEZONE ) )
+			return STATE_VTIMEZONE;
+		else if ( in.startsWithIgnoreCase ( start, end, BEGIN_VEVENT ) )
+			return STATE_VEVENT;
+		else if ( in.startsWithIgnoreCase ( start, end, BEGIN_VTODO ) )
+			return STATE_VTODO;
+		else if ( in.startsWithIgnoreCase ( start, end, BEGIN_VJOURNAL ) )
+			return STATE_VJOURNAL;
+		else if ( in.startsWithIgnoreCase ( start, end, BEGIN_VFREEBUSY ) )
+			return STATE_VFREEBUSY;
+		return STATE_NONE;
+	}
+
+	private static byte[] getEndLine ( int componentType ) {
+		switch ( componentType ) {
+			case STATE_VTIMEZONE:
+				return END_VTIMEZONE;
+			case STATE_VEVENT:
+				return END_VEVENT;
+			case STATE_VTODO:
+				return END_VTODO;
+			case STATE_VJOURNAL:
+				return END_VJOURNAL;
+			default:
+				return END_VFREEBUSY;
+		}
+	}
+
+	static final byte[] BEGIN_VTIMEZONE = "BEGIN:VTIMEZONE".getBytes ();
+	static final byte[] BEGIN_VEVENT = "BEGIN:VEVENT".getBytes ();
+	static final byte[] BEGIN_VTODO = "BEGIN:VTODO".getBytes ();
+	static final byte[] BEGIN_VJOURNAL = "BEGIN:VJOURNAL".getBytes ();
+	static final byte[] BEGIN_VFREEBUSY = "BEGIN:VFREEBUSY".getBytes ();
+	static final byte[] END_VTIMEZONE = "END:VTIMEZONE".getBytes ();
+	static final byte[] END_VEVENT = "END:VEVENT".getBytes ();
+	static final byte[] END_VTODO = "END:VTODO".getBytes ();
+	static final byte[] END_VJOURNAL = "END:VJOURNAL".getBytes ();
+	static final byte[] END_VFREEBUSY = "END:VFREEBUSY".getBytes ();
+
+	/**
+	 * Add any errors found outside of a component since the last call to the
+	 * pending components, so they are reported after the components before them
+	 * in the file.
+	 *
+	 * @return The number of errors queued so far
+	 */
+	private int queueErrors ( ArrayDeque<Future<ParsedComponent>> pending,
+	    Vector<ParseError> errors, int nerrors ) throws IOException {
+		Future<ParsedComponent> task = ParsedComponent.newErrors ( errors,
+		    nerrors );
+		if ( task != null ) {
+			pending.addLast ( task );
+			if ( pending.size () >= parallelism * PENDING_PER_THREAD )
+				deliver ( pending.removeFirst () );
+		}
+		return errors.size ();
+	}
+
+	/**
+	 * Wait for a component to be parsed and then send it (and its parse errors)
+	 * to the DataStore objects.
+	 */
+	private void deliver ( Future<ParsedComponent> future ) throws IOException {
+		ParsedComponent pc = ParsedComponent.get ( future );
+		pc.reportErrors ( this );
+		pc.store ( this );
+	}
+
+	/**
+	 * Read-only view of a memory-mapped file. Files larger than 2GB are mapped
+	 * as multiple regions.
+	 */
+	static class MappedInput {
+		long size;
+		MappedByteBuffer[] segments;
+
+		MappedInput(FileChannel channel) throws IOException {
+			size = channel.size ();
+			int nsegments = (int) ( ( size + SEGMENT_SIZE - 1 ) >>> SEGMENT_SHIFT );
+			segments = new MappedByteBuffer[nsegments];
+			for ( int i = 0; i < nsegments; i++ ) {
+				long start = (long) i << SEGMENT_SHIFT;
+				long len = Math.min ( SEGMENT_SIZE, size - start );
+				segments[i] = channel.map ( FileChannel.MapMode.READ_ONLY, start, len );
+			}
+		}
+
+		byte get ( long pos ) {
+			return segments[(int) ( pos >>> SEGMENT_SHIFT )]
+			    .get ( (int) ( pos & SEGMENT_MASK ) );
+		}
+
+		/**
+		 * Find the next occurrence of a byte.
+		 *
+		 * @return The position or -1 if not found
+		 */
+		long indexOf ( byte b, long from ) {
+			while ( from < size ) {
+				MappedByteBuffer seg = segments[(int) ( from >>> SEGMENT_SHIFT )];
+				long base = from & ~SEGMENT_MASK;
+				int limit = seg.limit ();
+				for ( int i = (int) ( from - base ); i < limit; i++ ) {
+					if ( seg.get ( i ) == b )
+						return base + i;
+				}
+				from = base + limit;
+			}
+			return -1;
+		}
+
+		/**
+		 * Does the region start with the specified ASCII uppercase text (ignoring
+		 * case)?
+		 */
+		boolean startsWithIgnoreCase ( long start, long end, byte[] text ) {
+			if ( end - start < text.length )
+				return false;
+			for ( int i = 0; i < text.length; i++ ) {
+				int b = get ( start + i );
+				if ( b >= 'a' && b <= 'z' )
+					b -= 'a' - 'A';
+				if ( b != text[i] )
+					return false;
+			}
+			return true;
+		}
+
+		byte[] getBytes ( long start, long end ) {
+			byte[] ret = new byte[(int) ( end - start )];
+			int off = 0;
+			while ( start < end ) {
+				MappedByteBuffer seg = segments[(int) ( start >>> SEGMENT_SHIFT )];
+				int segStart = (int) ( start & SEGMENT_MASK );
+				int len = (int) Math.min ( end - start, seg.limit () - segStart );
+				for ( int i = 0; i < len; i++ )
+					ret[off + i] = seg.get ( segStart + i );
+				off += len;
+				start += len;
+			}
+			return ret;
+		}
+
+		/**
+		 * Get a line of text (without any trailing CR).
+		 */
+		String getLine ( long start, long end ) {
+			if ( end > start && get ( end - 1 ) == CR )
+				end--;
+			return new String ( getBytes ( start, end ), RawComponent.UTF8 );
+		}
+	}
+
+}
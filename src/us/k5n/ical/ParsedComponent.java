@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A component that has been parsed on a worker thread along with any parse
+ * errors that were found. The errors are collected rather than reported right
+ * away so that the parser can report them in the order they appear in the
+ * iCalendar data.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see ParallelICalendarParser
+ * @see PipelinedICalendarParser
+ */
+class ParsedComponent {
+	/** The Event, Journal, Timezone or Freebusy (or null) */
+	Object component;
+	Vector<ParseError> errors;
+
+	/**
+	 * Parse a component.
+	 *
+	 * @param raw
+	 *          The component text
+	 * @param parent
+	 *          The parser with the parse settings to use
+	 */
+	ParsedComponent(RawComponent raw, CalendarParser parent) {
+		// Collect the errors so they can be reported in file order
+		ICalendarParser collector = new ICalendarParser ( parent.parseMethod );
+		collector.copyParseSettings ( parent );
+		collector.removeDataStoreAt ( 0 );
+		component = raw.build ( collector );
+		errors = collector.getAllErrors ();
+	}
+
+	/**
+	 * Create a ParsedComponent that only holds parse errors (for errors found
+	 * outside of any component).
+	 */
+	ParsedComponent(Vector<ParseError> errors) {
+		this.errors = errors;
+	}
+
+	/**
+	 * Get the errors added to a Vector since a previous call, as a completed
+	 * Future that can be queued in file order with the parsed components.
+	 *
+	 * @param errors
+	 *          The errors
+	 * @param nerrors
+	 *          The number of errors already queued
+	 * @return The Future or null if there are no new errors
+	 */
+	static Future<ParsedComponent> newErrors ( Vector<ParseError> errors,
+	    int nerrors ) {
+		if ( errors.size () <= nerrors )
+			return null;
+		Vector<ParseError> newErrors = new Vector<ParseError> ();
+		for ( int i = nerrors; i < errors.size (); i++ )
+			newErrors.addElement ( errors.elementAt ( i ) );
+		FutureTask<ParsedComponent> ret = new FutureTask<ParsedComponent> (
+		    new Runnable () {
+			    public void run () {
+			    }
+		    }, new ParsedComponent ( newErrors ) );
+		ret.run ();
+		return ret;
+	}
+
+	/**
+	 * Wait for a component to finish parsing.
+	 */
+	static ParsedComponent get ( Future<ParsedComponent> future )
+	    throws IOException {
+		try {
+			return future.get ();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread ().interrupt ();
+			throw new IOException ( "Interrupted while parsing" );
+		} catch ( ExecutionException e ) {
+			throw new IOException ( "Error parsing component", e.getCause () );
+		}
+	}
+
+	/**
+	 * Report the parse errors to a parser. Any errors found later by lazy
+	 * parsing of an Event will also be reported to this parser.
+	 */
+	void reportErrors ( CalendarParser parser ) {
+		for ( int i = 0; i < errors.size (); i++ )
+			parser.reportParseError ( errors.elementAt ( i ) );
+		if ( component instanceof Event )
+			( (Event) component ).setParser ( parser );
+	}
+
+	/**
+	 * Send the component to the DataStore objects of a parser.
+	 */
+	void store ( CalendarParser parser ) {
+		if ( component instanceof Event ) {
+			parser.storeEvent ( (Event) component );
+		} else if ( component instanceof Journal ) {
+			parser.storeJournal ( (Journal) component );
+		} else if ( component instanceof Timezone ) {
+			parser.storeTimezone ( (Timezone) component );
+		} else if ( component instanceof Freebusy ) {
+			parser.storeFreebusy ( (Freebusy) component );
+		}
+	}
+
+}
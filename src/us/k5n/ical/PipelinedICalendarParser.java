@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * iCalendar parser that reads, parses and stores components at the same time.
+ * The work is split into three stages:
+ * <ul>
+ * <li>a reader thread reads the iCalendar data and splits it into components</li>
+ * <li>a pool of worker threads parses each component into an Event, Journal
+ * or Timezone object</li>
+ * <li>the thread that called parse sends the objects to the DataStore objects
+ * (or returns them from ComponentReader.readComponent)</li>
+ * </ul>
+ * The stages are connected by a bounded queue. When the DataStore (or caller)
+ * falls behind, the queue fills and the reader thread waits, so the amount of
+ * memory used does not depend on the size of the input. Objects and parse
+ * errors are delivered in the order they appear in the data. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * PipelinedICalendarParser parser = new PipelinedICalendarParser ( PARSE_LOOSE );
+ * PipelinedICalendarParser.ComponentReader r = parser.open ( new FileReader ( f ) );
+ * Object component;
+ * while ( ( component = r.readComponent () ) != null ) {
+ * 	// ... process component
+ * }
+ * r.close ();
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see ParallelICalendarParser
+ */
+public class PipelinedICalendarParser extends ICalendarParser {
+	/** Default max number of components waiting to be delivered */
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+	/** Marks the end of the queue */
+	private static final Future<ParsedComponent> END = new FutureTask<ParsedComponent> (
+	    new Callable<ParsedComponent> () {
+		    public ParsedComponent call () {
+			    return null;
+		    }
+	    } );
+	private int parallelism;
+	private int queueSize;
+
+	/**
+	 * Create a PipelinedICalendarParser that will use all available processors.
+	 *
+	 * @param parseMethod
+	 *          Specifies the parsing method, which should be either PARSE_STRICT
+	 *          or PARSE_LOOSE.
+	 */
+	public PipelinedICalendarParser(int parseMethod) {
+		this ( parseMethod, Runtime.getRuntime ().availableProcessors (),
+		    DEFAULT_QUEUE_SIZE );
+	}
+
+	/**
+	 * Create a PipelinedICalendarParser.
+	 *
+	 * @param parseMethod
+	 *          Specifies the parsing method, which should be either PARSE_STRICT
+	 *          or PARSE_LOOSE.
+	 * @param parallelism
+	 *          The number of threads to use for parsing components
+	 * @param queueSize
+	 *          The max number of components that can be read ahead of the
+	 *          DataStore
+	 */
+	public PipelinedICalendarParser(int parseMethod, int parallelism,
+	    int queueSize) {
+		super ( parseMethod );
+		this.parallelism = parallelism < 1 ? 1 : parallelism;
+		this.queueSize = queueSize < 1 ? 1 : queueSize;
+	}
+
+	/**
+	 * Get the number of threads used to parse components.
+	 */
+	public int getParallelism () {
+		return parallelism;
+	}
+
+	/**
+	 * Get the max number of components that can be read ahead of the DataStore.
+	 */
+	public int getQueueSize () {
+		return queueSize;
+	}
+
+	/**
+	 * Parse a Reader object. Objects are sent to the DataStore objects from the
+	 * calling thread.
+	 *
+	 * @param reader
+	 *          The java.io.Reader object to read the iCalendar data from.
+	 * @return true if no errors, false if errors found
+	 */
+	public boolean parse ( Reader reader ) throws IOException {
+		ComponentReader r = open ( reader );
+		try {
+			ParsedComponent pc;
+			while ( ( pc = r.next () ) != null ) {
+				pc.reportErrors ( this );
+				pc.store ( this );
+			}
+		} finally {
+			r.close ();
+			flushDataStores ();
+		}
+		return true;
+	}
+
+	/**
+	 * Start reading and parsing components. The components are returned to the
+	 * caller rather than sent to the DataStore objects. Parse errors are
+	 * reported to this parser as the components are returned.
+	 *
+	 * @param reader
+	 *          The java.io.Reader object to read the iCalendar data from.
+	 * @return The ComponentReader to get the components from
+	 */
+	public ComponentReader open ( Reader reader ) {
+		return new ComponentReader ( reader );
+	}
+
+	/**
+	 * Returns the components parsed by a PipelinedICalendarParser. Each call to
+	 * readComponent takes a component from the queue, which allows the reader
+	 * thread to read another one.
+	 */
+	public class ComponentReader {
+		private BlockingQueue<Future<ParsedComponent>> queue;
+		private ForkJoinPool pool;
+		private Thread readerThread;
+		private Reader reader;
+		/** Has the reader thread stopped using the Reader? */
+		private boolean readerDone = false;
+		/** Should the Reader be closed when the reader thread is done with it? */
+		private boolean closeReader = false;
+		private ICalendarParser collector;
+		private volatile IOException readError = null;
+		private volatile boolean closed = false;
+		private boolean done = false;
+
+		ComponentReader(final Reader reader) {
+			this.reader = reader;
+			queue = new ArrayBlockingQueue<Future<ParsedComponent>> ( queueSize );
+			pool = new ForkJoinPool ( parallelism );
+			// The reader thread reports errors and stores the VCALENDAR
+			// properties here. They are copied to our parser in order.
+			collector = new ICalendarParser ( parseMethod );
+			collector.copyParseSettings ( PipelinedICalendarParser.this );
+			collector.removeDataStoreAt ( 0 );
+			readerThread = new Thread ( new Runnable () {
+				public void run () {
+					read ( reader );
+				}
+			}, "PipelinedICalendarParser reader" );
+			readerThread.setDaemon ( true );
+			readerThread.start ();
+		}
+
+		/**
+		 * Read the next component.
+		 *
+		 * @return The next Event, Journal, Timezone or Freebusy object, or null
+		 *         if the end of the iCalendar data has been reached
+		 */
+		public Object readComponent () throws IOException {
+			ParsedComponent pc;
+			while ( ( pc = next () ) != null ) {
+				pc.reportErrors ( PipelinedICalendarParser.this );
+				if ( pc.component != null )
+					return pc.component;
+			}
+			return null;
+		}
+
+		/**
+		 * Stop reading and parsing, and close the Reader. (The Reader is also
+		 * closed when the end of the data is reached.) This should be called even
+		 * if the end of the data has been reached. If the reader thread is still
+		 * reading, the Reader is closed when its current read returns.
+		 */
+		public void close () {
+			synchronized ( this ) {
+				closeReader = true;
+				if ( readerDone )
+					closeReader ();
+			}
+			closed = true;
+			readerThread.interrupt ();
+			queue.clear ();
+			pool.shutdown ();
+		}
+
+		/**
+		 * Get the next parsed component (or parse errors).
+		 *
+		 * @return The next ParsedComponent or null at the end of the data
+		 */
+		ParsedComponent next () throws IOException {
+			if ( done || closed )
+				return null;
+			Future<ParsedComponent> future;
+			try {
+				future = queue.take ();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread ().interrupt ();
+				throw new IOException ( "Interrupted while parsing" );
+			}
+			if ( future == END ) {
+				done = true;
+				// The reader thread is done with these now
+				icalVersion = collector.icalVersion;
+				prodId = collector.prodId;
+				method = collector.method;
+				calscale = collector.calscale;
+				if ( readError != null )
+					throw readError;
+				return null;
+			}
+			return ParsedComponent.get ( future );
+		}
+
+		/**
+		 * Called by the reader thread.
+		 */
+		private void read ( Reader reader ) {
+			ICalendarReader r = new ICalendarReader ( collector, reader );
+			Vector<ParseError> errors = collector.getAllErrors ();
+			int nerrors = 0;
+			try {
+				RawComponent raw;
+				while ( !closed && ( raw = r.readRawComponent () ) != null ) {
+					nerrors = queueErrors ( errors, nerrors );
+					final RawComponent rc = raw;
+					queue.put ( pool.submit ( new Callable<ParsedComponent> () {
+						public ParsedComponent call () {
+							return new ParsedComponent ( rc, PipelinedICalendarParser.this );
+						}
+					} ) );
+				}
+				// Errors found at the end (missing VERSION, etc.)
+				queueErrors ( errors, nerrors );
+			} catch ( IOException e ) {
+				readError = e;
+			} catch ( InterruptedException e ) {
+				// closed
+			} catch ( RuntimeException e ) {
+				readError = new IOException ( "Error reading iCalendar data: " + e );
+			} finally {
+				synchronized ( this ) {
+					readerDone = true;
+					if ( closeReader )
+						closeReader ();
+				}
+				if ( closed ) {
+					queue.offer ( END );
+				} else {
+					try {
+						queue.put ( END );
+					} catch ( InterruptedException e ) {
+						// closed
+					}
+				}
+			}
+		}
+
+		private void closeReader () {
+			try {
+				reader.close ();
+			} catch ( IOException e ) {
+				// Nothing more to read anyway
+			}
+		}
+
+		/**
+		 * Add any errors found by the reader thread since the last call to the
+		 * queue, so they are reported before the next component.
+		 */
+		private int queueErrors ( Vector<ParseError> errors, int nerrors )
+		    throws InterruptedException {
+			Future<ParsedComponent> task = ParsedComponent.newErrors ( errors,
+			    nerrors );
+			if ( task != null )
+				queue.put ( task );
+			return errors.size ();
+		}
+	}
+
+}
@@ -20,6 +20,7 @@
 
 package us.k5n.ical;
 
+import java.io.IOException;
 import java.util.Vector;
 
 /**
@@ -72,57 +73,14 @@ public class Property implements Constants {
 	 */
 	public Property(String line, int parseMode) throws ParseException {
 		attributeList = new Vector<Attribute> ();
-		String s = StringUtils.unfoldLine ( line, parseMode );
-
-		// Find first ':'
-		int loc = s.indexOf ( ':' );
-		if ( loc < 0 ) {
-			throw new ParseException ( "Could not find ':'", line );
-		}
-
-		String nameAndAttr = s.substring ( 0, loc );
-		value = s.substring ( loc + 1, s.length () );
-
-		// divide nameAndAttr up into the name and the various attributes
-		// we need to be careful since a ';' might also be in quotes in
-		// an attribute like: ATTENDEE;X="1;2";Y=4:ABC
-		loc = nameAndAttr.indexOf ( ';' );
-		if ( loc < 0 ) {
-			// no attributes
-			name = nameAndAttr.toUpperCase ();
-		} else {
-			name = nameAndAttr.substring ( 0, loc ).toUpperCase ();
-			StringBuffer p = new StringBuffer ();
-			StringBuffer pv = new StringBuffer ();
-			boolean inQuote = false;
-			boolean inPName = true;
-			for ( int i = loc; i < nameAndAttr.length (); i++ ) {
-				char ch = nameAndAttr.charAt ( i );
-				if ( ch == ';' && !inQuote ) {
-					if ( p.length () > 0 ) {
-						addAttribute ( p.toString (), pv.toString () );
-						p.setLength ( 0 );
-						pv.setLength ( 0 );
-						inPName = true;
-					}
-				} else if ( ch == '=' && !inQuote ) {
-					inPName = false;
-				} else if ( ch == ',' && !inQuote && parseMode == PARSE_STRICT ) {
-					// ',' should be quoted
-					throw new ParseException ( "Found unquoted comma in attribute value",
-					    line );
-				} else if ( ch == '"' ) {
-					inQuote = !inQuote;
-				} else {
-					if ( inPName )
-						p.append ( ch );
-					else
-						pv.append ( ch );
-				}
-			}
-			if ( p.length () > 0 ) {
-				addAttribute ( p.toString (), pv.toString () );
-			}
+		// Unfold the line and divide it up into the name, the various
+		// attributes and the value in a single pass.
+		PropertyTokenizer t = PropertyTokenizer.getInstance ( line.length () );
+		t.tokenize ( line, parseMode );
+		name = t.getName ();
+		value = t.getValue ();
+		for ( int i = 0; i < t.numAttributes; i++ ) {
+			addAttribute ( t.getAttributeName ( i ), t.getAttributeValue ( i ) );
 		}
 	}
 
@@ -208,4 +166,11 @@ public class Property implements Constants {
 
 		return ( StringUtils.foldLine ( ret.toString () ) );
 	}
+
+	/**
+	 * Write this Property as a folded iCalendar line.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		out.writeProperty ( name, attributeList, value );
+	}
 }
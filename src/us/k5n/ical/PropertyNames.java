@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+/**
+ * Table of the iCalendar property names that we know how to handle. The name
+ * at the start of an iCalendar line is looked up (without regard to case) in a
+ * precomputed hash table, so the parsers can switch on an int rather than
+ * upper-casing each line and testing one prefix after another. The table is
+ * shared by VCALENDAR, VEVENT, VJOURNAL and VFREEBUSY parsing.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+final class PropertyNames {
+	/** Not a known property name */
+	static final int UNKNOWN = 0;
+	/** The line is empty or only has whitespace */
+	static final int BLANK = 1;
+	static final int BEGIN = 2;
+	static final int END = 3;
+	static final int VERSION = 4;
+	static final int PRODID = 5;
+	static final int CALSCALE = 6;
+	static final int METHOD = 7;
+	static final int DESCRIPTION = 8;
+	static final int SUMMARY = 9;
+	static final int COMMENT = 10;
+	static final int CREATED = 11;
+	static final int DTSTART = 12;
+	static final int DTEND = 13;
+	static final int DTSTAMP = 14;
+	static final int DURATION = 15;
+	static final int LAST_MODIFIED = 16;
+	static final int CLASS = 17;
+	static final int CATEGORIES = 18;
+	static final int UID = 19;
+	static final int SEQUENCE = 20;
+	static final int RRULE = 21;
+	static final int EXDATE = 22;
+	static final int RDATE = 23;
+	static final int TRANSP = 24;
+	static final int STATUS = 25;
+	static final int URL = 26;
+	static final int LOCATION = 27;
+	static final int ATTACH = 28;
+	static final int ATTENDEE = 29;
+	static final int FREEBUSY = 30;
+
+	/** Property names, indexed by id */
+	static final String[] NAMES = { null, "", "BEGIN", "END", "VERSION",
+	    "PRODID", "CALSCALE", "METHOD", "DESCRIPTION", "SUMMARY", "COMMENT",
+	    "CREATED", "DTSTART", "DTEND", "DTSTAMP", "DURATION", "LAST-MODIFIED",
+	    "CLASS", "CATEGORIES", "UID", "SEQUENCE", "RRULE", "EXDATE", "RDATE",
+	    "TRANSP", "STATUS", "URL", "LOCATION", "ATTACH", "ATTENDEE",
+	    "FREEBUSY" };
+
+	/** Open-addressed hash table of ids; size must be a power of 2 */
+	private static final int[] table = new int[128];
+
+	static {
+		for ( int id = BEGIN; id < NAMES.length; id++ ) {
+			String name = NAMES[id];
+			int h = 0;
+			for ( int i = 0; i < name.length (); i++ )
+				h = 31 * h + name.charAt ( i );
+			int slot = h & ( table.length - 1 );
+			while ( table[slot] != UNKNOWN )
+				slot = ( slot + 1 ) & ( table.length - 1 );
+			table[slot] = id;
+		}
+	}
+
+	private PropertyNames() {
+	}
+
+	/**
+	 * Convert an ASCII lowercase letter to uppercase. Anything else is returned
+	 * unchanged (property names are ASCII only).
+	 */
+	private static char upper ( char ch ) {
+		return ( ch >= 'a' && ch <= 'z' ) ? (char) ( ch - ( 'a' - 'A' ) ) : ch;
+	}
+
+	/**
+	 * Identify the property on an iCalendar line. The name is everything up to
+	 * the first ';' or ':' (or the whole line).
+	 *
+	 * @param line
+	 *          The iCalendar line
+	 * @return The property id (DTSTART, etc.), BLANK if the line is all
+	 *         whitespace or UNKNOWN
+	 */
+	static int lookup ( String line ) {
+		int len = line.length ();
+		int end = 0;
+		int h = 0;
+		boolean blank = true;
+		for ( ; end < len; end++ ) {
+			char ch = line.charAt ( end );
+			if ( ch == ';' || ch == ':' )
+				break;
+			if ( ch > ' ' )
+				blank = false;
+			h = 31 * h + upper ( ch );
+		}
+		if ( blank ) {
+			// Check the rest of the line (as String.trim would)
+			for ( int i = end; i < len; i++ ) {
+				if ( line.charAt ( i ) > ' ' )
+					return UNKNOWN;
+			}
+			return BLANK;
+		}
+		for ( int slot = h & ( table.length - 1 ); table[slot] != UNKNOWN; slot = ( slot + 1 )
+		    & ( table.length - 1 ) ) {
+			String name = NAMES[table[slot]];
+			if ( name.length () == end
+			    && line.regionMatches ( true, 0, name, 0, end ) )
+				return table[slot];
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Get the canonical (uppercase) property name for the chars in the buffer.
+	 *
+	 * @return The shared name String or null if it is not a known name
+	 */
+	static String lookup ( char[] buf, int start, int end ) {
+		int h = 0;
+		for ( int i = start; i < end; i++ )
+			h = 31 * h + upper ( buf[i] );
+		for ( int slot = h & ( table.length - 1 ); table[slot] != UNKNOWN; slot = ( slot + 1 )
+		    & ( table.length - 1 ) ) {
+			String name = NAMES[table[slot]];
+			if ( name.length () == end - start ) {
+				int i = 0;
+				while ( i < name.length ()
+				    && upper ( buf[start + i] ) == name.charAt ( i ) )
+					i++;
+				if ( i == name.length () )
+					return name;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Does the line start with the specified text (ignoring case)? This is used
+	 * for "BEGIN:VEVENT" style lines.
+	 */
+	static boolean startsWith ( String line, String prefix ) {
+		return line.regionMatches ( true, 0, prefix, 0, prefix.length () );
+	}
+
+}
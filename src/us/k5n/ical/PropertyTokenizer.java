@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+/**
+ * Splits an iCalendar content line into its name, attributes and value. The
+ * line is unfolded, unescaped and split in a single pass into a char buffer
+ * that is reused for each line. The parts of the line are then available as
+ * offsets into the buffer, so no Strings are created until the caller asks
+ * for them. Each thread has its own shared instance (see getInstance).
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+final class PropertyTokenizer implements Constants {
+	/** Longest line that will use the per-thread buffer */
+	static final int MAX_SHARED_LENGTH = 16 * 1024;
+	private static final ThreadLocal<PropertyTokenizer> shared = new ThreadLocal<PropertyTokenizer> () {
+		protected PropertyTokenizer initialValue () {
+			return new PropertyTokenizer ( 256 );
+		}
+	};
+	/** The unfolded line */
+	char[] buf;
+	/** Number of chars used in buf */
+	int length;
+	/** Location of the first ':' in buf (or -1) */
+	int colon;
+	/** Location of the first ';' before the colon (or -1) */
+	int semi;
+	/** End of the property name */
+	int nameEnd;
+	/** Start/end offsets of attribute names and values (4 per attribute) */
+	int[] attributes;
+	int numAttributes;
+
+	PropertyTokenizer(int size) {
+		buf = new char[size];
+		attributes = new int[16];
+	}
+
+	/**
+	 * Get a PropertyTokenizer for a line of the specified length. Lines that
+	 * are very long (such as inline attachments) get their own tokenizer so
+	 * that the per-thread buffer does not grow to hold them.
+	 */
+	static PropertyTokenizer getInstance ( int lineLength ) {
+		if ( lineLength > MAX_SHARED_LENGTH )
+			return new PropertyTokenizer ( lineLength );
+		return shared.get ();
+	}
+
+	/**
+	 * Unfold a multi-line iCalendar String into the buffer. See
+	 * StringUtils.unfoldLine for details.
+	 *
+	 * @param line
+	 *          Input iCalendar line
+	 * @param parseMode
+	 *          PARSE_STRICT or PARSE_LOOSE
+	 */
+	void unfold ( String line, int parseMode ) throws ParseException {
+		int n = line.length ();
+		// Unfolding never makes the line longer
+		if ( buf.length < n )
+			buf = new char[n];
+		int out = 0;
+		int len = 0;
+		colon = semi = -1;
+		for ( int i = 0; i < n; i++ ) {
+			// check line length
+			if ( len > MAX_LINE_LENGTH && parseMode == PARSE_STRICT ) {
+				throw new ParseException ( "Found line longer than " + MAX_LINE_LENGTH
+				    + " limit", line );
+			}
+			char ch = line.charAt ( i );
+			char ch2 = ( i + 1 < n ? line.charAt ( i + 1 ) : 0 );
+			if ( ch == '\\' && ch2 == 'n' ) {
+				// Convert "\\\n" into CRLF
+				buf[out++] = (char) CR;
+				buf[out++] = (char) LF;
+				i++;
+				len = 0;
+			} else if ( ch == LF && ( ch2 == SPACE || ch2 == TAB ) ) {
+				// unfold this...
+				i++;
+			} else if ( ch == '\\' && ch2 == ',' && parseMode == PARSE_LOOSE ) {
+				// this is Mozilla's incorrect way of handling commas :-(
+				buf[out++] = ',';
+				i++;
+			} else if ( ch == LF && ch2 == 0 ) {
+				// end of data
+			} else if ( ch == LF ) {
+				// This should be a parse error. We should always find either
+				// a space/tab after LF (folding) or it should be the end of
+				// the data line.
+				if ( parseMode == PARSE_STRICT ) {
+					throw new ParseException ( "Invalid line termination at char " + i,
+					    line );
+				}
+			} else if ( ch == CR ) {
+				// ignore CR. Should be a LF next.
+			} else if ( ch == '\\' && ch2 == 'r' ) {
+				// ignore CR. Should be a LF next.
+			} else {
+				if ( colon < 0 ) {
+					if ( ch == ':' )
+						colon = out;
+					else if ( ch == ';' && semi < 0 )
+						semi = out;
+				}
+				buf[out++] = ch;
+				len++;
+			}
+		}
+		length = out;
+	}
+
+	/**
+	 * Unfold the line and split it into name, attributes and value. Attribute
+	 * names and values are unquoted in place within the buffer.
+	 *
+	 * @param line
+	 *          Input iCalendar line
+	 * @param parseMode
+	 *          PARSE_STRICT or PARSE_LOOSE
+	 */
+	void tokenize ( String line, int parseMode ) throws ParseException {
+		unfold ( line, parseMode );
+		if ( colon < 0 )
+			throw new ParseException ( "Could not find ':'", line );
+		numAttributes = 0;
+		if ( semi < 0 ) {
+			// no attributes
+			nameEnd = colon;
+			return;
+		}
+		nameEnd = semi;
+
+		// We need to be careful since a ';' might also be in quotes in
+		// an attribute like: ATTENDEE;X="1;2";Y=4:ABC
+		int w = semi; // write position
+		int nameStart = w, nameStop = w, valueStart = w;
+		boolean inQuote = false;
+		boolean inPName = true;
+		for ( int i = semi; i < colon; i++ ) {
+			char ch = buf[i];
+			if ( ch == ';' && !inQuote ) {
+				if ( nameStop > nameStart ) {
+					addAttribute ( nameStart, nameStop, inPName ? w : valueStart, w );
+					nameStart = nameStop = valueStart = w;
+					inPName = true;
+				}
+			} else if ( ch == '=' && !inQuote ) {
+				if ( inPName )
+					valueStart = w;
+				inPName = false;
+			} else if ( ch == ',' && !inQuote && parseMode == PARSE_STRICT ) {
+				// ',' should be quoted
+				throw new ParseException ( "Found unquoted comma in attribute value",
+				    line );
+			} else if ( ch == '"' ) {
+				inQuote = !inQuote;
+			} else {
+				buf[w++] = ch;
+				if ( inPName )
+					nameStop = w;
+			}
+		}
+		if ( nameStop > nameStart )
+			addAttribute ( nameStart, nameStop, inPName ? w : valueStart, w );
+	}
+
+	private void addAttribute ( int nameStart, int nameStop, int valueStart,
+	    int valueStop ) {
+		int i = numAttributes * 4;
+		if ( i + 4 > attributes.length ) {
+			int[] newAttributes = new int[attributes.length * 2];
+			System.arraycopy ( attributes, 0, newAttributes, 0, i );
+			attributes = newAttributes;
+		}
+		attributes[i] = nameStart;
+		attributes[i + 1] = nameStop;
+		attributes[i + 2] = valueStart;
+		attributes[i + 3] = valueStop;
+		numAttributes++;
+	}
+
+	/**
+	 * Get the property name (always uppercase). Known names share a single
+	 * String from PropertyNames.
+	 */
+	String getName () {
+		String name = PropertyNames.lookup ( buf, 0, nameEnd );
+		if ( name != null )
+			return name;
+		return new String ( buf, 0, nameEnd ).toUpperCase ();
+	}
+
+	/**
+	 * Get the property value.
+	 */
+	String getValue () {
+		return new String ( buf, colon + 1, length - colon - 1 );
+	}
+
+	String getAttributeName ( int i ) {
+		return new String ( buf, attributes[i * 4], attributes[i * 4 + 1]
+		    - attributes[i * 4] );
+	}
+
+	String getAttributeValue ( int i ) {
+		return new String ( buf, attributes[i * 4 + 2], attributes[i * 4 + 3]
+		    - attributes[i * 4 + 2] );
+	}
+
+	/**
+	 * Get the entire unfolded line.
+	 */
+	public String toString () {
+		return new String ( buf, 0, length );
+	}
+
+}
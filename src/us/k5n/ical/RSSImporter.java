@@ -81,10 +81,7 @@ public class RSSImporter extends CalendarParser {
 					if ( "item".equals ( nodeName ) ) {
 						RSSItem item = new RSSItem ( n );
 						Event event = item.toEvent ();
-						for ( int j = 0; j < dataStores.size (); j++ ) {
-							DataStore ds = (DataStore) dataStores.elementAt ( j );
-							ds.storeEvent ( event );
-						}
+						storeEvent ( event );
 					}
 				}
 			}
@@ -104,6 +101,8 @@ public class RSSImporter extends CalendarParser {
 			reportParseError ( new ParseError ( 0, "RSS Parse error: "
 			    + e4.getMessage () ) );
 			return false;
+		} finally {
+			flushDataStores ();
 		}
 
 		return true;
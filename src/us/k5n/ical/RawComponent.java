@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Vector;
+
+/**
+ * The unparsed text of a single iCalendar component (VEVENT, VJOURNAL, etc.)
+ * The text is either a Vector of (unfolded) lines or the raw UTF-8 bytes of the
+ * component, including the BEGIN and END lines.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+class RawComponent {
+	static final Charset UTF8 = Charset.forName ( "UTF-8" );
+	/** Component type (ICalendarParser.STATE_VEVENT, etc.) */
+	int type;
+	/** Line number of the BEGIN line */
+	int startLineNo;
+	private Vector<String> textLines;
+	private byte[] data;
+
+	RawComponent(int type, int startLineNo, Vector<String> textLines) {
+		this.type = type;
+		this.startLineNo = startLineNo;
+		this.textLines = textLines;
+	}
+
+	RawComponent(int type, int startLineNo, byte[] data) {
+		this.type = type;
+		this.startLineNo = startLineNo;
+		this.data = data;
+	}
+
+	/**
+	 * Get the lines of text for this component. If the component was created
+	 * from raw bytes, the bytes are decoded and any folded lines are joined.
+	 * 
+	 * @param parser
+	 *          The parser with the property filter to apply to decoded lines
+	 */
+	Vector<String> getTextLines ( CalendarParser parser ) {
+		if ( textLines == null ) {
+			textLines = new Vector<String> ();
+			ICalendarReader r = new ICalendarReader ( null, new StringReader (
+			    new String ( data, UTF8 ) ) );
+			r.filter = parser;
+			r.state = type;
+			boolean filtering = r.filtering ();
+			try {
+				String line;
+				while ( ( line = r.readLine () ) != null ) {
+					if ( filtering
+					    && !parser.isPropertyWanted ( PropertyNames.lookup ( line ) ) )
+						textLines.addElement ( ICalendarReader.SKIPPED_LINE );
+					else
+						textLines.addElement ( line );
+				}
+			} catch ( IOException e ) {
+				// Not possible with a StringReader
+			}
+			data = null;
+		}
+		return textLines;
+	}
+
+	/**
+	 * Parse the component text into an object.
+	 *
+	 * @param parser
+	 *          The parser that will receive any parse errors
+	 * @return The Event, Journal, Timezone or Freebusy object or null if the
+	 *         component is not valid or not yet supported
+	 */
+	Object build ( CalendarParser parser ) {
+		switch ( type ) {
+			case ICalendarParser.STATE_VEVENT:
+				Event event = new Event ( parser, startLineNo, getTextLines ( parser ) );
+				if ( event.isValid () )
+					return event;
+				System.err.println ( "ERROR: Invalid VEVENT found" );
+				return null;
+			case ICalendarParser.STATE_VJOURNAL:
+				Journal journal = new Journal ( parser, startLineNo, getTextLines ( parser ) );
+				return journal.isValid () ? journal : null;
+			case ICalendarParser.STATE_VTIMEZONE:
+				Timezone timezone = new Timezone ( parser, startLineNo, getTextLines ( parser ) );
+				return timezone.isValid () ? timezone : null;
+			case ICalendarParser.STATE_VFREEBUSY:
+				Freebusy freebusy = new Freebusy ( parser, startLineNo, getTextLines ( parser ) );
+				return freebusy.isValid () ? freebusy : null;
+			default:
+				// TODO: VTODO is not yet implemented
+				return null;
+		}
+	}
+
+}
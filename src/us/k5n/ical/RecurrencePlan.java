@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * The compiled form of an RRULE used by RruleIterator. The BY* settings are
+ * stored as bit masks along with the sorted times of day, with any values
+ * that come from DTSTART (such as the day of a MONTHLY rule) filled in. A plan
+ * cannot be changed, so plans are interned: all RRULEs with the same settings
+ * (and the same DTSTART values where they are needed) share one plan for as
+ * long as it is in use. COUNT and UNTIL are not part of the plan. Each Rrule
+ * keeps its plan (see Rrule.getCompiled), so getPlan is only called again when
+ * the RRULE or its start date changes, not for every RruleIterator.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see RruleIterator
+ */
+final class RecurrencePlan {
+	/** Plans that are in use, keyed by getKey */
+	private static final WeakHashMap<String, WeakReference<RecurrencePlan>> plans = new WeakHashMap<String, WeakReference<RecurrencePlan>> ();
+	/** Also the key in plans, so the entry is kept while the plan is used */
+	private final String key;
+	final int freq;
+	final int interval;
+	// BY* settings as bit masks (null if not used)
+	final long[] monthMask; // 1-12
+	final long[] weekdayMask; // 0-6
+	final int[] nthWeekday; // weekday of BYDAY entries with a number
+	final int[] nthNumber; // number of BYDAY entries with a number
+	final long[] monthdayMask; // 1-31
+	final long[] negMonthdayMask; // -1 to -31
+	final long[] yeardayMask; // 1-366
+	final long[] negYeardayMask; // -1 to -366
+	final long[] hourMask; // 0-23
+	final long[] minuteMask; // 0-59
+	final long[] secondMask; // 0-59
+	final int[] minutes; // sorted BYMINUTE (or DTSTART minute)
+	final int[] seconds; // sorted BYSECOND (or DTSTART second)
+	/** Sorted times of day (in seconds) for YEARLY to DAILY */
+	final int[] timeset;
+	final int[] setpos;
+
+	/**
+	 * Get the plan for an RRULE, creating it if no RRULE with the same settings
+	 * is in use.
+	 *
+	 * @param rrule
+	 *          The RRULE
+	 * @param startDate
+	 *          The start date of the recurrence (DTSTART)
+	 */
+	static RecurrencePlan getPlan ( Rrule rrule, Date startDate ) {
+		String key = getKey ( rrule, startDate );
+		synchronized ( plans ) {
+			WeakReference<RecurrencePlan> ref = plans.get ( key );
+			RecurrencePlan plan = ref == null ? null : ref.get ();
+			if ( plan == null ) {
+				plan = new RecurrencePlan ( key, rrule, startDate );
+				plans.put ( plan.key, new WeakReference<RecurrencePlan> ( plan ) );
+			}
+			return plan;
+		}
+	}
+
+	/**
+	 * Get the number of plans in use.
+	 */
+	static int getPlanCount () {
+		synchronized ( plans ) {
+			return plans.size ();
+		}
+	}
+
+	/**
+	 * Build the key for an RRULE. It includes every setting that is part of the
+	 * plan and the DTSTART values that the plan uses.
+	 */
+	static String getKey ( Rrule rrule, Date startDate ) {
+		StringBuffer sb = new StringBuffer ( 64 );
+		sb.append ( rrule.freq ).append ( ';' ).append ( rrule.interval );
+		append ( sb, 'S', rrule.bysecond );
+		append ( sb, 'M', rrule.byminute );
+		append ( sb, 'H', rrule.byhour );
+		append ( sb, 'D', rrule.bymonthday );
+		append ( sb, 'Y', rrule.byyearday );
+		append ( sb, 'N', rrule.bymonth );
+		append ( sb, 'P', rrule.bysetpos );
+		if ( rrule.byday != null ) {
+			sb.append ( ";W" );
+			for ( int i = 0; i < rrule.byday.length; i++ ) {
+				RruleByday b = rrule.byday[i];
+				sb.append ( b.positive ? ',' : '-' ).append ( b.number ).append ( '/' )
+				    .append ( b.weekday );
+			}
+		}
+		// DTSTART values used in place of missing BY* settings
+		boolean dateOnly = startDate.dateOnly;
+		sb.append ( dateOnly ? ";date" : ";time" );
+		if ( rrule.byyearday == null && rrule.bymonthday == null
+		    && rrule.byday == null ) {
+			if ( rrule.freq == Rrule.FREQ_YEARLY && rrule.bymonth == null )
+				sb.append ( ";m" ).append ( startDate.month );
+			if ( rrule.freq == Rrule.FREQ_YEARLY
+			    || rrule.freq == Rrule.FREQ_MONTHLY )
+				sb.append ( ";d" ).append ( startDate.day );
+		}
+		if ( rrule.freq == Rrule.FREQ_WEEKLY && rrule.byday == null )
+			sb.append ( ";w" ).append (
+			    RruleIterator.weekday ( TimezoneCache.daysFromCivil ( startDate.year,
+			        startDate.month, startDate.day ) ) );
+		if ( !dateOnly ) {
+			if ( rrule.byhour == null && rrule.freq < Rrule.FREQ_HOURLY )
+				sb.append ( ";h" ).append ( startDate.hour );
+			if ( rrule.byminute == null && rrule.freq < Rrule.FREQ_MINUTELY )
+				sb.append ( ";i" ).append ( startDate.minute );
+			if ( rrule.bysecond == null && rrule.freq < Rrule.FREQ_SECONDLY )
+				sb.append ( ";s" ).append ( startDate.second );
+		}
+		return sb.toString ();
+	}
+
+	private static void append ( StringBuffer sb, char name, int[] values ) {
+		if ( values == null )
+			return;
+		sb.append ( ';' ).append ( name );
+		for ( int i = 0; i < values.length; i++ )
+			sb.append ( ',' ).append ( values[i] );
+	}
+
+	private RecurrencePlan(String key, Rrule rrule, Date startDate) {
+		this.key = key;
+		freq = rrule.freq;
+		interval = rrule.interval < 1 ? 1 : rrule.interval;
+		boolean dateOnly = startDate.dateOnly;
+		int hour = dateOnly ? 0 : startDate.hour;
+		int minute = dateOnly ? 0 : startDate.minute;
+		int second = dateOnly ? 0 : startDate.second;
+
+		// BYDAY
+		long[] weekdays = null;
+		int[] nthWeekday = null, nthNumber = null;
+		if ( rrule.byday != null && rrule.byday.length > 0 ) {
+			int n = 0;
+			boolean nthAllowed = freq == Rrule.FREQ_MONTHLY
+			    || freq == Rrule.FREQ_YEARLY;
+			for ( int i = 0; i < rrule.byday.length; i++ ) {
+				if ( nthAllowed && rrule.byday[i].number != 0 )
+					n++;
+			}
+			if ( n > 0 ) {
+				nthWeekday = new int[n];
+				nthNumber = new int[n];
+			}
+			n = 0;
+			for ( int i = 0; i < rrule.byday.length; i++ ) {
+				RruleByday b = rrule.byday[i];
+				if ( nthAllowed && b.number != 0 ) {
+					nthWeekday[n] = b.weekday;
+					nthNumber[n++] = b.positive ? b.number : -b.number;
+				} else {
+					if ( weekdays == null )
+						weekdays = new long[1];
+					set ( weekdays, b.weekday );
+				}
+			}
+		}
+		this.nthWeekday = nthWeekday;
+		this.nthNumber = nthNumber;
+		long[] months = mask ( rrule.bymonth, 12, null );
+		long[] monthdays = null, negMonthdays = null;
+		if ( rrule.bymonthday != null && rrule.bymonthday.length > 0 ) {
+			negMonthdays = new long[1];
+			monthdays = mask ( rrule.bymonthday, 31, negMonthdays );
+		}
+		long[] yeardays = null, negYeardays = null;
+		if ( rrule.byyearday != null && rrule.byyearday.length > 0 ) {
+			negYeardays = new long[6];
+			yeardays = mask ( rrule.byyearday, 366, negYeardays );
+		}
+		// Use DTSTART if no day is specified
+		if ( rrule.byyearday == null && rrule.bymonthday == null
+		    && rrule.byday == null ) {
+			if ( freq == Rrule.FREQ_YEARLY ) {
+				if ( months == null )
+					months = mask ( new int[] { startDate.month }, 12, null );
+				monthdays = mask ( new int[] { startDate.day }, 31, null );
+			} else if ( freq == Rrule.FREQ_MONTHLY ) {
+				monthdays = mask ( new int[] { startDate.day }, 31, null );
+			}
+		}
+		if ( freq == Rrule.FREQ_WEEKLY && rrule.byday == null ) {
+			weekdays = new long[1];
+			set ( weekdays, RruleIterator.weekday ( TimezoneCache.daysFromCivil (
+			    startDate.year, startDate.month, startDate.day ) ) );
+		}
+		monthMask = months;
+		weekdayMask = weekdays;
+		monthdayMask = monthdays;
+		negMonthdayMask = negMonthdays;
+		yeardayMask = yeardays;
+		negYeardayMask = negYeardays;
+
+		// Times
+		int[] byhour = rrule.byhour;
+		int[] byminute = rrule.byminute;
+		int[] bysecond = rrule.bysecond;
+		if ( dateOnly ) {
+			byhour = byminute = bysecond = new int[] { 0 };
+		}
+		if ( byhour == null && freq < Rrule.FREQ_HOURLY )
+			byhour = new int[] { hour };
+		if ( byminute == null && freq < Rrule.FREQ_MINUTELY )
+			byminute = new int[] { minute };
+		if ( bysecond == null && freq < Rrule.FREQ_SECONDLY )
+			bysecond = new int[] { second };
+		hourMask = mask ( byhour, 23, null );
+		minuteMask = mask ( byminute, 59, null );
+		secondMask = mask ( bysecond, 59, null );
+		minutes = sorted ( byminute );
+		seconds = sorted ( bysecond );
+		if ( freq <= Rrule.FREQ_DAILY ) {
+			int[] hours = sorted ( byhour );
+			timeset = new int[hours.length * minutes.length * seconds.length];
+			int n = 0;
+			for ( int h = 0; h < hours.length; h++ )
+				for ( int m = 0; m < minutes.length; m++ )
+					for ( int s = 0; s < seconds.length; s++ )
+						timeset[n++] = hours[h] * 3600 + minutes[m] * 60 + seconds[s];
+		} else {
+			timeset = null;
+		}
+		if ( rrule.bysetpos != null && rrule.bysetpos.length > 0 )
+			setpos = sorted ( rrule.bysetpos );
+		else
+			setpos = null;
+	}
+
+	/**
+	 * Create a bit mask from a list of numbers. Negative numbers are put in the
+	 * negative mask (if there is one).
+	 */
+	private static long[] mask ( int[] values, int max, long[] negMask ) {
+		if ( values == null || values.length == 0 )
+			return null;
+		long[] ret = new long[max / 64 + 1];
+		for ( int i = 0; i < values.length; i++ ) {
+			int v = values[i];
+			if ( v >= 0 && v <= max )
+				set ( ret, v );
+			else if ( v < 0 && -v <= max && negMask != null )
+				set ( negMask, -v );
+		}
+		return ret;
+	}
+
+	private static void set ( long[] mask, int v ) {
+		mask[v >> 6] |= 1L << ( v & 63 );
+	}
+
+	/**
+	 * Is a value in a bit mask?
+	 */
+	static boolean has ( long[] mask, int v ) {
+		return ( mask[v >> 6] & ( 1L << ( v & 63 ) ) ) != 0;
+	}
+
+	private static int[] sorted ( int[] values ) {
+		if ( values == null )
+			return null;
+		int[] ret = new int[values.length];
+		System.arraycopy ( values, 0, ret, 0, values.length );
+		Arrays.sort ( ret );
+		return ret;
+	}
+
+	/**
+	 * Does a day match the BYMONTH, BYYEARDAY, BYMONTHDAY and BYDAY settings?
+	 *
+	 * @param day
+	 *          The number of days since 1970
+	 */
+	boolean matches ( long day ) {
+		int ymd = TimezoneCache.civilFromDays ( day );
+		int year = ymd >> 9;
+		int month = ( ymd >> 5 ) & 0xf;
+		int mday = ymd & 0x1f;
+		if ( monthMask != null && !has ( monthMask, month ) )
+			return false;
+		if ( yeardayMask != null ) {
+			long jan1 = TimezoneCache.daysFromCivil ( year, 1, 1 );
+			int yday = (int) ( day - jan1 ) + 1;
+			int ylen = RruleIterator.isLeapYear ( year ) ? 366 : 365;
+			if ( !has ( yeardayMask, yday )
+			    && !has ( negYeardayMask, ylen - yday + 1 ) )
+				return false;
+		}
+		int mlen = RruleIterator.daysInMonth ( year, month );
+		if ( monthdayMask != null ) {
+			if ( !has ( monthdayMask, mday )
+			    && ( negMonthdayMask == null || !has ( negMonthdayMask, mlen - mday
+			        + 1 ) ) )
+				return false;
+		}
+		if ( weekdayMask != null || nthWeekday != null ) {
+			int wday = RruleIterator.weekday ( day );
+			if ( weekdayMask != null && has ( weekdayMask, wday ) )
+				return true;
+			if ( nthWeekday == null )
+				return false;
+			// Numbered weekdays are counted within the month for MONTHLY or
+			// when BYMONTH is used, otherwise within the year.
+			long rangeFirst, rangeLast;
+			if ( freq == Rrule.FREQ_MONTHLY || monthMask != null ) {
+				rangeFirst = day - mday + 1;
+				rangeLast = rangeFirst + mlen - 1;
+			} else {
+				rangeFirst = TimezoneCache.daysFromCivil ( year, 1, 1 );
+				rangeLast = rangeFirst
+				    + ( RruleIterator.isLeapYear ( year ) ? 365 : 364 );
+			}
+			for ( int i = 0; i < nthWeekday.length; i++ ) {
+				if ( nthWeekday[i] != wday )
+					continue;
+				int n = nthNumber[i];
+				if ( n > 0 && ( day - rangeFirst ) / 7 + 1 == n )
+					return true;
+				if ( n < 0 && ( rangeLast - day ) / 7 + 1 == -n )
+					return true;
+			}
+			return false;
+		}
+		return true;
+	}
+
+}
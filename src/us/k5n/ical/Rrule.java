@@ -20,135 +20,22 @@
 
 package us.k5n.ical;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Vector;
 
-import com.google.ical.iter.RecurrenceIterator;
-import com.google.ical.iter.RecurrenceIteratorFactory;
-import com.google.ical.values.DateTimeValueImpl;
-import com.google.ical.values.DateValueImpl;
-import com.google.ical.values.Frequency;
-import com.google.ical.values.Weekday;
-import com.google.ical.values.WeekdayNum;
-
-class RruleByday {
-	public boolean positive;
-	public int weekday; // (0=Sun, etc.)
-	public int number;
-	public boolean valid = false;
-
-	public RruleByday(String str) {
-		int i = 0;
-		weekday = -1;
-		positive = true;
-		if ( str.charAt ( i ) == '+' ) {
-			positive = true;
-			i++;
-		} else if ( str.charAt ( i ) == '-' ) {
-			positive = false;
-			i++;
-		}
-		if ( str.charAt ( i ) >= '0' && str.charAt ( i ) <= '9'
-		    && str.charAt ( i + 1 ) >= '0' && str.charAt ( i + 1 ) <= '9' ) {
-			number = (int) ( str.charAt ( i ) - '0' ) * 10
-			    + (int) ( str.charAt ( i + 1 ) - '0' );
-			i += 2;
-		} else if ( str.charAt ( i ) >= '0' && str.charAt ( i ) <= '9' ) {
-			number = (int) ( str.charAt ( i ) - '0' );
-			i++;
-		}
-		String sub = str.substring ( i, i + 2 );
-		if ( sub.equals ( "SU" ) )
-			weekday = 0;
-		else if ( sub.equals ( "MO" ) )
-			weekday = 1;
-		else if ( sub.equals ( "TU" ) )
-			weekday = 2;
-		else if ( sub.equals ( "WE" ) )
-			weekday = 3;
-		else if ( sub.equals ( "TH" ) )
-			weekday = 4;
-		else if ( sub.equals ( "FR" ) )
-			weekday = 5;
-		else if ( sub.equals ( "SA" ) )
-			weekday = 6;
-		if ( weekday >= 0 && str.length () == i + 2 )
-			valid = true;
-	}
-
-	/**
-	 * Convert the a google-compatible WeekdayNum object
-	 */
-	public WeekdayNum toWeekdayNum () {
-		Weekday w;
-		switch ( weekday ) {
-			case 0:
-				w = Weekday.SU;
-				break;
-			case 1:
-				w = Weekday.MO;
-				break;
-			case 2:
-				w = Weekday.TU;
-				break;
-			case 3:
-				w = Weekday.WE;
-				break;
-			case 4:
-				w = Weekday.TH;
-				break;
-			case 5:
-				w = Weekday.FR;
-				break;
-			case 6:
-			default:
-				w = Weekday.SA;
-				break;
-		}
-		WeekdayNum ret = new WeekdayNum ( positive ? number : -number, w );
-		return ret;
-	}
-
-	public String toICalendar () {
-		StringBuffer ret = new StringBuffer ();
-		if ( !positive )
-			ret.append ( '-' );
-		ret.append ( number );
-		switch ( weekday ) {
-			case 0:
-				ret.append ( "SU" );
-				break;
-			case 1:
-				ret.append ( "MO" );
-				break;
-			case 2:
-				ret.append ( "TU" );
-				break;
-			case 3:
-				ret.append ( "WE" );
-				break;
-			case 4:
-				ret.append ( "TH" );
-				break;
-			case 5:
-				ret.append ( "FR" );
-				break;
-			case 6:
-				ret.append ( "SA" );
-				break;
-		}
-		return ret.toString ();
-	}
-}
-
 /**
  * Class for holding recurrence information for an event/todo as specified in
  * the iCalendar RRULE property.
  * 
- * This class does its own parsing of the RRULE values. However, the recurrance
- * dates are generating using Google's RFC2445 jar package. See the following
- * URL for more info: <a
- * href="http://code.google.com/p/google-rfc-2445/">http://code.google.com/p/google-rfc-2445/</a>
+ * This class does its own parsing of the RRULE values. The recurrance dates are
+ * generated by RruleIterator.
+ * 
+ * The settings are compiled the first time they are used with a start date,
+ * and compiled again when one of the fields (or the start date) is changed.
+ * If the values in one of the BY* arrays are changed in place, call
+ * markChanged.
  * 
  * @author Craig Knudsen, craig@k5n.us
  */
@@ -176,6 +63,8 @@ public class Rrule extends Property implements Constants {
 	/** Month event falls on (1,2 etc.) */
 	public int[] bymonth = null;
 	public int[] bysetpos = null;
+	/** Compiled form of this RRULE for the last start date used (or null) */
+	private volatile Compiled compiled = null;
 
 	public static final int FREQ_NOT_SPECIFIED = -1;
 	public static final int FREQ_YEARLY = 1;
@@ -420,10 +309,48 @@ public class Rrule extends Property implements Constants {
 		return this.freq;
 	}
 
+	/**
+	 * Mark the settings of this RRULE as changed, so they are compiled again the
+	 * next time they are used. This is only needed after changing the values in
+	 * one of the BY* arrays in place.
+	 */
+	public void markChanged () {
+		this.compiled = null;
+	}
+
+	/**
+	 * Get the compiled form of this RRULE for a start date. The last one is kept
+	 * and used again if neither the RRULE nor the start date has changed.
+	 */
+	Compiled getCompiled ( Date startDate ) {
+		Compiled ret = this.compiled;
+		if ( ret == null || !ret.isFor ( this, startDate ) ) {
+			ret = new Compiled ( this, startDate );
+			this.compiled = ret;
+		}
+		return ret;
+	}
+
 	/**
 	 * Convert to a RRULE iCalendar line
 	 */
 	public String toICalendar () {
+		updateValue ();
+		return super.toICalendar ();
+	}
+
+	/**
+	 * Write this RRULE as a folded iCalendar line.
+	 */
+	void write ( ICalendarWriter out ) throws IOException {
+		updateValue ();
+		super.write ( out );
+	}
+
+	/**
+	 * Set the iCalendar value from the RRULE settings.
+	 */
+	private void updateValue () {
 		StringBuffer ret = new StringBuffer ();
 		// regenerate value in case anything was updated and so we can validate
 		// parse was correct
@@ -516,16 +443,97 @@ public class Rrule extends Property implements Constants {
 		}
 
 		value = ret.toString ();
+	}
 
-		return super.toICalendar ();
+	/**
+	 * Get an iterator for the dates of this RRULE. Unlike generateRecurrances,
+	 * this includes the start date (if it matches the RRULE) and does not limit
+	 * the number of dates.
+	 * 
+	 * @param startDate
+	 *          the start date of the recurrence
+	 */
+	public RruleIterator iterator ( Date startDate ) {
+		return new RruleIterator ( this, startDate );
+	}
+
+	/**
+	 * Get one of the dates of this RRULE. For simple rules (FREQ, INTERVAL,
+	 * COUNT and UNTIL with weekdays for WEEKLY or days 1-28 of the month for
+	 * MONTHLY and YEARLY) the date is calculated directly; other rules generate
+	 * the dates before it.
+	 * 
+	 * @param startDate
+	 *          the start date of the recurrence
+	 * @param n
+	 *          the index of the date (0 for the first date, which is the start
+	 *          date if it matches the RRULE)
+	 * @return the date or null if the RRULE does not have that many dates
+	 */
+	public Date occurrenceAt ( Date startDate, int n ) {
+		if ( n < 0 )
+			return null;
+		ClosedFormRrule closedForm = getCompiled ( startDate ).closedForm;
+		if ( closedForm != null ) {
+			long local = closedForm.getLocal ( n );
+			return local == Long.MIN_VALUE ? null : toDate ( local,
+			    startDate.dateOnly );
+		}
+		RruleIterator iter = new RruleIterator ( this, startDate );
+		for ( int i = 0; i < n && iter.hasNext (); i++ )
+			iter.nextLocal ();
+		return iter.hasNext () ? toDate ( iter.nextLocal (), startDate.dateOnly )
+		    : null;
+	}
+
+	/**
+	 * Count the dates of this RRULE within a range. Simple rules (see
+	 * occurrenceAt) are counted without generating the dates.
+	 * 
+	 * @param startDate
+	 *          the start date of the recurrence
+	 * @param windowStart
+	 *          the first date to include
+	 * @param windowEnd
+	 *          the end of the range (dates on or after this are not included)
+	 * @return the number of dates
+	 */
+	public long countBetween ( Date startDate, Date windowStart, Date windowEnd ) {
+		ClosedFormRrule closedForm = getCompiled ( startDate ).closedForm;
+		if ( closedForm != null )
+			return closedForm.countBetween ( closedForm.toLocal ( windowStart ),
+			    closedForm.toLocal ( windowEnd ) );
+		RruleIterator iter = new RruleIterator ( this, startDate );
+		iter.advanceTo ( windowStart );
+		long end = iter.toLocal ( windowEnd );
+		long n = 0;
+		while ( iter.hasNext () && iter.nextLocal () < end )
+			n++;
+		return n;
+	}
+
+	/**
+	 * Is a date one of the dates of this RRULE? Simple rules (see
+	 * occurrenceAt) are checked without generating the dates.
+	 * 
+	 * @param startDate
+	 *          the start date of the recurrence
+	 * @param date
+	 *          the date to check
+	 */
+	public boolean isOccurrence ( Date startDate, Date date ) {
+		ClosedFormRrule closedForm = getCompiled ( startDate ).closedForm;
+		if ( closedForm != null )
+			return closedForm.isOccurrence ( closedForm.toLocal ( date ) );
+		RruleIterator iter = new RruleIterator ( this, startDate );
+		long local = iter.toLocal ( date );
+		iter.advanceTo ( local );
+		return iter.hasNext () && iter.nextLocal () == local;
 	}
 
 	/**
 	 * Generate a Vector of Date objects indicating when this event will repeat.
-	 * This DOES NOT include the original event date specified by DTSTART. The
-	 * Google RFC2445 package is used to generate recurrences. See the following
-	 * URL for more info: <a
-	 * href="http://code.google.com/p/google-rfc-2445/">http://code.google.com/p/google-rfc-2445/</a>
+	 * This DOES NOT include the original event date specified by DTSTART.
 	 * 
 	 * @param startDate
 	 *          the start date of the recurrence
@@ -533,15 +541,112 @@ public class Rrule extends Property implements Constants {
 	 *          the timezone ID
 	 */
 	public Vector<Date> generateRecurrances ( Date startDate, String tzid ) {
-		return generateRecurrances ( startDate, tzid, null, null );
+		return generateRecurrances ( startDate, tzid, (Vector<Date>) null,
+		    (Vector<Date>) null );
+	}
+
+	/**
+	 * Generate a Vector of Date objects indicating when this event will repeat
+	 * within a range of dates. This DOES NOT include the original event date
+	 * specified by DTSTART. Dates before windowStart are skipped without being
+	 * generated, so the time this takes depends on the size of the window
+	 * rather than how long ago the recurrence started.
+	 * 
+	 * @param startDate
+	 *          the start date of the recurrence
+	 * @param tzid
+	 *          the timezone ID
+	 * @param windowStart
+	 *          the first date to include
+	 * @param windowEnd
+	 *          the end of the window (dates on or after this are not included)
+	 */
+	public Vector<Date> generateRecurrances ( Date startDate, String tzid,
+	    Date windowStart, Date windowEnd ) {
+		Vector<Date> ret = new Vector<Date> ();
+		RruleIterator iter = new RruleIterator ( this, startDate, tzid );
+		iter.advanceTo ( windowStart );
+		long end = iter.toLocal ( windowEnd );
+		int num = 0;
+		while ( iter.hasNext () && num++ < 10000 ) {
+			long local = iter.nextLocal ();
+			if ( local >= end )
+				break;
+			Date newDate = toDate ( local, startDate.dateOnly );
+			if ( newDate != null && !newDate.equals ( startDate ) )
+				ret.addElement ( newDate );
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the value used to sort and match dates. Dates with the same value are
+	 * equal according to Date.compareTo. Date-only values sort before a
+	 * date-time at midnight of the same day.
+	 */
+	static long sortKey ( Date d ) {
+		return RruleIterator.toLocalSeconds ( d ) * 2 + ( d.dateOnly ? 0 : 1 );
+	}
+
+	/**
+	 * Sort dates and remove duplicates.
+	 * 
+	 * @return the sorted dates (an empty array if dates is null)
+	 */
+	static Date[] sortDates ( Vector<Date> dates ) {
+		if ( dates == null || dates.size () == 0 )
+			return new Date[0];
+		Date[] ret = dates.toArray ( new Date[dates.size ()] );
+		Arrays.sort ( ret, new Comparator<Date> () {
+			public int compare ( Date d1, Date d2 ) {
+				long k1 = sortKey ( d1 ), k2 = sortKey ( d2 );
+				return k1 < k2 ? -1 : ( k1 == k2 ? 0 : 1 );
+			}
+		} );
+		int n = 1;
+		for ( int i = 1; i < ret.length; i++ ) {
+			if ( sortKey ( ret[i] ) != sortKey ( ret[n - 1] ) )
+				ret[n++] = ret[i];
+		}
+		if ( n < ret.length ) {
+			Date[] newRet = new Date[n];
+			System.arraycopy ( ret, 0, newRet, 0, n );
+			ret = newRet;
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the sort keys for an array of dates.
+	 */
+	static long[] sortKeys ( Date[] dates ) {
+		long[] ret = new long[dates.length];
+		for ( int i = 0; i < dates.length; i++ )
+			ret[i] = sortKey ( dates[i] );
+		return ret;
+	}
+
+	/**
+	 * Create a Date from local time (seconds since 1970).
+	 */
+	static Date toDate ( long local, boolean dateOnly ) {
+		long days = TimezoneCache.floorDiv ( local, RruleIterator.SECONDS_PER_DAY );
+		int ymd = TimezoneCache.civilFromDays ( days );
+		int secs = (int) ( local - days * RruleIterator.SECONDS_PER_DAY );
+		try {
+			if ( dateOnly )
+				return new Date ( "EXDATE", ymd >> 9, ( ymd >> 5 ) & 0xf, ymd & 0x1f );
+			return new Date ( "XXX", ymd >> 9, ( ymd >> 5 ) & 0xf, ymd & 0x1f,
+			    secs / 3600, ( secs / 60 ) % 60, secs % 60 );
+		} catch ( BogusDataException e1 ) {
+			e1.printStackTrace ();
+			return null;
+		}
 	}
 
 	/**
 	 * Generate a Vector of Date objects indicating when this event will repeat.
-	 * This DOES NOT include the original event date specified by DTSTART. The
-	 * Google RFC2445 package is used to generate recurrences. See the following
-	 * URL for more info: <a
-	 * href="http://code.google.com/p/google-rfc-2445/">http://code.google.com/p/google-rfc-2445/</a>
+	 * This DOES NOT include the original event date specified by DTSTART.
 	 * 
 	 * @param startDate
 	 *          the start date of the recurrence
@@ -557,146 +662,111 @@ public class Rrule extends Property implements Constants {
 	public Vector<Date> generateRecurrances ( Date startDate, String tzid,
 	    Vector<Date> exdates, Vector<Date> rdates ) {
 		Vector<Date> ret = new Vector<Date> ();
-		com.google.ical.values.DateValue dtStart = null;
-		if ( startDate.dateOnly ) {
-			dtStart = new DateValueImpl ( startDate.getYear (),
-			    startDate.getMonth (), startDate.getDay () );
-		} else {
-			dtStart = new DateTimeValueImpl ( startDate.getYear (), startDate
-			    .getMonth (), startDate.getDay (), startDate.getHour (), startDate
-			    .getMinute (), startDate.getSecond () );
-		}
-		com.google.ical.values.RRule rrule = new com.google.ical.values.RRule ();
-		rrule.setName ( "RRULE" );
-		rrule.setInterval ( this.interval );
-		switch ( this.freq ) {
-			case FREQ_YEARLY:
-				rrule.setFreq ( Frequency.YEARLY );
-				break;
-			case FREQ_MONTHLY:
-				rrule.setFreq ( Frequency.MONTHLY );
-				break;
-			case FREQ_WEEKLY:
-				rrule.setFreq ( Frequency.WEEKLY );
-				break;
-			case FREQ_DAILY:
-				rrule.setFreq ( Frequency.DAILY );
-				break;
-			case FREQ_HOURLY:
-				rrule.setFreq ( Frequency.HOURLY );
-				break;
-			case FREQ_MINUTELY:
-				rrule.setFreq ( Frequency.MINUTELY );
-				break;
-			case FREQ_SECONDLY:
-				rrule.setFreq ( Frequency.SECONDLY );
-				break;
-		}
-		if ( this.count > 0 )
-			rrule.setCount ( this.count );
-		if ( this.byyearday != null && this.byyearday.length > 0 ) {
-			rrule.setByYearDay ( this.byyearday );
-		}
-		if ( this.bymonth != null && this.bymonth.length > 0 )
-			rrule.setByMonth ( this.bymonth );
-		if ( this.bymonthday != null && this.bymonthday.length > 0 )
-			rrule.setByMonthDay ( this.bymonthday );
-		if ( this.byday != null && this.byday.length > 0 ) {
-			Vector<WeekdayNum> weekdays = new Vector<WeekdayNum> ();
-			for ( int i = 0; i < this.byday.length; i++ ) {
-				WeekdayNum weekday = this.byday[i].toWeekdayNum ();
-				weekdays.addElement ( weekday );
-			}
-			rrule.setByDay ( weekdays );
-		}
-		if ( this.byhour != null && this.byhour.length > 0 )
-			rrule.setByHour ( this.byhour );
-		if ( this.byminute != null && this.byminute.length > 0 )
-			rrule.setByMinute ( this.byminute );
-		if ( this.bysecond != null && this.bysecond.length > 0 )
-			rrule.setBySecond ( this.bysecond );
-		if ( this.bysetpos != null && this.bysetpos.length > 0 )
-			rrule.setBySetPos ( this.bysetpos );
-		if ( this.untilDate != null ) {
-			com.google.ical.values.DateValue rruleUntil = null;
-			if ( this.untilDate.dateOnly ) {
-				rruleUntil = new DateValueImpl ( this.untilDate.getYear (),
-				    this.untilDate.getMonth (), this.untilDate.getDay () );
-			} else {
-				rruleUntil = new DateTimeValueImpl ( this.untilDate.getYear (),
-				    this.untilDate.getMonth (), this.untilDate.getDay (),
-				    this.untilDate.getHour (), this.untilDate.getMinute (),
-				    this.untilDate.getSecond () );
-			}
-			rrule.setUntil ( rruleUntil );
-		}
-
-		// TODO: does this conflict with Joda's own Timezone stuff?
-		// should we be using a Joda timezone object here?
-		java.util.TimeZone timezone = null;
-		if ( tzid != null )
-			timezone = java.util.TimeZone.getTimeZone ( tzid );
-		RecurrenceIterator iter = RecurrenceIteratorFactory
-		    .createRecurrenceIterator ( rrule, dtStart, timezone );
+		RruleIterator iter = new RruleIterator ( this, startDate, tzid );
+		// The exception and inclusion dates are sorted so they can be merged
+		// with the recurrence dates as they are generated.
+		long[] exKeys = sortKeys ( sortDates ( exdates ) );
+		Date[] rdateList = sortDates ( rdates );
+		long[] rdateKeys = sortKeys ( rdateList );
+		int ex = 0, rd = 0;
+		long startKey = sortKey ( startDate );
+		int flag = startDate.dateOnly ? 0 : 1;
 		int num = 0;
 		int thisYear = java.util.Calendar.getInstance ().get (
 		    java.util.Calendar.YEAR );
+		// Max of 100 years from this year. (To avoid endless loop.)
+		// TODO: make this configurable
+		long maxLocal = TimezoneCache.daysFromCivil ( thisYear + 100, 1, 1 )
+		    * RruleIterator.SECONDS_PER_DAY;
 		while ( iter.hasNext () && num++ < 10000 ) {
-			com.google.ical.values.DateValue d = iter.next ();
-			if ( d instanceof com.google.ical.values.DateTimeValue ) {
-				com.google.ical.values.DateTimeValue dt = (com.google.ical.values.DateTimeValue) d;
-				try {
-					Date newDateTime = new Date ( "XXX", dt.year (), dt.month (), dt
-					    .day (), dt.hour (), dt.minute (), dt.second () );
-					boolean isException = false;
-					for ( int i = 0; exdates != null && i < exdates.size (); i++ ) {
-						Date exdate = exdates.elementAt ( i );
-						if ( newDateTime.compareTo ( exdate ) == 0 )
-							isException = true;
-					}
-					if ( !newDateTime.equals ( startDate ) && !isException )
-						ret.addElement ( newDateTime );
-				} catch ( BogusDataException e1 ) {
-					e1.printStackTrace ();
-				}
-			} else {
-				try {
-					Date newDate = new Date ( "EXDATE", d.year (), d.month (), d.day () );
-					boolean isException = false;
-					for ( int i = 0; exdates != null && i < exdates.size (); i++ ) {
-						Date exdate = exdates.elementAt ( i );
-						if ( newDate.compareTo ( exdate ) == 0 )
-							isException = true;
-					}
-					if ( !newDate.equals ( startDate ) && !isException )
-						ret.addElement ( newDate );
-				} catch ( BogusDataException e1 ) {
-					e1.printStackTrace ();
+			long local = iter.nextLocal ();
+			long key = local * 2 + flag;
+			while ( rd < rdateKeys.length && rdateKeys[rd] < key )
+				ret.addElement ( rdateList[rd++] );
+			while ( ex < exKeys.length && exKeys[ex] < key )
+				ex++;
+			boolean isException = ex < exKeys.length && exKeys[ex] == key;
+			if ( key != startKey && !isException ) {
+				Date newDate = toDate ( local, startDate.dateOnly );
+				if ( newDate != null ) {
+					ret.addElement ( newDate );
+					// If the recurrence already has the date, don't add the RDATE
+					// (which could happen if the RRULE was changed after the RDATE
+					// field was set).
+					if ( rd < rdateKeys.length && rdateKeys[rd] == key )
+						rd++;
 				}
 			}
-			// Max of 100 years from this year. (To avoid endless loop.)
-			// TODO: make this configurable
-			if ( d.year () >= thisYear + 100 )
+			if ( local >= maxLocal )
 				break;
 		}
-		// Add in inclusion dates (from RDATE field)
-		// If the recurrence already has the date, don't re-add it (which could
-		// happen if the RRULE was changed after the RDATE field was set).
-		if ( rdates != null ) {
-			for ( int i = 0; i < rdates.size (); i++ ) {
-				Date d = rdates.elementAt ( i );
-				boolean alreadyThere = false;
-				for ( int j = 0; j < ret.size (); j++ ) {
-					Date cur = ret.elementAt ( j );
-					if ( cur.compareTo ( d ) == 0 )
-						alreadyThere = true;
-				}
-				if ( !alreadyThere )
-					ret.add ( d );
-			}
-			// Sort the Vector since they might be out of order now.
-			Collections.sort ( ret );
-		}
+		// Add in remaining inclusion dates (from RDATE field)
+		while ( rd < rdateList.length )
+			ret.addElement ( rdateList[rd++] );
 		return ret;
 	}
+
+	/**
+	 * The parts of an RRULE that are worked out from its settings and a start
+	 * date. It cannot be changed, so it can be shared by threads. The field
+	 * values it was built from are kept to notice when they change.
+	 */
+	static final class Compiled {
+		/** The RecurrencePlan used by RruleIterator */
+		final RecurrencePlan plan;
+		/** The ClosedFormRrule or null if the RRULE is not simple */
+		final ClosedFormRrule closedForm;
+		private final int freq, interval, count;
+		private final Date untilDate, startDate;
+		private final int[] bysecond, byminute, byhour, bymonthday, byyearday,
+		    bymonth, bysetpos;
+		private final RruleByday[] byday;
+		private final long untilKey, startKey;
+		private final String untilTzid, startTzid;
+		private final boolean startFloating;
+
+		Compiled(Rrule rrule, Date startDate) {
+			freq = rrule.freq;
+			interval = rrule.interval;
+			count = rrule.count;
+			untilDate = rrule.untilDate;
+			untilKey = untilDate == null ? 0 : sortKey ( untilDate );
+			untilTzid = untilDate == null ? null : untilDate.tzid;
+			bysecond = rrule.bysecond;
+			byminute = rrule.byminute;
+			byhour = rrule.byhour;
+			bymonthday = rrule.bymonthday;
+			byyearday = rrule.byyearday;
+			bymonth = rrule.bymonth;
+			bysetpos = rrule.bysetpos;
+			byday = rrule.byday;
+			this.startDate = startDate;
+			startKey = sortKey ( startDate );
+			startTzid = startDate.tzid;
+			startFloating = startDate.isFloating ();
+			plan = RecurrencePlan.getPlan ( rrule, startDate );
+			closedForm = ClosedFormRrule.create ( rrule, startDate );
+		}
+
+		/**
+		 * Was this built from the current settings of an RRULE and a start date?
+		 */
+		boolean isFor ( Rrule rrule, Date startDate ) {
+			return freq == rrule.freq && interval == rrule.interval
+			    && count == rrule.count && bysecond == rrule.bysecond
+			    && byminute == rrule.byminute && byhour == rrule.byhour
+			    && bymonthday == rrule.bymonthday && byyearday == rrule.byyearday
+			    && bymonth == rrule.bymonth && bysetpos == rrule.bysetpos
+			    && byday == rrule.byday && untilDate == rrule.untilDate
+			    && ( untilDate == null || untilKey == sortKey ( untilDate )
+			        && sameTzid ( untilTzid, untilDate ) )
+			    && this.startDate == startDate && startKey == sortKey ( startDate )
+			    && sameTzid ( startTzid, startDate )
+			    && startFloating == startDate.isFloating ();
+		}
+
+		private static boolean sameTzid ( String tzid, Date date ) {
+			return tzid == null ? date.tzid == null : tzid.equals ( date.tzid );
+		}
+	}
 }
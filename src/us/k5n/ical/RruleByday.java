@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import com.google.ical.values.Weekday;
+import com.google.ical.values.WeekdayNum;
+
+/**
+ * One value of the BYDAY setting of an RRULE ("MO", "-1FR", "+2TU", etc.)
+ * 
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Rrule
+ */
+class RruleByday {
+	public boolean positive;
+	public int weekday; // (0=Sun, etc.)
+	public int number;
+	public boolean valid = false;
+
+	public RruleByday(String str) {
+		int i = 0;
+		weekday = -1;
+		positive = true;
+		if ( str.charAt ( i ) == '+' ) {
+			positive = true;
+			i++;
+		} else if ( str.charAt ( i ) == '-' ) {
+			positive = false;
+			i++;
+		}
+		if ( str.charAt ( i ) >= '0' && str.charAt ( i ) <= '9'
+		    && str.charAt ( i + 1 ) >= '0' && str.charAt ( i + 1 ) <= '9' ) {
+			number = (int) ( str.charAt ( i ) - '0' ) * 10
+			    + (int) ( str.charAt ( i + 1 ) - '0' );
+			i += 2;
+		} else if ( str.charAt ( i ) >= '0' && str.charAt ( i ) <= '9' ) {
+			number = (int) ( str.charAt ( i ) - '0' );
+			i++;
+		}
+		String sub = str.substring ( i, i + 2 );
+		if ( sub.equals ( "SU" ) )
+			weekday = 0;
+		else if ( sub.equals ( "MO" ) )
+			weekday = 1;
+		else if ( sub.equals ( "TU" ) )
+			weekday = 2;
+		else if ( sub.equals ( "WE" ) )
+			weekday = 3;
+		else if ( sub.equals ( "TH" ) )
+			weekday = 4;
+		else if ( sub.equals ( "FR" ) )
+			weekday = 5;
+		else if ( sub.equals ( "SA" ) )
+			weekday = 6;
+		if ( weekday >= 0 && str.length () == i + 2 )
+			valid = true;
+	}
+
+	/**
+	 * Convert the a google-compatible WeekdayNum object
+	 */
+	public WeekdayNum toWeekdayNum () {
+		Weekday w;
+		switch ( weekday ) {
+			case 0:
+				w = Weekday.SU;
+				break;
+			case 1:
+				w = Weekday.MO;
+				break;
+			case 2:
+				w = Weekday.TU;
+				break;
+			case 3:
+				w = Weekday.WE;
+				break;
+			case 4:
+				w = Weekday.TH;
+				break;
+			case 5:
+				w = Weekday.FR;
+				break;
+			case 6:
+			default:
+				w = Weekday.SA;
+				break;
+		}
+		WeekdayNum ret = new WeekdayNum ( positive ? number : -number, w );
+		return ret;
+	}
+
+	public String toICalendar () {
+		StringBuffer ret = new StringBuffer ();
+		if ( !positive )
+			ret.append ( '-' );
+		ret.append ( number );
+		switch ( weekday ) {
+			case 0:
+				ret.append ( "SU" );
+				break;
+			case 1:
+				ret.append ( "MO" );
+				break;
+			case 2:
+				ret.append ( "TU" );
+				break;
+			case 3:
+				ret.append ( "WE" );
+				break;
+			case 4:
+				ret.append ( "TH" );
+				break;
+			case 5:
+				ret.append ( "FR" );
+				break;
+			case 6:
+				ret.append ( "SA" );
+				break;
+		}
+		return ret.toString ();
+	}
+}
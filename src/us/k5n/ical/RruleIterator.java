@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates through the dates of an RRULE. The dates are generated one period
+ * (year, month, week, day, hour, etc.) at a time directly from the Rrule
+ * settings. Each period is built in arrays that are reused, so no objects are
+ * created for each date. The BY* settings are compiled into a RecurrencePlan
+ * that is kept by the Rrule, so creating another iterator for the same RRULE
+ * does not compile it again. Dates are returned as <code>long</code> values
+ * that can be passed to CompactDate.fromLong. <br/>
+ * Like the Google RFC2445 package, the DTSTART date is only returned if it
+ * matches the RRULE. Unlike the Google package, BYHOUR, BYMINUTE and BYSECOND
+ * can produce more than one time per day, and HOURLY, MINUTELY and SECONDLY
+ * rules are supported. Weeks start on Monday. <br/>
+ * Example usage: <blockquote>
+ *
+ * <pre>
+ * RruleIterator iter = rrule.iterator ( startDate );
+ * while ( iter.hasNext () ) {
+ * 	CompactDate d = CompactDate.fromLong ( iter.next () );
+ * 	// ... process date
+ * }
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Rrule
+ * @see CompactDate
+ */
+public final class RruleIterator {
+	static final long SECONDS_PER_DAY = 24L * 3600L;
+	/** Periods after this year are not generated */
+	static final int MAX_YEAR = 9999;
+	/** First day of the week (0=Sunday) */
+	private static final int WKST = Date.MONDAY;
+	private int freq;
+	private int interval;
+	private int count;
+	private boolean dateOnly;
+	/** DTSTART as seconds since 1970 in local time */
+	private long startLocal;
+	/** UNTIL as seconds since 1970 in local time */
+	private long untilLocal = Long.MAX_VALUE;
+	/** BY* settings (shared with other iterators) */
+	private RecurrencePlan plan;
+	// Current period
+	private int curYear, curMonth;
+	private long curDay; // days since 1970 (WEEKLY, DAILY)
+	private long curTime; // seconds since 1970 (HOURLY, MINUTELY, SECONDLY)
+	// Dates in the current period
+	private long[] buf = new long[64];
+	private int bufLen = 0;
+	private int bufPos = 0;
+	private long[] setposBuf;
+	private int emitted = 0;
+	private boolean done = false;
+	private boolean hasNextValue = false;
+	private long nextValue;
+	// Used to build the CompactDate value
+	private TimezoneCache.Zone zone;
+	private int zoneIndex;
+	private int flags;
+
+	/**
+	 * Create an iterator for an RRULE.
+	 *
+	 * @param rrule
+	 *          The RRULE
+	 * @param startDate
+	 *          The start date of the recurrence (DTSTART)
+	 */
+	public RruleIterator(Rrule rrule, Date startDate) {
+		this ( rrule, startDate, startDate.tzid );
+	}
+
+	/**
+	 * Create an iterator for an RRULE.
+	 *
+	 * @param rrule
+	 *          The RRULE
+	 * @param startDate
+	 *          The start date of the recurrence (DTSTART)
+	 * @param tzid
+	 *          The timezone of the start date (or null)
+	 */
+	public RruleIterator(Rrule rrule, Date startDate, String tzid) {
+		freq = rrule.freq;
+		interval = rrule.interval < 1 ? 1 : rrule.interval;
+		count = rrule.count;
+		dateOnly = startDate.dateOnly;
+		int hour = dateOnly ? 0 : startDate.hour;
+		int minute = dateOnly ? 0 : startDate.minute;
+		int second = dateOnly ? 0 : startDate.second;
+		long startDay = TimezoneCache.daysFromCivil ( startDate.year,
+		    startDate.month, startDate.day );
+		startLocal = startDay * SECONDS_PER_DAY + hour * 3600L + minute * 60L
+		    + second;
+
+		if ( dateOnly )
+			flags |= CompactDate.DATE_ONLY;
+		if ( startDate.isFloating () )
+			flags |= CompactDate.FLOATING;
+		if ( tzid != null ) {
+			zoneIndex = CompactDate.internZone ( tzid );
+			if ( ( flags & ( CompactDate.DATE_ONLY | CompactDate.FLOATING ) ) == 0 )
+				zone = TimezoneCache.forID ( tzid );
+		}
+		if ( rrule.untilDate != null )
+			untilLocal = toLocal ( rrule.untilDate );
+
+		plan = rrule.getCompiled ( startDate ).plan;
+		if ( plan.setpos != null )
+			setposBuf = new long[plan.setpos.length];
+
+		// First period
+		int ymd = TimezoneCache.civilFromDays ( startDay );
+		curYear = ymd >> 9;
+		curMonth = ( ymd >> 5 ) & 0xf;
+		curDay = startDay;
+		if ( freq == Rrule.FREQ_WEEKLY ) {
+			// Weeks start on WKST
+			curDay -= ( weekday ( startDay ) - WKST + 7 ) % 7;
+		}
+		curTime = startLocal;
+	}
+
+	/**
+	 * Convert a Date to local time (seconds since 1970) in the timezone of the
+	 * start date.
+	 */
+	long toLocal ( Date d ) {
+		return toLocal ( d, zone );
+	}
+
+	/**
+	 * Convert a Date to local time (seconds since 1970) in a timezone.
+	 *
+	 * @param zone
+	 *          The timezone (or null for floating and date-only start dates)
+	 */
+	static long toLocal ( Date d, TimezoneCache.Zone zone ) {
+		long local = toLocalSeconds ( d );
+		if ( d.dateOnly )
+			return local;
+		TimezoneCache.Zone dzone = d.tzid == null || d.isFloating () ? null
+		    : TimezoneCache.forID ( d.tzid );
+		if ( zone != null && dzone != null && zone != dzone ) {
+			local = TimezoneCache.floorDiv ( zone.toLocal ( dzone
+			    .toUTC ( local * 1000L ) ), 1000L );
+		}
+		return local;
+	}
+
+	/**
+	 * Get the date and time of a Date as seconds since 1970 (ignoring
+	 * timezones). Date-only values are treated as midnight.
+	 */
+	static long toLocalSeconds ( Date d ) {
+		long local = TimezoneCache.daysFromCivil ( d.year, d.month, d.day )
+		    * SECONDS_PER_DAY;
+		if ( !d.dateOnly )
+			local += d.hour * 3600L + d.minute * 60L + d.second;
+		return local;
+	}
+
+	/**
+	 * Get the day of the week (0=Sunday) for a number of days since 1970.
+	 */
+	static int weekday ( long day ) {
+		// 1970-01-01 was a Thursday
+		return (int) ( ( day % 7 + 11 ) % 7 );
+	}
+
+	/**
+	 * Are there more dates?
+	 */
+	public boolean hasNext () {
+		if ( !hasNextValue && !done ) {
+			if ( advance () )
+				hasNextValue = true;
+		}
+		return hasNextValue;
+	}
+
+	/**
+	 * Get the next date.
+	 *
+	 * @return The date as a value that can be passed to CompactDate.fromLong
+	 */
+	public long next () {
+		long local = nextLocal ();
+		long seconds = local;
+		if ( zone != null )
+			seconds = TimezoneCache.floorDiv ( zone.toUTC ( local * 1000L ), 1000L );
+		return CompactDate.pack ( seconds, zoneIndex, flags );
+	}
+
+	/**
+	 * Get the next date in local time.
+	 *
+	 * @return The date as seconds since 1970 in the timezone of the start date
+	 */
+	long nextLocal () {
+		if ( !hasNext () )
+			throw new NoSuchElementException ();
+		hasNextValue = false;
+		return nextValue;
+	}
+
+	/**
+	 * Skip ahead so that the next date returned is on or after the specified
+	 * date. Periods before the date are skipped without generating their dates,
+	 * so this is fast even when the start date is many years earlier. (If the
+	 * RRULE has a COUNT, the earlier dates are generated so they can be
+	 * counted.)
+	 *
+	 * @param date
+	 *          The date to skip to
+	 */
+	public void advanceTo ( Date date ) {
+		advanceTo ( toLocal ( date ) );
+	}
+
+	/**
+	 * Skip ahead to a local time (seconds since 1970).
+	 */
+	void advanceTo ( long local ) {
+		if ( hasNextValue && nextValue >= local )
+			return;
+		hasNextValue = false;
+		if ( count > 0 ) {
+			// Need to count every date
+			while ( hasNext () && nextValue < local )
+				hasNextValue = false;
+			return;
+		}
+		if ( local <= startLocal )
+			return;
+		// Don't return anything before this
+		startLocal = local;
+		long day = TimezoneCache.floorDiv ( local, SECONDS_PER_DAY );
+		int ymd = TimezoneCache.civilFromDays ( day );
+		int year = ymd >> 9;
+		int month = ( ymd >> 5 ) & 0xf;
+		// Number of periods to skip (a multiple of interval)
+		long skip;
+		switch ( freq ) {
+			case Rrule.FREQ_YEARLY:
+				skip = ( year - curYear ) / interval;
+				if ( skip > 0 )
+					curYear += (int) skip * interval;
+				break;
+			case Rrule.FREQ_MONTHLY:
+				skip = ( ( year - curYear ) * 12L + month - curMonth ) / interval;
+				if ( skip > 0 ) {
+					long months = curYear * 12L + curMonth - 1 + skip * interval;
+					curYear = (int) ( months / 12 );
+					curMonth = (int) ( months % 12 ) + 1;
+				}
+				break;
+			case Rrule.FREQ_WEEKLY:
+				skip = ( day - curDay ) / ( 7L * interval );
+				if ( skip > 0 ) {
+					curDay += skip * 7L * interval;
+					curYear = TimezoneCache.civilFromDays ( curDay ) >> 9;
+				}
+				break;
+			case Rrule.FREQ_DAILY:
+				skip = ( day - curDay ) / interval;
+				if ( skip > 0 ) {
+					curDay += skip * interval;
+					curYear = TimezoneCache.civilFromDays ( curDay ) >> 9;
+				}
+				break;
+			default:
+				long step = interval
+				    * ( freq == Rrule.FREQ_HOURLY ? 3600L
+				        : ( freq == Rrule.FREQ_MINUTELY ? 60L : 1L ) );
+				skip = ( local - curTime ) / step;
+				if ( skip > 0 ) {
+					curTime += skip * step;
+					curYear = TimezoneCache.civilFromDays ( TimezoneCache.floorDiv (
+					    curTime, SECONDS_PER_DAY ) ) >> 9;
+				}
+				break;
+		}
+		if ( skip > 0 )
+			bufLen = bufPos = 0;
+	}
+
+	/**
+	 * Find the next date and put it in nextValue.
+	 */
+	private boolean advance () {
+		for ( ;; ) {
+			while ( bufPos < bufLen ) {
+				long d = buf[bufPos++];
+				if ( d < startLocal )
+					continue;
+				if ( d > untilLocal || ( count > 0 && emitted >= count ) ) {
+					done = true;
+					return false;
+				}
+				emitted++;
+				nextValue = d;
+				return true;
+			}
+			if ( !fillPeriod () ) {
+				done = true;
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Put the dates of the current period in buf and move to the next period.
+	 *
+	 * @return false if there are no more periods
+	 */
+	private boolean fillPeriod () {
+		if ( curYear > MAX_YEAR )
+			return false;
+		bufLen = bufPos = 0;
+		long first, last;
+		switch ( freq ) {
+			case Rrule.FREQ_YEARLY:
+				first = TimezoneCache.daysFromCivil ( curYear, 1, 1 );
+				last = TimezoneCache.daysFromCivil ( curYear + 1, 1, 1 ) - 1;
+				break;
+			case Rrule.FREQ_MONTHLY:
+				first = TimezoneCache.daysFromCivil ( curYear, curMonth, 1 );
+				last = first + daysInMonth ( curYear, curMonth ) - 1;
+				break;
+			case Rrule.FREQ_WEEKLY:
+				first = curDay;
+				last = first + 6;
+				break;
+			case Rrule.FREQ_DAILY:
+				first = last = curDay;
+				break;
+			default:
+				first = last = TimezoneCache.floorDiv ( curTime, SECONDS_PER_DAY );
+				break;
+		}
+		boolean dayMatched = false;
+		for ( long day = first; day <= last; day++ ) {
+			if ( !plan.matches ( day ) )
+				continue;
+			dayMatched = true;
+			long base = day * SECONDS_PER_DAY;
+			if ( freq <= Rrule.FREQ_DAILY ) {
+				int[] timeset = plan.timeset;
+				for ( int i = 0; i < timeset.length; i++ )
+					add ( base + timeset[i] );
+			} else {
+				addTimes ( base );
+			}
+		}
+		if ( plan.setpos != null )
+			applySetpos ();
+		nextPeriod ( dayMatched );
+		return true;
+	}
+
+	/**
+	 * Add the times for an HOURLY, MINUTELY or SECONDLY period.
+	 */
+	private void addTimes ( long base ) {
+		int sod = (int) ( curTime - base );
+		int hour = sod / 3600;
+		int minute = ( sod / 60 ) % 60;
+		int second = sod % 60;
+		int[] minutes = plan.minutes, seconds = plan.seconds;
+		if ( plan.hourMask != null && !RecurrencePlan.has ( plan.hourMask, hour ) )
+			return;
+		if ( freq == Rrule.FREQ_HOURLY ) {
+			for ( int m = 0; m < minutes.length; m++ )
+				for ( int s = 0; s < seconds.length; s++ )
+					add ( base + hour * 3600 + minutes[m] * 60 + seconds[s] );
+		} else if ( plan.minuteMask == null
+		    || RecurrencePlan.has ( plan.minuteMask, minute ) ) {
+			if ( freq == Rrule.FREQ_MINUTELY ) {
+				for ( int s = 0; s < seconds.length; s++ )
+					add ( base + hour * 3600 + minute * 60 + seconds[s] );
+			} else if ( plan.secondMask == null
+			    || RecurrencePlan.has ( plan.secondMask, second ) ) {
+				add ( curTime );
+			}
+		}
+	}
+
+	private void add ( long d ) {
+		if ( bufLen == buf.length ) {
+			long[] newBuf = new long[bufLen * 2];
+			System.arraycopy ( buf, 0, newBuf, 0, bufLen );
+			buf = newBuf;
+		}
+		buf[bufLen++] = d;
+	}
+
+	/**
+	 * Keep only the BYSETPOS dates of the current period.
+	 */
+	private void applySetpos () {
+		int[] setpos = plan.setpos;
+		int n = 0;
+		for ( int i = 0; i < setpos.length; i++ ) {
+			int pos = setpos[i] > 0 ? setpos[i] - 1 : bufLen + setpos[i];
+			if ( pos < 0 || pos >= bufLen )
+				continue;
+			long d = buf[pos];
+			boolean dup = false;
+			for ( int j = 0; j < n && !dup; j++ )
+				dup = setposBuf[j] == d;
+			if ( !dup )
+				setposBuf[n++] = d;
+		}
+		Arrays.sort ( setposBuf, 0, n );
+		System.arraycopy ( setposBuf, 0, buf, 0, n );
+		bufLen = n;
+	}
+
+	/**
+	 * Move to the next period.
+	 *
+	 * @param dayMatched
+	 *          Did the day of an HOURLY, MINUTELY or SECONDLY period match?
+	 */
+	private void nextPeriod ( boolean dayMatched ) {
+		switch ( freq ) {
+			case Rrule.FREQ_YEARLY:
+				curYear += interval;
+				return;
+			case Rrule.FREQ_MONTHLY:
+				curMonth += interval;
+				curYear += ( curMonth - 1 ) / 12;
+				curMonth = ( curMonth - 1 ) % 12 + 1;
+				return;
+			case Rrule.FREQ_WEEKLY:
+				curDay += 7L * interval;
+				break;
+			case Rrule.FREQ_DAILY:
+				curDay += interval;
+				break;
+			default:
+				long step = interval
+				    * ( freq == Rrule.FREQ_HOURLY ? 3600L
+				        : ( freq == Rrule.FREQ_MINUTELY ? 60L : 1L ) );
+				long sod = curTime
+				    - TimezoneCache.floorDiv ( curTime, SECONDS_PER_DAY )
+				    * SECONDS_PER_DAY;
+				// Skip whole days, hours or minutes that cannot match
+				long skipTo = 0;
+				if ( !dayMatched ) {
+					skipTo = SECONDS_PER_DAY;
+				} else if ( plan.hourMask != null
+				    && !RecurrencePlan.has ( plan.hourMask, (int) ( sod / 3600 ) ) ) {
+					skipTo = ( sod / 3600 + 1 ) * 3600;
+				} else if ( freq == Rrule.FREQ_SECONDLY
+				    && plan.minuteMask != null
+				    && !RecurrencePlan.has ( plan.minuteMask, (int) ( sod / 60 ) % 60 ) ) {
+					skipTo = ( sod / 60 + 1 ) * 60;
+				}
+				if ( skipTo > sod )
+					curTime += ( ( skipTo - sod + step - 1 ) / step ) * step;
+				else
+					curTime += step;
+				int ymd = TimezoneCache.civilFromDays ( TimezoneCache.floorDiv (
+				    curTime, SECONDS_PER_DAY ) );
+				curYear = ymd >> 9;
+				return;
+		}
+		curYear = TimezoneCache.civilFromDays ( curDay ) >> 9;
+	}
+
+	static boolean isLeapYear ( int year ) {
+		return ( year % 4 == 0 && year % 100 != 0 ) || year % 400 == 0;
+	}
+
+	static int daysInMonth ( int year, int month ) {
+		if ( month == 2 )
+			return isLeapYear ( year ) ? 29 : 28;
+		return Date.monthDays[month - 1];
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.nio.charset.Charset;
+import java.util.Vector;
+
+/**
+ * The folded iCalendar text of a component, kept so that a component that has
+ * not changed can be written again without serializing it again. Only the
+ * form last asked for (characters for a Writer, UTF-8 for an OutputStream) is
+ * kept.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see ICalendarWriter
+ */
+final class SerializedForm {
+	private static final Charset UTF8 = Charset.forName ( "UTF-8" );
+	/**
+	 * Largest inline attachment value (in characters) of a component that is
+	 * cached
+	 */
+	static final int MAX_ATTACHMENT_LENGTH = 64 * 1024;
+	private char[] chars;
+	private byte[] utf8 = null;
+
+	SerializedForm(String text) {
+		this.chars = text.toCharArray ();
+	}
+
+	/**
+	 * Can a component with these attachments be cached? Attachments held in a
+	 * file or with a large inline value are streamed each time they are written
+	 * instead, so they are never held in memory.
+	 */
+	static boolean isCacheable ( Vector<Attachment> attachments ) {
+		for ( int i = 0; attachments != null && i < attachments.size (); i++ ) {
+			Attachment a = attachments.elementAt ( i );
+			if ( a.getFile () != null
+			    || ( a.value != null && a.value.length () > MAX_ATTACHMENT_LENGTH ) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the text as characters.
+	 */
+	char[] getChars () {
+		if ( chars == null ) {
+			chars = new String ( utf8, UTF8 ).toCharArray ();
+			utf8 = null;
+		}
+		return chars;
+	}
+
+	/**
+	 * Get the text as UTF-8.
+	 */
+	byte[] getUTF8 () {
+		if ( utf8 == null ) {
+			byte[] bytes = new byte[chars.length * 3];
+			int n = StringUtils.encodeUTF8 ( chars, chars.length, bytes );
+			utf8 = new byte[n];
+			System.arraycopy ( bytes, 0, utf8, 0, n );
+			chars = null;
+		}
+		return utf8;
+	}
+
+}
@@ -29,35 +29,125 @@ public class StringUtils implements Constants {
 
 	/**
 	 * Format a string into ical folded-line format (which states that lines
-	 * should not be longer than 75 characters, excluding the line break.)
+	 * should not be longer than 75 octets, excluding the line break.)
 	 * 
 	 * @param x
 	 *          The input string to be formatted
 	 * @return The properly formatted string (includes newline)
 	 */
 	static public String foldLine ( String x ) {
-		int len = 0;
-		StringBuffer ret = new StringBuffer ( x.length () );
-		for ( int i = 0; i < x.length (); i++ ) {
-			if ( len >= MAX_LINE_LENGTH - 1 ) {
-				ret.append ( CRLF );
-				ret.append ( ' ' );
-				len = 0;
+		int len = x.length ();
+		char[] line = new char[len];
+		x.getChars ( 0, len, line, 0 );
+		char[] folded = new char[maxFoldedLength ( len )];
+		return new String ( folded, 0, foldLine ( line, len, folded ) );
+	}
+
+	/**
+	 * Get the size of the array needed by foldLine(char[], int, char[]).
+	 * 
+	 * @param len
+	 *          The length of the unfolded line
+	 */
+	static int maxFoldedLength ( int len ) {
+		// Every character may become two ("\n") and a folded line may hold as
+		// few as 24 characters (3 octets each).
+		return len * 2 + ( len / 24 + 2 ) * 3;
+	}
+
+	/**
+	 * Fold a line into iCalendar format. Lines are folded so that no line is
+	 * longer than 75 octets when written as UTF-8 (excluding the line break),
+	 * and a multi-octet character is never split. Carriage returns are removed,
+	 * newlines are written as "\n" and a CRLF is added at the end.
+	 * 
+	 * @param line
+	 *          The characters of the line
+	 * @param len
+	 *          The number of characters in the line
+	 * @param folded
+	 *          Where to put the folded line (see maxFoldedLength)
+	 * @return The number of characters put in folded
+	 */
+	static int foldLine ( char[] line, int len, char[] folded ) {
+		int n = 0, octets = 0;
+		for ( int i = 0; i < len; i++ ) {
+			char c = line[i];
+			if ( c == CR )
+				continue;
+			int size;
+			boolean pair = false;
+			if ( c == LF )
+				size = 2;
+			else if ( c < 0x80 )
+				size = 1;
+			else if ( c < 0x800 )
+				size = 2;
+			else if ( Character.isHighSurrogate ( c ) && i + 1 < len
+			    && Character.isLowSurrogate ( line[i + 1] ) ) {
+				size = 4;
+				pair = true;
+			} else if ( Character.isSurrogate ( c ) )
+				size = 1; // Written as '?'
+			else
+				size = 3;
+			if ( octets + size > MAX_LINE_LENGTH ) {
+				folded[n++] = '\r';
+				folded[n++] = '\n';
+				folded[n++] = ' ';
+				octets = 1;
+			}
+			if ( c == LF ) {
+				folded[n++] = '\\';
+				folded[n++] = 'n';
+			} else {
+				folded[n++] = c;
+				if ( pair )
+					folded[n++] = line[++i];
 			}
-			if ( x.charAt ( i ) == CR ) {
-				// Ignore
-			} else if ( x.charAt ( i ) == LF ) {
-				ret.append ( "\\n" );
-				len += 2;
+			octets += size;
+		}
+		folded[n++] = '\r';
+		folded[n++] = '\n';
+		return n;
+	}
+
+	/**
+	 * Encode characters as UTF-8. Unpaired surrogates are written as '?'.
+	 * 
+	 * @param chars
+	 *          The characters
+	 * @param len
+	 *          The number of characters
+	 * @param bytes
+	 *          Where to put the UTF-8 (must hold len * 3 bytes)
+	 * @return The number of bytes put in bytes
+	 */
+	static int encodeUTF8 ( char[] chars, int len, byte[] bytes ) {
+		int n = 0;
+		for ( int i = 0; i < len; i++ ) {
+			char c = chars[i];
+			if ( c < 0x80 ) {
+				bytes[n++] = (byte) c;
+			} else if ( c < 0x800 ) {
+				bytes[n++] = (byte) ( 0xc0 | ( c >> 6 ) );
+				bytes[n++] = (byte) ( 0x80 | ( c & 0x3f ) );
+			} else if ( Character.isHighSurrogate ( c ) && i + 1 < len
+			    && Character.isLowSurrogate ( chars[i + 1] ) ) {
+				int cp = Character.toCodePoint ( c, chars[++i] );
+				bytes[n++] = (byte) ( 0xf0 | ( cp >> 18 ) );
+				bytes[n++] = (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3f ) );
+				bytes[n++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3f ) );
+				bytes[n++] = (byte) ( 0x80 | ( cp & 0x3f ) );
+			} else if ( Character.isSurrogate ( c ) ) {
+				bytes[n++] = '?';
 			} else {
-				ret.append ( x.charAt ( i ) );
-				len++;
+				bytes[n++] = (byte) ( 0xe0 | ( c >> 12 ) );
+				bytes[n++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+				bytes[n++] = (byte) ( 0x80 | ( c & 0x3f ) );
 			}
 		}
-		String r = ret.toString ();
-		if ( !r.endsWith ( CRLF ) )
-			r += CRLF;
-		return r;
+		return n;
 	}
 
 	/**
@@ -96,61 +186,9 @@ public class StringUtils implements Constants {
 	// TODO: convert quotable-printable format
 	static public String unfoldLine ( String line, int parseMode )
 	    throws ParseException {
-		int len = 0;
-		StringBuffer ret = new StringBuffer ( line.length () );
-		for ( int i = 0; i < line.length (); i++ ) {
-			// check line length
-			if ( len > MAX_LINE_LENGTH ) {
-				if ( parseMode == PARSE_STRICT ) {
-					throw new ParseException ( "Found line longer than "
-					    + MAX_LINE_LENGTH + " limit", line );
-				}
-			}
-			char ch = line.charAt ( i );
-			char ch2 = ( i + 1 < line.length () ? line.charAt ( i + 1 ) : 0 );
-			char ch3 = ( i + 2 < line.length () ? line.charAt ( i + 2 ) : 0 );
-			if ( ch == '\\' && ch2 == 'n' && ch == '=' && parseMode == PARSE_LOOSE ) {
-				// Convert "\\\n=" into CRLF
-				// This is another Mozilla Sunbird hack
-				ret.append ( CRLF );
-				i++;
-				len = 0;
-			}
-			if ( ch == '\\' && ch2 == 'n' ) {
-				// Convert "\\\n" into CRLF
-				ret.append ( CRLF );
-				i++;
-				len = 0;
-			} else if ( ch == LF && ( ch2 == SPACE || ch2 == TAB ) ) {
-				// unfold this...
-				i++;
-			} else if ( ch == '\\' && ch2 == ',' && parseMode == PARSE_LOOSE ) {
-				// this is Mozilla's incorrect way of handling commas :-(
-				ret.append ( ',' );
-				i++;
-			} else if ( ch == LF && ch2 == 0 ) {
-				// end of data
-			} else if ( ch == LF ) {
-				// This should be a parse error. We should always find either
-				// a space/tab after LF (folding) or it should be the end of
-				// the data line.
-				if ( parseMode == PARSE_STRICT ) {
-					throw new ParseException ( "Invalid line termination at char " + i,
-					    line );
-				} else {
-					// Oh, well... ignore it. Assume they forgot the space that
-					// starts the next line.
-				}
-			} else if ( ch == CR ) {
-				// ignore CR. Should be a LF next.
-			} else if ( ch == '\\' && ch2 == 'r' ) {
-				// ignore CR. Should be a LF next.
-			} else {
-				ret.append ( ch );
-				len++;
-			}
-		}
-		return ret.toString ();
+		PropertyTokenizer t = PropertyTokenizer.getInstance ( line.length () );
+		t.unfold ( line, parseMode );
+		return t.toString ();
 	}
 
 	/**
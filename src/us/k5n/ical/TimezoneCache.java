@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * Thread-safe cache of timezone offsets. The first time a TZID is used, its
+ * UTC offset transitions (daylight savings changes, etc.) from 1900 through
+ * 2100 are copied out of Joda Time into arrays. After that, converting a date
+ * between timezones is just a binary search and some arithmetic, with no
+ * objects created. Times outside of that range are passed on to Joda Time.
+ * TZIDs that Joda Time does not recognize are also cached (as null) so that
+ * they are not looked up again.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+final class TimezoneCache {
+	static final long MILLIS_PER_SECOND = 1000L;
+	static final long MILLIS_PER_DAY = 24L * 3600L * MILLIS_PER_SECOND;
+	/** Start of the transition tables (1900-01-01T00:00:00Z) */
+	static final long TABLE_START = -2208988800000L;
+	/** End of the transition tables (2100-01-01T00:00:00Z) */
+	static final long TABLE_END = 4102444800000L;
+	/** Returned for TZIDs that are not valid */
+	private static final Zone INVALID = new Zone ();
+	private static final ConcurrentHashMap<String, Zone> zones = new ConcurrentHashMap<String, Zone> ();
+	/** UTC timezone */
+	static final Zone UTC = new Zone ( DateTimeZone.UTC );
+	/** Last default timezone looked up */
+	private static volatile Zone defaultZone = UTC;
+
+	private TimezoneCache() {
+	}
+
+	/**
+	 * Get the Zone for a TZID.
+	 *
+	 * @param tzid
+	 *          The timezone id ("America/New_York", etc.)
+	 * @return The Zone or null if the TZID is not recognized
+	 */
+	static Zone forID ( String tzid ) {
+		Zone zone = zones.get ( tzid );
+		if ( zone == null ) {
+			try {
+				DateTimeZone tz = DateTimeZone.forID ( tzid );
+				zone = tz == null ? INVALID : new Zone ( tz );
+			} catch ( IllegalArgumentException e ) {
+				zone = INVALID;
+			}
+			Zone old = zones.putIfAbsent ( tzid, zone );
+			if ( old != null )
+				zone = old;
+		}
+		return zone == INVALID ? null : zone;
+	}
+
+	/**
+	 * Get the Zone for the default timezone (DateTimeZone.getDefault).
+	 */
+	static Zone getDefault () {
+		DateTimeZone tz = DateTimeZone.getDefault ();
+		Zone zone = defaultZone;
+		if ( zone.zone != tz ) {
+			zone = new Zone ( tz );
+			defaultZone = zone;
+		}
+		return zone;
+	}
+
+	/**
+	 * Convert a date and time to milliseconds since 1970-01-01T00:00:00 (ignoring
+	 * timezones).
+	 */
+	static long toMillis ( int year, int month, int day, int hour, int minute,
+	    int second ) {
+		return daysFromCivil ( year, month, day ) * MILLIS_PER_DAY
+		    + ( hour * 3600L + minute * 60L + second ) * MILLIS_PER_SECOND;
+	}
+
+	/**
+	 * Get the number of days since 1970-01-01 for a date in the proleptic
+	 * Gregorian calendar.
+	 */
+	static long daysFromCivil ( int year, int month, int day ) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = ( y >= 0 ? y : y - 399 ) / 400;
+		long yoe = y - era * 400;
+		long doy = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * Get the date for a number of days since 1970-01-01.
+	 *
+	 * @return The year, month and day packed as (year << 9 | month << 5 | day)
+	 */
+	static int civilFromDays ( long days ) {
+		long z = days + 719468;
+		long era = ( z >= 0 ? z : z - 146096 ) / 146097;
+		long doe = z - era * 146097;
+		long yoe = ( doe - doe / 1460 + doe / 36524 - doe / 146096 ) / 365;
+		long doy = doe - ( 365 * yoe + yoe / 4 - yoe / 100 );
+		long mp = ( 5 * doy + 2 ) / 153;
+		int day = (int) ( doy - ( 153 * mp + 2 ) / 5 + 1 );
+		int month = (int) ( mp < 10 ? mp + 3 : mp - 9 );
+		int year = (int) ( yoe + era * 400 + ( month <= 2 ? 1 : 0 ) );
+		return ( year << 9 ) | ( month << 5 ) | day;
+	}
+
+	/**
+	 * Divide rounding towards negative infinity.
+	 */
+	static long floorDiv ( long x, long y ) {
+		long q = x / y;
+		if ( ( x % y != 0 ) && ( ( x < 0 ) != ( y < 0 ) ) )
+			q--;
+		return q;
+	}
+
+	/**
+	 * A timezone with its UTC offset transitions.
+	 */
+	static final class Zone {
+		DateTimeZone zone;
+		String id;
+		/** Times (UTC millis) when the offset changes */
+		long[] transitions;
+		/**
+		 * Offsets in millis; offsets[0] is the offset before the first
+		 * transition and offsets[i+1] is the offset after transitions[i].
+		 */
+		int[] offsets;
+
+		private Zone() {
+		}
+
+		Zone(DateTimeZone zone) {
+			this.zone = zone;
+			this.id = zone.getID ();
+			int n = 0;
+			long[] t = new long[16];
+			if ( !zone.isFixed () ) {
+				long instant = TABLE_START;
+				for ( ;; ) {
+					long next = zone.nextTransition ( instant );
+					if ( next == instant || next >= TABLE_END )
+						break;
+					if ( n == t.length ) {
+						long[] newT = new long[n * 2];
+						System.arraycopy ( t, 0, newT, 0, n );
+						t = newT;
+					}
+					t[n++] = next;
+					instant = next;
+				}
+			}
+			transitions = new long[n];
+			System.arraycopy ( t, 0, transitions, 0, n );
+			offsets = new int[n + 1];
+			offsets[0] = zone.getOffset ( TABLE_START );
+			for ( int i = 0; i < n; i++ )
+				offsets[i + 1] = zone.getOffset ( transitions[i] );
+		}
+
+		/**
+		 * Get the index into offsets for a UTC time.
+		 */
+		private int find ( long utcMillis ) {
+			// Find the last transition <= utcMillis
+			int lo = 0, hi = transitions.length - 1;
+			while ( lo <= hi ) {
+				int mid = ( lo + hi ) >>> 1;
+				if ( transitions[mid] <= utcMillis )
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return lo;
+		}
+
+		/**
+		 * Get the offset from UTC (in millis) at the specified UTC time.
+		 */
+		int getOffset ( long utcMillis ) {
+			if ( utcMillis < TABLE_START || utcMillis >= TABLE_END )
+				return zone.getOffset ( utcMillis );
+			return offsets[find ( utcMillis )];
+		}
+
+		/**
+		 * Get the offset to subtract from a local time to get UTC. This is the
+		 * same calculation as DateTimeZone.getOffsetFromLocal.
+		 */
+		int getOffsetFromLocal ( long localMillis ) {
+			return getOffset ( localMillis - getOffset ( localMillis ) );
+		}
+
+		/**
+		 * Convert a local time in this timezone to UTC.
+		 */
+		long toUTC ( long localMillis ) {
+			return localMillis - getOffsetFromLocal ( localMillis );
+		}
+
+		/**
+		 * Convert a UTC time to local time in this timezone.
+		 */
+		long toLocal ( long utcMillis ) {
+			return utcMillis + getOffset ( utcMillis );
+		}
+	}
+
+}
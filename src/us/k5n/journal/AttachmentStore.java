@@ -0,0 +1,164 @@
+package us.k5n.journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Vector;
+
+import us.k5n.ical.Attachment;
+import us.k5n.ical.Attribute;
+import us.k5n.ical.Journal;
+
+/**
+ * The AttachmentStore class keeps the data of attachments in a directory, with
+ * one file for each different attachment, named by the SHA-1 hash of its
+ * contents. Journal entries then refer to the file with a VALUE=URI attachment
+ * ("urn:sha1:" followed by the hash) rather than including the data inline, so
+ * an attachment used by many entries is only stored once and does not need to
+ * be encoded each time an entry is saved.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class AttachmentStore {
+	/** Start of the URI of a stored attachment */
+	public static final String URI_PREFIX = "urn:sha1:";
+	File directory;
+
+	/**
+	 * Create an AttachmentStore. The directory will be created when the first
+	 * attachment is stored.
+	 *
+	 * @param dir
+	 *          The directory to keep the attachments in
+	 */
+	public AttachmentStore(File dir) {
+		this.directory = dir;
+	}
+
+	/**
+	 * Get the directory the attachments are kept in.
+	 */
+	public File getDirectory () {
+		return this.directory;
+	}
+
+	/**
+	 * Store the data of an inline attachment. If an attachment with the same
+	 * contents is already stored, it will not be stored again.
+	 *
+	 * @param attachment
+	 *          The inline attachment
+	 * @return The URI of the stored attachment, or null if the attachment is not
+	 *         inline
+	 * @throws IOException
+	 */
+	public String store ( Attachment attachment ) throws IOException {
+		if ( !this.directory.isDirectory () && !this.directory.mkdirs () )
+			throw new IOException ( "Could not create directory " + this.directory );
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance ( "SHA-1" );
+		} catch ( NoSuchAlgorithmException e ) {
+			throw new IOException ( "SHA-1 not available: " + e );
+		}
+		// Write to a temporary file while computing the hash, then rename it
+		File temp = File.createTempFile ( "attach", ".tmp", this.directory );
+		boolean inline;
+		try {
+			OutputStream os = new DigestOutputStream ( new FileOutputStream ( temp ),
+			    digest );
+			try {
+				inline = attachment.writeTo ( os );
+			} finally {
+				os.close ();
+			}
+		} catch ( IOException e ) {
+			temp.delete ();
+			throw e;
+		}
+		if ( !inline ) {
+			temp.delete ();
+			return null;
+		}
+		String hash = toHex ( digest.digest () );
+		File f = new File ( this.directory, hash );
+		if ( f.exists () )
+			temp.delete ();
+		else if ( !temp.renameTo ( f ) ) {
+			temp.delete ();
+			throw new IOException ( "Could not rename " + temp + " to " + f );
+		}
+		return URI_PREFIX + hash;
+	}
+
+	/**
+	 * Get the file that holds the data of a stored attachment.
+	 *
+	 * @param attachment
+	 *          An attachment created by storeAttachments
+	 * @return The file, or null if the attachment is not in this store
+	 */
+	public File getFile ( Attachment attachment ) {
+		String uri = attachment.getValue ();
+		Attribute valueAttr = attachment.getNamedAttribute ( "VALUE" );
+		if ( valueAttr == null || !"URI".equalsIgnoreCase ( valueAttr.value )
+		    || uri == null || !uri.startsWith ( URI_PREFIX ) )
+			return null;
+		String hash = uri.substring ( URI_PREFIX.length () );
+		// Only allow a hash, so the URI cannot name another file
+		if ( hash.length () != 40 )
+			return null;
+		for ( int i = 0; i < hash.length (); i++ ) {
+			if ( Character.digit ( hash.charAt ( i ), 16 ) < 0 )
+				return null;
+		}
+		File f = new File ( this.directory, hash.toLowerCase () );
+		return f.exists () ? f : null;
+	}
+
+	/**
+	 * Move the data of all the inline attachments of a Journal into this store.
+	 * Each inline attachment is replaced by a VALUE=URI attachment that refers to
+	 * the stored file.
+	 *
+	 * @param j
+	 *          The Journal entry
+	 * @return The number of attachments moved
+	 * @throws IOException
+	 */
+	public int storeAttachments ( Journal j ) throws IOException {
+		Vector<Attachment> attachments = j.getAttachments ();
+		int ret = 0;
+		for ( int i = 0; attachments != null && i < attachments.size (); i++ ) {
+			Attachment a = attachments.elementAt ( i );
+			String uri = a.getSize () < 0 ? null : store ( a );
+			if ( uri != null ) {
+				Attachment ref = new Attachment ();
+				ref.addAttribute ( "VALUE", "URI" );
+				ref.setFormatType ( a.getFormatType () );
+				if ( a.getFilename () != null )
+					ref.addAttribute ( "FILENAME", a.getFilename () );
+				ref.setValue ( uri );
+				attachments.setElementAt ( ref, i );
+				ret++;
+			}
+		}
+		// The attachments were changed in place
+		if ( ret > 0 )
+			j.markDirty ();
+		return ret;
+	}
+
+	private static String toHex ( byte[] bytes ) {
+		StringBuffer ret = new StringBuffer ( bytes.length * 2 );
+		for ( int i = 0; i < bytes.length; i++ ) {
+			ret.append ( Character.forDigit ( ( bytes[i] >> 4 ) & 0xf, 16 ) );
+			ret.append ( Character.forDigit ( bytes[i] & 0xf, 16 ) );
+		}
+		return ret.toString ();
+	}
+}
@@ -2,13 +2,15 @@ package us.k5n.journal;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 
 import us.k5n.ical.Constants;
 import us.k5n.ical.DataStore;
 import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.ICalendarWriter;
 import us.k5n.ical.Journal;
 import us.k5n.ical.ParseError;
 
@@ -44,7 +46,9 @@ public class DataFile extends File implements Constants {
 		if ( this.exists () ) {
 			BufferedReader reader = null;
 			try {
-				reader = new BufferedReader ( new FileReader ( this ) );
+				// iCalendar data is UTF-8 (which is how write saves it)
+				reader = new BufferedReader ( new InputStreamReader (
+				    new FileInputStream ( this ), "UTF-8" ) );
 				parser.parse ( reader );
 				reader.close ();
 			} catch ( IOException e ) {
@@ -129,14 +133,16 @@ public class DataFile extends File implements Constants {
 	}
 
 	/**
-	 * Write this DataFile object.
+	 * Write this DataFile object as UTF-8.
 	 * 
 	 * @throws IOException
 	 */
 	public void write () throws IOException {
-		FileWriter writer = null;
-		writer = new FileWriter ( this );
-		writer.write ( parser.toICalendar () );
-		writer.close ();
+		ICalendarWriter writer = new ICalendarWriter ( new FileOutputStream ( this ) );
+		try {
+			writer.writeCalendar ( parser.getDataStoreAt ( 0 ) );
+		} finally {
+			writer.close ();
+		}
 	}
 }
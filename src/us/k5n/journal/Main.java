@@ -12,9 +12,8 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URL;
 import java.util.Vector;
 import java.util.regex.Matcher;
@@ -52,6 +51,7 @@ import us.k5n.ical.Constants;
 import us.k5n.ical.DataStore;
 import us.k5n.ical.Description;
 import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.ICalendarWriter;
 import us.k5n.ical.Journal;
 import us.k5n.ical.Summary;
 
@@ -779,7 +779,6 @@ public class Main extends JFrame implements Constants, RepositoryChangeListener
 			}
 		}
 		try {
-			PrintWriter writer = new PrintWriter ( new FileWriter ( outFile ) );
 			// Now write!
 			ICalendarParser p = new ICalendarParser ( PARSE_LOOSE );
 			DataStore dataStore = p.getDataStoreAt ( 0 );
@@ -787,8 +786,13 @@ public class Main extends JFrame implements Constants, RepositoryChangeListener
 				Journal j = (Journal) journalEntries.elementAt ( i );
 				dataStore.storeJournal ( j );
 			}
-			writer.write ( p.toICalendar () );
-			writer.close ();
+			ICalendarWriter writer = new ICalendarWriter ( new FileOutputStream (
+			    outFile ) );
+			try {
+				writer.writeCalendar ( dataStore );
+			} finally {
+				writer.close ();
+			}
 			JOptionPane.showMessageDialog ( parent, "Exported to:\n\n"
 			    + outFile.toString (), "Export", JOptionPane.PLAIN_MESSAGE );
 		} catch ( IOException e ) {
@@ -29,6 +29,7 @@ public class Repository {
 	HashMap uidHash;
 	private Vector changeListeners;
 	private Vector categories; // Vector of String categories
+	private AttachmentStore attachmentStore = null;
 
 	public Repository(File dir, boolean strictParsing) {
 		this.directory = dir;
@@ -50,6 +51,55 @@ public class Repository {
 		rebuildPrivateData ();
 	}
 
+	/**
+	 * Keep the data of attachments in an AttachmentStore in the "attachments"
+	 * directory of this Repository. Inline attachments of a Journal will be moved
+	 * into the store when the Journal is saved, so entries with the same
+	 * attachment share one copy of it.
+	 * 
+	 * @param enabled
+	 *          true to use the AttachmentStore
+	 */
+	public void setAttachmentStoreEnabled ( boolean enabled ) {
+		if ( !enabled )
+			this.attachmentStore = null;
+		else if ( this.attachmentStore == null )
+			this.attachmentStore = new AttachmentStore ( new File ( this.directory,
+			    "attachments" ) );
+	}
+
+	/**
+	 * Get the AttachmentStore of this Repository.
+	 * 
+	 * @return the AttachmentStore, or null if it is not enabled
+	 */
+	public AttachmentStore getAttachmentStore () {
+		return this.attachmentStore;
+	}
+
+	/**
+	 * Move the inline attachments of all the Journal entries in existing data
+	 * files into the AttachmentStore. Only the data files with inline
+	 * attachments are written.
+	 * 
+	 * @return The number of attachments moved
+	 * @throws IOException
+	 */
+	public int migrateAttachments () throws IOException {
+		setAttachmentStoreEnabled ( true );
+		int ret = 0;
+		for ( int i = 0; i < dataFiles.size (); i++ ) {
+			DataFile df = (DataFile) dataFiles.elementAt ( i );
+			int n = 0;
+			for ( int j = 0; j < df.getJournalCount (); j++ )
+				n += this.attachmentStore.storeAttachments ( df.journalEntryAt ( j ) );
+			if ( n > 0 )
+				df.write ();
+			ret += n;
+		}
+		return ret;
+	}
+
 	public void addDataFile ( DataFile f ) {
 		this.dataFiles.addElement ( f );
 		journalCount += f.getJournalCount ();
@@ -279,6 +329,8 @@ public class Repository {
 		}
 		j.setLastModified ( Date.getCurrentDateTime ( "LAST-MODIFIED" ) );
 		j.setUserData ( dataFile );
+		if ( this.attachmentStore != null )
+			this.attachmentStore.storeAttachments ( j );
 		dataFile.write ();
 
 		rebuildPrivateData ();
@@ -1,9 +1,12 @@
 package us.k5n.ical;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -94,6 +97,53 @@ public class AttachmentTest extends TestCase implements Constants {
 		}
 	}
 
+	public void testFileBacked () {
+		try {
+			byte[] data = new byte[100000];
+			new java.util.Random ( 1 ).nextBytes ( data );
+			File f = File.createTempFile ( "caf\u00e9", ".bin" );
+			f.deleteOnExit ();
+			FileOutputStream os = new FileOutputStream ( f );
+			os.write ( data );
+			os.close ();
+			Attachment x = new Attachment ( f, "application/octet-stream" );
+			assertEquals ( "Wrong size", data.length, x.getSize () );
+			assertTrue ( "Wrong bytes", Arrays.equals ( data, x.getBytes () ) );
+			String ical = x.toICalendar ();
+			String[] lines = ical.split ( "\r\n" );
+			for ( int i = 0; i < lines.length; i++ )
+				assertTrue ( "Line too long", lines[i].getBytes ( "UTF-8" ).length <= 75 );
+			assertEquals ( "Value does not match", new String ( Base64
+			    .encodeBase64 ( data ) ), x.getValue () );
+
+			// Parse it back; the data is decoded when needed
+			Attachment y = new Attachment ( ical );
+			assertEquals ( "Wrong size", data.length, y.getSize () );
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			assertTrue ( "Not inline", y.writeTo ( bytes ) );
+			assertTrue ( "Wrong bytes", Arrays.equals ( data, bytes.toByteArray () ) );
+			assertEquals ( "Wrong iCalendar", ical, y.toICalendar () );
+
+			// Move the data out of memory
+			File g = File.createTempFile ( "attach", ".bin" );
+			g.deleteOnExit ();
+			assertTrue ( "Not moved", y.moveDataToFile ( g ) );
+			assertEquals ( "Wrong file", g, y.getFile () );
+			assertEquals ( "Wrong file size", data.length, g.length () );
+			assertTrue ( "Wrong bytes", Arrays.equals ( data, y.getBytes () ) );
+			assertEquals ( "Wrong iCalendar", ical, y.toICalendar () );
+
+			// External attachments have no data
+			Attachment z = new Attachment ( "ATTACH:http://k5n.us/x.jpg" );
+			assertNull ( "External bytes", z.getBytes () );
+			assertEquals ( "External size", -1, z.getSize () );
+			assertFalse ( "External moved", z.moveDataToFile ( g ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
 	public static Test suite () {
 		return new TestSuite ( AttachmentTest.class );
 	}
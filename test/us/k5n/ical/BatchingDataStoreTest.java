@@ -0,0 +1,104 @@
+package us.k5n.ical;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for BatchingDataStore.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class BatchingDataStoreTest extends TestCase implements Constants {
+
+	/** Records the size of each batch */
+	static class TestDataStore extends DefaultDataStore implements
+	    BatchingDataStore {
+		Vector<Integer> eventBatches = new Vector<Integer> ();
+		Vector<Integer> journalBatches = new Vector<Integer> ();
+		int flushes = 0;
+		int singleEvents = 0;
+
+		public int getBatchSize () {
+			return 10;
+		}
+
+		public void storeEvents ( List<Event> events ) {
+			assertEquals ( "Flushed before batch", 0, flushes );
+			eventBatches.addElement ( events.size () );
+			for ( Event e : events )
+				super.storeEvent ( e );
+		}
+
+		public void storeJournals ( List<Journal> journals ) {
+			journalBatches.addElement ( journals.size () );
+			for ( Journal j : journals )
+				super.storeJournal ( j );
+		}
+
+		public void storeEvent ( Event event ) {
+			singleEvents++;
+			super.storeEvent ( event );
+		}
+
+		public void flush () {
+			flushes++;
+		}
+	}
+
+	public void setUp () {
+	}
+
+	public void testBatches () {
+		StringBuffer sb = new StringBuffer ();
+		sb.append ( "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n" );
+		for ( int i = 0; i < 25; i++ ) {
+			sb.append ( "BEGIN:VEVENT\nUID:event" + i + "@k5n.us\nSUMMARY:Event "
+			    + i + "\nDTSTART:20070501\nEND:VEVENT\n" );
+		}
+		sb.append ( "BEGIN:VJOURNAL\nUID:journal1@k5n.us\nSUMMARY:Journal\n"
+		    + "DTSTAMP:20070502\nEND:VJOURNAL\n" );
+		sb.append ( "END:VCALENDAR\n" );
+
+		ICalendarParser parser = new ICalendarParser ( PARSE_STRICT );
+		TestDataStore ds = new TestDataStore ();
+		parser.addDataStore ( ds );
+		try {
+			parser.parse ( new StringReader ( sb.toString () ) );
+		} catch ( IOException e ) {
+			fail ( "Failed: " + e.toString () );
+		}
+		assertEquals ( "Wrong number of event batches", 3, ds.eventBatches
+		    .size () );
+		assertEquals ( 10, ds.eventBatches.elementAt ( 0 ).intValue () );
+		assertEquals ( 10, ds.eventBatches.elementAt ( 1 ).intValue () );
+		assertEquals ( 5, ds.eventBatches.elementAt ( 2 ).intValue () );
+		assertEquals ( "Wrong number of journal batches", 1, ds.journalBatches
+		    .size () );
+		assertEquals ( "Wrong number of flushes", 1, ds.flushes );
+		assertEquals ( "storeEvent called", 0, ds.singleEvents );
+		Vector<Event> events = ds.getAllEvents ();
+		for ( int i = 0; i < events.size (); i++ ) {
+			assertEquals ( "Wrong order", "event" + i + "@k5n.us", events
+			    .elementAt ( i ).getUid ().getValue () );
+		}
+
+		// The default DataStore still gets each event
+		assertEquals ( "Wrong number of events", 25, parser.getDataStoreAt ( 0 )
+		    .getAllEvents ().size () );
+	}
+
+	public static Test suite () {
+		return new TestSuite ( BatchingDataStoreTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( BatchingDataStoreTest.class );
+	}
+
+}
@@ -0,0 +1,120 @@
+package us.k5n.ical;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for CompactDate.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class CompactDateTest extends TestCase implements Constants {
+
+	public void setUp () {
+	}
+
+	private void roundTrip ( Date d ) {
+		CompactDate cd = d.toCompactDate ();
+		Date d2 = cd.toDate ( d.getName () );
+		assertEquals ( "Wrong date for " + d.getValue (), 0, d.compareTo ( d2 ) );
+		assertEquals ( "Wrong dateOnly", d.isDateOnly (), d2.isDateOnly () );
+		assertEquals ( "Wrong floating", d.isFloating (), d2.isFloating () );
+		assertEquals ( "Wrong TZID", d.tzid, d2.tzid );
+		assertEquals ( "Not the same CompactDate", cd, d2.toCompactDate () );
+		assertEquals ( cd, CompactDate.fromLong ( cd.longValue () ) );
+		d.toICalendar ();
+		d2.toICalendar ();
+		assertEquals ( "Different iCalendar value", d.getValue (), d2.getValue () );
+	}
+
+	public void testRoundTrip () {
+		try {
+			roundTrip ( new Date ( "DTSTART;VALUE=DATE:20070501" ) );
+			roundTrip ( new Date ( "DTSTART:20070501T103000" ) );
+			roundTrip ( new Date ( "DTSTART:20070501T103000Z" ) );
+			roundTrip ( new Date ( "DTSTART;TZID=America/New_York:20071104T013000" ) );
+			roundTrip ( new Date ( "DTSTART:19691231T235959" ) );
+			roundTrip ( new Date ( "DTSTART", 1850, 2, 28, 23, 0, 0 ) );
+			roundTrip ( new Date ( "DTSTART", 2400, 12, 31 ) );
+			roundTrip ( new Date ( "DTSTART;TZID=Bogus/Zone:20070501T103000",
+			    PARSE_LOOSE ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testFields () {
+		try {
+			CompactDate cd = new Date ( "DTSTART", 1970, 1, 2 ).toCompactDate ();
+			assertEquals ( 86400, cd.getSeconds () );
+			assertTrue ( cd.isDateOnly () );
+			assertFalse ( cd.isFloating () );
+			assertNull ( cd.getTzid () );
+
+			Date d = new Date ( "DTSTART:20070501T103000Z" );
+			cd = d.toCompactDate ();
+			assertEquals ( 1178015400L, cd.getSeconds () );
+			assertEquals ( d.tzid, cd.getTzid () );
+			assertSame ( cd.getTzid (), new Date ( "DTEND:20070601T103000Z" )
+			    .toCompactDate ().getTzid () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testTooManyZones () {
+		int chicago = CompactDate.internZone ( "America/Chicago" );
+		int utc = CompactDate.internZone ( "UTC" );
+		assertTrue ( "Chicago is UTC", chicago != utc );
+		// Known zones are still found when the table is full
+		assertEquals ( "Known zone not found", chicago, CompactDate.internZone (
+		    "America/Chicago", 0 ) );
+		// New ones fall back to UTC rather than failing
+		assertEquals ( "No UTC fallback", utc, CompactDate.internZone (
+		    "Test/Overflow", 0 ) );
+	}
+
+	public void testOrder () {
+		try {
+			Vector<Date> dates = new Vector<Date> ();
+			for ( int i = 0; i < 200; i++ ) {
+				int n = ( i * 7919 ) % 200;
+				dates.addElement ( new Date ( "DTSTART", 2000 + n / 12, 1 + n % 12,
+				    1 + n % 28, n % 24, n % 60, 0 ) );
+			}
+			long[] values = new long[dates.size ()];
+			for ( int i = 0; i < values.length; i++ )
+				values[i] = dates.elementAt ( i ).toCompactDate ().longValue ();
+			Arrays.sort ( values );
+			Collections.sort ( dates );
+			for ( int i = 0; i < values.length; i++ ) {
+				assertEquals ( "Wrong order", 0, dates.elementAt ( i ).compareTo (
+				    CompactDate.fromLong ( values[i] ).toDate ( "DTSTART" ) ) );
+			}
+			CompactDate first = CompactDate.fromLong ( values[0] );
+			CompactDate last = CompactDate.fromLong ( values[values.length - 1] );
+			assertTrue ( first.isBefore ( last ) );
+			assertTrue ( last.isAfter ( first ) );
+			assertTrue ( first.compareTo ( last ) < 0 );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( CompactDateTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( CompactDateTest.class );
+	}
+
+}
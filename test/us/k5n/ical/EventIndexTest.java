@@ -0,0 +1,135 @@
+package us.k5n.ical;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for EventIndex. Results are compared against looking at every
+ * date of every event.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class EventIndexTest extends TestCase implements Constants {
+	static final String[] RULES = { "FREQ=DAILY;COUNT=5",
+	    "FREQ=WEEKLY;BYDAY=TU,TH", "FREQ=MONTHLY;UNTIL=20080101T000000Z",
+	    "FREQ=YEARLY;INTERVAL=2" };
+
+	public void setUp () {
+	}
+
+	private Vector<Event> createEvents ( Random r, int num ) throws Exception {
+		Vector<Event> ret = new Vector<Event> ();
+		for ( int i = 0; i < num; i++ ) {
+			Date start;
+			if ( r.nextInt ( 5 ) == 0 )
+				start = new Date ( "DTSTART", 2007, 1 + r.nextInt ( 12 ),
+				    1 + r.nextInt ( 28 ) );
+			else
+				start = new Date ( "DTSTART", 2007, 1 + r.nextInt ( 12 ),
+				    1 + r.nextInt ( 28 ), r.nextInt ( 24 ), 0, 0 );
+			Event event = new Event ( "Event " + i, "", start );
+			if ( !start.isDateOnly () && r.nextBoolean () )
+				event.setEndDate ( new Date ( "DTEND", start.getYear (), start
+				    .getMonth (), start.getDay () + r.nextInt ( 3 ), start.getHour (),
+				    0, 0 ) );
+			else if ( !start.isDateOnly () )
+				event.setDuration ( new Duration ( r.nextInt ( 3 ) * 3600 ) );
+			if ( r.nextInt ( 10 ) == 0 ) {
+				event.setRrule ( new Rrule ( "RRULE:"
+				    + RULES[r.nextInt ( RULES.length )], PARSE_STRICT ) );
+				if ( r.nextBoolean () )
+					event.addException ( new Date ( "EXDATE", start.getYear (), start
+					    .getMonth (), start.getDay (), start.getHour (), 0, 0 ) );
+			}
+			ret.addElement ( event );
+		}
+		return ret;
+	}
+
+	/**
+	 * Does an event overlap a range? (Looking at every date.)
+	 */
+	private static boolean overlaps ( Event event, long start, long end ) {
+		long duration = Math.max ( EventIndex.getDuration ( event ), 1 );
+		Iterator<Date> iter = event.occurrenceIterator ();
+		while ( iter.hasNext () ) {
+			long s = EventIndex.seconds ( iter.next () );
+			if ( s >= end )
+				break;
+			if ( s + duration > start )
+				return true;
+		}
+		return false;
+	}
+
+	public void testSameAsSearch () {
+		try {
+			Random r = new Random ( 12345 );
+			Vector<Event> events = createEvents ( r, 2000 );
+			DefaultDataStore ds = new DefaultDataStore ();
+			for ( int i = 0; i < events.size (); i++ )
+				ds.storeEvent ( events.elementAt ( i ) );
+			assertEquals ( "Wrong size", events.size (), ds.getEventIndex ().size () );
+			for ( int i = 0; i < 200; i++ ) {
+				Date start = new Date ( "DTSTART", 2006 + r.nextInt ( 4 ),
+				    1 + r.nextInt ( 12 ), 1 + r.nextInt ( 18 ), r.nextInt ( 24 ), 0, 0 );
+				Date end = new Date ( "DTEND", start.getYear (), start.getMonth (),
+				    start.getDay () + 1 + r.nextInt ( 10 ), start.getHour (), 0, 0 );
+				long s = EventIndex.seconds ( start ), e = EventIndex.seconds ( end );
+				Vector<Event> found = ds.getEvents ( start, end );
+				int n = 0;
+				for ( int j = 0; j < events.size (); j++ ) {
+					Event event = events.elementAt ( j );
+					if ( overlaps ( event, s, e ) ) {
+						n++;
+						assertTrue ( "Event not found: " + event.getSummary ().getValue ()
+						    + " in " + start + " - " + end, found.contains ( event ) );
+					}
+				}
+				assertEquals ( "Wrong number of events", n, found.size () );
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testRemove () {
+		try {
+			Vector<Event> events = createEvents ( new Random ( 1 ), 100 );
+			EventIndex index = new EventIndex ();
+			for ( int i = 0; i < events.size (); i++ )
+				index.addEvent ( events.elementAt ( i ) );
+			Date start = new Date ( "DTSTART", 2006, 1, 1 );
+			Date end = new Date ( "DTEND", 2010, 1, 1 );
+			assertEquals ( "Wrong number of events", 100, index.getEvents ( start,
+			    end ).size () );
+			for ( int i = 0; i < events.size (); i += 2 )
+				assertTrue ( "Event not removed", index.removeEvent ( events
+				    .elementAt ( i ) ) );
+			assertFalse ( "Event removed twice", index.removeEvent ( events
+			    .elementAt ( 0 ) ) );
+			Vector<Event> found = index.getEvents ( start, end );
+			assertEquals ( "Wrong number of events", 50, found.size () );
+			assertFalse ( "Removed event found", found.contains ( events
+			    .elementAt ( 0 ) ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( EventIndexTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( EventIndexTest.class );
+	}
+
+}
@@ -0,0 +1,296 @@
+package us.k5n.ical;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for Event.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class EventTest extends TestCase implements Constants {
+	String ical = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+	    + "BEGIN:VEVENT\nUID:event1@k5n.us\nSUMMARY:Event 1\n"
+	    + "DESCRIPTION:This is\n  the description\n"
+	    + "DTSTART:20070501T100000Z\nDTEND:20070501T110000Z\n"
+	    + "DTSTAMP:2007XX01T100000Z\n"
+	    + "ATTENDEE;ROLE=CHAIR:MAILTO:joe@k5n.us\n"
+	    + "ATTENDEE:MAILTO:sue@k5n.us\nLOCATION:Office\n"
+	    + "EXDATE:20070502T100000Z\nEND:VEVENT\nEND:VCALENDAR\n";
+
+	public void setUp () {
+	}
+
+	private Event parse ( ICalendarParser parser ) {
+		try {
+			parser.parse ( new StringReader ( ical ) );
+		} catch ( IOException e ) {
+			fail ( "Failed: " + e.toString () );
+		}
+		DataStore ds = parser.getDataStoreAt ( 0 );
+		Vector<Event> events = ds.getAllEvents ();
+		assertEquals ( "Wrong number of events", 1, events.size () );
+		return events.elementAt ( 0 );
+	}
+
+	public void testLazyParsing () {
+		ICalendarParser eagerParser = new ICalendarParser ( PARSE_LOOSE );
+		Event eager = parse ( eagerParser );
+		ICalendarParser lazyParser = new ICalendarParser ( PARSE_LOOSE );
+		lazyParser.setLazyParsing ( true );
+		Event lazy = parse ( lazyParser );
+
+		// Nothing but the required properties should be parsed yet
+		assertEquals ( "event1@k5n.us", lazy.getUid ().getValue () );
+		assertNotNull ( "Start date not parsed", lazy.startDate );
+		assertNull ( "Description parsed", lazy.description );
+		assertNull ( "Attendees parsed", lazy.attendees );
+		assertNull ( "End date parsed", lazy.endDate );
+		assertEquals ( "Bad DTSTAMP reported too soon", 0, lazyParser
+		    .getAllErrors ().size () );
+
+		assertEquals ( "Wrong description", eager.getDescription ().getValue (),
+		    lazy.getDescription ().getValue () );
+		assertNull ( "Attendees parsed", lazy.attendees );
+		assertEquals ( "Wrong number of attendees", 2, lazy.getAttendees ()
+		    .size () );
+		assertEquals ( "Wrong attendee order", "MAILTO:sue@k5n.us", lazy
+		    .getAttendees ().elementAt ( 1 ).getValue () );
+		assertEquals ( "Wrong location", "Office", lazy.getLocation ().getValue () );
+		assertEquals ( "Wrong end date", 0, eager.getEndDate ().compareTo (
+		    lazy.getEndDate () ) );
+		assertEquals ( "Wrong number of exceptions", 1, lazy.getExceptions ()
+		    .size () );
+		assertEquals ( "Different iCalendar output", eager.toICalendar (), lazy
+		    .toICalendar () );
+
+		// Parse errors are reported once the property is parsed
+		assertEquals ( "Wrong number of errors", eagerParser.getAllErrors ()
+		    .size (), lazyParser.getAllErrors ().size () );
+		assertTrue ( "No DTSTAMP error", lazyParser.getAllErrors ().size () > 0 );
+		assertEquals ( "Wrong error line number", eagerParser.getAllErrors ()
+		    .elementAt ( 0 ).lineNo, lazyParser.getAllErrors ().elementAt ( 0 ).lineNo );
+	}
+
+	public void testLazySetter () {
+		ICalendarParser parser = new ICalendarParser ( PARSE_LOOSE );
+		parser.setLazyParsing ( true );
+		Event event = parse ( parser );
+		Description d = new Description ();
+		d.setValue ( "New description" );
+		event.setDescription ( d );
+		assertSame ( "Description replaced by lazy parsing", d, event
+		    .getDescription () );
+		event.setAttendees ( null );
+		event.toICalendar ();
+		assertNull ( "Attendees replaced by lazy parsing", event.getAttendees () );
+	}
+
+	public void testPropertyFilter () {
+		ICalendarParser parser = new ICalendarParser ( PARSE_LOOSE );
+		HashSet<String> names = new HashSet<String> ();
+		names.add ( "attendee" );
+		names.add ( "X-NOT-SUPPORTED" );
+		parser.setPropertyFilter ( names );
+		assertEquals ( "Wrong filter", 1, parser.getPropertyFilter ().size () );
+		Event event = parse ( parser );
+		assertEquals ( "event1@k5n.us", event.getUid ().getValue () );
+		assertEquals ( "Event 1", event.getSummary ().getValue () );
+		assertNotNull ( "No start date", event.getStartDate () );
+		assertEquals ( "Wrong number of attendees", 2, event.getAttendees ()
+		    .size () );
+		assertNull ( "Description not skipped", event.getDescription () );
+		assertNull ( "End date not skipped", event.getEndDate () );
+		assertNull ( "Location not skipped", event.getLocation () );
+		assertEquals ( "Skipped DTSTAMP was parsed", 0, parser.getAllErrors ()
+		    .size () );
+
+		// Line numbers should not change when lines are skipped
+		ICalendarParser allParser = new ICalendarParser ( PARSE_LOOSE );
+		parse ( allParser );
+		names.add ( "DTSTAMP" );
+		parser = new ICalendarParser ( PARSE_LOOSE );
+		parser.setPropertyFilter ( names );
+		parse ( parser );
+		assertEquals ( "Wrong number of errors", 1, parser.getAllErrors ().size () );
+		assertEquals ( "Wrong error line number", allParser.getAllErrors ()
+		    .elementAt ( 0 ).lineNo, parser.getAllErrors ().elementAt ( 0 ).lineNo );
+	}
+
+	public void testGetOccurrences () {
+		String str = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+		    + "BEGIN:VEVENT\nUID:event2@k5n.us\nSUMMARY:Daily\n"
+		    + "DTSTART:19950101T100000\nRRULE:FREQ=DAILY\n"
+		    + "EXDATE:20070503T100000\nRDATE:20070504T150000,20090101T100000\n"
+		    + "END:VEVENT\nEND:VCALENDAR\n";
+		ICalendarParser parser = new ICalendarParser ( PARSE_LOOSE );
+		try {
+			parser.parse ( new StringReader ( str ) );
+			Event event = parser.getDataStoreAt ( 0 ).getAllEvents ().elementAt ( 0 );
+			Vector<Date> dates = event.getOccurrences ( new Date ( "DTSTART", 2007,
+			    5, 1, 0, 0, 0 ), new Date ( "DTSTART", 2007, 5, 8, 0, 0, 0 ) );
+			String[] expected = { "20070501T100000", "20070502T100000",
+			    "20070504T100000", "20070504T150000", "20070505T100000",
+			    "20070506T100000", "20070507T100000" };
+			assertEquals ( "Wrong number of occurrences", expected.length, dates
+			    .size () );
+			for ( int i = 0; i < expected.length; i++ ) {
+				Date d = dates.elementAt ( i );
+				d.toICalendar ();
+				assertTrue ( "Wrong date " + d.getValue (), d.getValue ().startsWith (
+				    expected[i] ) );
+			}
+
+			// The start date is included
+			dates = event.getOccurrences ( new Date ( "DTSTART", 1995, 1, 1 ),
+			    new Date ( "DTSTART", 1995, 1, 3 ) );
+			assertEquals ( "Wrong number of occurrences", 2, dates.size () );
+			assertEquals ( "Start date not included", event.getStartDate (), dates
+			    .elementAt ( 0 ) );
+			assertNotSame ( "Start date not copied", event.getStartDate (), dates
+			    .elementAt ( 0 ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testOccurrenceIterator () {
+		String str = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+		    + "BEGIN:VEVENT\nUID:event3@k5n.us\nSUMMARY:Weekly\n"
+		    + "DTSTART:19950102T100000\nRRULE:FREQ=WEEKLY;BYDAY=MO,WE\n"
+		    + "EXDATE:19950104T100000\nRDATE:19950103T120000\n"
+		    + "END:VEVENT\nEND:VCALENDAR\n";
+		ICalendarParser parser = new ICalendarParser ( PARSE_LOOSE );
+		try {
+			parser.parse ( new StringReader ( str ) );
+			Event event = parser.getDataStoreAt ( 0 ).getAllEvents ().elementAt ( 0 );
+			Iterator<Date> iter = event.occurrenceIterator ();
+			String[] expected = { "19950102T100000", "19950103T120000",
+			    "19950109T100000", "19950111T100000" };
+			for ( int i = 0; i < expected.length; i++ ) {
+				assertTrue ( "Missing date", iter.hasNext () );
+				Date d = iter.next ();
+				assertTrue ( "Wrong date " + d.getValue (), d.getValue ().startsWith (
+				    expected[i] ) );
+			}
+
+			// The rule never ends, so this only works if dates are generated as
+			// they are needed
+			Vector<Date> dates = event.getNextOccurrences ( new Date ( "DTSTART",
+			    2500, 1, 1 ), 3 );
+			expected = new String[] { "25000104T100000", "25000106T100000",
+			    "25000111T100000" };
+			assertEquals ( "Wrong number of occurrences", expected.length, dates
+			    .size () );
+			for ( int i = 0; i < expected.length; i++ ) {
+				Date d = dates.elementAt ( i );
+				assertTrue ( "Wrong date " + d.getValue (), d.getValue ().startsWith (
+				    expected[i] ) );
+			}
+
+			// Splitting a range by year gives the same dates as the whole range
+			Vector<Date> all = event.getOccurrences ( new Date ( "DTSTART", 1995,
+			    1, 1 ), new Date ( "DTSTART", 2000, 1, 1 ) );
+			int n = 0;
+			for ( int year = 1995; year < 2000; year++ ) {
+				iter = event.occurrenceIterator ( new Date ( "DTSTART", year, 1, 1 ),
+				    new Date ( "DTSTART", year + 1, 1, 1 ) );
+				while ( iter.hasNext () ) {
+					Date d = iter.next ();
+					assertEquals ( "Wrong date", all.elementAt ( n++ ).getValue (), d
+					    .getValue () );
+				}
+			}
+			assertEquals ( "Wrong number of occurrences", all.size (), n );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testOccurrenceCache () {
+		try {
+			OccurrenceCache.clear ();
+			Event event = new Event ( "Daily", "", new Date ( "DTSTART", 2007, 5,
+			    1, 10, 0, 0 ) );
+			event.setRrule ( new Rrule ( "RRULE:FREQ=DAILY;COUNT=10", PARSE_STRICT ) );
+			Date start = new Date ( "DTSTART", 2007, 5, 1 );
+			Date end = new Date ( "DTSTART", 2007, 6, 1 );
+			assertEquals ( "Wrong number of occurrences", 10, event.getOccurrences (
+			    start, end ).size () );
+			Vector<Date> dates = event.getOccurrences ( start, end );
+			assertEquals ( "Wrong number of occurrences", 10, dates.size () );
+			assertEquals ( "Wrong number of hits", 1, OccurrenceCache.getHits () );
+			assertEquals ( "Wrong number of misses", 1, OccurrenceCache.getMisses () );
+			// The Vector returned belongs to the caller
+			dates.removeAllElements ();
+			assertEquals ( "Cache modified", 10, event.getOccurrences ( start, end )
+			    .size () );
+			// So are the Date objects
+			event.getOccurrences ( start, end ).elementAt ( 0 ).setDay ( 15 );
+			assertEquals ( "Cached date modified", 1, event.getOccurrences ( start,
+			    end ).elementAt ( 0 ).getDay () );
+			assertEquals ( "DTSTART modified", 1, event.getStartDate ().getDay () );
+
+			// Changes to the event are noticed
+			event.addException ( new Date ( "EXDATE", 2007, 5, 2, 10, 0, 0 ) );
+			assertEquals ( "Exception not used", 9, event.getOccurrences ( start,
+			    end ).size () );
+			event.addRdate ( new Date ( "RDATE", 2007, 5, 20, 10, 0, 0 ) );
+			assertEquals ( "RDATE not used", 10, event.getOccurrences ( start, end )
+			    .size () );
+			event.removeException ( new Date ( "EXDATE", 2007, 5, 2, 10, 0, 0 ) );
+			assertEquals ( "Exception not removed", 11, event.getOccurrences (
+			    start, end ).size () );
+			event.setRrule ( new Rrule ( "RRULE:FREQ=DAILY;COUNT=5", PARSE_STRICT ) );
+			assertEquals ( "RRULE change not used", 6, event.getOccurrences ( start,
+			    end ).size () );
+			assertEquals ( "Wrong number of misses", 5, OccurrenceCache.getMisses () );
+			// So are changes made to the Vectors of EXDATE and RDATE values
+			event.getExceptions ().addElement ( new Date ( "EXDATE", 2007, 5, 3, 10,
+			    0, 0 ) );
+			assertEquals ( "Exception Vector change not used", 5, event
+			    .getOccurrences ( start, end ).size () );
+			event.getRdates ().addElement ( new Date ( "RDATE", 2007, 5, 21, 10, 0, 0 ) );
+			assertEquals ( "RDATE Vector change not used", 6, event.getOccurrences (
+			    start, end ).size () );
+			Vector<Date> exdates = event.getExceptions ();
+			event.getOccurrences ( start, end );
+			exdates.addElement ( new Date ( "EXDATE", 2007, 5, 4, 10, 0, 0 ) );
+			assertEquals ( "Later exception Vector change not used", 5, event
+			    .getOccurrences ( start, end ).size () );
+
+			// Least recently used entries are removed
+			OccurrenceCache.setMaxSize ( 2 );
+			assertEquals ( "Cache too big", 2, OccurrenceCache.getSize () );
+			for ( int i = 1; i <= 3; i++ )
+				event.getOccurrences ( start, new Date ( "DTSTART", 2007, 5, i + 1 ) );
+			assertEquals ( "Cache too big", 2, OccurrenceCache.getSize () );
+			event.getOccurrences ( start, new Date ( "DTSTART", 2007, 5, 4 ) );
+			assertEquals ( "Wrong number of hits", 6, OccurrenceCache.getHits () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		} finally {
+			OccurrenceCache.setMaxSize ( OccurrenceCache.DEFAULT_MAX_SIZE );
+			OccurrenceCache.clear ();
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( EventTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( EventTest.class );
+	}
+
+}
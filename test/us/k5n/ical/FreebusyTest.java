@@ -0,0 +1,224 @@
+package us.k5n.ical;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for Freebusy and FreebusyCalculator.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class FreebusyTest extends TestCase implements Constants {
+	static final String CAL = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+	    + "BEGIN:VEVENT\nUID:1@k5n.us\nSUMMARY:Busy\n"
+	    + "DTSTART:20070501T090000Z\nDTEND:20070501T100000Z\nEND:VEVENT\n"
+	    + "BEGIN:VEVENT\nUID:2@k5n.us\nSUMMARY:Overlaps\n"
+	    + "DTSTART:20070501T093000Z\nDTEND:20070501T103000Z\nEND:VEVENT\n"
+	    + "BEGIN:VEVENT\nUID:3@k5n.us\nSUMMARY:Adjacent\n"
+	    + "DTSTART:20070501T103000Z\nDURATION:PT30M\nEND:VEVENT\n"
+	    + "BEGIN:VEVENT\nUID:4@k5n.us\nSUMMARY:Transparent\n"
+	    + "DTSTART:20070501T130000Z\nDTEND:20070501T140000Z\n"
+	    + "TRANSP:TRANSPARENT\nEND:VEVENT\n"
+	    + "BEGIN:VEVENT\nUID:5@k5n.us\nSUMMARY:Cancelled\n"
+	    + "DTSTART:20070501T150000Z\nDTEND:20070501T160000Z\n"
+	    + "STATUS:CANCELLED\nEND:VEVENT\n"
+	    + "BEGIN:VEVENT\nUID:6@k5n.us\nSUMMARY:Tentative\n"
+	    + "DTSTART:20070501T104500Z\nDTEND:20070501T120000Z\n"
+	    + "STATUS:TENTATIVE\nEND:VEVENT\n"
+	    + "BEGIN:VEVENT\nUID:7@k5n.us\nSUMMARY:Daily\n"
+	    + "DTSTART:20070420T170000Z\nDTEND:20070420T180000Z\n"
+	    + "RRULE:FREQ=DAILY\nEXDATE:20070502T170000Z\nEND:VEVENT\n"
+	    + "END:VCALENDAR\n";
+
+	public void setUp () {
+	}
+
+	private DataStore parse ( String str ) throws Exception {
+		ICalendarParser parser = new ICalendarParser ( PARSE_LOOSE );
+		parser.parse ( new StringReader ( str ) );
+		return parser.getDataStoreAt ( 0 );
+	}
+
+	private static Date utc ( String str ) throws Exception {
+		return new Date ( "DTSTART:" + str );
+	}
+
+	private static String period ( Freebusy fb, int i ) {
+		return Freebusy.formatUTC ( fb.getPeriodStartSeconds ( i ) ) + "/"
+		    + Freebusy.formatUTC ( fb.getPeriodEndSeconds ( i ) );
+	}
+
+	public void testTransp () {
+		try {
+			Event event = parse ( CAL ).getAllEvents ().elementAt ( 3 );
+			assertEquals ( "Wrong TRANSP", TRANSP_TRANSPARENT, event.getTransp () );
+			assertTrue ( "Wrong TRANSP output", event.toICalendar ().indexOf (
+			    "TRANSP:TRANSPARENT" ) >= 0 );
+			event = parse ( CAL ).getAllEvents ().elementAt ( 0 );
+			assertEquals ( "Wrong TRANSP", TRANSP_OPAQUE, event.getTransp () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testCalculate () {
+		try {
+			Vector<DataStore> calendars = new Vector<DataStore> ();
+			calendars.addElement ( parse ( CAL ) );
+			Freebusy fb = new FreebusyCalculator ().getFreebusy ( calendars,
+			    utc ( "20070501T000000Z" ), utc ( "20070503T000000Z" ) );
+			String[] expected = { "20070501T090000Z/20070501T110000Z",
+			    "20070501T110000Z/20070501T120000Z",
+			    "20070501T170000Z/20070501T180000Z" };
+			int[] types = { FBTYPE_BUSY, FBTYPE_BUSY_TENTATIVE, FBTYPE_BUSY };
+			assertEquals ( "Wrong number of periods", expected.length, fb
+			    .getPeriodCount () );
+			for ( int i = 0; i < expected.length; i++ ) {
+				assertEquals ( "Wrong period", expected[i], period ( fb, i ) );
+				assertEquals ( "Wrong type", types[i], fb.getPeriodType ( i ) );
+			}
+
+			// Periods are cut off at the end of the range
+			fb = new FreebusyCalculator ().getFreebusy ( calendars,
+			    utc ( "20070501T093000Z" ), utc ( "20070501T094500Z" ) );
+			assertEquals ( "Wrong number of periods", 1, fb.getPeriodCount () );
+			assertEquals ( "Wrong period", "20070501T093000Z/20070501T094500Z",
+			    period ( fb, 0 ) );
+
+			String ical = fb.toICalendar ();
+			assertTrue ( "No BEGIN", ical.startsWith ( "BEGIN:VFREEBUSY\r\n" ) );
+			assertTrue ( "No FREEBUSY", ical
+			    .indexOf ( "\r\nFREEBUSY:20070501T093000Z/20070501T094500Z\r\n" ) >= 0 );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testParse () {
+		String str = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+		    + "BEGIN:VFREEBUSY\nUID:fb1@k5n.us\n"
+		    + "ATTENDEE:MAILTO:joe@k5n.us\n"
+		    + "DTSTART:19980313T141711Z\nDTEND:19980410T141711Z\n"
+		    + "FREEBUSY:19980314T233000Z/19980315T003000Z\n"
+		    + "FREEBUSY;FBTYPE=BUSY-TENTATIVE:19980316T153000Z/PT1H,"
+		    + "19980318T030000Z/19980318T040000Z\n"
+		    + "END:VFREEBUSY\nEND:VCALENDAR\n";
+		try {
+			DefaultDataStore ds = (DefaultDataStore) parse ( str );
+			assertEquals ( "Wrong number of VFREEBUSY", 1, ds.getAllFreebusys ()
+			    .size () );
+			Freebusy fb = ds.getAllFreebusys ().elementAt ( 0 );
+			assertEquals ( "fb1@k5n.us", fb.getUid ().getValue () );
+			assertEquals ( "MAILTO:joe@k5n.us", fb.getAttendee ().getValue () );
+			assertEquals ( "Wrong number of periods", 3, fb.getPeriodCount () );
+			assertEquals ( "19980316T153000Z/19980316T163000Z", period ( fb, 1 ) );
+			assertEquals ( FBTYPE_BUSY_TENTATIVE, fb.getPeriodType ( 2 ) );
+
+			// Parse our own output
+			DefaultDataStore ds2 = (DefaultDataStore) parse ( "BEGIN:VCALENDAR\n"
+			    + "VERSION:2.0\nPRODID:-//FOO//BAR//EN\n" + fb.toICalendar ()
+			    + "END:VCALENDAR\n" );
+			Freebusy fb2 = ds2.getAllFreebusys ().elementAt ( 0 );
+			assertEquals ( fb.toICalendar (), fb2.toICalendar () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testUnsupportedProperties () {
+		String str = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+		    + "BEGIN:VFREEBUSY\nUID:fb2@k5n.us\n"
+		    + "ORGANIZER:MAILTO:jane@k5n.us\nURL:http://www.k5n.us/fb.ics\n"
+		    + "COMMENT:Free/busy\nCONTACT:Jane\nREQUEST-STATUS:2.0;Success\n"
+		    + "X-FOO:bar\nFREEBUSY:19980314T233000Z/19980315T003000Z\n"
+		    + "FOO:bar\nEND:VFREEBUSY\nEND:VCALENDAR\n";
+		try {
+			ICalendarParser parser = new ICalendarParser ( PARSE_STRICT );
+			parser.parse ( new StringReader ( str ) );
+			// Only the unknown property is an error
+			Vector<ParseError> errors = parser.getAllErrors ();
+			assertEquals ( "Wrong number of errors", 1, errors.size () );
+			assertEquals ( "FOO:bar", errors.elementAt ( 0 ).inputData );
+			Freebusy fb = ( (DefaultDataStore) parser.getDataStoreAt ( 0 ) )
+			    .getAllFreebusys ().elementAt ( 0 );
+			assertEquals ( "Wrong number of periods", 1, fb.getPeriodCount () );
+
+			parser = new ICalendarParser ( PARSE_LOOSE );
+			parser.parse ( new StringReader ( str ) );
+			assertEquals ( "Errors with PARSE_LOOSE", 0, parser.getAllErrors ()
+			    .size () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testManyAttendees () {
+		try {
+			Random r = new Random ( 42 );
+			DataStore shared = parse ( CAL );
+			Map<String, Vector<DataStore>> calendars = new HashMap<String, Vector<DataStore>> ();
+			for ( int i = 0; i < 50; i++ ) {
+				DefaultDataStore ds = new DefaultDataStore ();
+				for ( int j = 0; j < 20; j++ ) {
+					int hour = r.nextInt ( 20 );
+					Event event = new Event ( "Event", "", new Date ( "DTSTART", 2007,
+					    5, 1 + r.nextInt ( 2 ), hour, 0, 0 ) );
+					event.setDuration ( new Duration ( 3600 * ( 1 + r.nextInt ( 3 ) ) ) );
+					ds.storeEvent ( event );
+				}
+				Vector<DataStore> list = new Vector<DataStore> ();
+				list.addElement ( ds );
+				list.addElement ( shared );
+				calendars.put ( "MAILTO:user" + i + "@k5n.us", list );
+			}
+			Date start = utc ( "20070501T000000Z" );
+			Date end = utc ( "20070503T000000Z" );
+			Map<String, Freebusy> results = new FreebusyCalculator ( 4 )
+			    .getFreebusy ( calendars, start, end );
+			assertEquals ( "Wrong number of results", calendars.size (), results
+			    .size () );
+			FreebusyCalculator single = new FreebusyCalculator ( 1 );
+			for ( Map.Entry<String, Vector<DataStore>> e : calendars.entrySet () ) {
+				Freebusy fb = results.get ( e.getKey () );
+				assertEquals ( "Wrong attendee", e.getKey (), fb.getAttendee ()
+				    .getValue () );
+				Freebusy expected = single.getFreebusy ( e.getValue (), start, end );
+				assertEquals ( "Wrong number of periods", expected.getPeriodCount (),
+				    fb.getPeriodCount () );
+				for ( int i = 0; i < fb.getPeriodCount (); i++ ) {
+					assertEquals ( "Wrong period", period ( expected, i ), period ( fb,
+					    i ) );
+					// Periods do not overlap or touch
+					if ( i > 0 )
+						assertTrue ( "Periods not merged",
+						    fb.getPeriodStartSeconds ( i ) > fb
+						        .getPeriodEndSeconds ( i - 1 )
+						        || fb.getPeriodType ( i ) != fb.getPeriodType ( i - 1 ) );
+				}
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( FreebusyTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( FreebusyTest.class );
+	}
+
+}
@@ -0,0 +1,72 @@
+package us.k5n.ical;
+
+import java.io.StringReader;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for ICalendarReader.
+ * 
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class ICalendarReaderTest extends TestCase implements Constants {
+	String header = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+	    + "METHOD:PUBLISH\n";
+	String trailer = "END:VCALENDAR\n";
+
+	public void setUp () {
+	}
+
+	public void testComponentOrder () {
+		String x = header + "BEGIN:VEVENT\nUID:event1@k5n.us\nSUMMARY:Event 1\n"
+		    + "DTSTART:20070501\nEND:VEVENT\n"
+		    + "BEGIN:VJOURNAL\nUID:journal1@k5n.us\nSUMMARY:Journal 1\n"
+		    + "DTSTAMP:20070502\nEND:VJOURNAL\n"
+		    + "BEGIN:VEVENT\nUID:event2@k5n.us\nSUMMARY:Event\n  2\n"
+		    + "DTSTART:20070503\nEND:VEVENT\n" + trailer;
+		ICalendarReader r = new ICalendarReader ( new StringReader ( x ),
+		    PARSE_STRICT );
+		try {
+			Object o = r.readComponent ();
+			assertTrue ( "First component not an Event", o instanceof Event );
+			assertEquals ( "event1@k5n.us", ( (Event) o ).getUid ().getValue () );
+			o = r.readComponent ();
+			assertTrue ( "Second component not a Journal", o instanceof Journal );
+			o = r.readComponent ();
+			assertTrue ( "Third component not an Event", o instanceof Event );
+			assertEquals ( "Folded summary not unfolded", "Event 2", ( (Event) o )
+			    .getSummary ().getValue () );
+			assertNull ( "Found extra component", r.readComponent () );
+			assertNull ( "Found extra component", r.readComponent () );
+			assertEquals ( "Found parse errors", 0, r.getAllErrors ().size () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testMissingVersion () {
+		String x = "BEGIN:VCALENDAR\nPRODID:-//FOO//BAR//EN\n" + trailer;
+		ICalendarReader r = new ICalendarReader ( new StringReader ( x ),
+		    PARSE_STRICT );
+		try {
+			assertNull ( "Found component", r.readComponent () );
+			assertEquals ( "Missing VERSION not reported", 1, r.getAllErrors ()
+			    .size () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( ICalendarReaderTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( ICalendarReaderTest.class );
+	}
+
+}
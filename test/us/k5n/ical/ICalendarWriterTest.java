@@ -0,0 +1,258 @@
+package us.k5n.ical;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for ICalendarWriter.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class ICalendarWriterTest extends TestCase implements Constants {
+	static final String CAL = "BEGIN:VCALENDAR\nVERSION:2.0\nPRODID:-//FOO//BAR//EN\n"
+	    + "BEGIN:VEVENT\nUID:1@k5n.us\nSUMMARY:Caf\u00e9 meeting\n"
+	    + "DESCRIPTION:This is a long description that will need to be folded "
+	    + "because it is longer than seventy-five characters\\nSecond line\n"
+	    + "DTSTART:20070501T090000Z\nDTEND:20070501T100000Z\n"
+	    + "RRULE:FREQ=DAILY;COUNT=10\n"
+	    + "EXDATE:20070502T090000Z\nEXDATE:20070504T090000Z\n"
+	    + "RDATE:20070520T090000Z\nEND:VEVENT\n"
+	    + "BEGIN:VJOURNAL\nUID:2@k5n.us\nSUMMARY:Journal\n"
+	    + "DTSTART:20070501\nEND:VJOURNAL\n" + "END:VCALENDAR\n";
+
+	public void setUp () {
+	}
+
+	private static ICalendarParser parse ( String str ) throws Exception {
+		ICalendarParser parser = new ICalendarParser ( PARSE_LOOSE );
+		parser.parse ( new StringReader ( str ) );
+		return parser;
+	}
+
+	public void testWrite () {
+		try {
+			ICalendarParser parser = parse ( CAL );
+			StringWriter sw = new StringWriter ();
+			ICalendarWriter w = new ICalendarWriter ( sw );
+			w.writeCalendar ( parser.getDataStoreAt ( 0 ) );
+			w.flush ();
+			String ical = sw.toString ();
+			assertEquals ( "Not the same as CalendarParser", parser.toICalendar (),
+			    ical );
+			assertTrue ( "No BEGIN", ical.startsWith ( "BEGIN:VCALENDAR\r\n" ) );
+			assertTrue ( "No END", ical.endsWith ( "END:VCALENDAR\r\n" ) );
+			String[] lines = ical.split ( "\r\n" );
+			for ( int i = 0; i < lines.length; i++ )
+				assertTrue ( "Line too long: " + lines[i],
+				    lines[i].length () <= MAX_LINE_LENGTH );
+
+			// Same output for each event
+			Event event = parser.getDataStoreAt ( 0 ).getAllEvents ().elementAt ( 0 );
+			sw = new StringWriter ();
+			w = new ICalendarWriter ( sw );
+			w.writeEvent ( event );
+			assertEquals ( event.toICalendar (), sw.toString () );
+			assertTrue ( "Missing EXDATE", ical.indexOf ( "EXDATE" ) > 0 );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testRoundTrip () {
+		try {
+			ICalendarParser parser = parse ( CAL );
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			ICalendarWriter w = new ICalendarWriter ( bytes );
+			w.writeCalendar ( parser.getDataStoreAt ( 0 ) );
+			w.close ();
+			String ical = new String ( bytes.toByteArray (), "UTF-8" );
+			ICalendarParser parser2 = parse ( ical );
+			DataStore ds = parser2.getDataStoreAt ( 0 );
+			assertEquals ( "Wrong number of events", 1, ds.getAllEvents ().size () );
+			assertEquals ( "Wrong number of journals", 1, ds.getAllJournals ()
+			    .size () );
+			Event event = ds.getAllEvents ().elementAt ( 0 );
+			assertEquals ( "Caf\u00e9 meeting", event.getSummary ().getValue () );
+			assertEquals ( "Wrong number of EXDATE values", 2, event
+			    .getExceptions ().size () );
+			assertEquals ( "Wrong number of dates", 9, event.getOccurrences (
+			    new Date ( "DTSTART:20070501T000000Z" ),
+			    new Date ( "DTSTART:20070601T000000Z" ) ).size () );
+			assertEquals ( "Output changed", parser.toICalendar (), parser2
+			    .toICalendar () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testFoldOctets () {
+		try {
+			// 2, 3 and 4 (surrogate pair) octet characters
+			StringBuffer sb = new StringBuffer ();
+			for ( int i = 0; i < 60; i++ )
+				sb.append ( "\u0416\u4e2d\ud83d\ude00x" );
+			String text = sb.toString ();
+			Event event = new Event ( text, "", new Date ( "DTSTART:20070501" ) );
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			ICalendarWriter w = new ICalendarWriter ( bytes );
+			w.writeEvent ( event );
+			w.flush ();
+			byte[] b = bytes.toByteArray ();
+			CharsetDecoder decoder = Charset.forName ( "UTF-8" ).newDecoder ()
+			    .onMalformedInput ( CodingErrorAction.REPORT );
+			int start = 0;
+			for ( int i = 0; i + 1 < b.length; i++ ) {
+				if ( b[i] == '\r' && b[i + 1] == '\n' ) {
+					assertTrue ( "Line longer than 75 octets", i - start <= 75 );
+					// Throws an exception if a character was split
+					decoder.decode ( ByteBuffer.wrap ( b, start, i - start ) );
+					start = i + 2;
+				}
+			}
+			assertEquals ( "No CRLF at end", b.length, start );
+
+			// Same result as a Writer and StringUtils.foldLine
+			String ical = new String ( b, "UTF-8" );
+			assertEquals ( event.toICalendar (), ical );
+			String summary = event.getSummary ().toICalendar ();
+			assertEquals ( summary, StringUtils.foldLine ( "SUMMARY:" + text ) );
+			assertTrue ( "Summary not folded", summary.indexOf ( "\r\n " ) > 0 );
+
+			// Parse it back
+			ICalendarParser parser = parse ( "BEGIN:VCALENDAR\nVERSION:2.0\n"
+			    + "PRODID:-//FOO//BAR//EN\n" + ical + "END:VCALENDAR\n" );
+			assertEquals ( "Wrong summary", text, parser.getDataStoreAt ( 0 )
+			    .getAllEvents ().elementAt ( 0 ).getSummary ().getValue () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testSerializedCache () {
+		try {
+			Event event = new Event ( "Lunch", "Lunch with Bob", new Date (
+			    "DTSTART:20070501T120000" ) );
+			assertTrue ( "New event not dirty", event.isDirty () );
+			StringWriter sw = new StringWriter ();
+			ICalendarWriter w = new ICalendarWriter ( sw );
+			w.writeEvent ( event );
+			assertFalse ( "Written event is dirty", event.isDirty () );
+			w.writeEvent ( event );
+			String ical = event.toICalendar ();
+			assertEquals ( "Cached text differs", ical + ical, sw.toString () );
+
+			// The set methods mark the event as changed
+			event.setLocation ( new Location ( "LOCATION:Cafeteria" ) );
+			assertTrue ( "Changed event not dirty", event.isDirty () );
+			sw = new StringWriter ();
+			w = new ICalendarWriter ( sw );
+			w.writeEvent ( event );
+			assertTrue ( "Location not written", sw.toString ().indexOf (
+			    "LOCATION:Cafeteria" ) >= 0 );
+
+			// Changes in place need markDirty
+			event.getSummary ().setValue ( "Dinner" );
+			assertFalse ( "Event should not know about change", event.isDirty () );
+			event.markDirty ();
+			sw = new StringWriter ();
+			w = new ICalendarWriter ( sw );
+			w.writeEvent ( event );
+			assertTrue ( "Summary not written", sw.toString ().indexOf (
+			    "SUMMARY:Dinner" ) >= 0 );
+
+			// So are dates added to the EXDATE and RDATE Vectors
+			event.addException ( new Date ( "EXDATE:20070502T120000" ) );
+			Vector<Date> exdates = event.getExceptions ();
+			w.writeEvent ( event );
+			assertFalse ( "Written event is dirty", event.isDirty () );
+			exdates.addElement ( new Date ( "EXDATE:20070503T120000" ) );
+			assertTrue ( "EXDATE change not noticed", event.isDirty () );
+			sw = new StringWriter ();
+			w = new ICalendarWriter ( sw );
+			w.writeEvent ( event );
+			assertTrue ( "EXDATE not written", sw.toString ().indexOf (
+			    "20070503T120000" ) >= 0 );
+
+			// Cached text written as UTF-8 is the same
+			Journal j = new Journal ( "Caf\u00e9", "", new Date ( "DTSTART:20070501" ) );
+			sw = new StringWriter ();
+			w = new ICalendarWriter ( sw );
+			w.writeJournal ( j );
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			w = new ICalendarWriter ( bytes );
+			w.writeJournal ( j );
+			w.writeJournal ( j );
+			w.flush ();
+			String text = sw.toString ();
+			assertEquals ( "UTF-8 differs", text + text, new String ( bytes
+			    .toByteArray (), "UTF-8" ) );
+			j.setSummary ( new Summary ( "SUMMARY:Tea" ) );
+			assertTrue ( "Changed journal not dirty", j.isDirty () );
+			assertTrue ( "Summary not changed",
+			    j.toICalendar ().indexOf ( "SUMMARY:Tea" ) >= 0 );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testSerializedCacheFileAttachment () {
+		try {
+			File f = File.createTempFile ( "photo", ".jpg" );
+			f.deleteOnExit ();
+			FileOutputStream os = new FileOutputStream ( f );
+			os.write ( new byte[200000] );
+			os.close ();
+			Journal j = new Journal ( "Photo", "", new Date ( "DTSTART:20070501" ) );
+			Vector<Attachment> attachments = new Vector<Attachment> ();
+			attachments.addElement ( new Attachment ( f, "image/jpeg" ) );
+			j.setAttachments ( attachments );
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+			ICalendarWriter w = new ICalendarWriter ( bytes );
+			w.writeJournal ( j );
+			w.flush ();
+			assertTrue ( "Attachment not written", bytes.size () > 200000 );
+			// Nothing was cached, so the encoded file is not held in memory
+			assertTrue ( "Journal with file attachment was cached", j.isDirty () );
+			bytes.reset ();
+			w.writeJournal ( j );
+			w.flush ();
+			assertEquals ( "Second write differs", j.toICalendar (), new String (
+			    bytes.toByteArray (), "UTF-8" ) );
+
+			// Small inline attachments are cached
+			attachments.setElementAt ( new Attachment (
+			    "ATTACH;VALUE=BINARY;ENCODING=BASE64:SGVsbG8=" ), 0 );
+			j.markDirty ();
+			w.writeJournal ( j );
+			assertFalse ( "Journal with small attachment not cached", j.isDirty () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( ICalendarWriterTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( ICalendarWriterTest.class );
+	}
+
+}
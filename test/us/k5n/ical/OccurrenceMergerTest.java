@@ -0,0 +1,119 @@
+package us.k5n.ical;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for OccurrenceMerger. Results are compared against sorting the
+ * dates of every event.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class OccurrenceMergerTest extends TestCase implements Constants {
+	static final String[] RULES = { "FREQ=DAILY", "FREQ=DAILY;COUNT=20",
+	    "FREQ=WEEKLY;BYDAY=MO,WE,FR", "FREQ=MONTHLY;BYMONTHDAY=1,15" };
+
+	public void setUp () {
+	}
+
+	private static DataStore createCalendar ( Random r, int num )
+	    throws Exception {
+		DefaultDataStore ds = new DefaultDataStore ();
+		for ( int i = 0; i < num; i++ ) {
+			Date start;
+			if ( r.nextInt ( 4 ) == 0 )
+				start = new Date ( "DTSTART", 2007, 1 + r.nextInt ( 12 ),
+				    1 + r.nextInt ( 28 ) );
+			else
+				start = new Date ( "DTSTART", 2007, 1 + r.nextInt ( 12 ),
+				    1 + r.nextInt ( 28 ), r.nextInt ( 24 ), 0, 0 );
+			Event event = new Event ( "Event " + i, "", start );
+			if ( r.nextInt ( 5 ) == 0 )
+				event.setRrule ( new Rrule ( "RRULE:"
+				    + RULES[r.nextInt ( RULES.length )], PARSE_STRICT ) );
+			ds.storeEvent ( event );
+		}
+		return ds;
+	}
+
+	public void testMerge () {
+		try {
+			Random r = new Random ( 99 );
+			Vector<DataStore> calendars = new Vector<DataStore> ();
+			for ( int i = 0; i < 40; i++ )
+				calendars.addElement ( createCalendar ( r, r.nextInt ( 30 ) ) );
+			// An empty calendar
+			calendars.addElement ( new DefaultDataStore () );
+			Date start = new Date ( "DTSTART", 2007, 3, 1 );
+			Date end = new Date ( "DTEND", 2007, 11, 1 );
+
+			// Every date of every event, sorted
+			Vector<Long> expected = new Vector<Long> ();
+			for ( int i = 0; i < calendars.size (); i++ ) {
+				Vector<Event> events = calendars.elementAt ( i ).getAllEvents ();
+				for ( int j = 0; j < events.size (); j++ ) {
+					Vector<Date> dates = events.elementAt ( j ).getOccurrences ( start,
+					    end );
+					for ( int k = 0; k < dates.size (); k++ )
+						expected.addElement ( new Long ( EventIndex.seconds ( dates
+						    .elementAt ( k ) ) ) );
+				}
+			}
+			Collections.sort ( expected );
+			assertTrue ( "Not enough dates to test batches",
+			    expected.size () > OccurrenceMerger.BATCH_SIZE * 2 );
+
+			OccurrenceMerger iter = new OccurrenceMerger ( calendars, start, end,
+			    4 );
+			int n = 0;
+			while ( iter.hasNext () ) {
+				Occurrence occurrence = iter.next ();
+				assertTrue ( "Too many dates", n < expected.size () );
+				assertEquals ( "Wrong date #" + n, expected.elementAt ( n )
+				    .longValue (), EventIndex.seconds ( occurrence.getDate () ) );
+				assertTrue ( "Wrong calendar", occurrence.getCalendar ()
+				    .getAllEvents ().contains ( occurrence.getEvent () ) );
+				n++;
+			}
+			assertEquals ( "Wrong number of dates", expected.size (), n );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testClose () {
+		try {
+			Vector<DataStore> calendars = new Vector<DataStore> ();
+			calendars.addElement ( createCalendar ( new Random ( 1 ), 20 ) );
+			OccurrenceMerger iter = new OccurrenceMerger ( calendars, new Date (
+			    "DTSTART", 2007, 1, 1 ), new Date ( "DTEND", 2008, 1, 1 ), 2 );
+			assertTrue ( "No dates", iter.hasNext () );
+			iter.next ();
+			iter.close ();
+			assertFalse ( "Dates after close", iter.hasNext () );
+
+			calendars = new Vector<DataStore> ();
+			iter = new OccurrenceMerger ( calendars, new Date ( "DTSTART", 2007, 1,
+			    1 ), new Date ( "DTEND", 2008, 1, 1 ) );
+			assertFalse ( "Dates with no calendars", iter.hasNext () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( OccurrenceMergerTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( OccurrenceMergerTest.class );
+	}
+
+}
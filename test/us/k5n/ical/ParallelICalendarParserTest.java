@@ -0,0 +1,102 @@
+package us.k5n.ical;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for ParallelICalendarParser.
+ * 
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class ParallelICalendarParserTest extends TestCase implements Constants {
+	File file;
+
+	public void setUp () throws IOException {
+		file = File.createTempFile ( "parallel", ".ics" );
+		FileWriter w = new FileWriter ( file );
+		w.write ( "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//FOO//BAR\r\n //EN\r\n" );
+		for ( int i = 0; i < 1000; i++ ) {
+			if ( i % 100 == 0 ) {
+				// Unrecognized data outside of a component
+				w.write ( "X-UNKNOWN:" + i + "\r\n" );
+			}
+			if ( i % 10 == 0 ) {
+				w.write ( "BEGIN:VJOURNAL\r\nUID:journal" + i
+				    + "@k5n.us\r\nSUMMARY:Journal\r\nDTSTAMP:20070501\r\n"
+				    + "END:VJOURNAL\r\n" );
+			}
+			w.write ( "BEGIN:VEVENT\r\nUID:event" + i + "@k5n.us\r\n" );
+			w.write ( "SUMMARY:Event number " + i + " with a long summary that is\r\n"
+			    + "  folded onto the next line\r\n" );
+			// Every 100th event has a bad date
+			w.write ( "DTSTART:2007" + ( i % 100 == 50 ? "13" : "05" ) + "01\r\n" );
+			w.write ( "END:VEVENT\r\n" );
+		}
+		w.write ( "END:VCALENDAR\r\n" );
+		w.close ();
+	}
+
+	public void tearDown () {
+		file.delete ();
+	}
+
+	public void testSameAsICalendarParser () {
+		try {
+			ICalendarParser parser = new ICalendarParser ( PARSE_STRICT );
+			FileReader reader = new FileReader ( file );
+			parser.parse ( reader );
+			reader.close ();
+
+			ParallelICalendarParser pparser = new ParallelICalendarParser (
+			    PARSE_STRICT, 4 );
+			pparser.parse ( file );
+
+			Vector<Event> events = parser.getDataStoreAt ( 0 ).getAllEvents ();
+			Vector<Event> pevents = pparser.getDataStoreAt ( 0 ).getAllEvents ();
+			assertEquals ( "Wrong number of events", 990, events.size () );
+			assertEquals ( "Different number of events", events.size (), pevents
+			    .size () );
+			for ( int i = 0; i < events.size (); i++ ) {
+				assertEquals ( "Events out of order", events.elementAt ( i ).getUid ()
+				    .getValue (), pevents.elementAt ( i ).getUid ().getValue () );
+				assertEquals ( "Different summary", events.elementAt ( i )
+				    .getSummary ().getValue (), pevents.elementAt ( i ).getSummary ()
+				    .getValue () );
+			}
+			assertEquals ( "Different number of journals", parser.getDataStoreAt ( 0 )
+			    .getAllJournals ().size (), pparser.getDataStoreAt ( 0 )
+			    .getAllJournals ().size () );
+
+			Vector<ParseError> errors = parser.getAllErrors ();
+			Vector<ParseError> perrors = pparser.getAllErrors ();
+			assertEquals ( "Wrong number of errors", 20, errors.size () );
+			assertEquals ( "Different number of errors", errors.size (), perrors
+			    .size () );
+			for ( int i = 0; i < errors.size (); i++ ) {
+				assertEquals ( "Errors out of order", errors.elementAt ( i ).lineNo,
+				    perrors.elementAt ( i ).lineNo );
+				assertEquals ( "Errors out of order", errors.elementAt ( i ).error,
+				    perrors.elementAt ( i ).error );
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( ParallelICalendarParserTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( ParallelICalendarParserTest.class );
+	}
+
+}
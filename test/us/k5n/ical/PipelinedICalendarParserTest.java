@@ -0,0 +1,148 @@
+package us.k5n.ical;
+
+import java.io.StringReader;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for PipelinedICalendarParser.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class PipelinedICalendarParserTest extends TestCase implements
+    Constants {
+	String ical;
+
+	public void setUp () {
+		StringBuffer sb = new StringBuffer ();
+		sb.append ( "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n" );
+		for ( int i = 0; i < 500; i++ ) {
+			if ( i % 50 == 0 ) {
+				// Unrecognized data outside of a component
+				sb.append ( "X-UNKNOWN:" + i + "\r\n" );
+				sb.append ( "BEGIN:VJOURNAL\r\nUID:journal" + i
+				    + "@k5n.us\r\nSUMMARY:Journal\r\nDTSTAMP:20070501\r\n"
+				    + "END:VJOURNAL\r\n" );
+			}
+			sb.append ( "BEGIN:VEVENT\r\nUID:event" + i + "@k5n.us\r\n" );
+			sb.append ( "SUMMARY:Event number " + i + "\r\n" );
+			// Every 100th event has a bad date
+			sb.append ( "DTSTART:2007" + ( i % 100 == 50 ? "13" : "05" ) + "01\r\n" );
+			sb.append ( "END:VEVENT\r\n" );
+		}
+		// No PRODID, which is an error at the end
+		sb.append ( "END:VCALENDAR\r\n" );
+		ical = sb.toString ();
+	}
+
+	public void testSameAsICalendarParser () {
+		try {
+			ICalendarParser parser = new ICalendarParser ( PARSE_STRICT );
+			parser.parse ( new StringReader ( ical ) );
+
+			PipelinedICalendarParser pparser = new PipelinedICalendarParser (
+			    PARSE_STRICT, 4, 8 );
+			pparser.parse ( new StringReader ( ical ) );
+
+			Vector<Event> events = parser.getDataStoreAt ( 0 ).getAllEvents ();
+			Vector<Event> pevents = pparser.getDataStoreAt ( 0 ).getAllEvents ();
+			assertEquals ( "Wrong number of events", 495, events.size () );
+			assertEquals ( "Different number of events", events.size (), pevents
+			    .size () );
+			for ( int i = 0; i < events.size (); i++ ) {
+				assertEquals ( "Events out of order", events.elementAt ( i ).getUid ()
+				    .getValue (), pevents.elementAt ( i ).getUid ().getValue () );
+			}
+			assertEquals ( "Different number of journals", parser.getDataStoreAt ( 0 )
+			    .getAllJournals ().size (), pparser.getDataStoreAt ( 0 )
+			    .getAllJournals ().size () );
+			assertNotNull ( "No VERSION", pparser.icalVersion );
+
+			Vector<ParseError> errors = parser.getAllErrors ();
+			Vector<ParseError> perrors = pparser.getAllErrors ();
+			assertEquals ( "Wrong number of errors", 16, errors.size () );
+			assertEquals ( "Different number of errors", errors.size (), perrors
+			    .size () );
+			for ( int i = 0; i < errors.size (); i++ ) {
+				assertEquals ( "Errors out of order", errors.elementAt ( i ).lineNo,
+				    perrors.elementAt ( i ).lineNo );
+				assertEquals ( "Errors out of order", errors.elementAt ( i ).error,
+				    perrors.elementAt ( i ).error );
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testReadComponent () {
+		try {
+			PipelinedICalendarParser parser = new PipelinedICalendarParser (
+			    PARSE_LOOSE, 2, 1 );
+			PipelinedICalendarParser.ComponentReader r = parser
+			    .open ( new StringReader ( ical ) );
+			Object o = r.readComponent ();
+			assertTrue ( "First component not a Journal", o instanceof Journal );
+			o = r.readComponent ();
+			assertTrue ( "Second component not an Event", o instanceof Event );
+			assertEquals ( "event0@k5n.us", ( (Event) o ).getUid ().getValue () );
+			// Stop early
+			r.close ();
+			assertNull ( "Component after close", r.readComponent () );
+			assertEquals ( "Objects sent to DataStore", 0, parser.getDataStoreAt ( 0 )
+			    .getAllEvents ().size () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	/** A StringReader that remembers being closed */
+	static class CloseReader extends StringReader {
+		volatile boolean closed = false;
+
+		CloseReader(String s) {
+			super ( s );
+		}
+
+		public void close () {
+			closed = true;
+			super.close ();
+		}
+	}
+
+	public void testCloseReader () {
+		try {
+			PipelinedICalendarParser parser = new PipelinedICalendarParser (
+			    PARSE_LOOSE, 2, 1 );
+			CloseReader reader = new CloseReader ( ical );
+			PipelinedICalendarParser.ComponentReader r = parser.open ( reader );
+			assertNotNull ( "No component", r.readComponent () );
+			r.close ();
+			// The reader thread closes it when its current read returns
+			for ( int i = 0; i < 100 && !reader.closed; i++ )
+				Thread.sleep ( 50 );
+			assertTrue ( "Reader not closed", reader.closed );
+
+			// As with ICalendarParser, the Reader is closed at the end of the data
+			reader = new CloseReader ( ical );
+			parser.parse ( reader );
+			assertTrue ( "Reader not closed by parse", reader.closed );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( PipelinedICalendarParserTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( PipelinedICalendarParserTest.class );
+	}
+
+}
@@ -0,0 +1,65 @@
+package us.k5n.ical;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for PropertyNames.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class PropertyNamesTest extends TestCase implements Constants {
+
+	public void setUp () {
+	}
+
+	public void testLookup () {
+		for ( int id = PropertyNames.BEGIN; id < PropertyNames.NAMES.length; id++ ) {
+			String name = PropertyNames.NAMES[id];
+			assertEquals ( "Wrong id for " + name, id, PropertyNames.lookup ( name
+			    + ":x" ) );
+			assertEquals ( "Wrong id for lowercase " + name, id, PropertyNames
+			    .lookup ( name.toLowerCase () + ";X=1:x" ) );
+			char[] buf = ( "  " + name.toLowerCase () ).toCharArray ();
+			assertSame ( "Wrong name", name, PropertyNames.lookup ( buf, 2,
+			    buf.length ) );
+		}
+		assertEquals ( "Wrong id", PropertyNames.ATTENDEE, PropertyNames
+		    .lookup ( "Attendee;ROLE=CHAIR:MAILTO:joe@foo.com" ) );
+		assertEquals ( "Wrong id", PropertyNames.DTSTAMP, PropertyNames
+		    .lookup ( "DTSTAMP" ) );
+	}
+
+	public void testUnknown () {
+		assertEquals ( "Prefix matched", PropertyNames.UNKNOWN, PropertyNames
+		    .lookup ( "DTSTARTX:20070101" ) );
+		assertEquals ( "Prefix matched", PropertyNames.UNKNOWN, PropertyNames
+		    .lookup ( "DT:20070101" ) );
+		assertEquals ( "X- name matched", PropertyNames.UNKNOWN, PropertyNames
+		    .lookup ( "X-WR-CALNAME:Test" ) );
+		assertEquals ( "Leading space matched", PropertyNames.UNKNOWN,
+		    PropertyNames.lookup ( " UID:1" ) );
+		char[] buf = "ATTENDEES".toCharArray ();
+		assertNull ( "Unknown name found", PropertyNames.lookup ( buf, 0,
+		    buf.length ) );
+	}
+
+	public void testBlank () {
+		assertEquals ( "Empty line", PropertyNames.BLANK, PropertyNames
+		    .lookup ( "" ) );
+		assertEquals ( "Whitespace line", PropertyNames.BLANK, PropertyNames
+		    .lookup ( " \t " ) );
+		assertEquals ( "Not blank", PropertyNames.UNKNOWN, PropertyNames
+		    .lookup ( "  :x" ) );
+	}
+
+	public static Test suite () {
+		return new TestSuite ( PropertyNamesTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( PropertyNamesTest.class );
+	}
+
+}
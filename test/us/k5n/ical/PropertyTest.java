@@ -0,0 +1,92 @@
+package us.k5n.ical;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for Property.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class PropertyTest extends TestCase implements Constants {
+
+	public void setUp () {
+	}
+
+	public void testQuotedAttributes () {
+		String str = "attendee;X=\"1;2\";Y=4;role=req-participant:MAILTO:joe@foo.com";
+		try {
+			Property p = new Property ( str, PARSE_STRICT );
+			assertEquals ( "Wrong name", "ATTENDEE", p.name );
+			assertEquals ( "Wrong value", "MAILTO:joe@foo.com", p.value );
+			assertEquals ( "Wrong number of attributes", 3, p.attributeList.size () );
+			assertEquals ( "Wrong X", "1;2", p.getNamedAttribute ( "X" ).value );
+			assertEquals ( "Wrong Y", "4", p.getNamedAttribute ( "Y" ).value );
+			assertEquals ( "Wrong ROLE", "req-participant", p.getNamedAttribute (
+			    "ROLE" ).value );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testFolded () {
+		String str = "DESCRIPTION;LANGUAGE=EN:This is a\r\n  folded line\\nwith a newline";
+		try {
+			Property p = new Property ( str, PARSE_STRICT );
+			assertEquals ( "Wrong name", "DESCRIPTION", p.name );
+			assertEquals ( "Wrong value", "This is a folded line" + CRLF
+			    + "with a newline", p.value );
+			assertEquals ( "Wrong LANGUAGE", "EN",
+			    p.getNamedAttribute ( "LANGUAGE" ).value );
+			assertEquals ( "Wrong unfold", StringUtils.unfoldLine ( str ), p.name
+			    + ";LANGUAGE=EN:" + p.value );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testDuplicateAttribute () {
+		String str = "DTSTART;TZID=A;VALUE=DATE;TZID=B:20070101";
+		try {
+			Property p = new Property ( str );
+			assertEquals ( "Wrong number of attributes", 2, p.attributeList.size () );
+			assertEquals ( "Wrong TZID", "B", p.getNamedAttribute ( "TZID" ).value );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testErrors () {
+		try {
+			new Property ( "SUMMARY no colon", PARSE_LOOSE );
+			fail ( "No exception for missing ':'" );
+		} catch ( ParseException e ) {
+			// expected
+		}
+		try {
+			new Property ( "ATTENDEE;MEMBER=a,b:x", PARSE_STRICT );
+			fail ( "No exception for unquoted comma" );
+		} catch ( ParseException e ) {
+			// expected
+		}
+		try {
+			Property p = new Property ( "ATTENDEE;MEMBER=a,b:x", PARSE_LOOSE );
+			assertEquals ( "Wrong MEMBER", "a,b", p.getNamedAttribute ( "MEMBER" ).value );
+		} catch ( ParseException e ) {
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( PropertyTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( PropertyTest.class );
+	}
+
+}
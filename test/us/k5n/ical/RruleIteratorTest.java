@@ -0,0 +1,250 @@
+package us.k5n.ical;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.DateTimeValue;
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.RRule;
+
+/**
+ * Test cases for RruleIterator. Most rules are compared against the Google
+ * RFC2445 package.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class RruleIteratorTest extends TestCase implements Constants {
+	static final String[] FREQS = { "YEARLY", "MONTHLY", "WEEKLY", "DAILY" };
+	static final String[] WEEKDAYS = { "SU", "MO", "TU", "WE", "TH", "FR", "SA" };
+	static final int[] MONTHDAYS = { 1, 2, 15, 28, 29, 30, 31, -1, -2, -10 };
+	static final int[] YEARDAYS = { 1, 60, 100, 200, 365, 366, -1, -100 };
+
+	public void setUp () {
+	}
+
+	/**
+	 * Get the dates from an RruleIterator as YYYYMMDD or YYYYMMDDTHHMMSS.
+	 */
+	private String expand ( String rule, Date start, int max ) throws Exception {
+		Rrule rrule = new Rrule ( "RRULE:" + rule, PARSE_LOOSE );
+		RruleIterator iter = rrule.iterator ( start );
+		StringBuffer sb = new StringBuffer ();
+		for ( int i = 0; i < max && iter.hasNext (); i++ ) {
+			Date d = CompactDate.fromLong ( iter.next () ).toDate ( "DTSTART" );
+			if ( d.getYear () > 2100 )
+				break;
+			d.toICalendar ();
+			sb.append ( d.getValue ().replace ( "Z", "" ) );
+			sb.append ( ' ' );
+		}
+		return sb.toString ();
+	}
+
+	/**
+	 * Get the dates from the Google RFC2445 package.
+	 */
+	private String expandGoogle ( String rule, Date start, int max )
+	    throws Exception {
+		RRule rrule = new RRule ( "RRULE:" + rule );
+		DateValue dtStart;
+		if ( start.isDateOnly () )
+			dtStart = new DateValueImpl ( start.getYear (), start.getMonth (), start
+			    .getDay () );
+		else
+			dtStart = new DateTimeValueImpl ( start.getYear (), start.getMonth (),
+			    start.getDay (), start.getHour (), start.getMinute (), start
+			        .getSecond () );
+		RecurrenceIterator iter = RecurrenceIteratorFactory
+		    .createRecurrenceIterator ( rrule, dtStart, TimeZone
+		        .getTimeZone ( "UTC" ) );
+		StringBuffer sb = new StringBuffer ();
+		for ( int i = 0; i < max && iter.hasNext (); i++ ) {
+			DateValue d = iter.next ();
+			if ( d.year () > 2100 )
+				break;
+			sb.append ( d.year () );
+			sb.append ( d.month () < 10 ? "0" : "" ).append ( d.month () );
+			sb.append ( d.day () < 10 ? "0" : "" ).append ( d.day () );
+			if ( d instanceof DateTimeValue ) {
+				DateTimeValue dt = (DateTimeValue) d;
+				sb.append ( 'T' );
+				sb.append ( dt.hour () < 10 ? "0" : "" ).append ( dt.hour () );
+				sb.append ( dt.minute () < 10 ? "0" : "" ).append ( dt.minute () );
+				sb.append ( dt.second () < 10 ? "0" : "" ).append ( dt.second () );
+			}
+			sb.append ( ' ' );
+		}
+		return sb.toString ();
+	}
+
+	private String randomList ( Random r, int[] values ) {
+		StringBuffer sb = new StringBuffer ();
+		int n = 1 + r.nextInt ( 3 );
+		for ( int i = 0; i < n; i++ ) {
+			if ( i > 0 )
+				sb.append ( ',' );
+			sb.append ( values[r.nextInt ( values.length )] );
+		}
+		return sb.toString ();
+	}
+
+	public void testSameAsGoogle () {
+		Random r = new Random ( 12345 );
+		for ( int t = 0; t < 2000; t++ ) {
+			String freq = FREQS[r.nextInt ( FREQS.length )];
+			StringBuffer rule = new StringBuffer ( "FREQ=" + freq );
+			// Google ignores INTERVAL for MONTHLY and DAILY when BY* rules are
+			// used
+			if ( r.nextInt ( 3 ) == 0
+			    && ( freq.equals ( "YEARLY" ) || freq.equals ( "WEEKLY" ) ) )
+				rule.append ( ";INTERVAL=" + ( 2 + r.nextInt ( 3 ) ) );
+			if ( r.nextInt ( 3 ) == 0 )
+				rule.append ( ";COUNT=" + ( 1 + r.nextInt ( 30 ) ) );
+			else if ( r.nextInt ( 3 ) == 0 )
+				rule.append ( ";UNTIL=20" + ( 10 + r.nextInt ( 10 ) ) + "0615" );
+			if ( r.nextInt ( 3 ) == 0 ) {
+				rule.append ( ";BYMONTH=" );
+				rule.append ( randomList ( r, new int[] { 1, 2, 3, 6, 9, 12 } ) );
+			}
+			boolean days = true;
+			if ( r.nextInt ( 4 ) == 0 )
+				rule.append ( ";BYMONTHDAY=" + randomList ( r, MONTHDAYS ) );
+			else if ( freq.equals ( "YEARLY" ) && r.nextInt ( 4 ) == 0 )
+				rule.append ( ";BYYEARDAY=" + randomList ( r, YEARDAYS ) );
+			else
+				days = false;
+			if ( r.nextInt ( 2 ) == 0 ) {
+				rule.append ( ";BYDAY=" );
+				int n = 1 + r.nextInt ( 3 );
+				// Google counts numbered weekdays within the year when
+				// BYMONTHDAY or BYYEARDAY is used
+				boolean nth = ( freq.equals ( "YEARLY" ) || freq.equals ( "MONTHLY" ) )
+				    && !days && r.nextInt ( 2 ) == 0;
+				for ( int i = 0; i < n; i++ ) {
+					if ( i > 0 )
+						rule.append ( ',' );
+					if ( nth )
+						rule.append ( ( r.nextBoolean () ? "" : "-" )
+						    + ( 1 + r.nextInt ( 4 ) ) );
+					rule.append ( WEEKDAYS[r.nextInt ( 7 )] );
+				}
+			}
+			try {
+				int year = 1995 + r.nextInt ( 15 );
+				int month = 1 + r.nextInt ( 12 );
+				int day = 1 + r.nextInt ( 28 );
+				Date start;
+				if ( r.nextBoolean () )
+					start = new Date ( "DTSTART", year, month, day );
+				else
+					start = new Date ( "DTSTART", year, month, day, r.nextInt ( 24 ),
+					    r.nextInt ( 60 ), 0 );
+				start.toICalendar ();
+				String expected = expandGoogle ( rule.toString (), start, 40 );
+				String actual = expand ( rule.toString (), start, 40 );
+				assertEquals ( "Different dates for " + rule + " from "
+				    + start.getValue (), expected, actual );
+			} catch ( Exception e ) {
+				e.printStackTrace ();
+				fail ( "Failed: " + e.toString () );
+			}
+		}
+	}
+
+	public void testAdvanceTo () {
+		String[] rules = { "FREQ=DAILY", "FREQ=DAILY;INTERVAL=3",
+		    "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,FR",
+		    "FREQ=MONTHLY;INTERVAL=5;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+		    "FREQ=YEARLY;INTERVAL=3;BYMONTH=2;BYMONTHDAY=29",
+		    "FREQ=HOURLY;INTERVAL=7", "FREQ=MINUTELY;INTERVAL=45;BYHOUR=9",
+		    "FREQ=DAILY;COUNT=5000" };
+		try {
+			Date start = new Date ( "DTSTART", 1995, 3, 15, 9, 30, 0 );
+			Date windowStart = new Date ( "DTSTART", 2007, 5, 1, 0, 0, 0 );
+			for ( int i = 0; i < rules.length; i++ ) {
+				Rrule rrule = new Rrule ( "RRULE:" + rules[i], PARSE_STRICT );
+				// Skip dates one at a time
+				RruleIterator iter = rrule.iterator ( start );
+				long first = 0;
+				while ( iter.hasNext () ) {
+					first = iter.next ();
+					if ( CompactDate.fromLong ( first ).toDate ( "DTSTART" ).compareTo (
+					    windowStart ) >= 0 )
+						break;
+				}
+				iter = rrule.iterator ( start );
+				iter.advanceTo ( windowStart );
+				assertTrue ( "No dates for " + rules[i], iter.hasNext () );
+				assertEquals ( "Wrong date for " + rules[i], CompactDate.fromLong (
+				    first ), CompactDate.fromLong ( iter.next () ) );
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	// Examples from RFC 2445
+	public void testRfcExamples () {
+		try {
+			Date start = new Date ( "DTSTART", 1997, 9, 4, 9, 0, 0 );
+			// The 3rd instance into the month of one of Tuesday, Wednesday or
+			// Thursday
+			assertEquals ( "19970904T090000 19971007T090000 19971106T090000 ",
+			    expand ( "FREQ=MONTHLY;COUNT=3;BYDAY=TU,WE,TH;BYSETPOS=3", start, 10 ) );
+			// The 2nd to last weekday of the month
+			start = new Date ( "DTSTART", 1997, 9, 29, 9, 0, 0 );
+			assertEquals ( "19970929T090000 19971030T090000 19971127T090000 ",
+			    expand ( "FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-2", start, 3 ) );
+			// Every other week on Tuesday and Thursday (first week is full)
+			start = new Date ( "DTSTART", 1997, 9, 4, 9, 0, 0 );
+			assertEquals ( "19970904T090000 19970916T090000 19970918T090000 ",
+			    expand ( "FREQ=WEEKLY;INTERVAL=2;BYDAY=TU,TH", start, 3 ) );
+			// Every other day, but only on the 1st of the month
+			start = new Date ( "DTSTART", 2007, 1, 1 );
+			assertEquals ( "20070101 20070401 20070501 20070801 ", expand (
+			    "FREQ=DAILY;INTERVAL=2;BYMONTHDAY=1", start, 4 ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testHourly () {
+		try {
+			Date start = new Date ( "DTSTART", 1997, 9, 2, 9, 0, 0 );
+			assertEquals ( "19970902T090000 19970902T120000 19970902T150000 ",
+			    expand ( "FREQ=HOURLY;INTERVAL=3;UNTIL=19970902T170000", start, 10 ) );
+			assertEquals ( "19970902T090000 19970902T091500 19970902T093000 "
+			    + "19970902T094500 19970902T100000 19970902T101500 ", expand (
+			    "FREQ=MINUTELY;INTERVAL=15;COUNT=6", start, 10 ) );
+			assertEquals ( "19970902T090000 19970902T092000 19970902T094000 "
+			    + "19970902T160000 19970902T162000 ", expand (
+			    "FREQ=MINUTELY;INTERVAL=20;BYHOUR=9,16;COUNT=5", start, 10 ) );
+			assertEquals ( "19970902T090000 19970902T094000 19970902T102000 ", expand (
+			    "FREQ=DAILY;BYHOUR=9,10;BYMINUTE=0,20,40;BYSETPOS=1,3,5", start, 3 ) );
+			assertEquals ( "19970903T000000 19970903T000001 ", expand (
+			    "FREQ=SECONDLY;BYHOUR=0;COUNT=2", start, 10 ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( RruleIteratorTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( RruleIteratorTest.class );
+	}
+
+}
@@ -1,5 +1,6 @@
 package us.k5n.ical;
 
+import java.util.Random;
 import java.util.TimeZone;
 import java.util.Vector;
 
@@ -527,6 +528,236 @@ public class RruleTest extends TestCase implements Constants {
 		}
 	}
 
+	public void testExdateRdateMerge () {
+		String[] results = { "20070101T080000", "20070102T090000",
+		    "20070104T090000", "20070104T120000", "20070106T090000",
+		    "20070201T090000" };
+		try {
+			Date dtStart = new Date ( "DTSTART", 2007, 1, 1, 9, 0, 0 );
+			Rrule rrule = new Rrule ( "RRULE:FREQ=DAILY;COUNT=6", PARSE_STRICT );
+			Vector<Date> exdates = new Vector<Date> ();
+			exdates.addElement ( new Date ( "EXDATE", 2007, 1, 5, 9, 0, 0 ) );
+			exdates.addElement ( new Date ( "EXDATE", 2007, 1, 3, 9, 0, 0 ) );
+			// Date-only does not match a date-time
+			exdates.addElement ( new Date ( "EXDATE", 2007, 1, 4 ) );
+			Vector<Date> rdates = new Vector<Date> ();
+			rdates.addElement ( new Date ( "RDATE", 2007, 2, 1, 9, 0, 0 ) );
+			rdates.addElement ( new Date ( "RDATE", 2007, 1, 4, 12, 0, 0 ) );
+			// Already in the recurrence
+			rdates.addElement ( new Date ( "RDATE", 2007, 1, 2, 9, 0, 0 ) );
+			rdates.addElement ( new Date ( "RDATE", 2007, 1, 1, 8, 0, 0 ) );
+			rdates.addElement ( new Date ( "RDATE", 2007, 1, 4, 12, 0, 0 ) );
+			Vector<Date> dates = rrule.generateRecurrances ( dtStart, dtStart.tzid,
+			    exdates, rdates );
+			assertEquals ( "Wrong number of dates", results.length, dates.size () );
+			for ( int i = 0; i < results.length; i++ ) {
+				Date d = dates.elementAt ( i );
+				d.toICalendar ();
+				assertTrue ( "Unexpected date#" + i + ", got " + d.getValue ()
+				    + " instead of " + results[i], d.getValue ().startsWith (
+				    results[i] ) );
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	/**
+	 * Create a random RRULE that can be handled by ClosedFormRrule.
+	 */
+	private static String simpleRule ( Random r ) {
+		String[] freqs = { "DAILY", "WEEKLY", "MONTHLY", "YEARLY" };
+		String[] days = { "SU", "MO", "TU", "WE", "TH", "FR", "SA" };
+		int freq = r.nextInt ( freqs.length );
+		StringBuffer sb = new StringBuffer ( "RRULE:FREQ=" + freqs[freq] );
+		if ( r.nextBoolean () )
+			sb.append ( ";INTERVAL=" + ( 1 + r.nextInt ( 4 ) ) );
+		if ( r.nextInt ( 3 ) == 0 )
+			sb.append ( ";COUNT=" + ( 1 + r.nextInt ( 50 ) ) );
+		else if ( r.nextInt ( 3 ) == 0 )
+			sb.append ( ";UNTIL=20" + ( 10 + r.nextInt ( 10 ) ) + "0615T120000Z" );
+		if ( freq == 1 && r.nextBoolean () ) {
+			sb.append ( ";BYDAY=" + days[r.nextInt ( 7 )] );
+			for ( int i = r.nextInt ( 3 ); i > 0; i-- )
+				sb.append ( "," + days[r.nextInt ( 7 )] );
+		}
+		if ( freq >= 2 && r.nextBoolean () ) {
+			sb.append ( ";BYMONTHDAY=" + ( 1 + r.nextInt ( 28 ) ) );
+			for ( int i = r.nextInt ( 3 ); i > 0; i-- )
+				sb.append ( "," + ( 1 + r.nextInt ( 28 ) ) );
+		}
+		if ( freq == 3 && r.nextBoolean () )
+			sb.append ( ";BYMONTH=" + ( 1 + r.nextInt ( 12 ) ) + ","
+			    + ( 1 + r.nextInt ( 12 ) ) );
+		return sb.toString ();
+	}
+
+	public void testClosedForm () {
+		String[] tzids = { null, "America/New_York", "Europe/London" };
+		Random r = new Random ( 2007 );
+		try {
+			for ( int t = 0; t < 300; t++ ) {
+				String str = simpleRule ( r );
+				Rrule rrule = new Rrule ( str, PARSE_LOOSE );
+				String tzid = tzids[r.nextInt ( tzids.length )];
+				String value = "2007" + ( 10 + r.nextInt ( 3 ) )
+				    + ( 10 + r.nextInt ( 18 ) );
+				if ( r.nextInt ( 4 ) > 0 )
+					value += "T" + ( 10 + r.nextInt ( 14 ) ) + "3000";
+				Date startDate = new Date ( "DTSTART"
+				    + ( tzid != null && value.length () > 8 ? ";TZID=" + tzid : "" )
+				    + ":" + value );
+				String msg = str + " from " + startDate.toICalendar ();
+				assertNotNull ( "Not closed form: " + msg, ClosedFormRrule.create (
+				    rrule, startDate ) );
+
+				// Compare with every date from the iterator
+				RruleIterator iter = new RruleIterator ( rrule, startDate );
+				Vector<Long> dates = new Vector<Long> ();
+				while ( iter.hasNext () && dates.size () < 200 )
+					dates.addElement ( new Long ( iter.nextLocal () ) );
+				boolean all = !iter.hasNext ();
+				for ( int i = 0; i < dates.size (); i++ ) {
+					Date d = rrule.occurrenceAt ( startDate, i );
+					assertNotNull ( "No date #" + i + " for " + msg, d );
+					long local = dates.elementAt ( i ).longValue ();
+					assertEquals ( "Wrong date #" + i + " for " + msg, local,
+					    RruleIterator.toLocalSeconds ( d ) );
+					assertTrue ( "Not an occurrence: " + d + " for " + msg, rrule
+					    .isOccurrence ( startDate, d ) );
+					if ( !startDate.isDateOnly () )
+						assertFalse ( "Wrong occurrence for " + msg, rrule.isOccurrence (
+						    startDate, Rrule.toDate ( local + 60, false ) ) );
+				}
+				if ( all )
+					assertNull ( "Too many dates for " + msg, rrule.occurrenceAt (
+					    startDate, dates.size () ) );
+				for ( int i = 0; i < 10 && dates.size () > 0; i++ ) {
+					int a = r.nextInt ( dates.size () ), b = r.nextInt ( dates.size () );
+					long from = Math.min ( dates.elementAt ( a ).longValue (), dates
+					    .elementAt ( b ).longValue () ) - r.nextInt ( 2 );
+					long to = Math.max ( dates.elementAt ( a ).longValue (), dates
+					    .elementAt ( b ).longValue () ) + r.nextInt ( 2 );
+					int expected = 0;
+					for ( int j = 0; j < dates.size (); j++ ) {
+						long d = dates.elementAt ( j ).longValue ();
+						if ( d >= from && d < to )
+							expected++;
+					}
+					assertEquals ( "Wrong count for " + msg, expected, rrule
+					    .countBetween ( startDate, Rrule.toDate ( from, false ), Rrule
+					        .toDate ( to, false ) ) );
+				}
+			}
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testClosedFormFallback () {
+		try {
+			// Too complex for a closed form
+			Rrule rrule = new Rrule ( "RRULE:FREQ=MONTHLY;BYDAY=2MO", PARSE_STRICT );
+			Date startDate = new Date ( "DTSTART:20071008T090000" );
+			assertNull ( ClosedFormRrule.create ( rrule, startDate ) );
+			assertEquals ( "20080114T090000", rrule.occurrenceAt ( startDate, 3 )
+			    .getValue () );
+			assertTrue ( rrule.isOccurrence ( startDate, new Date (
+			    "DTSTART:20080114T090000" ) ) );
+			assertEquals ( 12, rrule.countBetween ( startDate, new Date (
+			    "DTSTART:20080101" ), new Date ( "DTSTART:20090101" ) ) );
+
+			// Forever
+			rrule = new Rrule ( "RRULE:FREQ=DAILY", PARSE_STRICT );
+			assertEquals ( 365, rrule.countBetween ( startDate, new Date (
+			    "DTSTART:50000101T000000" ), new Date ( "DTSTART:50010101T000000" ) ) );
+			assertEquals ( "50000101T090000", rrule.occurrenceAt ( startDate,
+			    (int) rrule.countBetween ( startDate, startDate, new Date (
+			        "DTSTART:50000101T000000" ) ) ).getValue () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testCompiledCache () {
+		try {
+			Rrule rrule = new Rrule ( "RRULE:FREQ=DAILY;COUNT=10", PARSE_STRICT );
+			Date startDate = new Date ( "DTSTART:20071008T090000" );
+			Rrule.Compiled compiled = rrule.getCompiled ( startDate );
+			assertNotNull ( "Not closed form", compiled.closedForm );
+			assertSame ( "Not kept", compiled, rrule.getCompiled ( startDate ) );
+			assertEquals ( 10, rrule.countBetween ( startDate, startDate, new Date (
+			    "DTSTART:20080101" ) ) );
+			assertSame ( "Not kept", compiled, rrule.getCompiled ( startDate ) );
+
+			// Changes to the RRULE or start date are noticed
+			rrule.count = 5;
+			assertEquals ( "COUNT change not used", 5, rrule.countBetween (
+			    startDate, startDate, new Date ( "DTSTART:20080101" ) ) );
+			compiled = rrule.getCompiled ( startDate );
+			startDate.setDay ( 9 );
+			assertNotSame ( "Start date change not noticed", compiled, rrule
+			    .getCompiled ( startDate ) );
+			assertEquals ( "20071009T090000", rrule.occurrenceAt ( startDate, 0 )
+			    .getValue () );
+			rrule.byday = new RruleByday[] { new RruleByday ( "2MO" ) };
+			assertNull ( "BYDAY change not noticed", rrule.getCompiled ( startDate )
+			    .closedForm );
+			compiled = rrule.getCompiled ( startDate );
+			rrule.markChanged ();
+			assertNotSame ( "Not compiled again", compiled, rrule
+			    .getCompiled ( startDate ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testRecurrencePlan () {
+		try {
+			Rrule r1 = new Rrule ( "RRULE:FREQ=WEEKLY;BYDAY=MO,WE;COUNT=5",
+			    PARSE_STRICT );
+			Rrule r2 = new Rrule ( "RRULE:FREQ=WEEKLY;BYDAY=MO,WE;UNTIL=20080101",
+			    PARSE_STRICT );
+			Date d1 = new Date ( "DTSTART:20071001T100000" );
+			Date d2 = new Date ( "DTSTART:20071105T100000" );
+			// Same settings and time of day: one plan
+			RecurrencePlan p1 = RecurrencePlan.getPlan ( r1, d1 );
+			assertSame ( "Plan not shared", p1, RecurrencePlan.getPlan ( r2, d2 ) );
+			// A different time of day is part of the plan
+			assertNotSame ( "Plan shared", p1, RecurrencePlan.getPlan ( r1,
+			    new Date ( "DTSTART:20071001T110000" ) ) );
+			// The day of DTSTART is only used without BYDAY
+			Rrule yearly = new Rrule ( "RRULE:FREQ=YEARLY", PARSE_STRICT );
+			RecurrencePlan p2 = RecurrencePlan.getPlan ( yearly, new Date (
+			    "DTSTART:20070704" ) );
+			assertNotSame ( "Plan shared", p2, RecurrencePlan.getPlan ( yearly,
+			    new Date ( "DTSTART:20071225" ) ) );
+			assertSame ( "Plan not shared", p2, RecurrencePlan.getPlan ( yearly,
+			    new Date ( "DTSTART:19990704" ) ) );
+
+			// Sharing a plan does not share COUNT or UNTIL
+			Vector<Date> dates = r1.generateRecurrances ( d1, null );
+			assertEquals ( "Wrong number of dates", 4, dates.size () );
+			dates = r2.generateRecurrances ( d2, null );
+			assertEquals ( "Wrong number of dates", 16, dates.size () );
+			assertTrue ( RecurrencePlan.getPlanCount () > 0 );
+
+			// The plan is kept by the Rrule for its iterators
+			Rrule.Compiled compiled = r1.getCompiled ( d1 );
+			assertSame ( "Plan not kept", p1, compiled.plan );
+			r1.iterator ( d1 ).hasNext ();
+			r1.iterator ( d1 ).hasNext ();
+			assertSame ( "Compiled again", compiled, r1.getCompiled ( d1 ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
 	public static Test suite () {
 		return new TestSuite ( RruleTest.class );
 	}
@@ -0,0 +1,111 @@
+package us.k5n.ical;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Test cases for TimezoneCache. Conversions are compared against Joda Time.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class TimezoneCacheTest extends TestCase implements Constants {
+	static final String[] TZIDS = { "America/New_York", "Europe/London",
+	    "Australia/Sydney", "Asia/Calcutta", "UTC" };
+
+	public void setUp () {
+	}
+
+	public void testCivil () {
+		for ( long days = -800000; days < 800000; days += 7 ) {
+			int ymd = TimezoneCache.civilFromDays ( days );
+			assertEquals ( "Round trip failed for " + days, days, TimezoneCache
+			    .daysFromCivil ( ymd >> 9, ( ymd >> 5 ) & 0xf, ymd & 0x1f ) );
+		}
+		assertEquals ( 0, TimezoneCache.daysFromCivil ( 1970, 1, 1 ) );
+		assertEquals ( TimezoneCache.TABLE_START, TimezoneCache.toMillis ( 1900, 1,
+		    1, 0, 0, 0 ) );
+	}
+
+	public void testInvalid () {
+		assertNull ( "Bogus timezone found", TimezoneCache
+		    .forID ( "Bogus/Timezone" ) );
+		assertNull ( "Bogus timezone found", TimezoneCache
+		    .forID ( "Bogus/Timezone" ) );
+		assertSame ( "Zone not cached", TimezoneCache.forID ( "Europe/London" ),
+		    TimezoneCache.forID ( "Europe/London" ) );
+	}
+
+	public void testSameAsJoda () {
+		for ( int t = 0; t < TZIDS.length; t++ ) {
+			DateTimeZone tz = DateTimeZone.forID ( TZIDS[t] );
+			TimezoneCache.Zone zone = TimezoneCache.forID ( TZIDS[t] );
+			assertNotNull ( "No zone for " + TZIDS[t], zone );
+			// Every 97 minutes from 1950 through 2040
+			long start = TimezoneCache.toMillis ( 1950, 1, 1, 0, 0, 0 );
+			long end = TimezoneCache.toMillis ( 2040, 1, 1, 0, 0, 0 );
+			for ( long m = start; m < end; m += 97 * 60 * 1000L ) {
+				assertEquals ( "Wrong offset in " + TZIDS[t] + " at " + m, tz
+				    .getOffset ( m ), zone.getOffset ( m ) );
+				assertEquals ( "Wrong local offset in " + TZIDS[t] + " at " + m, tz
+				    .getOffsetFromLocal ( m ), zone.getOffsetFromLocal ( m ) );
+			}
+		}
+	}
+
+	public void testDateConversion () {
+		DateTimeZone tz = DateTimeZone.forID ( "America/New_York" );
+		DateTimeZone oldDefault = DateTimeZone.getDefault ();
+		DateTimeZone local = DateTimeZone.forID ( "America/Los_Angeles" );
+		DateTimeZone.setDefault ( local );
+		try {
+			// Hours around the DST changes in 2007
+			String[] dates = { "20070311", "20071104", "20070701" };
+			for ( int i = 0; i < dates.length; i++ ) {
+				for ( int h = 0; h < 24; h++ ) {
+					String time = dates[i] + "T" + ( h < 10 ? "0" : "" ) + h + "3000";
+					DateTime expected;
+					try {
+						expected = new DateTime ( Integer.parseInt ( dates[i].substring (
+						    0, 4 ) ), Integer.parseInt ( dates[i].substring ( 4, 6 ) ),
+						    Integer.parseInt ( dates[i].substring ( 6, 8 ) ), h, 30, 0, 0,
+						    tz ).withZone ( local );
+					} catch ( IllegalArgumentException e ) {
+						// Time does not exist (DST gap)
+						continue;
+					}
+					Date d = new Date ( "DTSTART;TZID=America/New_York:" + time,
+					    PARSE_STRICT );
+					assertEquals ( time, expected.getYear (), d.getYear () );
+					assertEquals ( time, expected.getMonthOfYear (), d.getMonth () );
+					assertEquals ( time, expected.getDayOfMonth (), d.getDay () );
+					assertEquals ( time, expected.getHourOfDay (), d.getHour () );
+					assertEquals ( time, expected.getMinuteOfHour (), d.getMinute () );
+					assertEquals ( "Wrong TZID", local.getID (), d.tzid );
+				}
+			}
+			Date d = new Date ( "DTSTART:20070311T063000Z", PARSE_STRICT );
+			assertEquals ( "Wrong TZID", local.getID (), d.tzid );
+			assertEquals ( "Wrong hour", 22, d.getHour () );
+			assertTrue ( "Wrong UTC time", d.toICalendar ().trim ().endsWith (
+			    ":20070311T063000Z" ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		} finally {
+			DateTimeZone.setDefault ( oldDefault );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( TimezoneCacheTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( TimezoneCacheTest.class );
+	}
+
+}
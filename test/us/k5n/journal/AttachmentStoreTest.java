@@ -0,0 +1,169 @@
+package us.k5n.journal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import us.k5n.ical.Attachment;
+import us.k5n.ical.Constants;
+import us.k5n.ical.Date;
+import us.k5n.ical.Journal;
+
+/**
+ * Test cases for AttachmentStore.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class AttachmentStoreTest extends TestCase implements Constants {
+	// "Hello world" in base64
+	static final String INLINE = "ATTACH;VALUE=BINARY;ENCODING=BASE64;"
+	    + "FMTTYPE=text/plain;FILENAME=hello.txt:SGVsbG8gd29ybGQ=";
+	File dir;
+
+	public void setUp () throws IOException {
+		dir = File.createTempFile ( "repository", "" );
+		dir.delete ();
+		dir.mkdir ();
+	}
+
+	public void tearDown () {
+		delete ( dir );
+	}
+
+	private static void delete ( File f ) {
+		File[] files = f.listFiles ();
+		for ( int i = 0; files != null && i < files.length; i++ )
+			delete ( files[i] );
+		f.delete ();
+	}
+
+	private static Journal createJournal ( int day ) throws Exception {
+		Journal j = new Journal ( "Entry " + day, "", new Date ( "DTSTART", 2009,
+		    1, day ) );
+		Vector<Attachment> attachments = new Vector<Attachment> ();
+		attachments.addElement ( new Attachment ( INLINE ) );
+		j.setAttachments ( attachments );
+		return j;
+	}
+
+	public void testDeduplicate () {
+		try {
+			AttachmentStore store = new AttachmentStore ( new File ( dir,
+			    "attachments" ) );
+			Journal j1 = createJournal ( 1 );
+			Journal j2 = createJournal ( 2 );
+			j1.toICalendar ();
+			assertEquals ( "Wrong count", 1, store.storeAttachments ( j1 ) );
+			assertTrue ( "Not marked dirty", j1.isDirty () );
+			assertEquals ( "Wrong count", 1, store.storeAttachments ( j2 ) );
+
+			Attachment a1 = j1.getAttachments ().elementAt ( 0 );
+			Attachment a2 = j2.getAttachments ().elementAt ( 0 );
+			assertEquals ( "Not a URI", "URI", a1.getNamedAttribute ( "VALUE" ).value );
+			assertNull ( "Encoding not removed", a1.getNamedAttribute ( "ENCODING" ) );
+			assertEquals ( "Wrong filename", "hello.txt", a1.getFilename () );
+			assertEquals ( "Wrong format type", "text/plain", a1.getFormatType () );
+			assertTrue ( "Wrong URI: " + a1.getValue (), a1.getValue ().startsWith (
+			    AttachmentStore.URI_PREFIX ) );
+			assertEquals ( "Different URIs", a1.getValue (), a2.getValue () );
+
+			// One file with the data
+			File[] files = store.getDirectory ().listFiles ();
+			assertEquals ( "Wrong number of files", 1, files.length );
+			assertEquals ( "Wrong file", files[0], store.getFile ( a1 ) );
+			assertEquals ( "Wrong file size", 11, files[0].length () );
+
+			// Nothing left to store
+			assertEquals ( "Stored again", 0, store.storeAttachments ( j1 ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public void testGetFile () {
+		try {
+			AttachmentStore store = new AttachmentStore ( dir );
+			Journal j = createJournal ( 1 );
+			store.storeAttachments ( j );
+			String uri = j.getAttachments ().elementAt ( 0 ).getValue ();
+			assertNotNull ( "Stored file not found", store.getFile ( uri ( uri ) ) );
+			assertNull ( "Missing file found", store.getFile ( uri (
+			    AttachmentStore.URI_PREFIX + "0123456789012345678901234567890123456789" ) ) );
+			assertNull ( "Short hash allowed", store.getFile ( uri ( uri.substring ( 0,
+			    uri.length () - 1 ) ) ) );
+			assertNull ( "Non-hex hash allowed", store.getFile ( uri (
+			    AttachmentStore.URI_PREFIX + "../../../../../../../../../../etc/passwd" ) ) );
+			assertNull ( "Path allowed", store.getFile ( uri ( AttachmentStore.URI_PREFIX
+			    + "../" + uri.substring ( uri.length () - 37 ) ) ) );
+			Attachment binary = new Attachment ( INLINE );
+			assertNull ( "Inline attachment found", store.getFile ( binary ) );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	private static Attachment uri ( String uri ) {
+		Attachment ret = new Attachment ();
+		ret.addAttribute ( "VALUE", "URI" );
+		ret.setValue ( uri );
+		return ret;
+	}
+
+	public void testMigrate () {
+		try {
+			File withAttachment = new File ( dir, "20090101.ics" );
+			File without = new File ( dir, "20090102.ics" );
+			FileWriter w = new FileWriter ( withAttachment );
+			w.write ( "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//FOO//BAR//EN\r\n"
+			    + createJournal ( 1 ).toICalendar () + "END:VCALENDAR\r\n" );
+			w.close ();
+			Journal j = createJournal ( 2 );
+			j.setAttachments ( null );
+			w = new FileWriter ( without );
+			w.write ( "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//FOO//BAR//EN\r\n"
+			    + j.toICalendar () + "END:VCALENDAR\r\n" );
+			w.close ();
+			long oldTime = 1000000000000L;
+			withAttachment.setLastModified ( oldTime );
+			without.setLastModified ( oldTime );
+
+			Repository repo = new Repository ( dir, false );
+			assertNull ( "Store enabled", repo.getAttachmentStore () );
+			assertEquals ( "Wrong count", 1, repo.migrateAttachments () );
+			assertNotNull ( "Store not enabled", repo.getAttachmentStore () );
+			assertTrue ( "File with attachment not written", withAttachment
+			    .lastModified () != oldTime );
+			assertEquals ( "File without attachment written", oldTime, without
+			    .lastModified () );
+
+			// Read it back
+			repo = new Repository ( dir, false );
+			repo.setAttachmentStoreEnabled ( true );
+			DataFile df = repo.findDataFile ( createJournal ( 1 ) );
+			Attachment a = df.journalEntryAt ( 0 ).getAttachments ().elementAt ( 0 );
+			assertEquals ( "Not a URI", "URI", a.getNamedAttribute ( "VALUE" ).value );
+			File f = repo.getAttachmentStore ().getFile ( a );
+			assertNotNull ( "Stored file not found", f );
+			assertEquals ( "Wrong file size", 11, f.length () );
+			assertEquals ( "Migrated again", 0, repo.migrateAttachments () );
+		} catch ( Exception e ) {
+			e.printStackTrace ();
+			fail ( "Failed: " + e.toString () );
+		}
+	}
+
+	public static Test suite () {
+		return new TestSuite ( AttachmentStoreTest.class );
+	}
+
+	public static void main ( String args[] ) {
+		junit.textui.TestRunner.run ( AttachmentStoreTest.class );
+	}
+
+}